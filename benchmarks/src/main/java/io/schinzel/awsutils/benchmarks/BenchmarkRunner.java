@@ -0,0 +1,29 @@
+package io.schinzel.awsutils.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * The purpose of this class is to run the benchmarks with the GC profiler, so that the allocations per
+ * operation are reported next to the time per operation.
+ * <p>
+ * Takes the same arguments as the JMH runner, e.g. a regex of the benchmarks to run:
+ * <pre>
+ * java -jar target/benchmarks.jar S3CacheBenchmark
+ * </pre>
+ *
+ * @author Schinzel
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
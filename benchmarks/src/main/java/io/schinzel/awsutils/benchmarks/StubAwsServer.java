@@ -0,0 +1,86 @@
+package io.schinzel.awsutils.benchmarks;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The purpose of this class is to stand in for S3 and SQS in the benchmarks that need a client, so that the
+ * benchmarks measure the code of this library and not the network.
+ * <p>
+ * Answers the requests done when clients and caches are set up: every S3 request, e.g. the check if a
+ * bucket exists, gets an empty 200 response and every SQS request gets the URL of {@link #QUEUE_NAME}. The S3 and SQS
+ * clients created after {@link #start()} send their requests to this server.
+ *
+ * @author Schinzel
+ */
+public class StubAwsServer implements AutoCloseable {
+    public static final String AWS_ACCESS_KEY = "benchmark-access-key";
+    public static final String AWS_SECRET_KEY = "benchmark-secret-key";
+    public static final String BUCKET_NAME = "benchmark-bucket";
+    public static final String QUEUE_NAME = "benchmark.fifo";
+    private final HttpServer mServer;
+    private final String mEndpoint;
+
+
+    private StubAwsServer() throws IOException {
+        InetAddress loopbackAddress = InetAddress.getLoopbackAddress();
+        mServer = HttpServer.create(new InetSocketAddress(loopbackAddress, 0), 0);
+        mServer.createContext("/", this::handle);
+        mServer.start();
+        //An IP address as endpoint makes the S3 client put the bucket name in the path
+        mEndpoint = "http://" + loopbackAddress.getHostAddress() + ":" + mServer.getAddress().getPort();
+    }
+
+
+    /**
+     * Starts a server and sets it as the endpoint of the S3 and SQS clients created from now on.
+     *
+     * @return The started server
+     */
+    public static StubAwsServer start() throws IOException {
+        StubAwsServer server = new StubAwsServer();
+        System.setProperty("aws.endpointUrlS3", server.mEndpoint);
+        System.setProperty("aws.endpointUrlSqs", server.mEndpoint);
+        return server;
+    }
+
+
+    @Override
+    public void close() {
+        mServer.stop(0);
+        System.clearProperty("aws.endpointUrlS3");
+        System.clearProperty("aws.endpointUrlSqs");
+    }
+
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (InputStream requestBody = exchange.getRequestBody()) {
+            //Read the request to the end so that the connection can be reused
+            byte[] buffer = new byte[8192];
+            while (requestBody.read(buffer) != -1) {
+                //Drop the request body
+            }
+        }
+        String target = exchange.getRequestHeaders().getFirst("X-Amz-Target");
+        //SQS requests name the operation in the target header
+        if (target == null) {
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+            return;
+        }
+        byte[] response = ("{\"QueueUrl\":\"" + mEndpoint + "/000000000000/" + QUEUE_NAME + "\"}")
+                .getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/x-amz-json-1.0");
+        exchange.sendResponseHeaders(200, response.length);
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(response);
+        }
+    }
+}
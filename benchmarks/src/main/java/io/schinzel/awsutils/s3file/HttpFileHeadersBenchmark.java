@@ -0,0 +1,42 @@
+package io.schinzel.awsutils.s3file;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the look up of the content type header of a file, which is done for each file written.
+ *
+ * @author Schinzel
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpFileHeadersBenchmark {
+    @Param({"index.html", "app.min.js", "dir/sub_dir/data.json", "photo.jpeg"})
+    public String fileName;
+
+
+    @Benchmark
+    public String getFileHeader() {
+        return HttpFileHeaders.getFileHeader(fileName);
+    }
+
+
+    @Benchmark
+    public boolean isCompressible() {
+        return HttpFileHeaders.isCompressible(fileName);
+    }
+}
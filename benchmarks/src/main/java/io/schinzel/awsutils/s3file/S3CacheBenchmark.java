@@ -0,0 +1,78 @@
+package io.schinzel.awsutils.s3file;
+
+import io.schinzel.awsutils.benchmarks.StubAwsServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import software.amazon.awssdk.regions.Region;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures cache hits in the S3 caches: the client registry of {@link TransferManagers}, {@link BucketCache}
+ * and {@link ObjectMetadataCache}.
+ *
+ * @author Schinzel
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class S3CacheBenchmark {
+    private static final long METADATA_TTL_IN_NANOS = Duration.ofMinutes(1).toNanos();
+    private StubAwsServer mServer;
+    private IS3SyncClient mS3Client;
+
+
+    @Setup
+    public void setup() throws IOException {
+        mServer = StubAwsServer.start();
+        mS3Client = TransferManagers.getInstance()
+                .getS3Clients(StubAwsServer.AWS_ACCESS_KEY, StubAwsServer.AWS_SECRET_KEY, Region.EU_WEST_1,
+                        null, null, this)
+                .getS3Client();
+        BucketCache.doesBucketExist(mS3Client, StubAwsServer.BUCKET_NAME);
+        ObjectMetadataCache.getSingleton()
+                .put(StubAwsServer.BUCKET_NAME, "dir/my_file.txt", ObjectMetadata.createNonExisting());
+    }
+
+
+    @TearDown
+    public void tearDown() {
+        TransferManagers.getInstance().shutdown();
+        mServer.close();
+    }
+
+
+    @Benchmark
+    public S3Clients getS3Clients() {
+        return TransferManagers.getInstance()
+                .getS3Clients(StubAwsServer.AWS_ACCESS_KEY, StubAwsServer.AWS_SECRET_KEY, Region.EU_WEST_1,
+                        null, null, null);
+    }
+
+
+    @Benchmark
+    public boolean doesBucketExist() {
+        return BucketCache.doesBucketExist(mS3Client, StubAwsServer.BUCKET_NAME);
+    }
+
+
+    @Benchmark
+    public ObjectMetadata getObjectMetadata() {
+        return ObjectMetadataCache.getSingleton()
+                .get(StubAwsServer.BUCKET_NAME, "dir/my_file.txt", METADATA_TTL_IN_NANOS);
+    }
+}
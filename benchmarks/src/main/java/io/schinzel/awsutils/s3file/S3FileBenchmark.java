@@ -0,0 +1,73 @@
+package io.schinzel.awsutils.s3file;
+
+import io.schinzel.awsutils.benchmarks.StubAwsServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import software.amazon.awssdk.regions.Region;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the construction of S3 files. The clients and the bucket check are set up against
+ * {@link StubAwsServer} before the measurement, so the measurements are of the cache hits that all
+ * constructions but the first are.
+ *
+ * @author Schinzel
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class S3FileBenchmark {
+    private StubAwsServer mServer;
+    private S3Bucket mBucket;
+
+
+    @Setup
+    public void setup() throws IOException {
+        mServer = StubAwsServer.start();
+        mBucket = S3Bucket.builder()
+                .awsAccessKey(StubAwsServer.AWS_ACCESS_KEY)
+                .awsSecretKey(StubAwsServer.AWS_SECRET_KEY)
+                .region(Region.EU_WEST_1)
+                .bucketName(StubAwsServer.BUCKET_NAME)
+                .build();
+    }
+
+
+    @TearDown
+    public void tearDown() {
+        TransferManagers.getInstance().shutdown();
+        mServer.close();
+    }
+
+
+    @Benchmark
+    public S3File builder() {
+        return S3File.builder()
+                .awsAccessKey(StubAwsServer.AWS_ACCESS_KEY)
+                .awsSecretKey(StubAwsServer.AWS_SECRET_KEY)
+                .region(Region.EU_WEST_1)
+                .bucketName(StubAwsServer.BUCKET_NAME)
+                .fileName("dir/my_file.txt")
+                .build();
+    }
+
+
+    @Benchmark
+    public S3File getFileFromBucket() {
+        return mBucket.getFile("dir/my_file.txt");
+    }
+}
@@ -0,0 +1,66 @@
+package io.schinzel.awsutils.sqs;
+
+import io.schinzel.awsutils.benchmarks.StubAwsServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sqs.SqsClient;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures cache hits in the SQS caches: {@link SqsClientCache} and {@link QueueUrlCache}. The client and
+ * the queue URL are set up against {@link StubAwsServer} before the measurement.
+ *
+ * @author Schinzel
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SqsCacheBenchmark {
+    private StubAwsServer mServer;
+    private SqsClient mSqsClient;
+
+
+    @Setup
+    public void setup() throws IOException {
+        mServer = StubAwsServer.start();
+        mSqsClient = SqsClientCache.getSingleton()
+                .getSqsClient(StubAwsServer.AWS_ACCESS_KEY, StubAwsServer.AWS_SECRET_KEY, Region.EU_WEST_1,
+                        null, this);
+        QueueUrlCache.getSingleton().getQueueUrl(StubAwsServer.QUEUE_NAME, mSqsClient);
+    }
+
+
+    @TearDown
+    public void tearDown() {
+        SqsClientCache.getSingleton().shutdown();
+        mServer.close();
+    }
+
+
+    @Benchmark
+    public SqsClient getSqsClient() {
+        return SqsClientCache.getSingleton()
+                .getSqsClient(StubAwsServer.AWS_ACCESS_KEY, StubAwsServer.AWS_SECRET_KEY, Region.EU_WEST_1);
+    }
+
+
+    @Benchmark
+    public String getQueueUrl() {
+        return QueueUrlCache.getSingleton().getQueueUrl(StubAwsServer.QUEUE_NAME, mSqsClient);
+    }
+}
@@ -0,0 +1,50 @@
+package io.schinzel.awsutils.sqs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageSystemAttributeName;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the parsing of the receive count of a received message.
+ *
+ * @author Schinzel
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SqsMessageBenchmark {
+    private SqsMessage mSqsMessage;
+
+
+    @Setup
+    public void setup() {
+        Message message = Message.builder()
+                .body("hi there!")
+                .attributes(Collections.singletonMap(MessageSystemAttributeName.APPROXIMATE_RECEIVE_COUNT, "3"))
+                .build();
+        mSqsMessage = SqsMessage.builder()
+                .message(message)
+                .build();
+    }
+
+
+    @Benchmark
+    public int getNumberOfTimesRead() {
+        return mSqsMessage.getNumberOfTimesRead();
+    }
+}
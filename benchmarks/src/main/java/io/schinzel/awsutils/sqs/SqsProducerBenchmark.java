@@ -0,0 +1,45 @@
+package io.schinzel.awsutils.sqs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the work SqsProducer does for each message before it is sent.
+ *
+ * @author Schinzel
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SqsProducerBenchmark {
+    private static final String QUEUE_URL = "https://sqs.eu-west-1.amazonaws.com/123456789012/benchmark.fifo";
+    private static final String MESSAGE = "{\"id\":12345,\"name\":\"A message of about the size of a small JSON object\"}";
+    @Param({"true", "false"})
+    public boolean guaranteedOrder;
+
+
+    @Benchmark
+    public String getUniqueId() {
+        return SqsProducer.getUniqueId();
+    }
+
+
+    @Benchmark
+    public SendMessageRequest createSendMessageRequest() {
+        return SqsProducer.createSendMessageRequest(QUEUE_URL, MESSAGE, guaranteedOrder);
+    }
+}
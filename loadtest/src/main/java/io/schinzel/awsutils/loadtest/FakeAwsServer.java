@@ -0,0 +1,212 @@
+package io.schinzel.awsutils.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.schinzel.basicutils.thrower.Thrower;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.experimental.Accessors;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The purpose of this class is to stand in for S3 and SQS in load tests, so that load tests can run without
+ * network or AWS account.
+ * <p>
+ * Is an in-process HTTP server that holds buckets and queues in memory. It speaks the part of the S3 REST
+ * API and the SQS JSON API that S3File, S3Bucket, SqsProducer, SqsConsumer and SqsMessage use. Each
+ * response is delayed by the latency plus a random part of the latency jitter, to mimic the network and the
+ * service.
+ * <p>
+ * Credentials and signatures are not checked. Buckets and queues are created on first use.
+ *
+ * @author Schinzel
+ */
+@Accessors(prefix = "m")
+public class FakeAwsServer implements AutoCloseable {
+    private final long mLatencyInNanos;
+    private final long mLatencyJitterInNanos;
+    private final HttpServer mServer;
+    /** Runs one request at a time per thread, as a request waits for the latency and long polls */
+    private final ExecutorService mExecutor;
+    private final FakeS3 mFakeS3 = new FakeS3();
+    private final FakeSqs mFakeSqs = new FakeSqs();
+    private final AtomicBoolean mClosed = new AtomicBoolean(false);
+    /** The URL of the server, e.g. "http://127.0.0.1:54321". Is an IP address so S3 requests are path style. */
+    @Getter
+    private final String mEndpoint;
+
+
+    /**
+     * @param latency       The time each response is delayed. Optional, default 0.
+     * @param latencyJitter Each response is delayed a random time up to this on top of the latency. Optional,
+     *                      default 0.
+     */
+    @Builder
+    FakeAwsServer(Duration latency, Duration latencyJitter) {
+        Thrower.createInstance()
+                .throwIfTrue(latency != null && latency.isNegative(), "latency cannot be negative")
+                .throwIfTrue(latencyJitter != null && latencyJitter.isNegative(), "latencyJitter cannot be negative");
+        mLatencyInNanos = (latency == null) ? 0 : latency.toNanos();
+        mLatencyJitterInNanos = (latencyJitter == null) ? 0 : latencyJitter.toNanos();
+        AtomicInteger threadCount = new AtomicInteger();
+        mExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "fake-aws-server-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        InetAddress loopbackAddress = InetAddress.getLoopbackAddress();
+        try {
+            mServer = HttpServer.create(new InetSocketAddress(loopbackAddress, 0), 1_000);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not start fake AWS server: " + e.getMessage(), e);
+        }
+        mServer.setExecutor(mExecutor);
+        mServer.createContext("/", this::handle);
+        mServer.start();
+        mEndpoint = "http://" + loopbackAddress.getHostAddress() + ":" + mServer.getAddress().getPort();
+    }
+
+
+    /**
+     * Sets this server as the endpoint of the S3 and SQS clients created from now on.
+     *
+     * @return This for chaining
+     */
+    public FakeAwsServer useAsEndpoint() {
+        System.setProperty("aws.endpointUrlS3", mEndpoint);
+        System.setProperty("aws.endpointUrlSqs", mEndpoint);
+        return this;
+    }
+
+
+    /**
+     * Stops the server. Requests that are waiting for a message are answered with an error. Can be called more
+     * than once.
+     */
+    @Override
+    public void close() {
+        if (!mClosed.compareAndSet(false, true)) {
+            return;
+        }
+        mFakeSqs.close();
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+        if (mEndpoint.equals(System.getProperty("aws.endpointUrlS3"))) {
+            System.clearProperty("aws.endpointUrlS3");
+            System.clearProperty("aws.endpointUrlSqs");
+        }
+    }
+
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            this.delay();
+            //SQS requests name the operation in the target header, e.g. "AmazonSQS.SendMessage"
+            String target = exchange.getRequestHeaders().getFirst("X-Amz-Target");
+            if (target == null) {
+                mFakeS3.handle(exchange);
+            } else {
+                mFakeSqs.handle(exchange, target);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            sendServerError(exchange);
+        } catch (RuntimeException e) {
+            sendServerError(exchange);
+        } finally {
+            exchange.close();
+        }
+    }
+
+
+    /**
+     * Responds with 500 Internal Server Error, which the clients retry.
+     */
+    private static void sendServerError(HttpExchange exchange) {
+        try {
+            sendResponse(exchange, 500, "text/plain", new byte[0]);
+        } catch (IOException e) {
+            //The response had already been sent or the client had disconnected
+        }
+    }
+
+
+    private void delay() throws InterruptedException {
+        long delayInNanos = mLatencyInNanos;
+        if (mLatencyJitterInNanos > 0) {
+            delayInNanos += ThreadLocalRandom.current().nextLong(mLatencyJitterInNanos + 1);
+        }
+        if (delayInNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(delayInNanos);
+        }
+    }
+
+
+    /**
+     * @param exchange    The exchange to respond to
+     * @param statusCode  The HTTP status code
+     * @param contentType The content type of the body
+     * @param body        The body. Empty for no body.
+     */
+    static void sendResponse(HttpExchange exchange, int statusCode, String contentType, byte[] body)
+            throws IOException {
+        if (body.length > 0) {
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+        }
+        //A length of 0 would send a chunked response, -1 sends no body
+        exchange.sendResponseHeaders(statusCode, (body.length == 0) ? -1 : body.length);
+        if (body.length > 0) {
+            try (OutputStream responseBody = exchange.getResponseBody()) {
+                responseBody.write(body);
+            }
+        }
+    }
+
+
+    /**
+     * @return The body of the request of the argument exchange
+     */
+    static byte[] readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream requestBody = exchange.getRequestBody()) {
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = requestBody.read(buffer)) != -1) {
+                body.write(buffer, 0, length);
+            }
+        }
+        return body.toByteArray();
+    }
+
+
+    /**
+     * @return The MD5 digest of the argument bytes as hex, as S3 ETags and SQS checksums are
+     */
+    static String md5Hex(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(bytes);
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("MD5 is not supported: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package io.schinzel.awsutils.loadtest;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The purpose of this class is to answer S3 requests with files held in memory.
+ * <p>
+ * Supports the requests S3File and S3Bucket do to read, write, check and delete single files: HeadBucket,
+ * PutObject, GetObject with and without a range, HeadObject and DeleteObject. Requests are expected to be
+ * path style, i.e. "/[bucket]/[file]". Bodies sent with aws-chunked encoding, which the SDK uses to send
+ * checksums, are decoded. Other requests are answered with 501 Not Implemented.
+ *
+ * @author Schinzel
+ */
+class FakeS3 {
+    /** The files, by bucket name and file name */
+    private final Map<String, Map<String, StoredFile>> mBuckets = new ConcurrentHashMap<>();
+
+
+    /**
+     * A file and the metadata S3 returns for it.
+     */
+    private static class StoredFile {
+        final byte[] mContent;
+        final String mETag;
+        final String mContentType;
+        final String mContentEncoding;
+        final String mLastModified;
+
+
+        StoredFile(byte[] content, String contentType, String contentEncoding) {
+            mContent = content;
+            mETag = "\"" + FakeAwsServer.md5Hex(content) + "\"";
+            mContentType = (contentType == null) ? "binary/octet-stream" : contentType;
+            mContentEncoding = contentEncoding;
+            mLastModified = DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.now().atOffset(ZoneOffset.UTC));
+        }
+    }
+
+
+    void handle(HttpExchange exchange) throws IOException {
+        URI uri = exchange.getRequestURI();
+        String path = uri.getPath();
+        int slashIndex = path.indexOf('/', 1);
+        String bucketName = (slashIndex == -1) ? path.substring(1) : path.substring(1, slashIndex);
+        String fileName = (slashIndex == -1) ? "" : path.substring(slashIndex + 1);
+        Map<String, StoredFile> bucket = mBuckets.computeIfAbsent(bucketName, k -> new ConcurrentHashMap<>());
+        String method = exchange.getRequestMethod();
+        //Requests with a query, e.g. list or multipart uploads, are not supported
+        if (uri.getRawQuery() != null && !method.equals("GET")) {
+            FakeAwsServer.readBody(exchange);
+            FakeAwsServer.sendResponse(exchange, 501, "text/plain", new byte[0]);
+            return;
+        }
+        if (fileName.isEmpty()) {
+            //HeadBucket. Buckets are created on first use, so all buckets exist.
+            FakeAwsServer.sendResponse(exchange, method.equals("HEAD") ? 200 : 501, "text/plain", new byte[0]);
+            return;
+        }
+        switch (method) {
+            case "PUT":
+                this.putObject(exchange, bucket, fileName);
+                break;
+            case "GET":
+                this.getObject(exchange, bucket.get(fileName), fileName);
+                break;
+            case "HEAD":
+                this.headObject(exchange, bucket.get(fileName));
+                break;
+            case "DELETE":
+                bucket.remove(fileName);
+                FakeAwsServer.sendResponse(exchange, 204, "text/plain", new byte[0]);
+                break;
+            default:
+                FakeAwsServer.sendResponse(exchange, 501, "text/plain", new byte[0]);
+        }
+    }
+
+
+    private void putObject(HttpExchange exchange, Map<String, StoredFile> bucket, String fileName) throws IOException {
+        Headers requestHeaders = exchange.getRequestHeaders();
+        byte[] content = FakeAwsServer.readBody(exchange);
+        String contentEncoding = requestHeaders.getFirst("Content-Encoding");
+        if (isAwsChunked(requestHeaders)) {
+            content = decodeAwsChunked(content);
+            //The SDK adds aws-chunked to the content encoding of the file, e.g. "gzip,aws-chunked"
+            contentEncoding = removeAwsChunked(contentEncoding);
+        }
+        StoredFile file = new StoredFile(content, requestHeaders.getFirst("Content-Type"), contentEncoding);
+        bucket.put(fileName, file);
+        exchange.getResponseHeaders().set("ETag", file.mETag);
+        FakeAwsServer.sendResponse(exchange, 200, "text/plain", new byte[0]);
+    }
+
+
+    private void getObject(HttpExchange exchange, StoredFile file, String fileName) throws IOException {
+        FakeAwsServer.readBody(exchange);
+        if (file == null) {
+            String error = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><Error><Code>NoSuchKey</Code>"
+                    + "<Message>The specified key does not exist.</Message><Key>" + fileName + "</Key></Error>";
+            FakeAwsServer.sendResponse(exchange, 404, "application/xml", error.getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        setFileHeaders(exchange, file);
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range == null || file.mContent.length == 0) {
+            FakeAwsServer.sendResponse(exchange, 200, file.mContentType, file.mContent);
+            return;
+        }
+        //A range is either "bytes=[first]-[last]", "bytes=[first]-" or "bytes=-[suffix length]"
+        String[] rangeParts = range.substring("bytes=".length()).split("-", -1);
+        int fileLength = file.mContent.length;
+        int first;
+        int last;
+        if (rangeParts[0].isEmpty()) {
+            first = Math.max(0, fileLength - Integer.parseInt(rangeParts[1]));
+            last = fileLength - 1;
+        } else {
+            first = Integer.parseInt(rangeParts[0]);
+            last = rangeParts[1].isEmpty()
+                    ? fileLength - 1
+                    : Math.min(Integer.parseInt(rangeParts[1]), fileLength - 1);
+        }
+        if (first >= fileLength) {
+            FakeAwsServer.sendResponse(exchange, 416, "text/plain", new byte[0]);
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Range", "bytes " + first + "-" + last + "/" + fileLength);
+        FakeAwsServer.sendResponse(exchange, 206, file.mContentType, Arrays.copyOfRange(file.mContent, first, last + 1));
+    }
+
+
+    private void headObject(HttpExchange exchange, StoredFile file) throws IOException {
+        FakeAwsServer.readBody(exchange);
+        if (file == null) {
+            FakeAwsServer.sendResponse(exchange, 404, "text/plain", new byte[0]);
+            return;
+        }
+        setFileHeaders(exchange, file);
+        //The server sends no body for HEAD requests, so the length of the file is set explicitly
+        exchange.getResponseHeaders().set("Content-Length", String.valueOf(file.mContent.length));
+        exchange.getResponseHeaders().set("Content-Type", file.mContentType);
+        exchange.sendResponseHeaders(200, -1);
+    }
+
+
+    private static void setFileHeaders(HttpExchange exchange, StoredFile file) {
+        Headers responseHeaders = exchange.getResponseHeaders();
+        responseHeaders.set("ETag", file.mETag);
+        responseHeaders.set("Last-Modified", file.mLastModified);
+        responseHeaders.set("Accept-Ranges", "bytes");
+        if (file.mContentEncoding != null && !file.mContentEncoding.isEmpty()) {
+            responseHeaders.set("Content-Encoding", file.mContentEncoding);
+        }
+    }
+
+
+    private static boolean isAwsChunked(Headers requestHeaders) {
+        String contentSha256 = requestHeaders.getFirst("x-amz-content-sha256");
+        String contentEncoding = requestHeaders.getFirst("Content-Encoding");
+        return (contentSha256 != null && contentSha256.startsWith("STREAMING-"))
+                || (contentEncoding != null && contentEncoding.contains("aws-chunked"));
+    }
+
+
+    /**
+     * @param contentEncoding A content encoding, e.g. "gzip,aws-chunked"
+     * @return The argument content encoding without aws-chunked, e.g. "gzip". Null if nothing is left.
+     */
+    static String removeAwsChunked(String contentEncoding) {
+        if (contentEncoding == null) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String encoding : contentEncoding.split(",")) {
+            String trimmedEncoding = encoding.trim();
+            if (!trimmedEncoding.isEmpty() && !trimmedEncoding.equals("aws-chunked")) {
+                sb.append((sb.length() == 0) ? "" : ",").append(trimmedEncoding);
+            }
+        }
+        return (sb.length() == 0) ? null : sb.toString();
+    }
+
+
+    /**
+     * Chunks are "[hex size][;chunk-signature=..]\r\n[data]\r\n". The last chunk has size 0 and is followed
+     * by trailing headers, such as the checksum, which are dropped.
+     *
+     * @param body A body with aws-chunked encoding
+     * @return The data of the chunks of the argument body
+     */
+    static byte[] decodeAwsChunked(byte[] body) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream(body.length);
+        int position = 0;
+        while (position < body.length) {
+            int lineEnd = indexOfCrLf(body, position);
+            String chunkHeader = new String(body, position, lineEnd - position, StandardCharsets.US_ASCII);
+            int semicolonIndex = chunkHeader.indexOf(';');
+            String hexSize = (semicolonIndex == -1) ? chunkHeader : chunkHeader.substring(0, semicolonIndex);
+            int chunkSize = Integer.parseInt(hexSize.trim(), 16);
+            if (chunkSize == 0) {
+                break;
+            }
+            int chunkStart = lineEnd + 2;
+            content.write(body, chunkStart, chunkSize);
+            //Skip the data and the line break after it
+            position = chunkStart + chunkSize + 2;
+        }
+        return content.toByteArray();
+    }
+
+
+    private static int indexOfCrLf(byte[] bytes, int from) {
+        for (int i = from; i < bytes.length - 1; i++) {
+            if (bytes[i] == '\r' && bytes[i + 1] == '\n') {
+                return i;
+            }
+        }
+        throw new RuntimeException("Malformed aws-chunked body. Missing line break after position " + from);
+    }
+}
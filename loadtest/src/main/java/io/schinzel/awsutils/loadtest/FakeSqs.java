@@ -0,0 +1,218 @@
+package io.schinzel.awsutils.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The purpose of this class is to answer SQS requests with queues held in memory.
+ * <p>
+ * Supports the requests SqsProducer, SqsConsumer and SqsMessage do: GetQueueUrl, CreateQueue, SendMessage,
+ * ReceiveMessage with long polling and visibility timeout, and DeleteMessage. Requests use the AWS JSON
+ * protocol. Messages are received in the order they were sent. Deduplication and message groups are not
+ * implemented. Other requests are answered with an error.
+ *
+ * @author Schinzel
+ */
+class FakeSqs {
+    private static final String CONTENT_TYPE = "application/x-amz-json-1.0";
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    /** The queues, by queue name */
+    private final Map<String, FakeQueue> mQueues = new ConcurrentHashMap<>();
+    private volatile boolean mClosed = false;
+
+
+    /**
+     * A queue. Messages are moved to the in-flight messages when received, and back to the visible messages
+     * if they are not deleted within the visibility timeout.
+     */
+    private static class FakeQueue {
+        final List<FakeMessage> mVisibleMessages = new ArrayList<>();
+        final Map<String, FakeMessage> mInFlightMessages = new HashMap<>();
+        final AtomicLong mSequenceNumber = new AtomicLong();
+    }
+
+
+    private static class FakeMessage {
+        final String mMessageId = UUID.randomUUID().toString();
+        final String mBody;
+        final String mMd5OfBody;
+        int mReceiveCount = 0;
+        long mVisibleAt = 0;
+
+
+        FakeMessage(String body) {
+            mBody = body;
+            mMd5OfBody = FakeAwsServer.md5Hex(body.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+
+    /**
+     * Answers requests that wait for messages with an error.
+     */
+    void close() {
+        mClosed = true;
+        for (FakeQueue queue : mQueues.values()) {
+            synchronized (queue) {
+                queue.notifyAll();
+            }
+        }
+    }
+
+
+    /**
+     * @param exchange The exchange to respond to
+     * @param target   The value of the target header, e.g. "AmazonSQS.SendMessage"
+     */
+    void handle(HttpExchange exchange, String target) throws IOException, InterruptedException {
+        @SuppressWarnings("unchecked")
+        Map<String, Object> request = OBJECT_MAPPER.readValue(FakeAwsServer.readBody(exchange), Map.class);
+        String operation = target.substring(target.indexOf('.') + 1);
+        Map<String, Object> response;
+        switch (operation) {
+            case "GetQueueUrl":
+            case "CreateQueue":
+                //Queues are created on first use, so both return the URL of the queue
+                String queueName = (String) request.get("QueueName");
+                mQueues.computeIfAbsent(queueName, k -> new FakeQueue());
+                response = Collections.singletonMap("QueueUrl", this.getQueueUrl(exchange, queueName));
+                break;
+            case "SendMessage":
+                response = this.sendMessage(this.getQueue(request), (String) request.get("MessageBody"));
+                break;
+            case "ReceiveMessage":
+                response = this.receiveMessage(this.getQueue(request), request);
+                break;
+            case "DeleteMessage":
+                this.deleteMessage(this.getQueue(request), (String) request.get("ReceiptHandle"));
+                response = Collections.emptyMap();
+                break;
+            default:
+                sendError(exchange, "UnsupportedOperation", "Operation '" + operation + "' is not supported");
+                return;
+        }
+        FakeAwsServer.sendResponse(exchange, 200, CONTENT_TYPE, OBJECT_MAPPER.writeValueAsBytes(response));
+    }
+
+
+    private Map<String, Object> sendMessage(FakeQueue queue, String body) {
+        FakeMessage message = new FakeMessage(body);
+        Map<String, Object> response = new HashMap<>();
+        synchronized (queue) {
+            queue.mVisibleMessages.add(message);
+            response.put("SequenceNumber", String.valueOf(queue.mSequenceNumber.incrementAndGet()));
+            queue.notifyAll();
+        }
+        response.put("MessageId", message.mMessageId);
+        response.put("MD5OfMessageBody", message.mMd5OfBody);
+        return response;
+    }
+
+
+    private Map<String, Object> receiveMessage(FakeQueue queue, Map<String, Object> request)
+            throws InterruptedException {
+        int maxNumberOfMessages = getInt(request, "MaxNumberOfMessages", 1);
+        long waitTimeInMillis = TimeUnit.SECONDS.toMillis(getInt(request, "WaitTimeSeconds", 0));
+        long visibilityTimeoutInMillis = TimeUnit.SECONDS.toMillis(getInt(request, "VisibilityTimeout", 30));
+        long deadline = System.currentTimeMillis() + waitTimeInMillis;
+        List<Map<String, Object>> messages = new ArrayList<>();
+        synchronized (queue) {
+            while (true) {
+                long now = System.currentTimeMillis();
+                returnTimedOutMessages(queue, now);
+                while (!queue.mVisibleMessages.isEmpty() && messages.size() < maxNumberOfMessages) {
+                    FakeMessage message = queue.mVisibleMessages.remove(0);
+                    message.mReceiveCount++;
+                    message.mVisibleAt = now + visibilityTimeoutInMillis;
+                    String receiptHandle = UUID.randomUUID().toString();
+                    queue.mInFlightMessages.put(receiptHandle, message);
+                    messages.add(toResponseMessage(message, receiptHandle));
+                }
+                if (!messages.isEmpty() || now >= deadline) {
+                    break;
+                }
+                if (mClosed) {
+                    throw new RuntimeException("Server is closed");
+                }
+                queue.wait(Math.min(deadline - now, 100));
+            }
+        }
+        return Collections.singletonMap("Messages", messages);
+    }
+
+
+    private void deleteMessage(FakeQueue queue, String receiptHandle) {
+        synchronized (queue) {
+            queue.mInFlightMessages.remove(receiptHandle);
+        }
+    }
+
+
+    /**
+     * Moves the in-flight messages whose visibility timeout has passed to the end of the visible messages.
+     */
+    private static void returnTimedOutMessages(FakeQueue queue, long now) {
+        Iterator<FakeMessage> iterator = queue.mInFlightMessages.values().iterator();
+        while (iterator.hasNext()) {
+            FakeMessage message = iterator.next();
+            if (message.mVisibleAt <= now) {
+                iterator.remove();
+                queue.mVisibleMessages.add(message);
+            }
+        }
+    }
+
+
+    private static Map<String, Object> toResponseMessage(FakeMessage message, String receiptHandle) {
+        Map<String, Object> responseMessage = new HashMap<>();
+        responseMessage.put("MessageId", message.mMessageId);
+        responseMessage.put("ReceiptHandle", receiptHandle);
+        responseMessage.put("MD5OfBody", message.mMd5OfBody);
+        responseMessage.put("Body", message.mBody);
+        responseMessage.put("Attributes",
+                Collections.singletonMap("ApproximateReceiveCount", String.valueOf(message.mReceiveCount)));
+        return responseMessage;
+    }
+
+
+    /**
+     * @return The queue of the queue URL of the argument request
+     */
+    private FakeQueue getQueue(Map<String, Object> request) {
+        String queueUrl = (String) request.get("QueueUrl");
+        String queueName = queueUrl.substring(queueUrl.lastIndexOf('/') + 1);
+        return mQueues.computeIfAbsent(queueName, k -> new FakeQueue());
+    }
+
+
+    private String getQueueUrl(HttpExchange exchange, String queueName) {
+        return "http://" + exchange.getRequestHeaders().getFirst("Host") + "/000000000000/" + queueName;
+    }
+
+
+    private static int getInt(Map<String, Object> request, String name, int defaultValue) {
+        Object value = request.get(name);
+        return (value instanceof Number) ? ((Number) value).intValue() : defaultValue;
+    }
+
+
+    private static void sendError(HttpExchange exchange, String errorCode, String message) throws IOException {
+        Map<String, String> error = new HashMap<>();
+        error.put("__type", "com.amazonaws.sqs#" + errorCode);
+        error.put("message", message);
+        FakeAwsServer.sendResponse(exchange, 400, CONTENT_TYPE, OBJECT_MAPPER.writeValueAsBytes(error));
+    }
+}
@@ -0,0 +1,19 @@
+package io.schinzel.awsutils.loadtest;
+
+/**
+ * The operations a load test does.
+ *
+ * @author Schinzel
+ */
+public enum LoadOperation {
+    /** Writes a file with S3File.write */
+    S3_WRITE,
+    /** Reads a file with S3File.read */
+    S3_READ,
+    /** Checks if a file exists with S3File.exists */
+    S3_EXISTS,
+    /** Sends a message with SqsProducer.send */
+    SQS_SEND,
+    /** Gets a message with SqsConsumer.getMessage and deletes it from the queue */
+    SQS_RECEIVE
+}
@@ -0,0 +1,246 @@
+package io.schinzel.awsutils.loadtest;
+
+import io.schinzel.awsutils.s3file.S3Bucket;
+import io.schinzel.awsutils.sqs.SqsConsumer;
+import io.schinzel.awsutils.sqs.SqsProducer;
+import io.schinzel.basicutils.RandomUtil;
+import io.schinzel.basicutils.thrower.Thrower;
+import lombok.Builder;
+import software.amazon.awssdk.regions.Region;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The purpose of this class is to drive S3File, SqsProducer and SqsConsumer with load against a
+ * {@link FakeAwsServer}, and measure throughput and latency.
+ * <p>
+ * A number of threads each do operations back to back. Each operation is drawn at random by the weights of
+ * the operation mix. Operations done during the warmup are not measured. Reads, existence checks and writes
+ * are done on a fixed set of files that is written before the test starts.
+ * <p>
+ * Receives wait for a message if the queue is empty, so the weight of {@link LoadOperation#SQS_RECEIVE}
+ * should not be larger than the weight of {@link LoadOperation#SQS_SEND}.
+ * <p>
+ * Sample use:
+ * <pre>
+ * LoadTestResult result = LoadTest.builder()
+ *         .threadCount(32)
+ *         .duration(Duration.ofSeconds(60))
+ *         .payloadSize(10_000)
+ *         .latency(Duration.ofMillis(20))
+ *         .build()
+ *         .run();
+ * System.out.println(result);
+ * </pre>
+ *
+ * @author Schinzel
+ */
+public class LoadTest {
+    private static final String BUCKET_NAME = "loadtest-bucket";
+    private static final String QUEUE_NAME = "loadtest.fifo";
+    /** The max size of an SQS message */
+    private static final int MAX_MESSAGE_SIZE = 256 * 1024;
+    private final int mThreadCount;
+    private final long mDurationInNanos;
+    private final long mWarmupInNanos;
+    private final int mPayloadSize;
+    private final int mFileCount;
+    private final Duration mLatency;
+    private final Duration mLatencyJitter;
+    /** The operations of the mix and the cumulative weights they are drawn by */
+    private final List<LoadOperation> mOperations = new ArrayList<>();
+    private final List<Integer> mCumulativeWeights = new ArrayList<>();
+
+
+    /**
+     * @param threadCount   The number of threads that do operations. Optional, default 8.
+     * @param duration      The time operations are measured. Optional, default 30 seconds.
+     * @param warmup        The time operations are done before they are measured. Optional, default 5 seconds.
+     * @param payloadSize   The number of bytes of each file written and of each message sent. Messages are at
+     *                      most 256 KB. Optional, default 1024.
+     * @param operationMix  The weight of each operation. Operations not in the mix are not done. Optional, by
+     *                      default 40% reads, 20% writes, 10% existence checks, 15% sends and 15% receives.
+     * @param fileCount     The number of files operations are done on. Optional, default 100.
+     * @param latency       The time the fake server delays each response. Optional, default 0.
+     * @param latencyJitter The fake server delays each response a random time up to this on top of the
+     *                      latency. Optional, default 0.
+     */
+    @Builder
+    LoadTest(int threadCount, Duration duration, Duration warmup, int payloadSize,
+             Map<LoadOperation, Integer> operationMix, int fileCount, Duration latency, Duration latencyJitter) {
+        Map<LoadOperation, Integer> mix = (operationMix == null) ? getDefaultOperationMix() : operationMix;
+        Thrower.createInstance()
+                .throwIfTrue(threadCount < 0, "threadCount cannot be negative")
+                .throwIfTrue(payloadSize < 0, "payloadSize cannot be negative")
+                .throwIfTrue(fileCount < 0, "fileCount cannot be negative")
+                .throwIfTrue(duration != null && duration.isNegative(), "duration cannot be negative")
+                .throwIfTrue(warmup != null && warmup.isNegative(), "warmup cannot be negative")
+                .throwIfTrue(mix.values().stream().anyMatch(weight -> weight < 0), "Weights cannot be negative")
+                .throwIfTrue(mix.values().stream().mapToInt(Integer::intValue).sum() == 0,
+                        "operationMix must have an operation with a weight larger than 0")
+                .throwIfTrue(mix.getOrDefault(LoadOperation.SQS_RECEIVE, 0) > 0
+                                && mix.getOrDefault(LoadOperation.SQS_SEND, 0) == 0,
+                        "operationMix with receives must have sends, else receives wait forever");
+        mThreadCount = (threadCount == 0) ? 8 : threadCount;
+        mDurationInNanos = (duration == null) ? TimeUnit.SECONDS.toNanos(30) : duration.toNanos();
+        mWarmupInNanos = (warmup == null) ? TimeUnit.SECONDS.toNanos(5) : warmup.toNanos();
+        mPayloadSize = (payloadSize == 0) ? 1024 : payloadSize;
+        mFileCount = (fileCount == 0) ? 100 : fileCount;
+        mLatency = latency;
+        mLatencyJitter = latencyJitter;
+        int cumulativeWeight = 0;
+        for (Map.Entry<LoadOperation, Integer> entry : new EnumMap<>(mix).entrySet()) {
+            if (entry.getValue() > 0) {
+                cumulativeWeight += entry.getValue();
+                mOperations.add(entry.getKey());
+                mCumulativeWeights.add(cumulativeWeight);
+            }
+        }
+    }
+
+
+    /**
+     * @return 40% reads, 20% writes, 10% existence checks, 15% sends and 15% receives
+     */
+    public static Map<LoadOperation, Integer> getDefaultOperationMix() {
+        Map<LoadOperation, Integer> operationMix = new EnumMap<>(LoadOperation.class);
+        operationMix.put(LoadOperation.S3_READ, 40);
+        operationMix.put(LoadOperation.S3_WRITE, 20);
+        operationMix.put(LoadOperation.S3_EXISTS, 10);
+        operationMix.put(LoadOperation.SQS_SEND, 15);
+        operationMix.put(LoadOperation.SQS_RECEIVE, 15);
+        return operationMix;
+    }
+
+
+    /**
+     * Starts a fake server, writes the files, runs the test and stops the server.
+     *
+     * @return The throughput and latencies of the operations
+     */
+    public LoadTestResult run() {
+        try (FakeAwsServer server = FakeAwsServer.builder()
+                .latency(mLatency)
+                .latencyJitter(mLatencyJitter)
+                .build()
+                .useAsEndpoint()) {
+            //Clients are cached by access key. A key per run makes the clients of this run use this server.
+            String awsAccessKey = "loadtest-" + UUID.randomUUID();
+            String awsSecretKey = "loadtest-secret";
+            S3Bucket bucket = S3Bucket.builder()
+                    .awsAccessKey(awsAccessKey)
+                    .awsSecretKey(awsSecretKey)
+                    .region(Region.EU_WEST_1)
+                    .bucketName(BUCKET_NAME)
+                    .build();
+            SqsProducer producer = SqsProducer.builder()
+                    .awsAccessKey(awsAccessKey)
+                    .awsSecretKey(awsSecretKey)
+                    .region(Region.EU_WEST_1)
+                    .queueName(QUEUE_NAME)
+                    .build();
+            SqsConsumer consumer = SqsConsumer.builder()
+                    .awsAccessKey(awsAccessKey)
+                    .awsSecretKey(awsSecretKey)
+                    .region(Region.EU_WEST_1)
+                    .queueName(QUEUE_NAME)
+                    .build();
+            byte[] payload = new byte[mPayloadSize];
+            ThreadLocalRandom.current().nextBytes(payload);
+            String message = RandomUtil.getRandomString(Math.min(mPayloadSize, MAX_MESSAGE_SIZE));
+            for (int i = 0; i < mFileCount; i++) {
+                bucket.getFile(getFileName(i)).write(payload);
+            }
+            long measureStart = System.nanoTime() + mWarmupInNanos;
+            long measureEnd = measureStart + mDurationInNanos;
+            LoadTestResult result = new LoadTestResult(mDurationInNanos);
+            ExecutorService executor = Executors.newFixedThreadPool(mThreadCount);
+            for (int i = 0; i < mThreadCount; i++) {
+                executor.execute(() -> {
+                    while (true) {
+                        long startTime = System.nanoTime();
+                        if (startTime >= measureEnd) {
+                            return;
+                        }
+                        LoadOperation operation = this.getRandomOperation();
+                        boolean failed = false;
+                        try {
+                            this.execute(operation, bucket, producer, consumer, payload, message);
+                        } catch (RuntimeException e) {
+                            failed = true;
+                        }
+                        long endTime = System.nanoTime();
+                        if (startTime >= measureStart && endTime <= measureEnd) {
+                            result.record(operation, endTime - startTime, failed);
+                        }
+                    }
+                });
+            }
+            executor.shutdown();
+            //Threads that wait for a message when the test ends are stopped by closing the server
+            if (!executor.awaitTermination(measureEnd - System.nanoTime() + TimeUnit.SECONDS.toNanos(1),
+                    TimeUnit.NANOSECONDS)) {
+                server.close();
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            }
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Load test was interrupted", e);
+        }
+    }
+
+
+    private void execute(LoadOperation operation, S3Bucket bucket, SqsProducer producer, SqsConsumer consumer,
+                         byte[] payload, String message) {
+        String fileName = getFileName(ThreadLocalRandom.current().nextInt(mFileCount));
+        switch (operation) {
+            case S3_WRITE:
+                bucket.getFile(fileName).write(payload);
+                break;
+            case S3_READ:
+                bucket.getFile(fileName).read();
+                break;
+            case S3_EXISTS:
+                bucket.getFile(fileName).exists();
+                break;
+            case SQS_SEND:
+                producer.send(message);
+                break;
+            case SQS_RECEIVE:
+                consumer.getMessage().deleteMessageFromQueue();
+                break;
+            default:
+                throw new RuntimeException("Unknown operation '" + operation + "'");
+        }
+    }
+
+
+    /**
+     * @return An operation drawn at random by the weights of the operation mix
+     */
+    private LoadOperation getRandomOperation() {
+        int totalWeight = mCumulativeWeights.get(mCumulativeWeights.size() - 1);
+        int value = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (int i = 0; i < mOperations.size(); i++) {
+            if (value < mCumulativeWeights.get(i)) {
+                return mOperations.get(i);
+            }
+        }
+        throw new RuntimeException("No operation for value " + value);
+    }
+
+
+    private static String getFileName(int fileIndex) {
+        return "loadtest/file_" + fileIndex + ".txt";
+    }
+}
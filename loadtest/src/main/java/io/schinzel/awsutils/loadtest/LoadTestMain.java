@@ -0,0 +1,76 @@
+package io.schinzel.awsutils.loadtest;
+
+import io.schinzel.awsutils.s3file.TransferManagers;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The purpose of this class is to run a load test from the command line and print the result.
+ * <p>
+ * Arguments are on the form "name=value". All are optional.
+ * <pre>
+ * threads=8                   The number of threads that do operations
+ * duration=30                 The seconds operations are measured
+ * warmup=5                    The seconds operations are done before they are measured
+ * payload=1024                The bytes of each file written and each message sent
+ * files=100                   The number of files operations are done on
+ * latency=0                   The milliseconds the fake server delays each response
+ * jitter=0                    The fake server delays each response a random number of milliseconds up to this
+ * mix=S3_READ:40,SQS_SEND:15  The weight of each operation. Operations: S3_WRITE, S3_READ, S3_EXISTS, SQS_SEND,
+ *                             SQS_RECEIVE
+ * </pre>
+ * Sample: java -jar target/loadtest.jar threads=32 latency=20 jitter=10 mix=S3_READ:80,S3_WRITE:20
+ *
+ * @author Schinzel
+ */
+public class LoadTestMain {
+
+    public static void main(String[] args) {
+        Map<String, String> arguments = new HashMap<>();
+        for (String arg : args) {
+            int equalsIndex = arg.indexOf('=');
+            if (equalsIndex == -1) {
+                throw new RuntimeException("Argument '" + arg + "' is not on the form name=value");
+            }
+            arguments.put(arg.substring(0, equalsIndex), arg.substring(equalsIndex + 1));
+        }
+        LoadTestResult result = LoadTest.builder()
+                .threadCount(Integer.parseInt(arguments.getOrDefault("threads", "0")))
+                .duration(arguments.containsKey("duration")
+                        ? Duration.ofSeconds(Long.parseLong(arguments.get("duration")))
+                        : null)
+                .warmup(arguments.containsKey("warmup")
+                        ? Duration.ofSeconds(Long.parseLong(arguments.get("warmup")))
+                        : null)
+                .payloadSize(Integer.parseInt(arguments.getOrDefault("payload", "0")))
+                .fileCount(Integer.parseInt(arguments.getOrDefault("files", "0")))
+                .latency(Duration.ofMillis(Long.parseLong(arguments.getOrDefault("latency", "0"))))
+                .latencyJitter(Duration.ofMillis(Long.parseLong(arguments.getOrDefault("jitter", "0"))))
+                .operationMix(arguments.containsKey("mix") ? parseOperationMix(arguments.get("mix")) : null)
+                .build()
+                .run();
+        System.out.println(result);
+        TransferManagers.getInstance().shutdown();
+    }
+
+
+    /**
+     * @param operationMix An operation mix, e.g. "S3_READ:80,S3_WRITE:20"
+     * @return The weights of the operations of the argument mix
+     */
+    static Map<LoadOperation, Integer> parseOperationMix(String operationMix) {
+        Map<LoadOperation, Integer> weights = new EnumMap<>(LoadOperation.class);
+        for (String operationWeight : operationMix.split(",")) {
+            String[] parts = operationWeight.trim().split(":");
+            if (parts.length != 2) {
+                throw new RuntimeException("Operation weight '" + operationWeight
+                        + "' is not on the form OPERATION:weight");
+            }
+            weights.put(LoadOperation.valueOf(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+        }
+        return weights;
+    }
+}
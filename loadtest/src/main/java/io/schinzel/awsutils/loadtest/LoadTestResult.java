@@ -0,0 +1,115 @@
+package io.schinzel.awsutils.loadtest;
+
+import io.schinzel.awsutils.metrics.LatencyHistogram;
+import lombok.Getter;
+import lombok.experimental.Accessors;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The purpose of this class is to hold the latencies and error counts of the operations of a load test.
+ *
+ * @author Schinzel
+ */
+@Accessors(prefix = "m")
+public class LoadTestResult {
+    private final Map<LoadOperation, LatencyHistogram> mLatencies = new EnumMap<>(LoadOperation.class);
+    private final Map<LoadOperation, AtomicLong> mErrorCounts = new EnumMap<>(LoadOperation.class);
+    /** The time the operations were measured */
+    @Getter
+    private final long mDurationInNanos;
+
+
+    LoadTestResult(long durationInNanos) {
+        mDurationInNanos = durationInNanos;
+        for (LoadOperation operation : LoadOperation.values()) {
+            mLatencies.put(operation, new LatencyHistogram());
+            mErrorCounts.put(operation, new AtomicLong());
+        }
+    }
+
+
+    void record(LoadOperation operation, long durationInNanos, boolean failed) {
+        mLatencies.get(operation).record(durationInNanos);
+        if (failed) {
+            mErrorCounts.get(operation).incrementAndGet();
+        }
+    }
+
+
+    /**
+     * @param operation An operation
+     * @return The latencies of the argument operation. Includes failed operations.
+     */
+    public LatencyHistogram getLatencies(LoadOperation operation) {
+        return mLatencies.get(operation);
+    }
+
+
+    /**
+     * @param operation An operation
+     * @return The number of times the argument operation threw an exception
+     */
+    public long getErrorCount(LoadOperation operation) {
+        return mErrorCounts.get(operation).get();
+    }
+
+
+    /**
+     * @param operation An operation
+     * @return The number of the argument operation done per second
+     */
+    public double getThroughput(LoadOperation operation) {
+        return this.getThroughput(mLatencies.get(operation).getCount());
+    }
+
+
+    /**
+     * @return The number of operations done per second
+     */
+    public double getThroughput() {
+        long count = 0;
+        for (LatencyHistogram latencies : mLatencies.values()) {
+            count += latencies.getCount();
+        }
+        return this.getThroughput(count);
+    }
+
+
+    private double getThroughput(long count) {
+        return (mDurationInNanos == 0) ? 0 : count * (double) TimeUnit.SECONDS.toNanos(1) / mDurationInNanos;
+    }
+
+
+    /**
+     * @return A table with the throughput and latencies of each operation that was done
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-12s %10s %8s %10s %10s %10s %10s %10s%n",
+                "Operation", "Count", "Errors", "Ops/s", "p50 ms", "p99 ms", "p999 ms", "Max ms"));
+        for (LoadOperation operation : LoadOperation.values()) {
+            LatencyHistogram latencies = mLatencies.get(operation);
+            if (latencies.getCount() == 0) {
+                continue;
+            }
+            sb.append(String.format("%-12s %10d %8d %10.1f %10.2f %10.2f %10.2f %10.2f%n",
+                    operation, latencies.getCount(), this.getErrorCount(operation), this.getThroughput(operation),
+                    toMillis(latencies.getValueAtPercentile(50)),
+                    toMillis(latencies.getValueAtPercentile(99)),
+                    toMillis(latencies.getValueAtPercentile(99.9)),
+                    toMillis(latencies.getMax())));
+        }
+        sb.append(String.format("Total throughput: %.1f ops/s%n", this.getThroughput()));
+        return sb.toString();
+    }
+
+
+    private static double toMillis(long nanos) {
+        return nanos / 1_000_000d;
+    }
+}
@@ -0,0 +1,41 @@
+package io.schinzel.awsutils.loadtest;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+public class FakeS3Test {
+
+    @Test
+    public void decodeAwsChunked_SignedChunks_Data() {
+        String body = "5;chunk-signature=abc\r\nhello\r\n"
+                + "6;chunk-signature=def\r\n world\r\n"
+                + "0;chunk-signature=ghi\r\n"
+                + "x-amz-checksum-crc32:AAAAAA==\r\n\r\n";
+        byte[] content = FakeS3.decodeAwsChunked(body.getBytes(StandardCharsets.UTF_8));
+        assertThat(new String(content, StandardCharsets.UTF_8)).isEqualTo("hello world");
+    }
+
+
+    @Test
+    public void decodeAwsChunked_UnsignedChunks_Data() {
+        String body = "b\r\nhello world\r\n0\r\n\r\n";
+        byte[] content = FakeS3.decodeAwsChunked(body.getBytes(StandardCharsets.UTF_8));
+        assertThat(new String(content, StandardCharsets.UTF_8)).isEqualTo("hello world");
+    }
+
+
+    @Test
+    public void removeAwsChunked_GzipAndAwsChunked_Gzip() {
+        assertThat(FakeS3.removeAwsChunked("gzip,aws-chunked")).isEqualTo("gzip");
+    }
+
+
+    @Test
+    public void removeAwsChunked_OnlyAwsChunked_Null() {
+        assertThat(FakeS3.removeAwsChunked("aws-chunked")).isNull();
+    }
+}
@@ -0,0 +1,64 @@
+package io.schinzel.awsutils.loadtest;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+
+public class LoadTestTest {
+
+    @Test
+    public void run_DefaultMix_AllOperationsDoneWithoutErrors() {
+        LoadTestResult result = LoadTest.builder()
+                .threadCount(4)
+                .duration(Duration.ofSeconds(2))
+                .warmup(Duration.ofSeconds(1))
+                .fileCount(10)
+                .build()
+                .run();
+        for (LoadOperation operation : LoadOperation.values()) {
+            assertThat(result.getLatencies(operation).getCount()).isPositive();
+            assertThat(result.getErrorCount(operation)).isZero();
+        }
+    }
+
+
+    @Test
+    public void run_Latency10Ms_P50AtLeast10Ms() {
+        LoadTestResult result = LoadTest.builder()
+                .threadCount(2)
+                .duration(Duration.ofSeconds(1))
+                .warmup(Duration.ofMillis(500))
+                .fileCount(10)
+                .operationMix(LoadTestMain.parseOperationMix("S3_READ:1"))
+                .latency(Duration.ofMillis(10))
+                .build()
+                .run();
+        assertThat(result.getLatencies(LoadOperation.S3_READ).getValueAtPercentile(50))
+                .isGreaterThanOrEqualTo(Duration.ofMillis(10).toNanos());
+    }
+
+
+    @Test
+    public void builder_ReceivesWithoutSends_Exception() {
+        assertThatExceptionOfType(RuntimeException.class).isThrownBy(() ->
+                LoadTest.builder()
+                        .operationMix(LoadTestMain.parseOperationMix("SQS_RECEIVE:1"))
+                        .build()
+        );
+    }
+
+
+    @Test
+    public void parseOperationMix_TwoOperations_Weights() {
+        Map<LoadOperation, Integer> operationMix = LoadTestMain.parseOperationMix("S3_READ:80, S3_WRITE:20");
+        assertThat(operationMix)
+                .containsEntry(LoadOperation.S3_READ, 80)
+                .containsEntry(LoadOperation.S3_WRITE, 20)
+                .hasSize(2);
+    }
+}
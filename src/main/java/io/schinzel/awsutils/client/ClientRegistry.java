@@ -0,0 +1,412 @@
+package io.schinzel.awsutils.client;
+
+import io.schinzel.awsutils.metrics.CacheStats;
+import io.schinzel.awsutils.metrics.CacheStatsRegistry;
+import io.schinzel.basicutils.thrower.Thrower;
+import lombok.Builder;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * The purpose of this class is to hold AWS clients, so that they are created once, shared and closed when no
+ * longer used.
+ * <p>
+ * Clients are loaded single-flight. If several threads request a client that does not exist, one thread
+ * creates it and the others wait for it. So concurrent cold starts do not create duplicate clients, each with
+ * its own threads and connections.
+ * <p>
+ * Objects that use a client over time, such as an S3Bucket or an SqsProducer, register as holders of the
+ * client. Holders are weakly referenced, so a holder that is garbage collected no longer counts. A client
+ * without holders that has not been requested for the max idle time is closed. If the registry holds more
+ * than max clients, the least recently used clients without holders are closed. Clients with holders are
+ * never closed, except by {@link #closeAll()}.
+ * <p>
+ * A client that is handed out to code that does not register as its holder is to be got with
+ * {@link #getPinned(String, Supplier)}. As the registry cannot know when such a client is no longer used, a
+ * pinned client is not closed to make room for other clients while it is in use, i.e. has been requested
+ * within the max idle time. A pinned client that has not been requested for the max idle time is closed as
+ * any other client without holders, so that clients no longer used do not accumulate.
+ * <p>
+ * Idle clients are closed by the threads that request clients, at most once per second. There is no
+ * background thread.
+ * <p>
+ * A registry with a name registers its statistics with {@link CacheStatsRegistry}. Clients closed as idle or
+ * because the registry was full are counted as evictions.
+ *
+ * @param <T> The type of client
+ * @author Schinzel
+ */
+public class ClientRegistry<T> {
+    /** Default max time a client without holders is kept after it was last requested */
+    private static final Duration DEFAULT_MAX_IDLE_TIME = Duration.ofHours(1);
+    /** The min time between two checks for idle clients */
+    private static final long SWEEP_INTERVAL_IN_NANOS = TimeUnit.SECONDS.toNanos(1);
+    /** The clients. Key is for example access key, region and settings. */
+    private final Map<String, Entry<T>> mEntries = new ConcurrentHashMap<>();
+    /** The entries of loaded clients, by client identity */
+    private final Map<T, Entry<T>> mEntriesByClient = Collections.synchronizedMap(new IdentityHashMap<>());
+    /** Holders that have been garbage collected are enqueued here */
+    private final ReferenceQueue<Object> mCollectedHolders = new ReferenceQueue<>();
+    /** Closes a client */
+    private final Consumer<T> mCloser;
+    /** The max number of clients without holders */
+    private final int mMaxClients;
+    private final long mMaxIdleTimeInNanos;
+    private final AtomicLong mLastSweep = new AtomicLong(System.nanoTime());
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private final AtomicLong mLoadCount = new AtomicLong();
+    private final AtomicLong mTotalLoadTimeInNanos = new AtomicLong();
+    private final AtomicLong mEvictionCount = new AtomicLong();
+    /** The name the statistics are registered with. Null if they are not registered. */
+    private final String mName;
+
+
+    /**
+     * @param closer      Closes a client. Required.
+     * @param maxClients  The number of clients above which the least recently used clients without holders
+     *                    are closed. Required.
+     * @param maxIdleTime The max time a client without holders is kept after it was last requested.
+     *                    Optional, default one hour.
+     * @param name        If set, the statistics of this registry are registered with this name with
+     *                    {@link CacheStatsRegistry}. Optional.
+     */
+    @Builder
+    ClientRegistry(Consumer<T> closer, int maxClients, Duration maxIdleTime, String name) {
+        Thrower.createInstance()
+                .throwIfVarNull(closer, "closer")
+                .throwIfTrue(maxClients < 1, "maxClients must be larger than 0")
+                .throwIfTrue(maxIdleTime != null && maxIdleTime.isNegative(), "maxIdleTime cannot be negative");
+        mCloser = closer;
+        mMaxClients = maxClients;
+        mMaxIdleTimeInNanos = (maxIdleTime == null) ? DEFAULT_MAX_IDLE_TIME.toNanos() : maxIdleTime.toNanos();
+        mName = name;
+        if (name != null) {
+            CacheStatsRegistry.getInstance().register(name, this::getStats);
+        }
+    }
+
+
+    /**
+     * @param key    The key of the client
+     * @param loader Creates the client if there is none for the argument key
+     * @param holder If not null, is registered as a holder of the client. The client is not closed while the
+     *               holder is reachable.
+     * @return The client for the argument key
+     */
+    public T get(String key, Supplier<T> loader, Object holder) {
+        return this.get(key, loader, holder, false);
+    }
+
+
+    /**
+     * The returned client is pinned, i.e. is not closed to keep the number of clients at max clients until
+     * it has not been requested for the max idle time.
+     *
+     * @param key    The key of the client
+     * @param loader Creates the client if there is none for the argument key
+     * @return The client for the argument key
+     */
+    public T getPinned(String key, Supplier<T> loader) {
+        return this.get(key, loader, null, true);
+    }
+
+
+    /**
+     * @param pin If true, the client is not closed to make room for other clients while it is in use
+     */
+    private T get(String key, Supplier<T> loader, Object holder, boolean pin) {
+        this.sweepIfDue();
+        while (true) {
+            Entry<T> entry = mEntries.computeIfAbsent(key, k -> new Entry<>());
+            boolean loadedHere = entry.mLoading.compareAndSet(false, true);
+            if (loadedHere) {
+                mMissCount.incrementAndGet();
+                this.load(key, entry, loader);
+            }
+            T client = join(entry.mClient);
+            synchronized (entry) {
+                //If the client was closed after it was looked up, get a new one
+                if (entry.mClosed) {
+                    continue;
+                }
+                entry.mLastAccess = System.nanoTime();
+                if (holder != null) {
+                    entry.mHolders.add(new HolderReference(holder, entry, mCollectedHolders));
+                }
+                if (pin) {
+                    entry.mPinned = true;
+                }
+            }
+            if (loadedHere) {
+                this.closeLeastRecentlyUsedIfFull();
+            } else {
+                mHitCount.incrementAndGet();
+            }
+            return client;
+        }
+    }
+
+
+    /**
+     * Registers a holder of a client that was returned by this registry.
+     *
+     * @param client A client returned by this registry
+     * @param holder The holder of the client
+     * @return True if the holder was registered. False if the client has been closed or is not in this
+     * registry.
+     */
+    public boolean addHolder(T client, Object holder) {
+        Thrower.throwIfVarNull(holder, "holder");
+        Entry<T> entry = mEntriesByClient.get(client);
+        if (entry == null) {
+            return false;
+        }
+        synchronized (entry) {
+            if (entry.mClosed) {
+                return false;
+            }
+            entry.mHolders.add(new HolderReference(holder, entry, mCollectedHolders));
+            return true;
+        }
+    }
+
+
+    /**
+     * Closes all clients, also clients with holders. For application shutdown.
+     */
+    public void closeAll() {
+        for (Map.Entry<String, Entry<T>> mapEntry : new ArrayList<>(mEntries.entrySet())) {
+            this.close(mapEntry.getKey(), mapEntry.getValue(), true);
+        }
+    }
+
+
+    /**
+     * Removes all clients without closing them. For tests.
+     */
+    public void invalidateAll() {
+        mEntries.clear();
+        mEntriesByClient.clear();
+    }
+
+
+    /**
+     * @return The number of clients
+     */
+    public long size() {
+        return mEntries.size();
+    }
+
+
+    /**
+     * @return The number of requests that got an existing client
+     */
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+
+    /**
+     * @return The number of clients created
+     */
+    public long getLoadCount() {
+        return mLoadCount.get();
+    }
+
+
+    /**
+     * @return The current statistics of this registry
+     */
+    public CacheStats getStats() {
+        return CacheStats.builder()
+                .name(mName)
+                .hitCount(mHitCount.get())
+                .missCount(mMissCount.get())
+                .loadCount(mLoadCount.get())
+                .totalLoadTimeInNanos(mTotalLoadTimeInNanos.get())
+                .evictionCount(mEvictionCount.get())
+                .size(mEntries.size())
+                .build();
+    }
+
+
+    /**
+     * Creates the client of the argument entry. If the creation fails, the entry is removed so that the next
+     * request tries again.
+     */
+    private void load(String key, Entry<T> entry, Supplier<T> loader) {
+        long startTime = System.nanoTime();
+        try {
+            T client = loader.get();
+            mTotalLoadTimeInNanos.addAndGet(System.nanoTime() - startTime);
+            mLoadCount.incrementAndGet();
+            mEntriesByClient.put(client, entry);
+            entry.mClient.complete(client);
+        } catch (RuntimeException | Error e) {
+            //Waiting threads get the error as well
+            mEntries.remove(key, entry);
+            entry.mClient.completeExceptionally(e);
+        }
+    }
+
+
+    /**
+     * Drops the holders that have been garbage collected and closes clients that have been idle too long.
+     * Is done at most once per sweep interval.
+     */
+    private void sweepIfDue() {
+        long lastSweep = mLastSweep.get();
+        long now = System.nanoTime();
+        if (now - lastSweep < SWEEP_INTERVAL_IN_NANOS || !mLastSweep.compareAndSet(lastSweep, now)) {
+            return;
+        }
+        this.dropCollectedHolders();
+        for (Map.Entry<String, Entry<T>> mapEntry : mEntries.entrySet()) {
+            Entry<T> entry = mapEntry.getValue();
+            if (this.isIdle(entry, now) && this.close(mapEntry.getKey(), entry, false)) {
+                mEvictionCount.incrementAndGet();
+            }
+        }
+    }
+
+
+    /**
+     * Closes the least recently used clients without holders that are not pinned and in use until there are
+     * at most max clients.
+     */
+    private void closeLeastRecentlyUsedIfFull() {
+        this.dropCollectedHolders();
+        while (mEntries.size() > mMaxClients) {
+            Map.Entry<String, Entry<T>> leastRecentlyUsed = null;
+            for (Map.Entry<String, Entry<T>> mapEntry : mEntries.entrySet()) {
+                Entry<T> entry = mapEntry.getValue();
+                if (this.isClosable(entry) && (leastRecentlyUsed == null
+                        || entry.mLastAccess < leastRecentlyUsed.getValue().mLastAccess)) {
+                    leastRecentlyUsed = mapEntry;
+                }
+            }
+            //If all clients have holders or are pinned and in use, none can be closed
+            if (leastRecentlyUsed == null
+                    || !this.close(leastRecentlyUsed.getKey(), leastRecentlyUsed.getValue(), false)) {
+                return;
+            }
+            mEvictionCount.incrementAndGet();
+        }
+    }
+
+
+    private void dropCollectedHolders() {
+        HolderReference reference;
+        while ((reference = (HolderReference) mCollectedHolders.poll()) != null) {
+            reference.mEntry.mHolders.remove(reference);
+        }
+    }
+
+
+    /**
+     * @param force If true, the client is closed even if it has holders
+     * @return True if the client was closed
+     */
+    private boolean close(String key, Entry<T> entry, boolean force) {
+        synchronized (entry) {
+            if (entry.mClosed || !entry.mClient.isDone() || (!force && !this.isClosable(entry))) {
+                return false;
+            }
+            entry.mClosed = true;
+        }
+        mEntries.remove(key, entry);
+        if (entry.mClient.isCompletedExceptionally()) {
+            return true;
+        }
+        T client = entry.mClient.join();
+        mEntriesByClient.remove(client);
+        try {
+            mCloser.accept(client);
+        } catch (RuntimeException e) {
+            //A client that fails to close cannot be used either, so it is dropped regardless
+        }
+        return true;
+    }
+
+
+    /**
+     * @return True if the client of the argument entry has been created, has no holders and is not a pinned
+     * client that is in use
+     */
+    private boolean isClosable(Entry<T> entry) {
+        return entry.mClient.isDone()
+                && entry.mHolders.isEmpty()
+                && (!entry.mPinned || this.isIdle(entry, System.nanoTime()));
+    }
+
+
+    /**
+     * @return True if the client of the argument entry has not been requested for the max idle time
+     */
+    private boolean isIdle(Entry<T> entry, long now) {
+        return now - entry.mLastAccess > mMaxIdleTimeInNanos;
+    }
+
+
+    /**
+     * Waits for the argument future. If the future failed, the cause is thrown.
+     */
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+
+    /**
+     * A client and its holders.
+     */
+    private static class Entry<T> {
+        /** Completed when the client has been created */
+        final CompletableFuture<T> mClient = new CompletableFuture<>();
+        /** Set by the thread that creates the client */
+        final AtomicBoolean mLoading = new AtomicBoolean();
+        /** References to the holders of the client */
+        final Set<HolderReference> mHolders = ConcurrentHashMap.newKeySet();
+        volatile long mLastAccess = System.nanoTime();
+        /** Guarded by the entry */
+        boolean mClosed;
+        /** If true, the client is not closed to make room for other clients while in use. Is set under the lock. */
+        volatile boolean mPinned;
+    }
+
+
+    /**
+     * A weak reference to a holder of a client. Is enqueued when the holder has been garbage collected.
+     */
+    private static class HolderReference extends WeakReference<Object> {
+        final Entry<?> mEntry;
+
+
+        HolderReference(Object holder, Entry<?> entry, ReferenceQueue<Object> queue) {
+            super(holder, queue);
+            mEntry = entry;
+        }
+    }
+}
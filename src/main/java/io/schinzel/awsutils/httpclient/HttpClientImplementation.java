@@ -0,0 +1,16 @@
+package io.schinzel.awsutils.httpclient;
+
+/**
+ * The purpose of this enum is to state which HTTP client implementation AWS clients use.
+ *
+ * @author Schinzel
+ */
+public enum HttpClientImplementation {
+    /** Apache HTTP client for sync clients and Netty for async clients. The defaults of the AWS SDK. */
+    DEFAULT,
+    /**
+     * HTTP clients based on the AWS Common Runtime. Start faster and use less memory. Requires the dependencies
+     * software.amazon.awssdk:aws-crt-client and software.amazon.awssdk.crt:aws-crt.
+     */
+    CRT
+}
@@ -0,0 +1,198 @@
+package io.schinzel.awsutils.httpclient;
+
+import io.schinzel.basicutils.thrower.Thrower;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.experimental.Accessors;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
+import software.amazon.awssdk.http.crt.AwsCrtAsyncHttpClient;
+import software.amazon.awssdk.http.crt.AwsCrtHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+
+import java.time.Duration;
+
+/**
+ * The purpose of this class is to hold the connection pool settings of the HTTP clients that AWS clients
+ * send their requests with.
+ * <p>
+ * The settings are part of the key of the client caches, so workloads with different settings get separate
+ * clients with separate connection pools. Settings that are not set use the defaults of the AWS SDK.
+ * <p>
+ * The CRT implementation does not support connectionTimeToLive, useIdleConnectionReaper, tcpKeepAlive,
+ * socketTimeout and connectionAcquisitionTimeout. These are ignored for CRT clients.
+ *
+ * @author Schinzel
+ */
+@Getter
+@Accessors(prefix = "m")
+public class HttpClientSettings {
+    /** The HTTP client implementation */
+    private final HttpClientImplementation mImplementation;
+    /** The max number of open connections. 0 if the SDK default is used. */
+    private final int mMaxConnections;
+    /** The max time a pooled connection is reused. Null if the SDK default is used. */
+    private final Duration mConnectionTimeToLive;
+    /** The max time a connection can be idle in the pool. Null if the SDK default is used. */
+    private final Duration mConnectionMaxIdleTime;
+    /** If false, idle connections are not closed in the background. Null if the SDK default is used. */
+    private final Boolean mUseIdleConnectionReaper;
+    /** If true, TCP keep-alive is enabled on connections */
+    private final boolean mTcpKeepAlive;
+    /** The max time to wait for data on an open connection. Null if the SDK default is used. */
+    private final Duration mSocketTimeout;
+    /** The max time to wait for a connection to be established. Null if the SDK default is used. */
+    private final Duration mConnectionTimeout;
+    /** The max time to wait for a connection from the pool. Null if the SDK default is used. */
+    private final Duration mConnectionAcquisitionTimeout;
+
+
+    /**
+     * @param implementation               The HTTP client implementation. Optional, default Apache for sync
+     *                                     clients and Netty for async clients.
+     * @param maxConnections               The max number of open connections. Should be at least the number of
+     *                                     threads that do concurrent requests. Optional.
+     * @param connectionTimeToLive         The max time a pooled connection is reused. A limit makes connections
+     *                                     move to new S3 hosts as DNS changes. Optional.
+     * @param connectionMaxIdleTime        The max time a connection can be idle in the pool. Optional.
+     * @param useIdleConnectionReaper      If false, idle connections are not closed in the background. Optional.
+     * @param tcpKeepAlive                 If true, TCP keep-alive is enabled. Keeps connections through NAT
+     *                                     gateways and load balancers that drop idle connections. Optional.
+     * @param socketTimeout                The max time to wait for data on an open connection. Optional.
+     * @param connectionTimeout            The max time to wait for a connection to be established. Optional.
+     * @param connectionAcquisitionTimeout The max time to wait for a connection from the pool. Optional.
+     */
+    @Builder
+    HttpClientSettings(HttpClientImplementation implementation, int maxConnections, Duration connectionTimeToLive,
+                       Duration connectionMaxIdleTime, Boolean useIdleConnectionReaper, boolean tcpKeepAlive,
+                       Duration socketTimeout, Duration connectionTimeout, Duration connectionAcquisitionTimeout) {
+        Thrower.createInstance()
+                .throwIfTrue(maxConnections < 0, "maxConnections cannot be negative")
+                .throwIfTrue(isNegative(connectionTimeToLive), "connectionTimeToLive cannot be negative")
+                .throwIfTrue(isNegative(connectionMaxIdleTime), "connectionMaxIdleTime cannot be negative")
+                .throwIfTrue(isNegative(socketTimeout), "socketTimeout cannot be negative")
+                .throwIfTrue(isNegative(connectionTimeout), "connectionTimeout cannot be negative")
+                .throwIfTrue(isNegative(connectionAcquisitionTimeout), "connectionAcquisitionTimeout cannot be negative");
+        mImplementation = (implementation == null) ? HttpClientImplementation.DEFAULT : implementation;
+        mMaxConnections = maxConnections;
+        mConnectionTimeToLive = connectionTimeToLive;
+        mConnectionMaxIdleTime = connectionMaxIdleTime;
+        mUseIdleConnectionReaper = useIdleConnectionReaper;
+        mTcpKeepAlive = tcpKeepAlive;
+        mSocketTimeout = socketTimeout;
+        mConnectionTimeout = connectionTimeout;
+        mConnectionAcquisitionTimeout = connectionAcquisitionTimeout;
+    }
+
+
+    /**
+     * @return A key that is the same for settings with the same values. Is used to cache clients.
+     */
+    public String getCacheKey() {
+        return mImplementation + "_" + mMaxConnections + "_" + mConnectionTimeToLive + "_" + mConnectionMaxIdleTime
+                + "_" + mUseIdleConnectionReaper + "_" + mTcpKeepAlive + "_" + mSocketTimeout
+                + "_" + mConnectionTimeout + "_" + mConnectionAcquisitionTimeout;
+    }
+
+
+    /**
+     * The builder is to be set on an AWS client builder with httpClientBuilder, so that the HTTP client is
+     * closed when the AWS client is closed.
+     *
+     * @return A builder of a sync HTTP client with these settings
+     */
+    public SdkHttpClient.Builder<?> getSyncHttpClientBuilder() {
+        //Only set values are passed on, as a null can replace the SDK default
+        if (mImplementation == HttpClientImplementation.CRT) {
+            AwsCrtHttpClient.Builder builder = AwsCrtHttpClient.builder();
+            if (mMaxConnections > 0) {
+                builder.maxConcurrency(mMaxConnections);
+            }
+            if (mConnectionMaxIdleTime != null) {
+                builder.connectionMaxIdleTime(mConnectionMaxIdleTime);
+            }
+            if (mConnectionTimeout != null) {
+                builder.connectionTimeout(mConnectionTimeout);
+            }
+            return builder;
+        }
+        ApacheHttpClient.Builder builder = ApacheHttpClient.builder()
+                .tcpKeepAlive(mTcpKeepAlive);
+        if (mMaxConnections > 0) {
+            builder.maxConnections(mMaxConnections);
+        }
+        if (mConnectionTimeToLive != null) {
+            builder.connectionTimeToLive(mConnectionTimeToLive);
+        }
+        if (mConnectionMaxIdleTime != null) {
+            builder.connectionMaxIdleTime(mConnectionMaxIdleTime);
+        }
+        if (mUseIdleConnectionReaper != null) {
+            builder.useIdleConnectionReaper(mUseIdleConnectionReaper);
+        }
+        if (mSocketTimeout != null) {
+            builder.socketTimeout(mSocketTimeout);
+        }
+        if (mConnectionTimeout != null) {
+            builder.connectionTimeout(mConnectionTimeout);
+        }
+        if (mConnectionAcquisitionTimeout != null) {
+            builder.connectionAcquisitionTimeout(mConnectionAcquisitionTimeout);
+        }
+        return builder;
+    }
+
+
+    /**
+     * The builder is to be set on an AWS client builder with httpClientBuilder, so that the HTTP client is
+     * closed when the AWS client is closed.
+     *
+     * @return A builder of an async HTTP client with these settings
+     */
+    public SdkAsyncHttpClient.Builder<?> getAsyncHttpClientBuilder() {
+        //Only set values are passed on, as a null can replace the SDK default
+        if (mImplementation == HttpClientImplementation.CRT) {
+            AwsCrtAsyncHttpClient.Builder builder = AwsCrtAsyncHttpClient.builder();
+            if (mMaxConnections > 0) {
+                builder.maxConcurrency(mMaxConnections);
+            }
+            if (mConnectionMaxIdleTime != null) {
+                builder.connectionMaxIdleTime(mConnectionMaxIdleTime);
+            }
+            if (mConnectionTimeout != null) {
+                builder.connectionTimeout(mConnectionTimeout);
+            }
+            return builder;
+        }
+        NettyNioAsyncHttpClient.Builder builder = NettyNioAsyncHttpClient.builder()
+                .tcpKeepAlive(mTcpKeepAlive);
+        if (mMaxConnections > 0) {
+            builder.maxConcurrency(mMaxConnections);
+        }
+        if (mConnectionTimeToLive != null) {
+            builder.connectionTimeToLive(mConnectionTimeToLive);
+        }
+        if (mConnectionMaxIdleTime != null) {
+            builder.connectionMaxIdleTime(mConnectionMaxIdleTime);
+        }
+        if (mUseIdleConnectionReaper != null) {
+            builder.useIdleConnectionReaper(mUseIdleConnectionReaper);
+        }
+        if (mSocketTimeout != null) {
+            builder.readTimeout(mSocketTimeout).writeTimeout(mSocketTimeout);
+        }
+        if (mConnectionTimeout != null) {
+            builder.connectionTimeout(mConnectionTimeout);
+        }
+        if (mConnectionAcquisitionTimeout != null) {
+            builder.connectionAcquisitionTimeout(mConnectionAcquisitionTimeout);
+        }
+        return builder;
+    }
+
+
+    private static boolean isNegative(Duration duration) {
+        return duration != null && duration.isNegative();
+    }
+}
@@ -0,0 +1,79 @@
+package io.schinzel.awsutils.metrics;
+
+import com.google.common.cache.Cache;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.experimental.Accessors;
+
+/**
+ * The purpose of this class is to hold the statistics of a cache at a point in time.
+ *
+ * @author Schinzel
+ */
+@Getter
+@Accessors(prefix = "m")
+public class CacheStats {
+    /** The name of the cache, e.g. "QueueUrlCache" */
+    private final String mName;
+    /** The number of lookups that found a value */
+    private final long mHitCount;
+    /** The number of lookups that did not find a value */
+    private final long mMissCount;
+    /** The number of values created, e.g. clients built or queue URLs looked up */
+    private final long mLoadCount;
+    /** The total time spent creating values */
+    private final long mTotalLoadTimeInNanos;
+    /** The number of values removed because the cache was full or the value had expired */
+    private final long mEvictionCount;
+    /** The number of values in the cache */
+    private final long mSize;
+
+
+    @Builder
+    CacheStats(String name, long hitCount, long missCount, long loadCount, long totalLoadTimeInNanos,
+               long evictionCount, long size) {
+        mName = name;
+        mHitCount = hitCount;
+        mMissCount = missCount;
+        mLoadCount = loadCount;
+        mTotalLoadTimeInNanos = totalLoadTimeInNanos;
+        mEvictionCount = evictionCount;
+        mSize = size;
+    }
+
+
+    /**
+     * @param name  The name of the cache
+     * @param cache A cache built with recordStats
+     * @return The statistics of the argument cache
+     */
+    public static CacheStats create(String name, Cache<?, ?> cache) {
+        com.google.common.cache.CacheStats stats = cache.stats();
+        return CacheStats.builder()
+                .name(name)
+                .hitCount(stats.hitCount())
+                .missCount(stats.missCount())
+                .loadCount(stats.loadCount())
+                .totalLoadTimeInNanos(stats.totalLoadTime())
+                .evictionCount(stats.evictionCount())
+                .size(cache.size())
+                .build();
+    }
+
+
+    /**
+     * @return The share of lookups that found a value, from 0 to 1. 1 if there has been no lookup.
+     */
+    public double getHitRate() {
+        long requestCount = mHitCount + mMissCount;
+        return (requestCount == 0) ? 1 : (double) mHitCount / requestCount;
+    }
+
+
+    /**
+     * @return The average time spent creating a value. 0 if none has been created.
+     */
+    public long getAverageLoadTimeInNanos() {
+        return (mLoadCount == 0) ? 0 : mTotalLoadTimeInNanos / mLoadCount;
+    }
+}
@@ -0,0 +1,30 @@
+package io.schinzel.awsutils.metrics;
+
+/**
+ * The purpose of this interface is to expose the statistics of a cache over JMX. Each attribute is read from
+ * the cache when it is requested.
+ *
+ * @author Schinzel
+ */
+public interface CacheStatsMXBean {
+
+    long getHitCount();
+
+
+    long getMissCount();
+
+
+    double getHitRate();
+
+
+    long getLoadCount();
+
+
+    long getAverageLoadTimeInNanos();
+
+
+    long getEvictionCount();
+
+
+    long getSize();
+}
@@ -0,0 +1,191 @@
+package io.schinzel.awsutils.metrics;
+
+import io.schinzel.basicutils.thrower.Thrower;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+
+/**
+ * The purpose of this class is to give access to the statistics of the internal caches of this library, such
+ * as the client caches and the queue URL cache.
+ * <p>
+ * The statistics can be read as snapshots with {@link #getStats()}, or be exposed over JMX with
+ * {@link #registerMBeans()}. The MBeans are named "io.schinzel.awsutils:type=Cache,name=[cache name]".
+ * <p>
+ * Caches register when they are created, which is when they are first used. Caches created after
+ * registerMBeans has been called are registered as MBeans when they are created.
+ *
+ * @author Schinzel
+ */
+public class CacheStatsRegistry {
+    /** The domain of the names of the MBeans */
+    private static final String MBEAN_DOMAIN = "io.schinzel.awsutils";
+    /** The statistics of the caches, by cache name */
+    private final Map<String, Supplier<CacheStats>> mCaches = new ConcurrentSkipListMap<>();
+    /** If true, caches are registered as MBeans when they register */
+    private boolean mMBeansEnabled = false;
+
+
+    private static class Holder {
+        static CacheStatsRegistry INSTANCE = new CacheStatsRegistry();
+    }
+
+
+    public static CacheStatsRegistry getInstance() {
+        return Holder.INSTANCE;
+    }
+
+
+    /**
+     * @param name  The name of the cache. A cache registered with the same name is replaced.
+     * @param stats Returns the current statistics of the cache
+     */
+    public synchronized void register(String name, Supplier<CacheStats> stats) {
+        Thrower.createInstance()
+                .throwIfVarEmpty(name, "name")
+                .throwIfVarNull(stats, "stats");
+        mCaches.put(name, stats);
+        if (mMBeansEnabled) {
+            registerMBean(name, stats);
+        }
+    }
+
+
+    /**
+     * @return The current statistics of all registered caches, ordered by name
+     */
+    public List<CacheStats> getStats() {
+        List<CacheStats> statsList = new ArrayList<>();
+        for (Supplier<CacheStats> stats : mCaches.values()) {
+            statsList.add(stats.get());
+        }
+        return statsList;
+    }
+
+
+    /**
+     * @param name The name of a cache
+     * @return The current statistics of the argument cache. Null if no cache with the argument name has
+     * registered.
+     */
+    public CacheStats getStats(String name) {
+        Supplier<CacheStats> stats = mCaches.get(name);
+        return (stats == null) ? null : stats.get();
+    }
+
+
+    /**
+     * Registers all caches, and caches created later, as MBeans with the platform MBean server.
+     *
+     * @return This for chaining
+     */
+    public synchronized CacheStatsRegistry registerMBeans() {
+        mMBeansEnabled = true;
+        mCaches.forEach(CacheStatsRegistry::registerMBean);
+        return this;
+    }
+
+
+    /**
+     * Unregisters the MBeans of all caches.
+     *
+     * @return This for chaining
+     */
+    public synchronized CacheStatsRegistry unregisterMBeans() {
+        mMBeansEnabled = false;
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        for (String name : mCaches.keySet()) {
+            try {
+                ObjectName objectName = getObjectName(name);
+                if (mBeanServer.isRegistered(objectName)) {
+                    mBeanServer.unregisterMBean(objectName);
+                }
+            } catch (JMException e) {
+                throw new RuntimeException("Could not unregister MBean of cache '" + name + "': " + e.getMessage(), e);
+            }
+        }
+        return this;
+    }
+
+
+    private static void registerMBean(String name, Supplier<CacheStats> stats) {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName objectName = getObjectName(name);
+            //A cache with the same name replaces the one registered before
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+            mBeanServer.registerMBean(new CacheStatsBean(stats), objectName);
+        } catch (JMException e) {
+            throw new RuntimeException("Could not register MBean of cache '" + name + "': " + e.getMessage(), e);
+        }
+    }
+
+
+    static ObjectName getObjectName(String name) throws JMException {
+        return new ObjectName(MBEAN_DOMAIN + ":type=Cache,name=" + name);
+    }
+
+
+    /**
+     * Reads the statistics of a cache each time an attribute is requested.
+     */
+    private static class CacheStatsBean implements CacheStatsMXBean {
+        private final Supplier<CacheStats> mStats;
+
+
+        CacheStatsBean(Supplier<CacheStats> stats) {
+            mStats = stats;
+        }
+
+
+        @Override
+        public long getHitCount() {
+            return mStats.get().getHitCount();
+        }
+
+
+        @Override
+        public long getMissCount() {
+            return mStats.get().getMissCount();
+        }
+
+
+        @Override
+        public double getHitRate() {
+            return mStats.get().getHitRate();
+        }
+
+
+        @Override
+        public long getLoadCount() {
+            return mStats.get().getLoadCount();
+        }
+
+
+        @Override
+        public long getAverageLoadTimeInNanos() {
+            return mStats.get().getAverageLoadTimeInNanos();
+        }
+
+
+        @Override
+        public long getEvictionCount() {
+            return mStats.get().getEvictionCount();
+        }
+
+
+        @Override
+        public long getSize() {
+            return mStats.get().getSize();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package io.schinzel.awsutils.metrics;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The purpose of this class is to hold latency histograms and counters per operation and bucket or queue in
+ * memory, so that they can be read by the application, for example to be exported to a metrics system.
+ * <p>
+ * Sample:
+ * <pre>
+ * HistogramRecorder recorder = new HistogramRecorder();
+ * Metrics.getInstance().setRecorder(recorder);
+ * ...
+ * OperationStats stats = recorder.getStats(Operation.S3_READ, "my-bucket");
+ * long p99InNanos = stats.getLatencies().getValueAtPercentile(99);
+ * </pre>
+ *
+ * @author Schinzel
+ */
+public class HistogramRecorder implements IMetricsRecorder {
+    /** Per operation, the stats per bucket or queue name */
+    private final Map<Operation, Map<String, OperationStats>> mStats = new EnumMap<>(Operation.class);
+
+
+    public HistogramRecorder() {
+        for (Operation operation : Operation.values()) {
+            mStats.put(operation, new ConcurrentHashMap<>());
+        }
+    }
+
+
+    @Override
+    public void record(Operation operation, String target, long durationInNanos, long bytes, boolean failed) {
+        this.getOrCreateStats(operation, target).record(durationInNanos, bytes, failed);
+    }
+
+
+    @Override
+    public void recordRetries(Operation operation, String target, int retries) {
+        this.getOrCreateStats(operation, target).recordRetries(retries);
+    }
+
+
+    /**
+     * @param operation An operation
+     * @param target    The name of a bucket or queue
+     * @return The stats of the argument operation on the argument bucket or queue. Null if none has been
+     * recorded.
+     */
+    public OperationStats getStats(Operation operation, String target) {
+        return mStats.get(operation).get(target);
+    }
+
+
+    /**
+     * @param operation An operation
+     * @return The stats of the argument operation, per bucket or queue name
+     */
+    public Map<String, OperationStats> getStats(Operation operation) {
+        return Collections.unmodifiableMap(mStats.get(operation));
+    }
+
+
+    private OperationStats getOrCreateStats(Operation operation, String target) {
+        Map<String, OperationStats> statsPerTarget = mStats.get(operation);
+        //Get is tried first, as computeIfAbsent locks also if the key exists
+        OperationStats stats = statsPerTarget.get(target);
+        return (stats != null)
+                ? stats
+                : statsPerTarget.computeIfAbsent(target, key -> new OperationStats());
+    }
+}
@@ -0,0 +1,33 @@
+package io.schinzel.awsutils.metrics;
+
+/**
+ * The purpose of this interface is to receive measurements of S3 and SQS operations, for example to pass them
+ * on to a metrics system.
+ * <p>
+ * Methods are called on the threads that do the operations, so implementations should be fast, thread safe
+ * and not throw exceptions.
+ *
+ * @author Schinzel
+ */
+public interface IMetricsRecorder {
+
+    /**
+     * @param operation       The operation
+     * @param target          The name of the bucket or queue of the operation
+     * @param durationInNanos The duration of the operation
+     * @param bytes           The number of bytes read or written. 0 if the operation failed or transfers no
+     *                        content.
+     * @param failed          True if the operation threw an exception
+     */
+    void record(Operation operation, String target, long durationInNanos, long bytes, boolean failed);
+
+
+    /**
+     * Is called when a request of an operation has been retried by the AWS SDK.
+     *
+     * @param operation The operation
+     * @param target    The name of the bucket or queue of the operation
+     * @param retries   The number of retries of the request
+     */
+    void recordRetries(Operation operation, String target, int retries);
+}
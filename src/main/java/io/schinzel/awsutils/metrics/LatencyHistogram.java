@@ -0,0 +1,128 @@
+package io.schinzel.awsutils.metrics;
+
+import io.schinzel.basicutils.thrower.Thrower;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The purpose of this class is to hold the distribution of durations, so that percentiles can be read.
+ * <p>
+ * As in HdrHistogram, each power of two is split into 16 linear buckets, so a percentile is at most 6.25%
+ * larger than the recorded value. The buckets are a fixed array of counters, so recording does not allocate
+ * or lock. Durations from 1 nanosecond up to 2^(MAX_EXPONENT + 1) nanoseconds, about 9.8 hours, are kept
+ * apart. Longer durations are counted in the last bucket.
+ *
+ * @author Schinzel
+ */
+public class LatencyHistogram {
+    /** The number of bits of a value that decide its bucket within a power of two */
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    /** The largest power of two whose values are kept apart, so values below 2^45 ns are */
+    private static final int MAX_EXPONENT = 44;
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+
+    /**
+     * @param durationInNanos A duration. Negative durations are recorded as 0.
+     */
+    public void record(long durationInNanos) {
+        long value = Math.max(0, durationInNanos);
+        mCounts.incrementAndGet(getBucketIndex(value));
+        mCount.incrementAndGet();
+        mSum.addAndGet(value);
+        long max = mMax.get();
+        while (value > max && !mMax.compareAndSet(max, value)) {
+            max = mMax.get();
+        }
+    }
+
+
+    /**
+     * @return The number of recorded durations
+     */
+    public long getCount() {
+        return mCount.get();
+    }
+
+
+    /**
+     * @return The longest recorded duration in nanoseconds. 0 if none has been recorded.
+     */
+    public long getMax() {
+        return mMax.get();
+    }
+
+
+    /**
+     * @return The mean of the recorded durations in nanoseconds. 0 if none has been recorded.
+     */
+    public long getMean() {
+        long count = mCount.get();
+        return (count == 0) ? 0 : mSum.get() / count;
+    }
+
+
+    /**
+     * @param percentile A percentile, e.g. 99.9
+     * @return The duration in nanoseconds that the argument percentage of the recorded durations are less
+     * than or equal to. 0 if none has been recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        Thrower.throwIfTrue(percentile < 0 || percentile > 100).message("percentile must be between 0 and 100");
+        //Is read while durations are recorded, so the total is summed from the buckets that are iterated
+        long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = mCounts.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long countAtPercentile = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long cumulativeCount = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            cumulativeCount += counts[i];
+            if (cumulativeCount >= countAtPercentile) {
+                return Math.min(getBucketUpperBound(i), mMax.get());
+            }
+        }
+        return mMax.get();
+    }
+
+
+    /**
+     * @return The index of the bucket of the argument value
+     */
+    static int getBucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+
+    /**
+     * @return The largest value of the argument bucket
+     */
+    static long getBucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKET_COUNT;
+        long lowerBound = (long) (SUB_BUCKET_COUNT + subBucket) << (exponent - SUB_BUCKET_BITS);
+        return lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -0,0 +1,82 @@
+package io.schinzel.awsutils.metrics;
+
+import io.schinzel.basicutils.thrower.Thrower;
+
+/**
+ * The purpose of this class is to pass the measurements of S3 and SQS operations to the recorder that the
+ * application has set.
+ * <p>
+ * By default no recorder is set and measurements are dropped. Set {@link HistogramRecorder} to hold latency
+ * percentiles, bytes, errors and retries in memory, or an own {@link IMetricsRecorder} to pass them to a
+ * metrics system.
+ *
+ * @author Schinzel
+ */
+public class Metrics {
+    /** Drops all measurements */
+    private static final IMetricsRecorder NO_OP_RECORDER = new IMetricsRecorder() {
+        @Override
+        public void record(Operation operation, String target, long durationInNanos, long bytes, boolean failed) {
+        }
+
+
+        @Override
+        public void recordRetries(Operation operation, String target, int retries) {
+        }
+    };
+    private volatile IMetricsRecorder mRecorder = NO_OP_RECORDER;
+
+
+    private static class Holder {
+        static Metrics INSTANCE = new Metrics();
+    }
+
+
+    public static Metrics getInstance() {
+        return Holder.INSTANCE;
+    }
+
+
+    /**
+     * @param recorder The recorder to pass measurements to
+     * @return This for chaining
+     */
+    public Metrics setRecorder(IMetricsRecorder recorder) {
+        Thrower.throwIfVarNull(recorder, "recorder");
+        mRecorder = recorder;
+        return this;
+    }
+
+
+    /**
+     * Drops measurements from now on.
+     *
+     * @return This for chaining
+     */
+    public Metrics removeRecorder() {
+        mRecorder = NO_OP_RECORDER;
+        return this;
+    }
+
+
+    /**
+     * @param operation The operation
+     * @param target    The name of the bucket or queue of the operation
+     * @param startTime The System.nanoTime when the operation started
+     * @param bytes     The number of bytes read or written
+     * @param failed    True if the operation threw an exception
+     */
+    public void record(Operation operation, String target, long startTime, long bytes, boolean failed) {
+        mRecorder.record(operation, target, System.nanoTime() - startTime, bytes, failed);
+    }
+
+
+    /**
+     * @param operation The operation
+     * @param target    The name of the bucket or queue of the operation
+     * @param retries   The number of retries of a request
+     */
+    public void recordRetries(Operation operation, String target, int retries) {
+        mRecorder.recordRetries(operation, target, retries);
+    }
+}
@@ -0,0 +1,23 @@
+package io.schinzel.awsutils.metrics;
+
+/**
+ * The purpose of this enum is to name the operations that are measured.
+ *
+ * @author Schinzel
+ */
+public enum Operation {
+    /** S3File read, read of a range, readLast, readToFile and readAsync */
+    S3_READ,
+    /** S3File write and writeAsync */
+    S3_WRITE,
+    /** S3File exists, getMetadata and their async versions */
+    S3_EXISTS,
+    /** S3File delete and deleteAsync */
+    S3_DELETE,
+    /** SqsProducer send */
+    SQS_SEND,
+    /** SqsConsumer getMessage. Includes the time waiting for a message to arrive. */
+    SQS_GET_MESSAGE,
+    /** SqsMessage deleteMessageFromQueue */
+    SQS_DELETE_MESSAGE
+}
@@ -0,0 +1,68 @@
+package io.schinzel.awsutils.metrics;
+
+import lombok.Getter;
+import lombok.experimental.Accessors;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The purpose of this class is to hold the measurements of one operation on one bucket or queue.
+ *
+ * @author Schinzel
+ */
+@Accessors(prefix = "m")
+public class OperationStats {
+    /** The durations of the operations, including failed operations */
+    @Getter
+    private final LatencyHistogram mLatencies = new LatencyHistogram();
+    private final AtomicLong mErrorCount = new AtomicLong();
+    private final AtomicLong mBytes = new AtomicLong();
+    private final AtomicLong mRetryCount = new AtomicLong();
+
+
+    void record(long durationInNanos, long bytes, boolean failed) {
+        mLatencies.record(durationInNanos);
+        if (failed) {
+            mErrorCount.incrementAndGet();
+        } else {
+            mBytes.addAndGet(bytes);
+        }
+    }
+
+
+    void recordRetries(int retries) {
+        mRetryCount.addAndGet(retries);
+    }
+
+
+    /**
+     * @return The number of operations, including failed operations
+     */
+    public long getCount() {
+        return mLatencies.getCount();
+    }
+
+
+    /**
+     * @return The number of operations that threw an exception
+     */
+    public long getErrorCount() {
+        return mErrorCount.get();
+    }
+
+
+    /**
+     * @return The total number of bytes read or written
+     */
+    public long getBytes() {
+        return mBytes.get();
+    }
+
+
+    /**
+     * @return The total number of requests retried by the AWS SDK
+     */
+    public long getRetryCount() {
+        return mRetryCount.get();
+    }
+}
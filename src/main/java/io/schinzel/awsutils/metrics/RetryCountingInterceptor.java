@@ -0,0 +1,124 @@
+package io.schinzel.awsutils.metrics;
+
+import software.amazon.awssdk.core.SdkRequest;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.core.interceptor.SdkExecutionAttribute;
+
+/**
+ * The purpose of this class is to count the requests that the AWS SDK retries and pass the counts to
+ * {@link Metrics}.
+ * <p>
+ * Is added to the S3 and SQS clients. The requests of an operation are mapped to the operation, e.g. the
+ * parts of a multipart upload to {@link Operation#S3_WRITE}. Requests of other operations are not counted.
+ * Clients based on the AWS Common Runtime retry inside the runtime, so their retries are not counted.
+ *
+ * @author Schinzel
+ */
+public class RetryCountingInterceptor implements ExecutionInterceptor {
+    /** The number of times the current request has been sent */
+    private static final ExecutionAttribute<Integer> ATTEMPT_COUNT = new ExecutionAttribute<>("AwsUtilsAttemptCount");
+
+
+    private static class Holder {
+        static RetryCountingInterceptor INSTANCE = new RetryCountingInterceptor();
+    }
+
+
+    public static RetryCountingInterceptor getInstance() {
+        return Holder.INSTANCE;
+    }
+
+
+    private RetryCountingInterceptor() {
+    }
+
+
+    @Override
+    public void beforeTransmission(Context.BeforeTransmission context, ExecutionAttributes executionAttributes) {
+        Integer attemptCount = executionAttributes.getAttribute(ATTEMPT_COUNT);
+        executionAttributes.putAttribute(ATTEMPT_COUNT, (attemptCount == null) ? 1 : attemptCount + 1);
+    }
+
+
+    @Override
+    public void afterExecution(Context.AfterExecution context, ExecutionAttributes executionAttributes) {
+        this.recordRetries(context.request(), executionAttributes);
+    }
+
+
+    @Override
+    public void onExecutionFailure(Context.FailedExecution context, ExecutionAttributes executionAttributes) {
+        this.recordRetries(context.request(), executionAttributes);
+    }
+
+
+    private void recordRetries(SdkRequest request, ExecutionAttributes executionAttributes) {
+        Integer attemptCount = executionAttributes.getAttribute(ATTEMPT_COUNT);
+        if (attemptCount == null || attemptCount < 2) {
+            return;
+        }
+        Operation operation = getOperation(executionAttributes.getAttribute(SdkExecutionAttribute.OPERATION_NAME));
+        if (operation == null) {
+            return;
+        }
+        Metrics.getInstance().recordRetries(operation, getTarget(request), attemptCount - 1);
+    }
+
+
+    /**
+     * @param operationName The name of an AWS operation, e.g. "GetObject"
+     * @return The operation that the argument AWS operation is done for. Null if it is not measured.
+     */
+    static Operation getOperation(String operationName) {
+        if (operationName == null) {
+            return null;
+        }
+        switch (operationName) {
+            case "GetObject":
+                return Operation.S3_READ;
+            case "PutObject":
+            case "CreateMultipartUpload":
+            case "UploadPart":
+            case "CompleteMultipartUpload":
+                return Operation.S3_WRITE;
+            case "HeadObject":
+                return Operation.S3_EXISTS;
+            case "DeleteObject":
+                return Operation.S3_DELETE;
+            case "SendMessage":
+                return Operation.SQS_SEND;
+            case "ReceiveMessage":
+                return Operation.SQS_GET_MESSAGE;
+            case "DeleteMessage":
+                return Operation.SQS_DELETE_MESSAGE;
+            default:
+                return null;
+        }
+    }
+
+
+    /**
+     * @return The name of the bucket or queue of the argument request
+     */
+    private static String getTarget(SdkRequest request) {
+        String bucketName = request.getValueForField("Bucket", String.class).orElse(null);
+        if (bucketName != null) {
+            return bucketName;
+        }
+        return request.getValueForField("QueueUrl", String.class)
+                .map(RetryCountingInterceptor::getQueueName)
+                .orElse("");
+    }
+
+
+    /**
+     * @param queueUrl A queue URL, e.g. "https://sqs.eu-west-1.amazonaws.com/123456789012/my_queue.fifo"
+     * @return The name of the queue, e.g. "my_queue.fifo"
+     */
+    private static String getQueueName(String queueUrl) {
+        return queueUrl.substring(queueUrl.lastIndexOf('/') + 1);
+    }
+}
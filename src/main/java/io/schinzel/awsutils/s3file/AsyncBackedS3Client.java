@@ -0,0 +1,86 @@
+package io.schinzel.awsutils.s3file;
+
+import io.schinzel.basicutils.thrower.Thrower;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadBucketRequest;
+import software.amazon.awssdk.services.s3.model.HeadBucketResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * The purpose of this class is to do sync S3 requests over an async client.
+ * <p>
+ * A separate sync client would have its own connection pool and threads. With this class the sync requests
+ * share the connections and threads of the async client that transfers are done with, so there is one of
+ * each per credential.
+ * <p>
+ * A thread waiting for a response can be interrupted. The request is then cancelled.
+ *
+ * @author Schinzel
+ */
+class AsyncBackedS3Client implements IS3SyncClient {
+    private final S3AsyncClient mS3AsyncClient;
+
+
+    AsyncBackedS3Client(S3AsyncClient s3AsyncClient) {
+        Thrower.throwIfVarNull(s3AsyncClient, "s3AsyncClient");
+        mS3AsyncClient = s3AsyncClient;
+    }
+
+
+    @Override
+    public HeadObjectResponse headObject(HeadObjectRequest headObjectRequest) {
+        return await(mS3AsyncClient.headObject(headObjectRequest));
+    }
+
+
+    @Override
+    public HeadBucketResponse headBucket(HeadBucketRequest headBucketRequest) {
+        return await(mS3AsyncClient.headBucket(headBucketRequest));
+    }
+
+
+    @Override
+    public DeleteObjectResponse deleteObject(DeleteObjectRequest deleteObjectRequest) {
+        return await(mS3AsyncClient.deleteObject(deleteObjectRequest));
+    }
+
+
+    @Override
+    public ResponseInputStream<GetObjectResponse> getObject(GetObjectRequest getObjectRequest) {
+        return await(mS3AsyncClient.getObject(getObjectRequest, AsyncResponseTransformer.toBlockingInputStream()));
+    }
+
+
+    /**
+     * Waits for the argument future. If the future failed, the cause is thrown. If the waiting thread is
+     * interrupted, the future is cancelled.
+     */
+    private static <T> T await(CompletableFuture<T> future) {
+        TransferManagers.throwIfSdkThread();
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new RuntimeException(e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for S3 response", e);
+        }
+    }
+}
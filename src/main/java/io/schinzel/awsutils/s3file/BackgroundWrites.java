@@ -0,0 +1,534 @@
+package io.schinzel.awsutils.s3file;
+
+import io.schinzel.basicutils.thrower.Thrower;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * The purpose of this class is to keep track of the writes that S3File does in the background.
+ * <p>
+ * The number of bytes and the number of requests in flight are capped. A background write that would exceed a cap
+ * blocks until enough writes have completed. A single write larger than the byte cap is allowed when nothing else is
+ * in flight.
+ * <p>
+ * Failed writes are recorded. They are reported by {@link #flush()} and {@link #flush(String)}, which wait for all
+ * writes, or all writes to a bucket, to complete.
+ * <p>
+ * Writes can be coalesced. For a coalesced write there is at most one write in flight per file. A coalesced write to
+ * a file that has a write in flight is queued, and replaces any write already queued for the file. When the write in
+ * flight is done, the queued write is started. So for files that are rewritten often only the latest content is
+ * uploaded. The listeners of a replaced write are notified with the outcome of the write that replaced it.
+ * <p>
+ * A queued write takes over the request of the write it follows, so it never waits for the request cap. It is
+ * subject to the byte cap as any other write. If its bytes do not fit, it waits without blocking a thread and is
+ * started when enough bytes have been released. Writes waiting for bytes go before new writes.
+ *
+ * @author Schinzel
+ */
+public class BackgroundWrites {
+    /** Default cap on the number of bytes in flight. 256 MB. */
+    private static final long DEFAULT_MAX_IN_FLIGHT_BYTES = 256L * 1024 * 1024;
+    /** Default cap on the number of requests in flight */
+    private static final int DEFAULT_MAX_IN_FLIGHT_REQUESTS = 500;
+    /** The max number of failed writes held until a flush. Older failures are dropped. */
+    private static final int MAX_STORED_FAILURES = 1000;
+    /** Guards all mutable state of this class */
+    private final Object mLock = new Object();
+    private long mMaxInFlightBytes = DEFAULT_MAX_IN_FLIGHT_BYTES;
+    private int mMaxInFlightRequests = DEFAULT_MAX_IN_FLIGHT_REQUESTS;
+    private long mInFlightBytes = 0;
+    private int mInFlightRequests = 0;
+    /** Key is bucket name. Value is the number of requests in flight to the bucket. */
+    private final Map<String, Integer> mInFlightRequestsPerBucket = new HashMap<>();
+    /** Failed writes not yet reported by a flush */
+    private final Deque<FailedWrite> mFailedWrites = new ArrayDeque<>();
+    /** The total number of failed writes */
+    private long mFailureCount = 0;
+    /** Key is bucket and file name. Holds the files that have a coalesced write in flight. */
+    private final Map<String, CoalescedWrite> mCoalescedWrites = new HashMap<>();
+    /** The total number of coalesced writes that were replaced by a later write and never uploaded */
+    private long mReplacedWriteCount = 0;
+    /** Queued coalesced writes that hold a request in flight and wait for their bytes to fit under the cap */
+    private final Deque<QueuedWrite> mWritesWaitingForBytes = new ArrayDeque<>();
+
+
+    private static class Holder {
+        static BackgroundWrites INSTANCE = new BackgroundWrites();
+    }
+
+
+    public static BackgroundWrites getInstance() {
+        return Holder.INSTANCE;
+    }
+
+
+    /**
+     * @param maxInFlightBytes The max number of bytes that can be in flight in background writes
+     * @return This for chaining
+     */
+    public BackgroundWrites maxInFlightBytes(long maxInFlightBytes) {
+        Thrower.throwIfTrue(maxInFlightBytes < 1).message("maxInFlightBytes must be larger than 0");
+        List<QueuedWrite> startableWrites;
+        synchronized (mLock) {
+            mMaxInFlightBytes = maxInFlightBytes;
+            startableWrites = this.takeWritesThatFitUnsynchronized();
+            mLock.notifyAll();
+        }
+        startableWrites.forEach(this::startQueued);
+        return this;
+    }
+
+
+    /**
+     * @param maxInFlightRequests The max number of background writes that can be in flight
+     * @return This for chaining
+     */
+    public BackgroundWrites maxInFlightRequests(int maxInFlightRequests) {
+        Thrower.throwIfTrue(maxInFlightRequests < 1).message("maxInFlightRequests must be larger than 0");
+        synchronized (mLock) {
+            mMaxInFlightRequests = maxInFlightRequests;
+            mLock.notifyAll();
+        }
+        return this;
+    }
+
+
+    /**
+     * Starts a background write. Blocks while the caps on bytes or requests in flight would be exceeded.
+     *
+     * @param bucketName    The bucket written to
+     * @param fileName      The file written
+     * @param contentLength The number of bytes written
+     * @param uploadStarter Starts the upload and returns its completion future
+     * @param listener      Is notified when the write is done. Can be null.
+     */
+    void write(String bucketName, String fileName, long contentLength,
+               Supplier<CompletableFuture<?>> uploadStarter, IWriteListener listener) {
+        this.acquire(bucketName, contentLength);
+        CompletableFuture<?> completionFuture;
+        try {
+            completionFuture = uploadStarter.get();
+        } catch (RuntimeException e) {
+            this.release(bucketName, contentLength);
+            throw e;
+        }
+        completionFuture.whenComplete((result, throwable) ->
+                this.onWriteComplete(bucketName, fileName, contentLength, unwrap(throwable), listener));
+    }
+
+
+    /**
+     * Starts a background write, or queues it if there is a write in flight to the same file. A queued write
+     * replaces any write already queued for the file.
+     *
+     * @param bucketName    The bucket written to
+     * @param fileName      The file written
+     * @param contentLength The number of bytes written
+     * @param uploadStarter Starts the upload and returns its completion future
+     * @param listener      Is notified when the write, or the write that replaced it, is done. Can be null.
+     */
+    void writeCoalesced(String bucketName, String fileName, long contentLength,
+                        Supplier<CompletableFuture<?>> uploadStarter, IWriteListener listener) {
+        String key = bucketName + "/" + fileName;
+        List<IWriteListener> listeners = new ArrayList<>();
+        if (listener != null) {
+            listeners.add(listener);
+        }
+        synchronized (mLock) {
+            CoalescedWrite coalescedWrite = mCoalescedWrites.get(key);
+            //If there is a write in flight to the file
+            if (coalescedWrite != null) {
+                //If there is a queued write, it is replaced and its listeners are carried over
+                if (coalescedWrite.mQueued != null) {
+                    listeners.addAll(0, coalescedWrite.mQueued.mListeners);
+                    mReplacedWriteCount++;
+                }
+                coalescedWrite.mQueued = new QueuedWrite(key, bucketName, fileName, contentLength, uploadStarter, listeners);
+                return;
+            }
+            mCoalescedWrites.put(key, new CoalescedWrite());
+        }
+        try {
+            this.acquire(bucketName, contentLength);
+        } catch (RuntimeException e) {
+            synchronized (mLock) {
+                mCoalescedWrites.remove(key);
+            }
+            throw e;
+        }
+        this.startCoalesced(key, bucketName, fileName, contentLength, uploadStarter, listeners);
+    }
+
+
+    /**
+     * Starts a coalesced write. The capacity for the write has been acquired by the caller.
+     */
+    private void startCoalesced(String key, String bucketName, String fileName, long contentLength,
+                                Supplier<CompletableFuture<?>> uploadStarter, List<IWriteListener> listeners) {
+        CompletableFuture<?> completionFuture;
+        try {
+            completionFuture = uploadStarter.get();
+        } catch (RuntimeException e) {
+            this.onCoalescedWriteComplete(key, bucketName, fileName, contentLength, e, listeners);
+            return;
+        }
+        completionFuture.whenComplete((result, throwable) ->
+                this.onCoalescedWriteComplete(key, bucketName, fileName, contentLength, unwrap(throwable), listeners));
+    }
+
+
+    /**
+     * Starts a queued coalesced write. Its capacity has been acquired.
+     */
+    private void startQueued(QueuedWrite queuedWrite) {
+        this.startCoalesced(queuedWrite.mKey, queuedWrite.mBucketName, queuedWrite.mFileName,
+                queuedWrite.mContentLength, queuedWrite.mUploadStarter, queuedWrite.mListeners);
+    }
+
+
+    /**
+     * If a write is queued for the file, it takes over the request of the completed write. The bytes of the
+     * completed write are released, and the queued write waits for its bytes as any other write, without blocking.
+     * Else the capacity is released.
+     */
+    private void onCoalescedWriteComplete(String key, String bucketName, String fileName, long contentLength,
+                                          Throwable error, List<IWriteListener> listeners) {
+        this.recordFailure(bucketName, fileName, error);
+        listeners.forEach(listener -> notifyListener(listener, bucketName, fileName, error));
+        List<QueuedWrite> startableWrites;
+        synchronized (mLock) {
+            CoalescedWrite coalescedWrite = mCoalescedWrites.get(key);
+            QueuedWrite queuedWrite = coalescedWrite.mQueued;
+            coalescedWrite.mQueued = null;
+            if (queuedWrite == null) {
+                mCoalescedWrites.remove(key);
+                startableWrites = null;
+            } else {
+                mInFlightBytes -= contentLength;
+                mWritesWaitingForBytes.addLast(queuedWrite);
+                startableWrites = this.takeWritesThatFitUnsynchronized();
+                mLock.notifyAll();
+            }
+        }
+        if (startableWrites == null) {
+            this.release(bucketName, contentLength);
+        } else {
+            startableWrites.forEach(this::startQueued);
+        }
+    }
+
+
+    /**
+     * Waits for all background writes to complete.
+     *
+     * @return This for chaining
+     * @throws RuntimeException If any background write has failed since the last flush
+     */
+    public BackgroundWrites flush() {
+        this.awaitQuiescence(null, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        this.throwIfFailures(null);
+        return this;
+    }
+
+
+    /**
+     * Waits for all background writes to the argument bucket to complete.
+     *
+     * @param bucketName The name of a bucket
+     * @return This for chaining
+     * @throws RuntimeException If any background write to the argument bucket has failed since the last flush
+     */
+    public BackgroundWrites flush(String bucketName) {
+        Thrower.throwIfVarEmpty(bucketName, "bucketName");
+        this.awaitQuiescence(bucketName, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        this.throwIfFailures(bucketName);
+        return this;
+    }
+
+
+    /**
+     * @param timeout The max time to wait
+     * @param unit    The unit of the timeout argument
+     * @return True if all background writes completed within the timeout, else false
+     */
+    public boolean awaitQuiescence(long timeout, TimeUnit unit) {
+        return this.awaitQuiescence(null, timeout, unit);
+    }
+
+
+    /**
+     * @param bucketName The name of a bucket
+     * @param timeout    The max time to wait
+     * @param unit       The unit of the timeout argument
+     * @return True if all background writes to the argument bucket completed within the timeout, else false
+     */
+    public boolean awaitQuiescence(String bucketName, long timeout, TimeUnit unit) {
+        Thrower.throwIfVarNull(unit, "unit");
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (mLock) {
+            while (this.getInFlightRequestsUnsynchronized(bucketName) > 0) {
+                long remainingNanos = deadline - System.nanoTime();
+                if (remainingNanos <= 0) {
+                    return false;
+                }
+                waitOnLock(remainingNanos);
+            }
+            return true;
+        }
+    }
+
+
+    /**
+     * @return The number of background writes in flight
+     */
+    public int getInFlightRequests() {
+        synchronized (mLock) {
+            return mInFlightRequests;
+        }
+    }
+
+
+    /**
+     * @return The number of bytes in flight in background writes
+     */
+    public long getInFlightBytes() {
+        synchronized (mLock) {
+            return mInFlightBytes;
+        }
+    }
+
+
+    /**
+     * @return The total number of coalesced writes that were replaced by a later write before being uploaded
+     */
+    public long getReplacedWriteCount() {
+        synchronized (mLock) {
+            return mReplacedWriteCount;
+        }
+    }
+
+
+    /**
+     * @return The total number of background writes that have failed
+     */
+    public long getFailureCount() {
+        synchronized (mLock) {
+            return mFailureCount;
+        }
+    }
+
+
+    private void acquire(String bucketName, long contentLength) {
+        synchronized (mLock) {
+            while (mInFlightRequests >= mMaxInFlightRequests
+                    || !mWritesWaitingForBytes.isEmpty()
+                    || !this.fitsUnsynchronized(contentLength)) {
+                waitOnLock(Long.MAX_VALUE);
+            }
+            mInFlightRequests++;
+            mInFlightBytes += contentLength;
+            mInFlightRequestsPerBucket.merge(bucketName, 1, Integer::sum);
+        }
+    }
+
+
+    private void release(String bucketName, long contentLength) {
+        List<QueuedWrite> startableWrites;
+        synchronized (mLock) {
+            mInFlightRequests--;
+            mInFlightBytes -= contentLength;
+            mInFlightRequestsPerBucket.computeIfPresent(bucketName, (key, count) -> (count == 1) ? null : count - 1);
+            startableWrites = this.takeWritesThatFitUnsynchronized();
+            mLock.notifyAll();
+        }
+        startableWrites.forEach(this::startQueued);
+    }
+
+
+    /**
+     * Takes the writes waiting for bytes that fit under the byte cap, in the order they started to wait, and
+     * adds their bytes to the bytes in flight. Caller must hold the lock.
+     *
+     * @return The writes to start. Are to be started after the lock is released.
+     */
+    private List<QueuedWrite> takeWritesThatFitUnsynchronized() {
+        List<QueuedWrite> startableWrites = new ArrayList<>();
+        while (!mWritesWaitingForBytes.isEmpty()
+                && this.fitsUnsynchronized(mWritesWaitingForBytes.peekFirst().mContentLength)) {
+            QueuedWrite queuedWrite = mWritesWaitingForBytes.removeFirst();
+            mInFlightBytes += queuedWrite.mContentLength;
+            startableWrites.add(queuedWrite);
+        }
+        return startableWrites;
+    }
+
+
+    /**
+     * A write larger than the byte cap fits when nothing else is in flight.
+     *
+     * @return True if the argument number of bytes fits under the byte cap. Caller must hold the lock.
+     */
+    private boolean fitsUnsynchronized(long contentLength) {
+        return mInFlightBytes == 0 || mInFlightBytes + contentLength <= mMaxInFlightBytes;
+    }
+
+
+    private void onWriteComplete(String bucketName, String fileName, long contentLength, Throwable error,
+                                 IWriteListener listener) {
+        this.recordFailure(bucketName, fileName, error);
+        //Notify listener before release, so that a flush returns after listeners are done
+        notifyListener(listener, bucketName, fileName, error);
+        this.release(bucketName, contentLength);
+    }
+
+
+    /**
+     * @param error If null, nothing is recorded
+     */
+    private void recordFailure(String bucketName, String fileName, Throwable error) {
+        if (error == null) {
+            return;
+        }
+        synchronized (mLock) {
+            mFailureCount++;
+            if (mFailedWrites.size() == MAX_STORED_FAILURES) {
+                mFailedWrites.removeFirst();
+            }
+            mFailedWrites.addLast(new FailedWrite(bucketName, fileName, error));
+        }
+    }
+
+
+    /**
+     * @param listener Can be null
+     */
+    private static void notifyListener(IWriteListener listener, String bucketName, String fileName, Throwable error) {
+        if (listener == null) {
+            return;
+        }
+        try {
+            listener.onWriteComplete(bucketName, fileName, error);
+        } catch (RuntimeException e) {
+            //A failing listener must not break the book keeping of in flight writes
+        }
+    }
+
+
+    /**
+     * @param bucketName If null, failures of all buckets are reported
+     */
+    private void throwIfFailures(String bucketName) {
+        List<FailedWrite> failedWrites = new ArrayList<>();
+        synchronized (mLock) {
+            Iterator<FailedWrite> iterator = mFailedWrites.iterator();
+            while (iterator.hasNext()) {
+                FailedWrite failedWrite = iterator.next();
+                if (bucketName == null || bucketName.equals(failedWrite.mBucketName)) {
+                    failedWrites.add(failedWrite);
+                    iterator.remove();
+                }
+            }
+        }
+        if (failedWrites.isEmpty()) {
+            return;
+        }
+        FailedWrite first = failedWrites.get(0);
+        String exceptionMessage = String.format("%d background writes failed. First failed write was file '%s' in bucket '%s': %s",
+                failedWrites.size(), first.mFileName, first.mBucketName, first.mError.getMessage());
+        RuntimeException exception = new RuntimeException(exceptionMessage, first.mError);
+        failedWrites.stream()
+                .skip(1)
+                .forEach(failedWrite -> exception.addSuppressed(failedWrite.mError));
+        throw exception;
+    }
+
+
+    /**
+     * @param bucketName If null, the requests in flight to all buckets
+     * @return The number of requests in flight. Caller must hold the lock.
+     */
+    private int getInFlightRequestsUnsynchronized(String bucketName) {
+        return (bucketName == null)
+                ? mInFlightRequests
+                : mInFlightRequestsPerBucket.getOrDefault(bucketName, 0);
+    }
+
+
+    /**
+     * Waits on the lock. Caller must hold the lock.
+     */
+    private void waitOnLock(long nanos) {
+        try {
+            TimeUnit.NANOSECONDS.timedWait(mLock, nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for background writes", e);
+        }
+    }
+
+
+    private static Throwable unwrap(Throwable throwable) {
+        return (throwable instanceof CompletionException && throwable.getCause() != null)
+                ? throwable.getCause()
+                : throwable;
+    }
+
+
+    /**
+     * Holds a failed background write.
+     */
+    private static class FailedWrite {
+        private final String mBucketName;
+        private final String mFileName;
+        private final Throwable mError;
+
+        FailedWrite(String bucketName, String fileName, Throwable error) {
+            mBucketName = bucketName;
+            mFileName = fileName;
+            mError = error;
+        }
+    }
+
+
+    /**
+     * Holds the state of a file that has a coalesced write in flight.
+     */
+    private static class CoalescedWrite {
+        /** The write to start when the write in flight is done. Null if there is none. */
+        private QueuedWrite mQueued;
+    }
+
+
+    /**
+     * Holds a coalesced write that waits for the write in flight to the same file.
+     */
+    private static class QueuedWrite {
+        /** The bucket and file name */
+        private final String mKey;
+        private final String mBucketName;
+        private final String mFileName;
+        private final long mContentLength;
+        private final Supplier<CompletableFuture<?>> mUploadStarter;
+        private final List<IWriteListener> mListeners;
+
+        QueuedWrite(String key, String bucketName, String fileName, long contentLength,
+                    Supplier<CompletableFuture<?>> uploadStarter, List<IWriteListener> listeners) {
+            mKey = key;
+            mBucketName = bucketName;
+            mFileName = fileName;
+            mContentLength = contentLength;
+            mUploadStarter = uploadStarter;
+            mListeners = listeners;
+        }
+    }
+}
@@ -1,11 +1,16 @@
 package io.schinzel.awsutils.s3file;
 
-import software.amazon.awssdk.services.s3.S3Client;
+import io.schinzel.awsutils.metrics.CacheStats;
+import io.schinzel.awsutils.metrics.CacheStatsRegistry;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.model.HeadBucketRequest;
 import software.amazon.awssdk.services.s3.model.NoSuchBucketException;
 
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Purpose of this class is to check if a bucket exists, and cache the buckets that do exist.
@@ -28,22 +33,37 @@ import java.util.concurrent.ConcurrentHashMap;
  * ┗━ Name:Download Root:10% Parent:10% Tot:241ms Avg:241.40ms Hits:1
  * ┗━ Name:Delete Root:5% Parent:5% Tot:123ms Avg:123.89ms Hits:1
  * <p>
+ * The statistics of the cache are registered with {@link CacheStatsRegistry} as "BucketCache". Buckets are
+ * never evicted.
+ * <p>
  * Created by Schinzel on 2018-01-03
  */
 class BucketCache {
     /** Cache for existing buckets on S3. */
     private static final Set<String> EXISTING_BUCKETS_CACHE = ConcurrentHashMap.newKeySet();
+    private static final AtomicLong HIT_COUNT = new AtomicLong();
+    private static final AtomicLong MISS_COUNT = new AtomicLong();
+    /** The number of checks that found that a bucket exists */
+    private static final AtomicLong LOAD_COUNT = new AtomicLong();
+    private static final AtomicLong TOTAL_LOAD_TIME_IN_NANOS = new AtomicLong();
+
+    static {
+        CacheStatsRegistry.getInstance().register("BucketCache", BucketCache::getStats);
+    }
 
 
     /**
      * @param bucketName      The name of a bucket
      * @return True if the argument bucket exists, else false
      */
-    static boolean doesBucketExist(S3Client s3Client, String bucketName) {
+    static boolean doesBucketExist(IS3SyncClient s3Client, String bucketName) {
         //If buckets cache contains the argument bucket name
         if (EXISTING_BUCKETS_CACHE.contains(bucketName)) {
+            HIT_COUNT.incrementAndGet();
             return true;
         }
+        MISS_COUNT.incrementAndGet();
+        long startTime = System.nanoTime();
         //Set if bucket exists on S3 or not
         boolean bucketExistsOnS3;
         try {
@@ -58,7 +78,62 @@ class BucketCache {
         if (bucketExistsOnS3) {
             //Add it to cache
             EXISTING_BUCKETS_CACHE.add(bucketName);
+            BucketCache.recordLoad(startTime);
         }
         return bucketExistsOnS3;
     }
+
+
+    /**
+     * See {@link #doesBucketExist(IS3SyncClient, String)}. Checks of several buckets can run concurrently.
+     *
+     * @param bucketName The name of a bucket
+     * @return A future that is true if the argument bucket exists, else false
+     */
+    static CompletableFuture<Boolean> doesBucketExistAsync(S3AsyncClient s3AsyncClient, String bucketName) {
+        if (EXISTING_BUCKETS_CACHE.contains(bucketName)) {
+            HIT_COUNT.incrementAndGet();
+            return CompletableFuture.completedFuture(true);
+        }
+        MISS_COUNT.incrementAndGet();
+        long startTime = System.nanoTime();
+        return s3AsyncClient.headBucket(HeadBucketRequest.builder()
+                        .bucket(bucketName)
+                        .build())
+                .handle((response, throwable) -> {
+                    Throwable error = (throwable instanceof CompletionException) ? throwable.getCause() : throwable;
+                    if (error instanceof NoSuchBucketException) {
+                        return false;
+                    }
+                    if (error != null) {
+                        throw (error instanceof RuntimeException)
+                                ? (RuntimeException) error
+                                : new CompletionException(error);
+                    }
+                    EXISTING_BUCKETS_CACHE.add(bucketName);
+                    BucketCache.recordLoad(startTime);
+                    return true;
+                });
+    }
+
+
+    private static void recordLoad(long startTime) {
+        TOTAL_LOAD_TIME_IN_NANOS.addAndGet(System.nanoTime() - startTime);
+        LOAD_COUNT.incrementAndGet();
+    }
+
+
+    /**
+     * @return The current statistics of the cache
+     */
+    static CacheStats getStats() {
+        return CacheStats.builder()
+                .name("BucketCache")
+                .hitCount(HIT_COUNT.get())
+                .missCount(MISS_COUNT.get())
+                .loadCount(LOAD_COUNT.get())
+                .totalLoadTimeInNanos(TOTAL_LOAD_TIME_IN_NANOS.get())
+                .size(EXISTING_BUCKETS_CACHE.size())
+                .build();
+    }
 }
@@ -0,0 +1,16 @@
+package io.schinzel.awsutils.s3file;
+
+/**
+ * The purpose of this enum is to set how S3File compresses the files it writes.
+ * <p>
+ * Compressed files are written with a Content-Encoding header. Files are decompressed on read based on the
+ * Content-Encoding they were written with, regardless of the compression set on the reading S3File.
+ *
+ * @author Schinzel
+ */
+public enum Compression {
+    /** Files are written as is */
+    NONE,
+    /** Files of text based types, such as HTML, JSON and JavaScript, are written gzipped */
+    GZIP
+}
@@ -0,0 +1,614 @@
+package io.schinzel.awsutils.s3file;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import io.schinzel.basicutils.thrower.Thrower;
+import lombok.Builder;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The purpose of this class is to cache the content of S3 files read with {@link S3File#read()}.
+ * <p>
+ * The cache has two tiers. Files up to maxHeapEntrySize bytes are held in memory in an LRU bounded on the total
+ * number of bytes. Larger files are held in a directory on local disk in an LRU bounded on the total number of
+ * bytes. If no disk directory is set, larger files are not cached. The file of a disk entry is deleted when the
+ * entry is evicted, replaced or invalidated. Files left in the directory by an earlier cache, e.g. of a process
+ * that was killed, are deleted when the cache is created.
+ * <p>
+ * {@link S3File#readToFile(Path)} copies a file cached on disk to its destination and downloads a file that is
+ * not cached straight to its destination, so large files are never read into memory.
+ * <p>
+ * A cached file that was validated within revalidateAfter is returned without a request to S3. Else it is
+ * revalidated with a conditional GET on its ETag. If the file is unchanged, S3 responds with a 304 without
+ * content and the cached content is returned.
+ * <p>
+ * A download that overlaps an invalidation of its file is not cached, as the downloaded content might be
+ * older than the change that caused the invalidation.
+ * <p>
+ * A cache instance is to be shared by the S3File instances that are to use it. It is set with the S3File builder
+ * property contentCache.
+ *
+ * @author Schinzel
+ */
+public class ContentCache {
+    /** HTTP status code returned by S3 if a conditional GET finds the file unchanged */
+    private static final int STATUS_CODE_NOT_MODIFIED = 304;
+    /** The largest file that can be read into memory */
+    private static final long MAX_IN_MEMORY_FILE_SIZE = Integer.MAX_VALUE - 8;
+    private static final long DEFAULT_MAX_HEAP_BYTES = 64L * 1024 * 1024;
+    private static final int DEFAULT_MAX_HEAP_ENTRY_SIZE = 1024 * 1024;
+    private static final long DEFAULT_MAX_DISK_BYTES = 1024L * 1024 * 1024;
+    /** The names of the files of the disk tier. A hash of the cache key, a counter and, while written, a suffix. */
+    private static final Pattern DISK_FILE_NAME_PATTERN = Pattern.compile("[0-9a-f]{64}_[0-9]+(\\.tmp)?");
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    /** The number of stripes of cache keys that invalidations are counted for */
+    private static final int INVALIDATION_STRIPE_COUNT = 1024;
+    /** Files up to this size are cached in memory, larger on disk */
+    private final int mMaxHeapEntrySize;
+    /** The directory of the disk tier. Null if there is no disk tier. */
+    private final Path mDiskDirectory;
+    /** For how long a cached file is returned without being revalidated */
+    private final long mRevalidateAfterInNanos;
+    /** Cached files in memory. Key is bucket name and file name. */
+    private final Cache<String, HeapEntry> mHeapCache;
+    /** Cached files on disk. Key is bucket name and file name. */
+    private final Cache<String, DiskEntry> mDiskCache;
+    /** Used to give each file in the disk tier a unique name */
+    private final AtomicLong mDiskFileCounter = new AtomicLong();
+    /** The number of invalidations per stripe of cache keys. Is used to detect invalidations during downloads. */
+    private final AtomicLongArray mInvalidationCounts = new AtomicLongArray(INVALIDATION_STRIPE_COUNT);
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mRevalidatedHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private final AtomicLong mEvictionCount = new AtomicLong();
+
+
+    /**
+     * @param maxHeapBytes      The max total size of the files cached in memory. Optional, default 64 MB.
+     * @param maxHeapEntrySize  Files up to this size are cached in memory, larger on disk. Optional, default 1 MB.
+     * @param diskDirectory     The directory in which to cache files larger than maxHeapEntrySize. Optional, if not
+     *                          set larger files are not cached. Is not to be shared with another cache.
+     * @param maxDiskBytes      The max total size of the files cached on disk. Optional, default 1 GB.
+     * @param revalidateAfter   For how long a cached file is returned without a request to S3. Optional, by default
+     *                          every read does a conditional request.
+     */
+    @Builder
+    ContentCache(long maxHeapBytes, int maxHeapEntrySize, Path diskDirectory, long maxDiskBytes, Duration revalidateAfter) {
+        Thrower.createInstance()
+                .throwIfTrue(maxHeapBytes < 0, "maxHeapBytes cannot be negative")
+                .throwIfTrue(maxHeapEntrySize < 0, "maxHeapEntrySize cannot be negative")
+                .throwIfTrue(maxDiskBytes < 0, "maxDiskBytes cannot be negative")
+                .throwIfTrue(revalidateAfter != null && revalidateAfter.isNegative(), "revalidateAfter cannot be negative");
+        mMaxHeapEntrySize = (maxHeapEntrySize == 0) ? DEFAULT_MAX_HEAP_ENTRY_SIZE : maxHeapEntrySize;
+        mDiskDirectory = diskDirectory;
+        mRevalidateAfterInNanos = (revalidateAfter == null) ? 0 : revalidateAfter.toNanos();
+        RemovalListener<String, HeapEntry> heapRemovalListener = notification -> {
+            if (notification.wasEvicted()) {
+                mEvictionCount.incrementAndGet();
+            }
+        };
+        mHeapCache = CacheBuilder.newBuilder()
+                .maximumWeight((maxHeapBytes == 0) ? DEFAULT_MAX_HEAP_BYTES : maxHeapBytes)
+                .weigher((String key, HeapEntry entry) -> entry.mContent.length)
+                .removalListener(heapRemovalListener)
+                .build();
+        //The file of a disk entry is deleted when the entry is evicted, replaced or invalidated
+        RemovalListener<String, DiskEntry> diskRemovalListener = notification -> {
+            if (notification.wasEvicted()) {
+                mEvictionCount.incrementAndGet();
+            }
+            deleteIfExists(notification.getValue().mFile);
+        };
+        mDiskCache = CacheBuilder.newBuilder()
+                .maximumWeight((maxDiskBytes == 0) ? DEFAULT_MAX_DISK_BYTES : maxDiskBytes)
+                .weigher((String key, DiskEntry entry) -> (int) Math.min(entry.mSize, Integer.MAX_VALUE))
+                .removalListener(diskRemovalListener)
+                .build();
+        if (mDiskDirectory != null) {
+            try {
+                Files.createDirectories(mDiskDirectory);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            this.deleteLeftoverDiskFiles();
+        }
+    }
+
+
+    /**
+     * Deletes the files of the disk tier that an earlier cache left in the disk directory. Other files in the
+     * directory are left as they are.
+     */
+    private void deleteLeftoverDiskFiles() {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(mDiskDirectory)) {
+            for (Path file : files) {
+                if (DISK_FILE_NAME_PATTERN.matcher(file.getFileName().toString()).matches()) {
+                    deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    /**
+     * @param s3Client   The client to use for requests to S3
+     * @param bucketName The name of a bucket
+     * @param fileName   The name of a file
+     * @return The content of the argument file. If there was no such file, an empty array is returned.
+     */
+    byte[] read(IS3SyncClient s3Client, String bucketName, String fileName) {
+        String cacheKey = getCacheKey(bucketName, fileName);
+        Entry entry = this.getEntry(cacheKey);
+        if (entry != null && System.nanoTime() - entry.mValidatedAt < mRevalidateAfterInNanos) {
+            byte[] content = this.getContent(cacheKey, entry);
+            if (content != null) {
+                mHitCount.incrementAndGet();
+                return content;
+            }
+            entry = null;
+        }
+        long invalidationCount = this.getInvalidationCount(cacheKey);
+        GetObjectRequest getObjectRequest = getObjectRequest(bucketName, fileName, entry);
+        try (ResponseInputStream<GetObjectResponse> inputStream = s3Client.getObject(getObjectRequest)) {
+            mMissCount.incrementAndGet();
+            GetObjectResponse response = inputStream.response();
+            byte[] fileContent;
+            //Compressed files are cached decompressed
+            if (GzipCodec.isGzip(response.contentEncoding())) {
+                fileContent = GzipCodec.decompress(inputStream, response.metadata());
+            } else {
+                long contentLength = response.contentLength();
+                Thrower.throwIfTrue(contentLength > MAX_IN_MEMORY_FILE_SIZE)
+                        .message("File is " + contentLength + " bytes which is too large to read into memory. Use readToFile.");
+                fileContent = new byte[(int) contentLength];
+                ByteStreams.readFully(inputStream, fileContent);
+            }
+            if (this.getInvalidationCount(cacheKey) == invalidationCount) {
+                this.put(cacheKey, response.eTag(), fileContent);
+                this.removeIfInvalidatedSince(cacheKey, invalidationCount);
+            }
+            return fileContent;
+        } catch (NoSuchKeyException e) {
+            mMissCount.incrementAndGet();
+            this.invalidate(bucketName, fileName);
+            return new byte[0];
+        } catch (S3Exception e) {
+            if (e.statusCode() == STATUS_CODE_NOT_MODIFIED && entry != null) {
+                byte[] content = this.getContent(cacheKey, entry);
+                //If the file of a disk entry has been removed, the file is read again without condition
+                if (content == null) {
+                    return this.read(s3Client, bucketName, fileName);
+                }
+                entry.mValidatedAt = System.nanoTime();
+                mRevalidatedHitCount.incrementAndGet();
+                return content;
+            }
+            String exceptionMessage = String.format("S3 error when reading file '%s' from bucket '%s': ", fileName, bucketName);
+            throw new RuntimeException(exceptionMessage + e.getMessage(), e);
+        } catch (IOException e) {
+            String exceptionMessage = String.format("IO error when reading S3 file '%s' from bucket '%s': ", fileName, bucketName);
+            throw new RuntimeException(exceptionMessage + e.getMessage(), e);
+        }
+    }
+
+
+    /**
+     * Writes the content of the argument file to the argument destination. A file cached on disk is copied and a
+     * file that is not cached is downloaded straight to the destination, so neither is read into memory. If the
+     * destination file exists it is overwritten. If there was no such file, an empty destination file is created.
+     *
+     * @param s3Client    The client to use for requests to S3
+     * @param bucketName  The name of a bucket
+     * @param fileName    The name of a file
+     * @param destination The local file to write to
+     */
+    void readToFile(IS3SyncClient s3Client, String bucketName, String fileName, Path destination) {
+        String cacheKey = getCacheKey(bucketName, fileName);
+        Entry entry = this.getEntry(cacheKey);
+        try {
+            if (entry != null && System.nanoTime() - entry.mValidatedAt < mRevalidateAfterInNanos) {
+                if (this.copyContent(cacheKey, entry, destination)) {
+                    mHitCount.incrementAndGet();
+                    return;
+                }
+                entry = null;
+            }
+            long invalidationCount = this.getInvalidationCount(cacheKey);
+            GetObjectRequest getObjectRequest = getObjectRequest(bucketName, fileName, entry);
+            //The decompressing stream is a resource of its own, so that the native memory of its inflater is freed
+            try (ResponseInputStream<GetObjectResponse> inputStream = s3Client.getObject(getObjectRequest);
+                 InputStream content = getDecompressedStream(inputStream)) {
+                mMissCount.incrementAndGet();
+                Files.copy(content, destination, StandardCopyOption.REPLACE_EXISTING);
+                if (this.getInvalidationCount(cacheKey) == invalidationCount) {
+                    this.put(cacheKey, inputStream.response().eTag(), destination);
+                    this.removeIfInvalidatedSince(cacheKey, invalidationCount);
+                }
+            }
+        } catch (NoSuchKeyException e) {
+            mMissCount.incrementAndGet();
+            this.invalidate(cacheKey);
+            writeEmptyFile(destination);
+        } catch (S3Exception e) {
+            if (e.statusCode() == STATUS_CODE_NOT_MODIFIED && entry != null) {
+                //If the file of a disk entry has been removed, the file is read again without condition
+                if (!this.copyContentUnchecked(cacheKey, entry, destination)) {
+                    this.readToFile(s3Client, bucketName, fileName, destination);
+                    return;
+                }
+                entry.mValidatedAt = System.nanoTime();
+                mRevalidatedHitCount.incrementAndGet();
+                return;
+            }
+            String exceptionMessage = String.format("S3 error when downloading file '%s' from bucket '%s': ", fileName, bucketName);
+            throw new RuntimeException(exceptionMessage + e.getMessage(), e);
+        } catch (IOException e) {
+            String exceptionMessage = String.format("IO error when downloading S3 file '%s' from bucket '%s': ", fileName, bucketName);
+            throw new RuntimeException(exceptionMessage + e.getMessage(), e);
+        }
+    }
+
+
+    /**
+     * Removes the argument file from the cache. Is to be called when the file has been changed.
+     *
+     * @param bucketName The name of a bucket
+     * @param fileName   The name of a file
+     */
+    public void invalidate(String bucketName, String fileName) {
+        this.invalidate(getCacheKey(bucketName, fileName));
+    }
+
+
+    /**
+     * Removes all files from the cache.
+     */
+    public void invalidateAll() {
+        for (int i = 0; i < INVALIDATION_STRIPE_COUNT; i++) {
+            mInvalidationCounts.incrementAndGet(i);
+        }
+        mHeapCache.invalidateAll();
+        mDiskCache.invalidateAll();
+    }
+
+
+    /**
+     * @return The number of reads served from the cache without a request to S3
+     */
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+
+    /**
+     * @return The number of reads served from the cache after S3 responded that the file was unchanged
+     */
+    public long getRevalidatedHitCount() {
+        return mRevalidatedHitCount.get();
+    }
+
+
+    /**
+     * @return The number of reads for which the content was downloaded from S3
+     */
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+
+    /**
+     * @return The number of files removed from the cache to make room for other files
+     */
+    public long getEvictionCount() {
+        return mEvictionCount.get();
+    }
+
+
+    /**
+     * @return The total size in bytes of the files cached in memory
+     */
+    public long getHeapBytes() {
+        return mHeapCache.asMap().values().stream()
+                .mapToLong(entry -> entry.mContent.length)
+                .sum();
+    }
+
+
+    /**
+     * @return The total size in bytes of the files cached on disk
+     */
+    public long getDiskBytes() {
+        return mDiskCache.asMap().values().stream()
+                .mapToLong(entry -> entry.mSize)
+                .sum();
+    }
+
+
+    /**
+     * The invalidation is counted before the entry is removed. So a download that puts its content after the
+     * removal sees the invalidation and removes the content again.
+     */
+    private void invalidate(String cacheKey) {
+        mInvalidationCounts.incrementAndGet(getInvalidationStripe(cacheKey));
+        this.remove(cacheKey);
+    }
+
+
+    private void remove(String cacheKey) {
+        mHeapCache.invalidate(cacheKey);
+        mDiskCache.invalidate(cacheKey);
+    }
+
+
+    /**
+     * @return The number of invalidations of the stripe of the argument key. Is read before a download starts.
+     */
+    private long getInvalidationCount(String cacheKey) {
+        return mInvalidationCounts.get(getInvalidationStripe(cacheKey));
+    }
+
+
+    /**
+     * Removes the argument key if it has been invalidated since the argument invalidation count was read, as
+     * the content put by the download might then be stale. Is called after the content has been put. A key that
+     * shares stripe with an invalidated key is removed as well, which only costs a download.
+     */
+    private void removeIfInvalidatedSince(String cacheKey, long invalidationCount) {
+        if (this.getInvalidationCount(cacheKey) != invalidationCount) {
+            this.remove(cacheKey);
+        }
+    }
+
+
+    private static int getInvalidationStripe(String cacheKey) {
+        return (cacheKey.hashCode() & Integer.MAX_VALUE) % INVALIDATION_STRIPE_COUNT;
+    }
+
+
+    /**
+     * @return A stream of the decompressed content if the argument response is compressed, else the argument
+     * stream. Compressed files are cached decompressed.
+     */
+    private static InputStream getDecompressedStream(ResponseInputStream<GetObjectResponse> inputStream)
+            throws IOException {
+        return GzipCodec.isGzip(inputStream.response().contentEncoding())
+                ? new GZIPInputStream(inputStream, GzipCodec.STREAM_BUFFER_SIZE)
+                : inputStream;
+    }
+
+
+    /**
+     * @return The cached entry for the argument key. Null if there is none.
+     */
+    private Entry getEntry(String cacheKey) {
+        Entry entry = mHeapCache.getIfPresent(cacheKey);
+        return (entry != null)
+                ? entry
+                : mDiskCache.getIfPresent(cacheKey);
+    }
+
+
+    /**
+     * @return A request for the argument file. If there is a cached entry, the request is conditional on its ETag.
+     */
+    private static GetObjectRequest getObjectRequest(String bucketName, String fileName, Entry entry) {
+        return GetObjectRequest.builder()
+                .bucket(bucketName)
+                .key(fileName)
+                .ifNoneMatch((entry == null) ? null : entry.mETag)
+                .build();
+    }
+
+
+    /**
+     * @return The content of the argument entry. Null if the file of a disk entry has been removed.
+     */
+    private byte[] getContent(String cacheKey, Entry entry) {
+        if (entry instanceof HeapEntry) {
+            //A copy is returned so that callers cannot change the cached content
+            return ((HeapEntry) entry).mContent.clone();
+        }
+        try {
+            return Files.readAllBytes(((DiskEntry) entry).mFile);
+        } catch (NoSuchFileException e) {
+            mDiskCache.invalidate(cacheKey);
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    /**
+     * Writes the content of the argument entry to the argument destination. The file of a disk entry is copied
+     * without being read into memory.
+     *
+     * @return False if the file of a disk entry has been removed, else true
+     */
+    private boolean copyContent(String cacheKey, Entry entry, Path destination) throws IOException {
+        if (entry instanceof HeapEntry) {
+            Files.write(destination, ((HeapEntry) entry).mContent);
+            return true;
+        }
+        try {
+            Files.copy(((DiskEntry) entry).mFile, destination, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (NoSuchFileException e) {
+            mDiskCache.invalidate(cacheKey);
+            return false;
+        }
+    }
+
+
+    /**
+     * See {@link #copyContent(String, Entry, Path)}
+     */
+    private boolean copyContentUnchecked(String cacheKey, Entry entry, Path destination) {
+        try {
+            return this.copyContent(cacheKey, entry, destination);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    private static void writeEmptyFile(Path destination) {
+        try {
+            Files.write(destination, new byte[0]);
+        } catch (IOException e) {
+            String exceptionMessage = String.format("IO error when creating empty file '%s': ", destination);
+            throw new RuntimeException(exceptionMessage + e.getMessage(), e);
+        }
+    }
+
+
+    /**
+     * Adds the argument content to the tier its size belongs to. Content too large for memory is not cached if
+     * there is no disk tier.
+     */
+    private void put(String cacheKey, String eTag, byte[] content) {
+        if (content.length <= mMaxHeapEntrySize) {
+            mDiskCache.invalidate(cacheKey);
+            mHeapCache.put(cacheKey, new HeapEntry(eTag, content.clone()));
+        } else if (mDiskDirectory != null) {
+            mHeapCache.invalidate(cacheKey);
+            Path file = this.newDiskFile(cacheKey);
+            Path tempFile = getTempFile(file);
+            try {
+                Files.write(tempFile, content);
+                Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                deleteIfExists(tempFile);
+                throw new UncheckedIOException(e);
+            }
+            mDiskCache.put(cacheKey, new DiskEntry(eTag, file, content.length));
+        } else {
+            this.remove(cacheKey);
+        }
+    }
+
+
+    /**
+     * Adds the content of the argument local file to the tier its size belongs to. Content too large for memory
+     * is copied to the disk tier without being read into memory, and is not cached if there is no disk tier.
+     */
+    private void put(String cacheKey, String eTag, Path localFile) throws IOException {
+        long size = Files.size(localFile);
+        if (size <= mMaxHeapEntrySize) {
+            this.put(cacheKey, eTag, Files.readAllBytes(localFile));
+        } else if (mDiskDirectory != null) {
+            mHeapCache.invalidate(cacheKey);
+            Path file = this.newDiskFile(cacheKey);
+            Path tempFile = getTempFile(file);
+            try {
+                Files.copy(localFile, tempFile);
+                Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                deleteIfExists(tempFile);
+                throw e;
+            }
+            mDiskCache.put(cacheKey, new DiskEntry(eTag, file, size));
+        } else {
+            this.remove(cacheKey);
+        }
+    }
+
+
+    /**
+     * @return A new file in the disk directory for the argument key. Is unique as it ends with a counter.
+     */
+    private Path newDiskFile(String cacheKey) {
+        String diskFileName = Hashing.sha256().hashString(cacheKey, StandardCharsets.UTF_8)
+                + "_" + mDiskFileCounter.incrementAndGet();
+        return mDiskDirectory.resolve(diskFileName);
+    }
+
+
+    /**
+     * @return The file that the argument disk file is written to before it is moved in place
+     */
+    private static Path getTempFile(Path file) {
+        return file.resolveSibling(file.getFileName() + TEMP_FILE_SUFFIX);
+    }
+
+
+    private static void deleteIfExists(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            //A file that cannot be deleted only takes up disk space
+        }
+    }
+
+
+    private static String getCacheKey(String bucketName, String fileName) {
+        return bucketName + "/" + fileName;
+    }
+
+
+    /**
+     * A cached file.
+     */
+    private abstract static class Entry {
+        private final String mETag;
+        /** When S3 last confirmed the content, as given by System.nanoTime */
+        private volatile long mValidatedAt;
+
+        Entry(String eTag) {
+            mETag = eTag;
+            mValidatedAt = System.nanoTime();
+        }
+    }
+
+
+    /**
+     * A file cached in memory.
+     */
+    private static class HeapEntry extends Entry {
+        private final byte[] mContent;
+
+        HeapEntry(String eTag, byte[] content) {
+            super(eTag);
+            mContent = content;
+        }
+    }
+
+
+    /**
+     * A file cached on disk.
+     */
+    private static class DiskEntry extends Entry {
+        private final Path mFile;
+        private final long mSize;
+
+        DiskEntry(String eTag, Path file, long size) {
+            super(eTag);
+            mFile = file;
+            mSize = size;
+        }
+    }
+}
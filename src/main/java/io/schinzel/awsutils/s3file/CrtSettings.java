@@ -0,0 +1,60 @@
+package io.schinzel.awsutils.s3file;
+
+import io.schinzel.basicutils.thrower.Thrower;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.experimental.Accessors;
+
+/**
+ * The purpose of this class is to hold the settings of an S3 client based on the AWS Common Runtime (CRT).
+ * <p>
+ * The CRT client splits uploads and downloads into parts automatically and opens as many connections as
+ * required to reach the target throughput. For large files on instances with fast network interfaces this is
+ * considerably faster than the default client.
+ * <p>
+ * Requires the dependency software.amazon.awssdk.crt:aws-crt.
+ *
+ * @author Schinzel
+ */
+@Getter
+@Accessors(prefix = "m")
+public class CrtSettings {
+    /** Default target throughput in gigabits per second */
+    private static final double DEFAULT_TARGET_THROUGHPUT_IN_GBPS = 10;
+    /** Default minimum size in bytes of the parts of uploads and downloads. 8 MB. */
+    private static final long DEFAULT_MINIMUM_PART_SIZE_IN_BYTES = 8 * 1024 * 1024;
+    /** The throughput the client opens connections to reach */
+    private final double mTargetThroughputInGbps;
+    /** The minimum size in bytes of the parts of uploads and downloads */
+    private final long mMinimumPartSizeInBytes;
+    /** The max number of concurrent requests. 0 if the client derives it from the target throughput. */
+    private final int mMaxConcurrency;
+
+
+    /**
+     * @param targetThroughputInGbps The throughput in gigabits per second to aim for. Should be about the
+     *                               bandwidth of the network interface. Optional, default 10.
+     * @param minimumPartSizeInBytes The minimum size in bytes of the parts of uploads and downloads.
+     *                               Optional, default 8 MB.
+     * @param maxConcurrency         The max number of concurrent requests. Optional, by default derived from
+     *                               the target throughput.
+     */
+    @Builder
+    CrtSettings(double targetThroughputInGbps, long minimumPartSizeInBytes, int maxConcurrency) {
+        Thrower.createInstance()
+                .throwIfTrue(targetThroughputInGbps < 0, "targetThroughputInGbps cannot be negative")
+                .throwIfTrue(minimumPartSizeInBytes < 0, "minimumPartSizeInBytes cannot be negative")
+                .throwIfTrue(maxConcurrency < 0, "maxConcurrency cannot be negative");
+        mTargetThroughputInGbps = (targetThroughputInGbps == 0) ? DEFAULT_TARGET_THROUGHPUT_IN_GBPS : targetThroughputInGbps;
+        mMinimumPartSizeInBytes = (minimumPartSizeInBytes == 0) ? DEFAULT_MINIMUM_PART_SIZE_IN_BYTES : minimumPartSizeInBytes;
+        mMaxConcurrency = maxConcurrency;
+    }
+
+
+    /**
+     * @return A key that is the same for settings with the same values. Is used to cache clients.
+     */
+    String getCacheKey() {
+        return "crt_" + mTargetThroughputInGbps + "_" + mMinimumPartSizeInBytes + "_" + mMaxConcurrency;
+    }
+}
@@ -0,0 +1,63 @@
+package io.schinzel.awsutils.s3file;
+
+import lombok.Getter;
+import lombok.experimental.Accessors;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The purpose of this class is to hold the outcome of a batch delete of S3 files.
+ *
+ * @author Schinzel
+ */
+@Getter
+@Accessors(prefix = "m")
+public class DeleteResult {
+    /** The number of files that were deleted, or did not exist */
+    private final long mDeletedCount;
+    /** The files that could not be deleted */
+    private final List<Failure> mFailures;
+
+
+    DeleteResult(long deletedCount, List<Failure> failures) {
+        mDeletedCount = deletedCount;
+        mFailures = Collections.unmodifiableList(failures);
+    }
+
+
+    /**
+     * @return True if all files were deleted, else false
+     */
+    public boolean isSuccessful() {
+        return mFailures.isEmpty();
+    }
+
+
+    /**
+     * Holds a file that could not be deleted and why.
+     */
+    @Getter
+    @Accessors(prefix = "m")
+    public static class Failure {
+        /** The name of the file that could not be deleted */
+        private final String mFileName;
+        /** The S3 error code, e.g. "AccessDenied". The name of the exception if the whole request failed. */
+        private final String mCode;
+        /** A description of the error */
+        private final String mMessage;
+
+
+        Failure(String fileName, String code, String message) {
+            mFileName = fileName;
+            mCode = code;
+            mMessage = message;
+        }
+
+
+        @Override
+        public String toString() {
+            return mFileName + " (" + mCode + ": " + mMessage + ")";
+        }
+    }
+}
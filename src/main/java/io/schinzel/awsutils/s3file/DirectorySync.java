@@ -0,0 +1,386 @@
+package io.schinzel.awsutils.s3file;
+
+import com.google.common.base.Strings;
+import com.google.common.hash.Hashing;
+import io.schinzel.basicutils.thrower.Thrower;
+import lombok.Builder;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.transfer.s3.model.UploadFileRequest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The purpose of this class is to upload a local directory to a bucket prefix, uploading only the files that are
+ * new or changed.
+ * <p>
+ * A local file is unchanged if a remote file with the same name has the same size and an ETag that equals the
+ * MD5 of the local file. The ETag of a file uploaded in multiple parts is not an MD5, so such files are uploaded
+ * again unless a checksum index is used.
+ * <p>
+ * The optional checksum index is a local file that holds size, last modified, MD5 and the ETag after upload of
+ * each synced file. With it, files whose size and last modified are unchanged are not read to compute the MD5,
+ * and files uploaded in multiple parts are recognized as unchanged as long as their remote ETag is unchanged.
+ * <p>
+ * Files are uploaded concurrently with the transfer manager of the bucket. If deleteOrphans is set, remote files
+ * under the prefix that do not exist locally are deleted.
+ *
+ * @author Schinzel
+ */
+public class DirectorySync {
+    private static final int DEFAULT_PARALLELISM = 8;
+    private final S3Bucket mBucket;
+    private final Path mLocalDirectory;
+    /** The prefix of the remote files. Empty or ends with a slash. */
+    private final String mPrefix;
+    private final boolean mDeleteOrphans;
+    /** The max number of concurrent uploads */
+    private final int mParallelism;
+    /** The file that holds the checksum index. Null if no index is used. */
+    private final Path mChecksumIndexFile;
+
+
+    /**
+     * @param bucket            The bucket to sync to
+     * @param localDirectory    The directory to upload
+     * @param prefix            The prefix of the remote files, e.g. "assets/". Optional, by default the files are
+     *                          uploaded to the root of the bucket.
+     * @param deleteOrphans     If true, remote files under the prefix that do not exist locally are deleted
+     * @param parallelism       The max number of concurrent uploads. Optional, default 8.
+     * @param checksumIndexFile A local file in which to keep checksums between syncs. Optional.
+     */
+    @Builder
+    DirectorySync(S3Bucket bucket, Path localDirectory, String prefix, boolean deleteOrphans, int parallelism,
+                  Path checksumIndexFile) {
+        Thrower.createInstance()
+                .throwIfVarNull(bucket, "bucket")
+                .throwIfVarNull(localDirectory, "localDirectory")
+                .throwIfFalse(Files.isDirectory(localDirectory), "localDirectory must be a directory")
+                .throwIfTrue(parallelism < 0, "parallelism cannot be negative");
+        mBucket = bucket;
+        mLocalDirectory = localDirectory.toAbsolutePath().normalize();
+        String nonNullPrefix = Strings.nullToEmpty(prefix);
+        mPrefix = (nonNullPrefix.isEmpty() || nonNullPrefix.endsWith("/"))
+                ? nonNullPrefix
+                : nonNullPrefix + "/";
+        mDeleteOrphans = deleteOrphans;
+        mParallelism = (parallelism == 0) ? DEFAULT_PARALLELISM : parallelism;
+        mChecksumIndexFile = (checksumIndexFile == null) ? null : checksumIndexFile.toAbsolutePath().normalize();
+    }
+
+
+    /**
+     * @return The files that were uploaded, unchanged, deleted and failed
+     */
+    public SyncResult sync() {
+        Map<String, S3ListEntry> remoteFiles;
+        try (Stream<S3ListEntry> stream = mBucket.list(mPrefix)) {
+            remoteFiles = stream.collect(Collectors.toMap(S3ListEntry::getFileName, entry -> entry));
+        }
+        Map<String, IndexEntry> index = this.readIndex();
+        Map<String, IndexEntry> newIndex = new ConcurrentHashMap<>();
+        Queue<String> uploadedFiles = new ConcurrentLinkedQueue<>();
+        Map<String, Throwable> failures = new ConcurrentHashMap<>();
+        AtomicLong unchangedCount = new AtomicLong();
+        Semaphore uploadsInFlight = new Semaphore(mParallelism);
+        List<CompletableFuture<?>> uploads = new ArrayList<>();
+        List<Path> localFiles = this.getLocalFiles();
+        for (Path localFile : localFiles) {
+            String relativePath = this.getRelativePath(localFile);
+            String fileName = mPrefix + relativePath;
+            S3ListEntry remoteFile = remoteFiles.remove(fileName);
+            try {
+                LocalFile file = new LocalFile(localFile, index.get(relativePath));
+                if (remoteFile != null && file.isSameAs(remoteFile)) {
+                    unchangedCount.incrementAndGet();
+                    newIndex.put(relativePath, file.toIndexEntry(remoteFile.getETag()));
+                    continue;
+                }
+                uploadsInFlight.acquireUninterruptibly();
+                CompletableFuture<String> upload;
+                try {
+                    upload = this.upload(fileName, localFile);
+                } catch (RuntimeException e) {
+                    uploadsInFlight.release();
+                    throw e;
+                }
+                uploads.add(upload
+                        .whenComplete((eTag, throwable) -> {
+                            if (throwable != null) {
+                                failures.put(fileName, unwrap(throwable));
+                            } else {
+                                uploadedFiles.add(fileName);
+                                newIndex.put(relativePath, file.toIndexEntry(eTag));
+                            }
+                            uploadsInFlight.release();
+                        }));
+            } catch (RuntimeException e) {
+                failures.put(fileName, e);
+            }
+        }
+        CompletableFuture.allOf(uploads.toArray(new CompletableFuture<?>[0]))
+                .exceptionally(throwable -> null)
+                .join();
+        //The remote files left are the ones that do not exist locally
+        List<String> deletedFiles = new ArrayList<>();
+        if (mDeleteOrphans && !remoteFiles.isEmpty()) {
+            DeleteResult deleteResult = mBucket.delete(remoteFiles.keySet());
+            Map<String, DeleteResult.Failure> deleteFailures = deleteResult.getFailures().stream()
+                    .collect(Collectors.toMap(DeleteResult.Failure::getFileName, failure -> failure, (a, b) -> a));
+            for (String fileName : remoteFiles.keySet()) {
+                DeleteResult.Failure failure = deleteFailures.get(fileName);
+                if (failure == null) {
+                    deletedFiles.add(fileName);
+                } else {
+                    failures.put(fileName, new RuntimeException("Could not delete S3 file: " + failure));
+                }
+            }
+        }
+        this.writeIndex(newIndex);
+        List<String> uploaded = new ArrayList<>(uploadedFiles);
+        Collections.sort(uploaded);
+        Collections.sort(deletedFiles);
+        return new SyncResult(uploaded, unchangedCount.get(), deletedFiles, new HashMap<>(failures));
+    }
+
+
+    /**
+     * @param fileName  The name of the remote file
+     * @param localFile The file to upload
+     * @return A future for the ETag of the uploaded file
+     */
+    private CompletableFuture<String> upload(String fileName, Path localFile) {
+        PutObjectRequest putObjectRequest = PutObjectRequest.builder()
+                .bucket(mBucket.getBucketName())
+                .key(fileName)
+                //If the file type is not known, S3 uses its default content type
+                .contentType(HttpFileHeaders.hasFileHeader(fileName) ? HttpFileHeaders.getFileHeader(fileName) : null)
+                .cacheControl(S3File.CACHE_CONTROL)
+                .build();
+        mBucket.invalidateCaches(fileName);
+        return mBucket.getTransferManager()
+                .uploadFile(UploadFileRequest.builder()
+                        .putObjectRequest(putObjectRequest)
+                        .source(localFile)
+                        .build())
+                .completionFuture()
+                .thenApply(completedUpload -> {
+                    mBucket.invalidateCaches(fileName);
+                    return completedUpload.response().eTag();
+                });
+    }
+
+
+    /**
+     * @return The regular files in the local directory and its sub directories, except the checksum index
+     */
+    private List<Path> getLocalFiles() {
+        try (Stream<Path> paths = Files.walk(mLocalDirectory)) {
+            return paths
+                    .filter(Files::isRegularFile)
+                    .filter(path -> !path.toAbsolutePath().normalize().equals(mChecksumIndexFile))
+                    .sorted()
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    /**
+     * @return The path of the argument file relative to the local directory, with slash as separator
+     */
+    private String getRelativePath(Path localFile) {
+        String relativePath = mLocalDirectory.relativize(localFile.toAbsolutePath().normalize()).toString();
+        return relativePath.replace(localFile.getFileSystem().getSeparator(), "/");
+    }
+
+
+    /**
+     * @return The checksum index. Key is relative path. Empty if there is no index.
+     */
+    private Map<String, IndexEntry> readIndex() {
+        Map<String, IndexEntry> index = new HashMap<>();
+        if (mChecksumIndexFile == null || !Files.exists(mChecksumIndexFile)) {
+            return index;
+        }
+        Properties properties = new Properties();
+        try (InputStream inputStream = Files.newInputStream(mChecksumIndexFile)) {
+            properties.load(inputStream);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        for (String relativePath : properties.stringPropertyNames()) {
+            IndexEntry indexEntry = IndexEntry.parse(properties.getProperty(relativePath));
+            //Entries that cannot be parsed are ignored, which only means that the file is checked again
+            if (indexEntry != null) {
+                index.put(relativePath, indexEntry);
+            }
+        }
+        return index;
+    }
+
+
+    private void writeIndex(Map<String, IndexEntry> index) {
+        if (mChecksumIndexFile == null) {
+            return;
+        }
+        Properties properties = new Properties();
+        index.forEach((relativePath, indexEntry) -> properties.setProperty(relativePath, indexEntry.toString()));
+        try (OutputStream outputStream = Files.newOutputStream(mChecksumIndexFile)) {
+            properties.store(outputStream, "Checksum index of " + mLocalDirectory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    private static Throwable unwrap(Throwable throwable) {
+        return (throwable instanceof CompletionException && throwable.getCause() != null)
+                ? throwable.getCause()
+                : throwable;
+    }
+
+
+    /**
+     * @param eTag An ETag, possibly in quotes
+     * @return The argument ETag without quotes
+     */
+    private static String stripQuotes(String eTag) {
+        return (eTag == null) ? "" : eTag.replace("\"", "");
+    }
+
+
+    /**
+     * A local file to sync.
+     */
+    private static class LocalFile {
+        private final Path mPath;
+        private final long mSize;
+        private final long mLastModified;
+        /** The index entry of this file. Null if it is missing or if the file has changed since it was made. */
+        private final IndexEntry mIndexEntry;
+        /** The MD5 of this file. Null until computed. */
+        private String mMd5;
+
+        LocalFile(Path path, IndexEntry indexEntry) {
+            mPath = path;
+            try {
+                mSize = Files.size(path);
+                mLastModified = Files.getLastModifiedTime(path).toMillis();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            mIndexEntry = (indexEntry != null && indexEntry.mSize == mSize && indexEntry.mLastModified == mLastModified)
+                    ? indexEntry
+                    : null;
+        }
+
+
+        /**
+         * @return True if the argument remote file has the same content as this file
+         */
+        boolean isSameAs(S3ListEntry remoteFile) {
+            if (remoteFile.getSize() != mSize) {
+                return false;
+            }
+            String remoteETag = stripQuotes(remoteFile.getETag());
+            //If this file is unchanged since the last sync and the remote file is unchanged since the last sync
+            if (mIndexEntry != null && mIndexEntry.mETag.equals(remoteETag)) {
+                return true;
+            }
+            //The ETag of a file uploaded in parts is not an MD5, e.g. "d41d8cd98f00b204e9800998ecf8427e-3"
+            if (remoteETag.contains("-")) {
+                return false;
+            }
+            return this.getMd5().equals(remoteETag);
+        }
+
+
+        @SuppressWarnings("deprecation")
+        private String getMd5() {
+            if (mMd5 == null) {
+                if (mIndexEntry != null && !mIndexEntry.mMd5.isEmpty()) {
+                    mMd5 = mIndexEntry.mMd5;
+                } else {
+                    try {
+                        mMd5 = com.google.common.io.Files.asByteSource(mPath.toFile()).hash(Hashing.md5()).toString();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            }
+            return mMd5;
+        }
+
+
+        /**
+         * @param eTag The ETag of the remote file
+         * @return An index entry for this file
+         */
+        IndexEntry toIndexEntry(String eTag) {
+            return new IndexEntry(mSize, mLastModified, (mMd5 == null) ? "" : mMd5, stripQuotes(eTag));
+        }
+    }
+
+
+    /**
+     * An entry in the checksum index. Is stored as "size:lastModified:md5:eTag".
+     */
+    private static class IndexEntry {
+        private final long mSize;
+        private final long mLastModified;
+        /** The MD5 of the local file. Empty if not computed. */
+        private final String mMd5;
+        /** The ETag of the remote file, without quotes */
+        private final String mETag;
+
+        IndexEntry(long size, long lastModified, String md5, String eTag) {
+            mSize = size;
+            mLastModified = lastModified;
+            mMd5 = md5;
+            mETag = eTag;
+        }
+
+
+        /**
+         * @return The argument entry. Null if it could not be parsed.
+         */
+        static IndexEntry parse(String value) {
+            String[] parts = value.split(":", -1);
+            if (parts.length != 4) {
+                return null;
+            }
+            try {
+                return new IndexEntry(Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2], parts[3]);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+
+        @Override
+        public String toString() {
+            return mSize + ":" + mLastModified + ":" + mMd5 + ":" + mETag;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package io.schinzel.awsutils.s3file;
+
+import com.google.common.io.ByteStreams;
+import io.schinzel.basicutils.thrower.Thrower;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The purpose of this class is to gzip the content of S3 files on write and to gunzip it on read.
+ * <p>
+ * In-memory content is compressed into a buffer that is handed to the upload without a copy. The uncompressed
+ * size is stored as user metadata, so that on read the content can be decompressed into an array of the exact
+ * size.
+ *
+ * @author Schinzel
+ */
+class GzipCodec {
+    /** The Content-Encoding of gzipped files */
+    static final String CONTENT_ENCODING = "gzip";
+    /** The user metadata that holds the uncompressed size of a file */
+    static final String UNCOMPRESSED_SIZE_METADATA_KEY = "uncompressed-size";
+    /** The size of the buffers used when compressing and decompressing streams */
+    static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+
+    private GzipCodec() {
+    }
+
+
+    /**
+     * @param contentEncoding The Content-Encoding of an S3 file. Can be null.
+     * @return True if the argument encoding is gzip, else false
+     */
+    static boolean isGzip(String contentEncoding) {
+        return CONTENT_ENCODING.equalsIgnoreCase(contentEncoding);
+    }
+
+
+    /**
+     * The argument buffer is read from its position to its limit. Its position is not changed. Heap and direct
+     * buffers are both compressed without copying the whole content.
+     *
+     * @param content The content to compress
+     * @return The compressed content
+     */
+    static ByteBuffer compress(ByteBuffer content) {
+        ByteBuffer source = content.duplicate();
+        //Text typically compresses 5-10x, so a quarter of the size seldom requires the buffer to grow
+        ExposedByteArrayOutputStream outputStream = new ExposedByteArrayOutputStream(source.remaining() / 4 + 64);
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream, STREAM_BUFFER_SIZE)) {
+            if (source.hasArray()) {
+                gzipOutputStream.write(source.array(), source.arrayOffset() + source.position(), source.remaining());
+            } else {
+                byte[] chunk = new byte[Math.min(STREAM_BUFFER_SIZE, source.remaining())];
+                while (source.hasRemaining()) {
+                    int chunkLength = Math.min(chunk.length, source.remaining());
+                    source.get(chunk, 0, chunkLength);
+                    gzipOutputStream.write(chunk, 0, chunkLength);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return outputStream.toByteBuffer();
+    }
+
+
+    /**
+     * @param compressed A stream of gzipped content
+     * @param metadata   The user metadata of the file
+     * @return The decompressed content
+     */
+    static byte[] decompress(InputStream compressed, Map<String, String> metadata) throws IOException {
+        //Is closed so that the native memory of its inflater is freed. Closes the argument stream as well.
+        try (GZIPInputStream gzipInputStream = new GZIPInputStream(compressed, STREAM_BUFFER_SIZE)) {
+            long uncompressedSize = getUncompressedSize(metadata);
+            //If the size is not known, e.g. for files written as a stream
+            if (uncompressedSize < 0) {
+                return ByteStreams.toByteArray(gzipInputStream);
+            }
+            Thrower.throwIfTrue(uncompressedSize > Integer.MAX_VALUE - 8)
+                    .message("File is " + uncompressedSize + " bytes uncompressed which is too large to read into memory. Use readToFile.");
+            byte[] content = new byte[(int) uncompressedSize];
+            ByteStreams.readFully(gzipInputStream, content);
+            return content;
+        }
+    }
+
+
+    /**
+     * @param compressed Gzipped content
+     * @param metadata   The user metadata of the file
+     * @return The decompressed content
+     */
+    static byte[] decompress(byte[] compressed, Map<String, String> metadata) {
+        try {
+            return decompress(new ByteArrayInputStream(compressed), metadata);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    /**
+     * Replaces the content of the argument file with its decompressed content.
+     *
+     * @param file A file with gzipped content
+     */
+    static void decompressFile(Path file) {
+        Path tempFile = file.resolveSibling(file.getFileName() + ".gunzip.tmp");
+        try {
+            try (InputStream inputStream = new GZIPInputStream(Files.newInputStream(file), STREAM_BUFFER_SIZE);
+                 OutputStream outputStream = Files.newOutputStream(tempFile)) {
+                ByteStreams.copy(inputStream, outputStream);
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            try {
+                Files.deleteIfExists(tempFile);
+            } catch (IOException deleteException) {
+                e.addSuppressed(deleteException);
+            }
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    /**
+     * @return The uncompressed size in the argument metadata. -1 if there is none.
+     */
+    private static long getUncompressedSize(Map<String, String> metadata) {
+        String uncompressedSize = (metadata == null) ? null : metadata.get(UNCOMPRESSED_SIZE_METADATA_KEY);
+        if (uncompressedSize == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(uncompressedSize);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+
+    /**
+     * A byte array output stream whose buffer can be wrapped without a copy.
+     */
+    private static class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+        ExposedByteArrayOutputStream(int size) {
+            super(size);
+        }
+
+
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+}
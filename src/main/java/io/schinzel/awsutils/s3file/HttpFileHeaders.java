@@ -51,4 +51,31 @@ class HttpFileHeaders {
         return FILE_HEADERS.get(fileExtension);
     }
 
+
+    /**
+     * @param fileName The name of the file
+     * @return True if there is a http header for the argument file, else false
+     */
+    static boolean hasFileHeader(String fileName) {
+        Thrower.throwIfVarEmpty(fileName, "fileName");
+        return FILE_HEADERS.containsKey(Files.getFileExtension(fileName));
+    }
+
+
+    /**
+     * @param fileName The name of the file
+     * @return True if the argument file is of a text based type that compresses well, else false. Images and
+     * PDFs are already compressed.
+     */
+    static boolean isCompressible(String fileName) {
+        if (!hasFileHeader(fileName)) {
+            return false;
+        }
+        String fileHeader = getFileHeader(fileName);
+        return fileHeader.startsWith("text/")
+                || fileHeader.startsWith("application/javascript")
+                || fileHeader.startsWith("application/json")
+                || fileHeader.startsWith("image/svg+xml");
+    }
+
 }
@@ -2,6 +2,11 @@ package io.schinzel.awsutils.s3file;
 
 import io.schinzel.basicutils.file.Bytes;
 
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Purpose of this interface is to handle files on S3.
  * <p>
@@ -15,12 +20,42 @@ public interface IS3File {
     Bytes read();
 
 
+    /**
+     * @param offset The position of the first byte to read
+     * @param length The number of bytes to read
+     * @return The bytes of the file in the argument range
+     */
+    Bytes read(long offset, long length);
+
+
+    /**
+     * @param length The number of bytes to read
+     * @return The last bytes of the file
+     */
+    Bytes readLast(long length);
+
+
+    /**
+     * Downloads the file to the argument destination. For files too large to hold in memory.
+     *
+     * @param destination The local file to download to
+     * @return This for chaining
+     */
+    IS3File readToFile(Path destination);
+
+
     /**
      * @return True if the file exists, else false
      */
     boolean exists();
 
 
+    /**
+     * @return The metadata of the file, such as size and ETag
+     */
+    ObjectMetadata getMetadata();
+
+
     /**
      * Deletes this file.
      *
@@ -45,4 +80,68 @@ public interface IS3File {
      * @return This for chaining
      */
     IS3File write(byte[] fileContent);
+
+
+    /**
+     * Writes the remaining bytes of the argument buffer to the file
+     *
+     * @param fileContent The content to write
+     * @return This for chaining
+     */
+    IS3File write(ByteBuffer fileContent);
+
+
+    /**
+     * Writes the content of the argument local file to the file
+     *
+     * @param file The local file whose content to write
+     * @return This for chaining
+     */
+    IS3File write(Path file);
+
+
+    /**
+     * Opens a stream that writes to the file. The file is written when the stream is closed.
+     *
+     * @return A stream to write the content of the file to
+     */
+    OutputStream openOutputStream();
+
+
+    /**
+     * @return A future for the content of the file
+     */
+    CompletableFuture<Bytes> readAsync();
+
+
+    /**
+     * @return A future that holds true if the file exists, else false
+     */
+    CompletableFuture<Boolean> existsAsync();
+
+
+    /**
+     * @return A future for the metadata of the file
+     */
+    CompletableFuture<ObjectMetadata> getMetadataAsync();
+
+
+    /**
+     * @return A future that completes when the file has been deleted
+     */
+    CompletableFuture<IS3File> deleteAsync();
+
+
+    /**
+     * @param fileContent The content to write
+     * @return A future that completes when the content has been written
+     */
+    CompletableFuture<IS3File> writeAsync(String fileContent);
+
+
+    /**
+     * @param fileContent The content to write
+     * @return A future that completes when the content has been written
+     */
+    CompletableFuture<IS3File> writeAsync(byte[] fileContent);
 }
@@ -0,0 +1,37 @@
+package io.schinzel.awsutils.s3file;
+
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadBucketRequest;
+import software.amazon.awssdk.services.s3.model.HeadBucketResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+
+/**
+ * The purpose of this interface is to do the S3 requests that this library does sync. Errors are thrown as the
+ * exceptions of the SDK, e.g. NoSuchKeyException.
+ * <p>
+ * Methods block until the response arrives, so must not be called from the threads of the SDK such as in the
+ * callbacks of its futures.
+ *
+ * @author Schinzel
+ */
+interface IS3SyncClient {
+
+    HeadObjectResponse headObject(HeadObjectRequest headObjectRequest);
+
+
+    HeadBucketResponse headBucket(HeadBucketRequest headBucketRequest);
+
+
+    DeleteObjectResponse deleteObject(DeleteObjectRequest deleteObjectRequest);
+
+
+    /**
+     * Returns when the response headers have arrived. The content is streamed as the returned stream is read.
+     */
+    ResponseInputStream<GetObjectResponse> getObject(GetObjectRequest getObjectRequest);
+}
@@ -0,0 +1,20 @@
+package io.schinzel.awsutils.s3file;
+
+/**
+ * The purpose of this interface is to be notified when a background write is done.
+ *
+ * @author Schinzel
+ */
+@FunctionalInterface
+public interface IWriteListener {
+
+    /**
+     * Is invoked on an SDK thread. Should return quickly. Sync S3 operations cannot be done here, they throw an
+     * exception, as they could deadlock.
+     *
+     * @param bucketName The name of the bucket written to
+     * @param fileName   The name of the file written
+     * @param error      Null if the write succeeded, else the error that made the write fail
+     */
+    void onWriteComplete(String bucketName, String fileName, Throwable error);
+}
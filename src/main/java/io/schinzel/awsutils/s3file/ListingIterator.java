@@ -0,0 +1,108 @@
+package io.schinzel.awsutils.s3file;
+
+import io.schinzel.basicutils.thrower.Thrower;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * The purpose of this class is to iterate over the files of a bucket listing, one page at a time.
+ * <p>
+ * When a page is received the request for the next page is sent at once, so the next page is fetched while
+ * the caller processes the current one. At most two pages are held in memory, so a listing of any number of
+ * files uses constant memory.
+ * <p>
+ * Instances are not thread safe.
+ *
+ * @author Schinzel
+ */
+class ListingIterator implements Iterator<S3ListEntry> {
+    private final S3AsyncClient mS3AsyncClient;
+    private final S3Bucket mBucket;
+    /** The request of the first page. Later pages add a continuation token. */
+    private final ListObjectsV2Request mFirstRequest;
+    /** The files of the current page */
+    private Iterator<S3Object> mCurrentPage = Collections.emptyIterator();
+    /** The next page. Null if there are no more pages. */
+    private CompletableFuture<ListObjectsV2Response> mNextPage;
+
+
+    /**
+     * @param s3AsyncClient The client to use for the list requests
+     * @param bucket        The bucket to list
+     * @param firstRequest  The request of the first page
+     */
+    ListingIterator(S3AsyncClient s3AsyncClient, S3Bucket bucket, ListObjectsV2Request firstRequest) {
+        Thrower.createInstance()
+                .throwIfVarNull(s3AsyncClient, "s3AsyncClient")
+                .throwIfVarNull(bucket, "bucket")
+                .throwIfVarNull(firstRequest, "firstRequest");
+        mS3AsyncClient = s3AsyncClient;
+        mBucket = bucket;
+        mFirstRequest = firstRequest;
+        mNextPage = mS3AsyncClient.listObjectsV2(firstRequest);
+    }
+
+
+    @Override
+    public boolean hasNext() {
+        //Loop as a page can be empty and still not be the last
+        while (!mCurrentPage.hasNext()) {
+            if (mNextPage == null) {
+                return false;
+            }
+            ListObjectsV2Response page = join(mNextPage);
+            mNextPage = Boolean.TRUE.equals(page.isTruncated())
+                    ? mS3AsyncClient.listObjectsV2(mFirstRequest.toBuilder()
+                    .continuationToken(page.nextContinuationToken())
+                    .build())
+                    : null;
+            mCurrentPage = page.contents().iterator();
+        }
+        return true;
+    }
+
+
+    @Override
+    public S3ListEntry next() {
+        if (!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return S3ListEntry.create(mBucket, mCurrentPage.next());
+    }
+
+
+    /**
+     * Cancels the request of the next page, if any.
+     */
+    void close() {
+        if (mNextPage != null) {
+            mNextPage.cancel(false);
+            mNextPage = null;
+        }
+        mCurrentPage = Collections.emptyIterator();
+    }
+
+
+    /**
+     * Waits for the argument future. If the future failed, the cause is thrown.
+     */
+    private static <T> T join(CompletableFuture<T> future) {
+        TransferManagers.throwIfSdkThread();
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
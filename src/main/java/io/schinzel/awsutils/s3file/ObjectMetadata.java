@@ -0,0 +1,67 @@
+package io.schinzel.awsutils.s3file;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.experimental.Accessors;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+
+import java.time.Instant;
+
+/**
+ * The purpose of this class is to hold the metadata of an S3 file, as returned by a HeadObject request.
+ * <p>
+ * A file that does not exist is represented by an instance for which exists is false.
+ *
+ * @author Schinzel
+ */
+@Getter
+@Accessors(prefix = "m")
+public class ObjectMetadata {
+    /** True if the file exists */
+    private final boolean mExists;
+    /** The size of the file in bytes. 0 if the file does not exist. */
+    private final long mSize;
+    /** The ETag of the file. Null if the file does not exist. */
+    private final String mETag;
+    /** When the file was last modified. Null if the file does not exist. */
+    private final Instant mLastModified;
+    /** When this metadata was fetched, as given by System.nanoTime */
+    @Getter(AccessLevel.NONE)
+    private final long mFetchedAt;
+
+
+    private ObjectMetadata(boolean exists, long size, String eTag, Instant lastModified) {
+        mExists = exists;
+        mSize = size;
+        mETag = eTag;
+        mLastModified = lastModified;
+        mFetchedAt = System.nanoTime();
+    }
+
+
+    /**
+     * @param response A response to a HeadObject request
+     * @return The metadata of an existing file
+     */
+    static ObjectMetadata create(HeadObjectResponse response) {
+        long size = (response.contentLength() == null) ? 0 : response.contentLength();
+        return new ObjectMetadata(true, size, response.eTag(), response.lastModified());
+    }
+
+
+    /**
+     * @return The metadata of a file that does not exist
+     */
+    static ObjectMetadata createNonExisting() {
+        return new ObjectMetadata(false, 0, null, null);
+    }
+
+
+    /**
+     * @param timeToLiveInNanos The max age of fresh metadata
+     * @return True if this metadata was fetched within the argument time
+     */
+    boolean isFresh(long timeToLiveInNanos) {
+        return System.nanoTime() - mFetchedAt < timeToLiveInNanos;
+    }
+}
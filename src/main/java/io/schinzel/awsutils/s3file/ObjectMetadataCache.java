@@ -0,0 +1,107 @@
+package io.schinzel.awsutils.s3file;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.schinzel.awsutils.metrics.CacheStats;
+import io.schinzel.awsutils.metrics.CacheStatsRegistry;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The purpose of this class is to cache the metadata of S3 files, so that repeated existence checks do not
+ * require a request to S3 each.
+ * <p>
+ * The cache is shared by all S3File instances. Each S3File decides how old metadata it accepts, so the cache
+ * itself only evicts on size and on a max age. Writes and deletes done through S3File update the cache. Changes
+ * done by other processes are seen when the cached metadata has become too old.
+ * <p>
+ * Both existing and non-existing files are cached.
+ * <p>
+ * The statistics of the cache are registered with {@link CacheStatsRegistry} as "ObjectMetadataCache". Metadata
+ * that is too old for the requesting S3File counts as a hit, as the cache found it.
+ *
+ * @author Schinzel
+ */
+class ObjectMetadataCache {
+
+    private static class Holder {
+        static ObjectMetadataCache INSTANCE = new ObjectMetadataCache();
+    }
+
+    static ObjectMetadataCache getSingleton() {
+        return Holder.INSTANCE;
+    }
+
+
+    /** Cache of file metadata. Key is bucket name and file name. */
+    private final Cache<String, ObjectMetadata> mMetadataCache = CacheBuilder.newBuilder()
+            .maximumSize(100_000)
+            .expireAfterWrite(1, TimeUnit.HOURS)
+            .recordStats()
+            .build();
+
+
+    private ObjectMetadataCache() {
+        CacheStatsRegistry.getInstance()
+                .register("ObjectMetadataCache", () -> CacheStats.create("ObjectMetadataCache", mMetadataCache));
+    }
+
+
+    /**
+     * @param bucketName        The name of a bucket
+     * @param fileName          The name of a file
+     * @param timeToLiveInNanos The max age of the metadata to return
+     * @return The cached metadata of the argument file. Null if there is none or if it is older than the
+     * argument time to live.
+     */
+    ObjectMetadata get(String bucketName, String fileName, long timeToLiveInNanos) {
+        ObjectMetadata metadata = mMetadataCache.getIfPresent(getCacheKey(bucketName, fileName));
+        return (metadata != null && metadata.isFresh(timeToLiveInNanos))
+                ? metadata
+                : null;
+    }
+
+
+    /**
+     * @param bucketName The name of a bucket
+     * @param fileName   The name of a file
+     * @param metadata   The metadata of the argument file
+     */
+    void put(String bucketName, String fileName, ObjectMetadata metadata) {
+        mMetadataCache.put(getCacheKey(bucketName, fileName), metadata);
+    }
+
+
+    /**
+     * Removes the metadata of the argument file. Is to be called when the file has been changed.
+     *
+     * @param bucketName The name of a bucket
+     * @param fileName   The name of a file
+     */
+    void invalidate(String bucketName, String fileName) {
+        mMetadataCache.invalidate(getCacheKey(bucketName, fileName));
+    }
+
+
+    /**
+     * Package-private method for testing purposes.
+     * @return Current cache size
+     */
+    long getCacheSize() {
+        return mMetadataCache.size();
+    }
+
+
+    /**
+     * Package-private method for testing purposes.
+     * Clear the cache for testing
+     */
+    void clearCache() {
+        mMetadataCache.invalidateAll();
+    }
+
+
+    private static String getCacheKey(String bucketName, String fileName) {
+        return bucketName + "/" + fileName;
+    }
+}
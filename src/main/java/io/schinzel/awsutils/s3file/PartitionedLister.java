@@ -0,0 +1,390 @@
+package io.schinzel.awsutils.s3file;
+
+import com.google.common.base.Strings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.schinzel.basicutils.thrower.Thrower;
+import lombok.Builder;
+import software.amazon.awssdk.services.s3.model.CommonPrefix;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * The purpose of this class is to list a large number of files faster than a single listing can.
+ * <p>
+ * A single listing is sequential, as each page holds the token for the next. This class splits the listing into
+ * partitions that are listed concurrently. The partitions are either:
+ * <ul>
+ * <li>The sub prefixes of the prefix, discovered with a listing with a delimiter. E.g. the prefix "logs/" with
+ * the delimiter "/" could give the partitions "logs/2023/", "logs/2024/" and "logs/2025/".</li>
+ * <li>Key ranges between argument split points. Is for key spaces without a directory structure, e.g. keys that
+ * start with a hash. With the split points "4" and "8" the partitions are keys up to "4", keys after "4" up to "8"
+ * and keys after "8".</li>
+ * </ul>
+ * Up to parallelism partitions are listed at the same time. The files are returned in a single stream. If
+ * ordered is true, the files are returned in the same order as a single listing would. Else files are returned
+ * as they are listed, which is faster.
+ * <p>
+ * The memory used is bounded by the parallelism, not by the number of files. The exception is files directly
+ * under the prefix when sub prefixes are used, as these are held in memory until returned.
+ *
+ * @author Schinzel
+ */
+public class PartitionedLister {
+    private static final int DEFAULT_PARALLELISM = 8;
+    /** The max number of listed files that are held per partition, or in total if not ordered */
+    private static final int QUEUE_CAPACITY = 1000;
+    /** Is added to a queue when a partition has been listed */
+    private static final Object PARTITION_DONE = new Object();
+    private final S3Bucket mBucket;
+    /** The prefix of the files to list. Empty string for all files. */
+    private final String mPrefix;
+    /** The delimiter used to discover sub prefixes. Not used if there are split points. */
+    private final String mDelimiter;
+    /** Sorted file names at which the key space is split. Empty if sub prefixes are to be used. */
+    private final List<String> mSplitPoints;
+    /** The max number of partitions listed concurrently */
+    private final int mParallelism;
+    /** If true, files are returned in the same order as in a single listing */
+    private final boolean mOrdered;
+
+
+    /**
+     * @param bucket      The bucket to list
+     * @param prefix      The prefix of the files to list. Optional, by default all files are listed.
+     * @param delimiter   The delimiter used to discover sub prefixes. Optional, default "/".
+     * @param splitPoints File names at which to split the key space into partitions. Optional, if not set the
+     *                    partitions are the sub prefixes of the prefix.
+     * @param parallelism The max number of partitions listed concurrently. Optional, default 8.
+     * @param ordered     If true, files are returned in the order of a single listing.
+     */
+    @Builder
+    PartitionedLister(S3Bucket bucket, String prefix, String delimiter, List<String> splitPoints, int parallelism,
+                      boolean ordered) {
+        Thrower.createInstance()
+                .throwIfVarNull(bucket, "bucket")
+                .throwIfTrue(parallelism < 0, "parallelism cannot be negative");
+        mBucket = bucket;
+        mPrefix = Strings.nullToEmpty(prefix);
+        mDelimiter = Strings.isNullOrEmpty(delimiter) ? "/" : delimiter;
+        mSplitPoints = (splitPoints == null)
+                ? Collections.emptyList()
+                : splitPoints.stream().sorted().distinct().collect(Collectors.toList());
+        mParallelism = (parallelism == 0) ? DEFAULT_PARALLELISM : parallelism;
+        mOrdered = ordered;
+    }
+
+
+    /**
+     * The stream should be closed if it is not consumed to its end, so that the listing threads are stopped.
+     *
+     * @return The files of the bucket with the prefix
+     */
+    public Stream<S3ListEntry> list() {
+        List<Partition> partitions = mSplitPoints.isEmpty()
+                ? this.getPrefixPartitions()
+                : this.getRangePartitions();
+        ExecutorService executor = Executors.newFixedThreadPool(mParallelism, new ThreadFactoryBuilder()
+                .setNameFormat("s3-partitioned-lister-%d")
+                .setDaemon(true)
+                .build());
+        MergingIterator iterator = new MergingIterator(partitions, executor);
+        return StreamSupport
+                .stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.NONNULL), false)
+                .onClose(executor::shutdownNow);
+    }
+
+
+    /**
+     * @return A partition for each key range between the split points
+     */
+    private List<Partition> getRangePartitions() {
+        List<Partition> partitions = new ArrayList<>();
+        String startAfter = null;
+        for (String splitPoint : mSplitPoints) {
+            partitions.add(new Partition(mPrefix, startAfter, splitPoint, null));
+            startAfter = splitPoint;
+        }
+        partitions.add(new Partition(mPrefix, startAfter, null, null));
+        return partitions;
+    }
+
+
+    /**
+     * Lists the prefix with the delimiter. Each sub prefix becomes a partition. The files directly under the
+     * prefix are listed in the same requests and become partitions that need no further requests.
+     *
+     * @return The partitions in key order
+     */
+    private List<Partition> getPrefixPartitions() {
+        List<String> subPrefixes = new ArrayList<>();
+        List<S3ListEntry> directEntries = new ArrayList<>();
+        ListObjectsV2Request request = ListObjectsV2Request.builder()
+                .bucket(mBucket.getBucketName())
+                .prefix(Strings.emptyToNull(mPrefix))
+                .delimiter(mDelimiter)
+                .build();
+        ListObjectsV2Response page;
+        do {
+            page = join(mBucket.getS3AsyncClient().listObjectsV2(request));
+            for (CommonPrefix commonPrefix : page.commonPrefixes()) {
+                subPrefixes.add(commonPrefix.prefix());
+            }
+            for (S3Object s3Object : page.contents()) {
+                directEntries.add(S3ListEntry.create(mBucket, s3Object));
+            }
+            request = request.toBuilder()
+                    .continuationToken(page.nextContinuationToken())
+                    .build();
+        } while (Boolean.TRUE.equals(page.isTruncated()));
+        //The direct files are grouped by the sub prefixes they lie between, so that the partitions are in key order
+        List<Partition> partitions = new ArrayList<>();
+        int entryIndex = 0;
+        for (String subPrefix : subPrefixes) {
+            int groupStart = entryIndex;
+            while (entryIndex < directEntries.size()
+                    && directEntries.get(entryIndex).getFileName().compareTo(subPrefix) < 0) {
+                entryIndex++;
+            }
+            if (entryIndex > groupStart) {
+                partitions.add(new Partition(null, null, null, directEntries.subList(groupStart, entryIndex)));
+            }
+            partitions.add(new Partition(subPrefix, null, null, null));
+        }
+        if (entryIndex < directEntries.size()) {
+            partitions.add(new Partition(null, null, null, directEntries.subList(entryIndex, directEntries.size())));
+        }
+        return partitions;
+    }
+
+
+    /**
+     * Waits for the argument future. If the future failed, the cause is thrown.
+     */
+    private static <T> T join(CompletableFuture<T> future) {
+        TransferManagers.throwIfSdkThread();
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+
+    /**
+     * A part of the key space that is listed on its own.
+     */
+    private class Partition {
+        /** The prefix of the files in this partition */
+        private final String mPartitionPrefix;
+        /** Files up to and including this are not in this partition. Null if there is no lower bound. */
+        private final String mStartAfter;
+        /** The last possible file in this partition. Null if there is no upper bound. */
+        private final String mEndInclusive;
+        /** The files of this partition if already listed, else null */
+        private final List<S3ListEntry> mListedEntries;
+
+        Partition(String partitionPrefix, String startAfter, String endInclusive, List<S3ListEntry> listedEntries) {
+            mPartitionPrefix = partitionPrefix;
+            mStartAfter = startAfter;
+            mEndInclusive = endInclusive;
+            mListedEntries = listedEntries;
+        }
+
+
+        /**
+         * Lists this partition and adds the files to the argument queue, followed by PARTITION_DONE. If the
+         * listing fails, the error is added instead of PARTITION_DONE. All errors are added, also those that are
+         * not exceptions, as the consumer would otherwise wait for the partition forever. If interrupted, i.e.
+         * the stream has been closed, the listing stops without adding anything more.
+         */
+        void list(BlockingQueue<Object> queue) {
+            ListingIterator iterator = null;
+            try {
+                if (mListedEntries != null) {
+                    for (S3ListEntry entry : mListedEntries) {
+                        queue.put(entry);
+                    }
+                } else {
+                    ListObjectsV2Request request = ListObjectsV2Request.builder()
+                            .bucket(mBucket.getBucketName())
+                            .prefix(Strings.emptyToNull(mPartitionPrefix))
+                            .startAfter(mStartAfter)
+                            .build();
+                    iterator = new ListingIterator(mBucket.getS3AsyncClient(), mBucket, request);
+                    while (iterator.hasNext()) {
+                        S3ListEntry entry = iterator.next();
+                        //Files after the end of the partition belong to the next partition
+                        if (mEndInclusive != null && entry.getFileName().compareTo(mEndInclusive) > 0) {
+                            break;
+                        }
+                        queue.put(entry);
+                    }
+                }
+                queue.put(PARTITION_DONE);
+            } catch (InterruptedException e) {
+                //The stream has been closed, so there is no consumer to add anything for
+                Thread.currentThread().interrupt();
+            } catch (Throwable e) {
+                addError(queue, e);
+            } finally {
+                if (iterator != null) {
+                    iterator.close();
+                }
+            }
+        }
+
+
+        /**
+         * Adds the argument error to the argument queue without blocking, as there might be no consumer left to
+         * make room. If the queue is full, queued items are dropped, as the consumer throws the error at the
+         * latest when it reaches it.
+         */
+        private void addError(BlockingQueue<Object> queue, Throwable error) {
+            while (!queue.offer(error)) {
+                queue.poll();
+            }
+        }
+    }
+
+
+    /**
+     * Starts the listing of the partitions and returns their files as they are listed.
+     */
+    private class MergingIterator implements Iterator<S3ListEntry> {
+        private final ExecutorService mExecutor;
+        private final List<Partition> mPartitions;
+        /**
+         * If ordered, the queues of the started partitions that have not been fully returned, in key order.
+         * Else a single queue shared by all partitions.
+         */
+        private final Deque<BlockingQueue<Object>> mQueues = new ArrayDeque<>();
+        /** The number of partitions that have been started */
+        private int mStartedPartitionCount = 0;
+        /** The number of partitions that have been fully returned */
+        private int mDonePartitionCount = 0;
+        /** The next file to return. Null if it has not been taken from a queue yet. */
+        private S3ListEntry mNext;
+
+
+        MergingIterator(List<Partition> partitions, ExecutorService executor) {
+            mExecutor = executor;
+            mPartitions = partitions;
+            if (mOrdered) {
+                this.startPartitions();
+            } else {
+                BlockingQueue<Object> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+                mQueues.add(queue);
+                for (Partition partition : partitions) {
+                    mExecutor.execute(() -> partition.list(queue));
+                }
+                mStartedPartitionCount = partitions.size();
+                mExecutor.shutdown();
+            }
+        }
+
+
+        /**
+         * Starts partitions so that up to parallelism partitions are started and not yet returned. Each started
+         * partition gets a queue of its own. This bounds the memory used by the parallelism, not by the number
+         * of partitions. As no more partitions are started than there are threads, the first partition not yet
+         * returned is always running, so the consumer cannot be blocked by later partitions filling their queues.
+         */
+        private void startPartitions() {
+            while (mStartedPartitionCount < mPartitions.size()
+                    && mStartedPartitionCount - mDonePartitionCount < mParallelism) {
+                Partition partition = mPartitions.get(mStartedPartitionCount++);
+                BlockingQueue<Object> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+                mQueues.add(queue);
+                mExecutor.execute(() -> partition.list(queue));
+            }
+            if (mStartedPartitionCount == mPartitions.size()) {
+                mExecutor.shutdown();
+            }
+        }
+
+
+        @Override
+        public boolean hasNext() {
+            while (mNext == null) {
+                if (mDonePartitionCount == mPartitions.size()) {
+                    return false;
+                }
+                //If ordered, the queue of the first partition not yet returned. Else the shared queue.
+                Object item = take(mQueues.peekFirst());
+                if (item == PARTITION_DONE) {
+                    mDonePartitionCount++;
+                    if (mOrdered) {
+                        mQueues.removeFirst();
+                        this.startPartitions();
+                    }
+                } else if (item instanceof Throwable) {
+                    mExecutor.shutdownNow();
+                    throw propagate((Throwable) item);
+                } else {
+                    mNext = (S3ListEntry) item;
+                }
+            }
+            return true;
+        }
+
+
+        @Override
+        public S3ListEntry next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            S3ListEntry next = mNext;
+            mNext = null;
+            return next;
+        }
+
+
+        /**
+         * @return The argument error of a partition, to be thrown. Errors that are not exceptions are thrown
+         * as they are.
+         */
+        private RuntimeException propagate(Throwable throwable) {
+            if (throwable instanceof RuntimeException) {
+                return (RuntimeException) throwable;
+            }
+            if (throwable instanceof Error) {
+                throw (Error) throwable;
+            }
+            return new RuntimeException("Error when listing bucket '" + mBucket.getBucketName() + "': " + throwable.getMessage(), throwable);
+        }
+
+
+        private Object take(BlockingQueue<Object> queue) {
+            try {
+                return queue.take();
+            } catch (InterruptedException e) {
+                mExecutor.shutdownNow();
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while listing bucket '" + mBucket.getBucketName() + "'", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package io.schinzel.awsutils.s3file;
+
+import io.schinzel.basicutils.thrower.Thrower;
+import lombok.Builder;
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The purpose of this class is to download an S3 file as a set of byte ranges that are fetched concurrently.
+ * <p>
+ * The first range is fetched on its own as its response holds the total size of the file. The remaining
+ * ranges are then fetched with a bounded number of requests in flight. All ranges after the first are
+ * conditional on the ETag of the first, so a file that is overwritten during the download results in an
+ * error rather than a mix of old and new content.
+ *
+ * @author Schinzel
+ */
+class RangedDownload {
+    /** The largest file that can be downloaded into memory. */
+    private static final long MAX_IN_MEMORY_FILE_SIZE = Integer.MAX_VALUE - 8;
+    private final S3AsyncClient mS3AsyncClient;
+    private final String mBucketName;
+    private final String mFileName;
+    /** The number of bytes in each range */
+    private final int mPartSize;
+    /** The max number of range requests in flight */
+    private final int mMaxConcurrency;
+    /** The Content-Encoding of the file. Is set when the first range has been downloaded. */
+    private String mContentEncoding;
+    /** The user metadata of the file. Is set when the first range has been downloaded. */
+    private Map<String, String> mMetadata;
+
+
+    @Builder
+    RangedDownload(S3AsyncClient s3AsyncClient, String bucketName, String fileName, int partSize, int maxConcurrency) {
+        Thrower.createInstance()
+                .throwIfVarNull(s3AsyncClient, "s3AsyncClient")
+                .throwIfVarEmpty(bucketName, "bucketName")
+                .throwIfVarEmpty(fileName, "fileName")
+                .throwIfFalse(partSize > 0, "partSize must be larger than 0")
+                .throwIfFalse(maxConcurrency > 0, "maxConcurrency must be larger than 0");
+        mS3AsyncClient = s3AsyncClient;
+        mBucketName = bucketName;
+        mFileName = fileName;
+        mPartSize = partSize;
+        mMaxConcurrency = maxConcurrency;
+    }
+
+
+    /**
+     * @return The content of the file
+     */
+    byte[] toBytes() {
+        ResponseBytes<GetObjectResponse> firstPart = this.getFirstPart();
+        long fileSize = getFileSize(firstPart.response());
+        Thrower.throwIfTrue(fileSize > MAX_IN_MEMORY_FILE_SIZE)
+                .message("File is " + fileSize + " bytes which is too large to read into memory. Use readToFile.");
+        byte[] fileContent = new byte[(int) fileSize];
+        //Each part is written to its own region of the array, so no synchronization is required
+        this.downloadParts(firstPart, fileSize, (position, part) ->
+                System.arraycopy(part, 0, fileContent, (int) position, part.length));
+        return fileContent;
+    }
+
+
+    /**
+     * @param destination The file to write the content to. If the file exists it is overwritten.
+     */
+    void toFile(Path destination) {
+        ResponseBytes<GetObjectResponse> firstPart = this.getFirstPart();
+        long fileSize = getFileSize(firstPart.response());
+        try (FileChannel channel = FileChannel.open(destination,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            //Positional writes do not affect the position of the channel and can be done concurrently
+            this.downloadParts(firstPart, fileSize, (position, part) ->
+                    writeFully(channel, ByteBuffer.wrap(part), position));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    /**
+     * @return The Content-Encoding of the downloaded file, e.g. "gzip". Null if there is none or if nothing has
+     * been downloaded.
+     */
+    String getContentEncoding() {
+        return mContentEncoding;
+    }
+
+
+    /**
+     * @return The user metadata of the downloaded file. Null if nothing has been downloaded.
+     */
+    Map<String, String> getMetadata() {
+        return mMetadata;
+    }
+
+
+    /**
+     * @return The first range of the file. Its response holds the headers of the file.
+     */
+    private ResponseBytes<GetObjectResponse> getFirstPart() {
+        ResponseBytes<GetObjectResponse> firstPart = join(this.getPart(0, mPartSize - 1, null));
+        mContentEncoding = firstPart.response().contentEncoding();
+        mMetadata = firstPart.response().metadata();
+        return firstPart;
+    }
+
+
+    /**
+     * @param firstPart The already downloaded first part of the file
+     * @param fileSize  The total size of the file
+     * @param partSink  Receives each downloaded part
+     */
+    private void downloadParts(ResponseBytes<GetObjectResponse> firstPart, long fileSize, IPartSink partSink) {
+        partSink.write(0, firstPart.asByteArrayUnsafe());
+        String eTag = firstPart.response().eTag();
+        Semaphore semaphore = new Semaphore(mMaxConcurrency);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        //Stop issuing new requests as soon as one has failed
+        for (long position = mPartSize; position < fileSize && failure.get() == null; position += mPartSize) {
+            long partStart = position;
+            long partEnd = Math.min(position + mPartSize, fileSize) - 1;
+            semaphore.acquireUninterruptibly();
+            CompletableFuture<Void> future = this.getPart(partStart, partEnd, eTag)
+                    .thenAccept(part -> partSink.write(partStart, part.asByteArrayUnsafe()))
+                    .whenComplete((result, throwable) -> {
+                        if (throwable != null) {
+                            failure.compareAndSet(null, throwable);
+                        }
+                        semaphore.release();
+                    });
+            futures.add(future);
+        }
+        join(CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])));
+    }
+
+
+    /**
+     * @param start  The position of the first byte to get
+     * @param end    The position of the last byte to get, inclusive
+     * @param ifMatch If not null, the request fails if the ETag of the file does not match
+     * @return A future for the bytes in the argument range
+     */
+    private CompletableFuture<ResponseBytes<GetObjectResponse>> getPart(long start, long end, String ifMatch) {
+        GetObjectRequest getObjectRequest = GetObjectRequest.builder()
+                .bucket(mBucketName)
+                .key(mFileName)
+                .range("bytes=" + start + "-" + end)
+                .ifMatch(ifMatch)
+                .build();
+        return mS3AsyncClient.getObject(getObjectRequest, AsyncResponseTransformer.toBytes());
+    }
+
+
+    /**
+     * @param response A response to a range request
+     * @return The total size of the file. Is read from the Content-Range header, e.g. "bytes 0-99/1234".
+     */
+    private static long getFileSize(GetObjectResponse response) {
+        String contentRange = response.contentRange();
+        //If the whole file was returned
+        if (contentRange == null) {
+            return response.contentLength();
+        }
+        return Long.parseLong(contentRange.substring(contentRange.lastIndexOf('/') + 1));
+    }
+
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) {
+        try {
+            long currentPosition = position;
+            while (buffer.hasRemaining()) {
+                currentPosition += channel.write(buffer, currentPosition);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    /**
+     * Waits for the argument future. If the future failed, the cause is thrown so that callers can catch
+     * S3 exceptions such as NoSuchKeyException.
+     */
+    private static <T> T join(CompletableFuture<T> future) {
+        TransferManagers.throwIfSdkThread();
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+
+    /**
+     * Receives downloaded parts.
+     */
+    private interface IPartSink {
+        void write(long position, byte[] part);
+    }
+}
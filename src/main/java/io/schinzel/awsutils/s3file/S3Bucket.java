@@ -0,0 +1,434 @@
+package io.schinzel.awsutils.s3file;
+
+import com.google.common.base.Strings;
+import com.google.common.hash.Hashing;
+import io.schinzel.awsutils.httpclient.HttpClientSettings;
+import io.schinzel.basicutils.UTF8;
+import io.schinzel.basicutils.thrower.Thrower;
+import lombok.AccessLevel;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.experimental.Accessors;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.Delete;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Error;
+import software.amazon.awssdk.transfer.s3.S3TransferManager;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * The purpose of this class is to do operations on many files in an S3 bucket.
+ * <p>
+ * For operations on a single file, see {@link S3File}. Files listed or created from a bucket do not check that
+ * the bucket exists again. For many short-lived files in the same bucket, build one bucket and create the files
+ * with {@link #getFile(String)}.
+ *
+ * @author Schinzel
+ */
+@Accessors(prefix = "m")
+public class S3Bucket {
+    /** The max number of files S3 accepts in a single DeleteObjects request */
+    static final int MAX_FILES_PER_DELETE_REQUEST = 1000;
+    /** The default number of concurrent DeleteObjects requests */
+    private static final int DEFAULT_DELETE_PARALLELISM = 4;
+    /** The cache control header set on published files. As their content never changes, they can be cached for a year. */
+    static final String IMMUTABLE_CACHE_CONTROL = "public, max-age=31536000, immutable";
+    /** The number of hex characters of the content hash in the names of published files. 128 bits. */
+    private static final int CONTENT_HASH_LENGTH = 32;
+    @Getter
+    private final String mBucketName;
+    private final IS3SyncClient mS3Client;
+    private final S3AsyncClient mS3AsyncClient;
+    private final S3TransferManager mTransferManager;
+    /** The max number of concurrent DeleteObjects requests */
+    private final int mDeleteParallelism;
+    /** The put request that the put requests of the files of this bucket are copied from */
+    @Getter(AccessLevel.PACKAGE)
+    private final PutObjectRequest mPutObjectRequestTemplate;
+    /** The put request that the put requests of published files are copied from */
+    private final PutObjectRequest mImmutablePutObjectRequestTemplate;
+    //The settings of the files returned by getFile. See the builder constructor.
+    @Getter(AccessLevel.PACKAGE)
+    private final boolean mBackgroundWrite;
+    @Getter(AccessLevel.PACKAGE)
+    private final boolean mCoalesceWrites;
+    @Getter(AccessLevel.PACKAGE)
+    private final IWriteListener mWriteListener;
+    @Getter(AccessLevel.PACKAGE)
+    private final boolean mRangedRead;
+    @Getter(AccessLevel.PACKAGE)
+    private final int mPartSize;
+    @Getter(AccessLevel.PACKAGE)
+    private final int mMaxConcurrency;
+    @Getter(AccessLevel.PACKAGE)
+    private final long mMetadataCacheTtlInNanos;
+    @Getter(AccessLevel.PACKAGE)
+    private final ContentCache mContentCache;
+    @Getter(AccessLevel.PACKAGE)
+    private final Compression mCompression;
+
+
+    /**
+     * The credentials, the region and the bucket are validated, the clients are looked up and the existence of
+     * the bucket is checked once, here. Files from {@link #getFile(String)} reuse all of it.
+     * <p>
+     * The arguments from backgroundWrite to compression are the settings of the files returned by getFile. They
+     * are the same as the arguments of the {@link S3File} builder.
+     *
+     * @param awsAccessKey      An AWS access key
+     * @param awsSecretKey      An AWS secret key
+     * @param region            The region of the bucket
+     * @param bucketName        The name of the bucket
+     * @param deleteParallelism The max number of concurrent requests in batch deletes. Optional, default 4.
+     * @param crtSettings       If set, transfers and async requests use a client based on the AWS Common Runtime
+     *                          with these settings. Optional, by default the standard async client is used.
+     * @param httpClientSettings The connection pool settings of the HTTP clients. Optional, by default the
+     *                           SDK defaults are used.
+     */
+    @Builder
+    S3Bucket(String awsAccessKey, String awsSecretKey, Region region, String bucketName, int deleteParallelism,
+             boolean backgroundWrite, boolean coalesceWrites, IWriteListener writeListener, boolean rangedRead,
+             int partSize, int maxConcurrency, Duration metadataCacheTtl, ContentCache contentCache,
+             Compression compression, CrtSettings crtSettings, HttpClientSettings httpClientSettings) {
+        this(awsAccessKey, awsSecretKey, region, bucketName, deleteParallelism, backgroundWrite, coalesceWrites,
+                writeListener, rangedRead, partSize, maxConcurrency, metadataCacheTtl, contentCache, compression,
+                crtSettings, httpClientSettings, true);
+    }
+
+
+    /**
+     * See the builder constructor.
+     *
+     * @param holdClients If true, this bucket registers as the holder of its clients, so they are closed when
+     *                    this bucket and its files are no longer used. If false, the clients are pinned, i.e. are
+     *                    closed only when they have not been requested for the max idle time. Is false for the buckets the S3File builder creates, as a holder per file
+     *                    would pile up in the client registry.
+     */
+    S3Bucket(String awsAccessKey, String awsSecretKey, Region region, String bucketName, int deleteParallelism,
+             boolean backgroundWrite, boolean coalesceWrites, IWriteListener writeListener, boolean rangedRead,
+             int partSize, int maxConcurrency, Duration metadataCacheTtl, ContentCache contentCache,
+             Compression compression, CrtSettings crtSettings, HttpClientSettings httpClientSettings,
+             boolean holdClients) {
+        Thrower.createInstance()
+                .throwIfVarEmpty(awsAccessKey, "awsAccessKey")
+                .throwIfVarEmpty(awsSecretKey, "awsSecretKey")
+                .throwIfVarNull(region, "region")
+                .throwIfVarEmpty(bucketName, "bucketName")
+                .throwIfTrue(deleteParallelism < 0, "deleteParallelism cannot be negative")
+                .throwIfTrue(partSize < 0, "partSize cannot be negative")
+                .throwIfTrue(maxConcurrency < 0, "maxConcurrency cannot be negative")
+                .throwIfTrue(metadataCacheTtl != null && metadataCacheTtl.isNegative(), "metadataCacheTtl cannot be negative");
+        mBucketName = bucketName;
+        mDeleteParallelism = (deleteParallelism == 0) ? DEFAULT_DELETE_PARALLELISM : deleteParallelism;
+        mBackgroundWrite = backgroundWrite;
+        mCoalesceWrites = coalesceWrites;
+        mWriteListener = writeListener;
+        mRangedRead = rangedRead;
+        mPartSize = (partSize == 0) ? S3File.DEFAULT_PART_SIZE : partSize;
+        mMaxConcurrency = (maxConcurrency == 0) ? S3File.DEFAULT_MAX_CONCURRENCY : maxConcurrency;
+        mMetadataCacheTtlInNanos = (metadataCacheTtl == null) ? 0 : metadataCacheTtl.toNanos();
+        mContentCache = contentCache;
+        mCompression = (compression == null) ? Compression.NONE : compression;
+        mPutObjectRequestTemplate = PutObjectRequest.builder()
+                .bucket(bucketName)
+                .cacheControl(S3File.CACHE_CONTROL)
+                .build();
+        mImmutablePutObjectRequestTemplate = mPutObjectRequestTemplate.toBuilder()
+                .cacheControl(IMMUTABLE_CACHE_CONTROL)
+                .build();
+        //This bucket holds the clients, so they are not closed while it, or a file of it, is in use
+        S3Clients s3Clients = TransferManagers.getInstance()
+                .getS3Clients(awsAccessKey, awsSecretKey, region, crtSettings, httpClientSettings,
+                        holdClients ? this : null);
+        mS3AsyncClient = s3Clients.getS3AsyncClient();
+        mTransferManager = s3Clients.getTransferManager();
+        //Is layered on the async client, so sync requests share its connections and threads
+        mS3Client = s3Clients.getS3Client();
+        boolean bucketExists = BucketCache.doesBucketExist(mS3Client, bucketName);
+        Thrower.throwIfFalse(bucketExists).message("No bucket named '" + bucketName + "' exists");
+    }
+
+
+    /**
+     * @return The client that non-transfer requests to this bucket are done with
+     */
+    IS3SyncClient getS3Client() {
+        return mS3Client;
+    }
+
+
+    /**
+     * @return The client that requests to this bucket are done with
+     */
+    S3AsyncClient getS3AsyncClient() {
+        return mS3AsyncClient;
+    }
+
+
+    /**
+     * @return The transfer manager that uploads to this bucket are done with
+     */
+    S3TransferManager getTransferManager() {
+        return mTransferManager;
+    }
+
+
+    /**
+     * Returns a file with the settings of this bucket. The file reuses the clients of this bucket and the
+     * existence of the bucket is not checked again, so this is cheap enough to be called for every file
+     * operation.
+     *
+     * @param fileName The name of a file in this bucket
+     * @return The argument file
+     */
+    public S3File getFile(String fileName) {
+        return new S3File(this, fileName);
+    }
+
+
+    /**
+     * See {@link #publish(String, byte[])}
+     *
+     * @param fileName The name of the file without content hash, e.g. "css/site.css"
+     * @param content  The content of the file
+     * @return The name the content was published under, e.g. "css/site.3f2a...9c.css"
+     */
+    public String publish(String fileName, String content) {
+        Thrower.throwIfVarNull(content, "content");
+        return this.publish(fileName, UTF8.getBytes(content));
+    }
+
+
+    /**
+     * Publishes content under a name derived from a hash of the content. The hash is inserted before the file
+     * extension, so "css/site.css" is published as "css/site.&lt;hash&gt;.css". As a changed content gets a new
+     * name, the content of a published file never changes. So published files are written with a cache control
+     * that lets browsers and CDNs cache them for a year without revalidation.
+     * <p>
+     * If a file with the derived name exists, the content is not uploaded again. With builder argument
+     * metadataCacheTtl set, the check uses cached metadata, which is always correct for published files.
+     * <p>
+     * Uses the file settings of this bucket, such as compression. If builder argument backgroundWrite is set,
+     * the returned name can be referenced before the upload is done.
+     *
+     * @param fileName The name of the file without content hash, e.g. "css/site.css". Must have a file
+     *                 extension for which there is a content type. So names without extension and dotfiles
+     *                 such as ".env" cannot be published.
+     * @param content  The content of the file
+     * @return The name the content was published under, e.g. "css/site.3f2a...9c.css"
+     */
+    public String publish(String fileName, byte[] content) {
+        Thrower.createInstance()
+                .throwIfVarEmpty(fileName, "fileName")
+                .throwIfVarNull(content, "content");
+        String publishedFileName = getContentHashedFileName(fileName, content);
+        //The published name is checked, as for names without extension the hash becomes the extension
+        Thrower.throwIfFalse(HttpFileHeaders.hasFileHeader(publishedFileName))
+                .message("Cannot publish file '" + fileName + "' as it has no file extension with a known content type.");
+        S3File s3File = new S3File(this, publishedFileName, mImmutablePutObjectRequestTemplate);
+        if (!s3File.exists()) {
+            s3File.write(content);
+        }
+        return publishedFileName;
+    }
+
+
+    /**
+     * @param fileName A file name, e.g. "css/site.css"
+     * @param content  The content of the file
+     * @return The argument file name with a hash of the argument content inserted before the file extension,
+     * e.g. "css/site.3f2a...9c.css". If the file has no extension the hash is appended.
+     */
+    static String getContentHashedFileName(String fileName, byte[] content) {
+        String contentHash = Hashing.sha256()
+                .hashBytes(content)
+                .toString()
+                .substring(0, CONTENT_HASH_LENGTH);
+        int lastSlash = fileName.lastIndexOf('/');
+        int lastDot = fileName.lastIndexOf('.');
+        //If the dot is in a directory name, or the file name starts with a dot as in ".env"
+        if (lastDot <= lastSlash + 1) {
+            return fileName + "." + contentHash;
+        }
+        return fileName.substring(0, lastDot) + "." + contentHash + fileName.substring(lastDot);
+    }
+
+
+    /**
+     * Lists the files whose names start with the argument prefix, in lexicographical order. The listing is lazy;
+     * pages of up to 1000 files are requested as the stream is consumed, and the next page is fetched while the
+     * current is processed. So a listing of millions of files uses constant memory.
+     * <p>
+     * The stream should be closed if it is not consumed to its end.
+     *
+     * @param prefix A file name prefix, e.g. "images/". If null or empty, all files in the bucket are listed.
+     * @return The files whose names start with the argument prefix
+     */
+    public Stream<S3ListEntry> list(String prefix) {
+        ListObjectsV2Request request = ListObjectsV2Request.builder()
+                .bucket(mBucketName)
+                .prefix(Strings.emptyToNull(prefix))
+                .build();
+        ListingIterator iterator = new ListingIterator(mS3AsyncClient, this, request);
+        return StreamSupport
+                .stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(iterator::close);
+    }
+
+
+    /**
+     * See {@link #delete(Stream)}
+     *
+     * @param fileNames The names of the files to delete
+     * @return The number of deleted files and the files that could not be deleted
+     */
+    public DeleteResult delete(Collection<String> fileNames) {
+        Thrower.throwIfVarNull(fileNames, "fileNames");
+        return this.delete(fileNames.stream());
+    }
+
+
+    /**
+     * Deletes the argument files. The files are deleted in requests of up to 1000 files each, with up to
+     * builder argument deleteParallelism requests in flight. The stream is consumed as the requests are sent,
+     * so a large stream does not have to be held in memory.
+     * <p>
+     * Files that do not exist count as deleted. A file that could not be deleted does not stop the deletion
+     * of the other files, instead it is returned as a failure.
+     *
+     * @param fileNames The names of the files to delete
+     * @return The number of deleted files and the files that could not be deleted
+     */
+    public DeleteResult delete(Stream<String> fileNames) {
+        Thrower.throwIfVarNull(fileNames, "fileNames");
+        TransferManagers.throwIfSdkThread();
+        Semaphore requestsInFlight = new Semaphore(mDeleteParallelism);
+        AtomicLong deletedCount = new AtomicLong();
+        Queue<DeleteResult.Failure> failures = new ConcurrentLinkedQueue<>();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        Iterator<String> iterator = fileNames.iterator();
+        while (iterator.hasNext()) {
+            List<String> chunk = new ArrayList<>(MAX_FILES_PER_DELETE_REQUEST);
+            while (iterator.hasNext() && chunk.size() < MAX_FILES_PER_DELETE_REQUEST) {
+                chunk.add(iterator.next());
+            }
+            requestsInFlight.acquireUninterruptibly();
+            CompletableFuture<Void> future;
+            try {
+                future = this.deleteChunk(chunk)
+                        .handle((response, throwable) -> {
+                            if (throwable != null) {
+                                addChunkFailure(chunk, throwable, failures);
+                            } else {
+                                deletedCount.addAndGet(this.handleResponse(chunk, response, failures));
+                            }
+                            return null;
+                        });
+            } catch (RuntimeException e) {
+                addChunkFailure(chunk, e, failures);
+                future = CompletableFuture.completedFuture(null);
+            }
+            futures.add(future.whenComplete((result, throwable) -> requestsInFlight.release()));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        return new DeleteResult(deletedCount.get(), new ArrayList<>(failures));
+    }
+
+
+    /**
+     * @param chunk The names of up to 1000 files
+     * @return A future for the response of a DeleteObjects request for the argument files
+     */
+    private CompletableFuture<DeleteObjectsResponse> deleteChunk(List<String> chunk) {
+        List<ObjectIdentifier> objectIdentifiers = chunk.stream()
+                .map(fileName -> ObjectIdentifier.builder().key(fileName).build())
+                .collect(Collectors.toList());
+        DeleteObjectsRequest deleteObjectsRequest = DeleteObjectsRequest.builder()
+                .bucket(mBucketName)
+                .delete(Delete.builder()
+                        .objects(objectIdentifiers)
+                        //In quiet mode only the files that could not be deleted are listed in the response
+                        .quiet(true)
+                        .build())
+                .build();
+        return mS3AsyncClient.deleteObjects(deleteObjectsRequest);
+    }
+
+
+    /**
+     * @param chunk    The files of a DeleteObjects request
+     * @param response The response to the request
+     * @param failures Files that could not be deleted are added to this
+     * @return The number of deleted files
+     */
+    long handleResponse(List<String> chunk, DeleteObjectsResponse response, Queue<DeleteResult.Failure> failures) {
+        Set<String> failedFileNames = new HashSet<>();
+        for (S3Error error : response.errors()) {
+            failedFileNames.add(error.key());
+            failures.add(new DeleteResult.Failure(error.key(), error.code(), error.message()));
+        }
+        //The entries of the chunk are counted, as the chunk can hold a file name more than once
+        long deletedCount = 0;
+        for (String fileName : chunk) {
+            if (!failedFileNames.contains(fileName)) {
+                this.invalidateCaches(fileName);
+                deletedCount++;
+            }
+        }
+        return deletedCount;
+    }
+
+
+    /**
+     * Removes the argument file of this bucket from the metadata cache and, if set, the content cache. Is to be
+     * called when the file has been changed or deleted.
+     *
+     * @param fileName The name of a file in this bucket
+     */
+    void invalidateCaches(String fileName) {
+        ObjectMetadataCache.getSingleton().invalidate(mBucketName, fileName);
+        if (mContentCache != null) {
+            mContentCache.invalidate(mBucketName, fileName);
+        }
+    }
+
+
+    /**
+     * Adds all files of a failed request as failures.
+     */
+    private static void addChunkFailure(List<String> chunk, Throwable throwable, Queue<DeleteResult.Failure> failures) {
+        Throwable error = (throwable instanceof CompletionException && throwable.getCause() != null)
+                ? throwable.getCause()
+                : throwable;
+        String code = (error instanceof AwsServiceException && ((AwsServiceException) error).awsErrorDetails() != null)
+                ? ((AwsServiceException) error).awsErrorDetails().errorCode()
+                : error.getClass().getSimpleName();
+        for (String fileName : chunk) {
+            failures.add(new DeleteResult.Failure(fileName, code, error.getMessage()));
+        }
+    }
+}
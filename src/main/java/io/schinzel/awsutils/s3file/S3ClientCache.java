@@ -1,15 +1,8 @@
 package io.schinzel.awsutils.s3file;
 
-import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
-import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
 import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.s3.S3Client;
+import io.schinzel.awsutils.httpclient.HttpClientSettings;
 import io.schinzel.basicutils.thrower.Thrower;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
 
 /**
  * The purpose of this class to hold a cache of S3 clients.
@@ -17,6 +10,10 @@ import java.util.concurrent.TimeUnit;
  * The purpose of a client cache is for performance.
  * S3Client instances are heavyweight resources that should be reused rather than 
  * created for every S3File instance.
+ * <p>
+ * The clients do their requests over the async client of {@link TransferManagers} for the same credentials,
+ * so sync requests and transfers share one connection pool and one set of threads. The clients are held
+ * together with the async clients by {@link TransferManagers}, so that they are created and closed together.
  *
  * @author Schinzel
  */
@@ -31,59 +28,41 @@ class S3ClientCache {
     }
 
 
-    /** Cache of S3 clients */
-    private final Cache<String, S3Client> mS3ClientCache = CacheBuilder.newBuilder()
-            .maximumSize(100)
-            .expireAfterAccess(1, TimeUnit.HOURS)
-            .recordStats()
-            .build();
-    
-    /** Set to track all created clients for proper shutdown */
-    private final Set<S3Client> mCreatedClients = ConcurrentHashMap.newKeySet();
-
-
     /**
      * @param awsAccessKey An AWS access key
      * @param awsSecretKey An AWS secret key
      * @param region       The region in which to operate
      * @return An Amazon S3 client.
      */
-    S3Client getS3Client(String awsAccessKey, String awsSecretKey, Region region) {
+    IS3SyncClient getS3Client(String awsAccessKey, String awsSecretKey, Region region) {
+        return this.getS3Client(awsAccessKey, awsSecretKey, region, null, null);
+    }
+
+
+    /**
+     * @param awsAccessKey       An AWS access key
+     * @param awsSecretKey       An AWS secret key
+     * @param region             The region in which to operate
+     * @param crtSettings        If set, the client is layered on a CRT based async client with these settings
+     * @param httpClientSettings The settings of the HTTP client of the client. If null, the SDK defaults are used.
+     * @return An Amazon S3 client. Clients with different settings are cached separately.
+     */
+    IS3SyncClient getS3Client(String awsAccessKey, String awsSecretKey, Region region, CrtSettings crtSettings,
+                         HttpClientSettings httpClientSettings) {
         Thrower.createInstance()
                 .throwIfVarEmpty(awsAccessKey, "awsAccessKey")
                 .throwIfVarEmpty(awsSecretKey, "awsSecretKey")
                 .throwIfVarNull(region, "region");
-        //Construct a cache key
-        String cacheKey = awsAccessKey + region.id();
-        //Try to get from cache first
-        S3Client cachedClient = mS3ClientCache.getIfPresent(cacheKey);
-        if (cachedClient != null) {
-            return cachedClient;
-        }
-        
-        //Create new client if not in cache
-        AwsBasicCredentials credentials = AwsBasicCredentials.create(awsAccessKey, awsSecretKey);
-        StaticCredentialsProvider credentialsProvider = StaticCredentialsProvider.create(credentials);
-        S3Client s3Client = S3Client.builder()
-                .credentialsProvider(credentialsProvider)
-                .region(region)
-                .build();
-        
-        //Add client to cache and track for shutdown
-        mS3ClientCache.put(cacheKey, s3Client);
-        mCreatedClients.add(s3Client);
-        return s3Client;
+        return TransferManagers.getInstance()
+                .getS3Clients(awsAccessKey, awsSecretKey, region, crtSettings, httpClientSettings, null)
+                .getS3Client();
     }
 
     /**
-     * Shutdown all cached S3 clients. Call this during application shutdown.
+     * Closes all S3 clients and the async clients they are layered on.
      */
     void shutdown() {
-        // Close all created S3 clients
-        mCreatedClients.forEach(S3Client::close);
-        mCreatedClients.clear();
-        // Invalidate the cache (this will trigger removal listeners)
-        mS3ClientCache.invalidateAll();
+        TransferManagers.getInstance().closeClients();
     }
     
     /**
@@ -91,7 +70,7 @@ class S3ClientCache {
      * @return Current cache size
      */
     long getCacheSize() {
-        return mS3ClientCache.size();
+        return TransferManagers.getInstance().getCacheSize();
     }
     
     /**
@@ -99,7 +78,7 @@ class S3ClientCache {
      * @return Number of cache hits
      */
     long getCacheHits() {
-        return mS3ClientCache.stats().hitCount();
+        return TransferManagers.getInstance().getCacheHits();
     }
     
     /**
@@ -107,6 +86,6 @@ class S3ClientCache {
      * Clear the cache without closing clients
      */
     void clearCache() {
-        mS3ClientCache.invalidateAll();
+        TransferManagers.getInstance().clearCache();
     }
 }
\ No newline at end of file
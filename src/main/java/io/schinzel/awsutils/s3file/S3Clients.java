@@ -0,0 +1,49 @@
+package io.schinzel.awsutils.s3file;
+
+import lombok.Getter;
+import lombok.experimental.Accessors;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.transfer.s3.S3TransferManager;
+
+import java.util.concurrent.Executor;
+
+/**
+ * The purpose of this class is to hold the S3 clients of one credential, region and settings, so that they
+ * are created and closed together.
+ * <p>
+ * The transfer manager and the sync client are layered on the async client, so the three share one
+ * connection pool.
+ *
+ * @author Schinzel
+ */
+@Getter
+@Accessors(prefix = "m")
+class S3Clients {
+    private final S3AsyncClient mS3AsyncClient;
+    private final S3TransferManager mTransferManager;
+    private final IS3SyncClient mS3Client;
+
+
+    /**
+     * @param s3AsyncClient The client to layer the others on
+     * @param executor      The executor of the transfer manager. Is shared, so is not closed with it.
+     */
+    S3Clients(S3AsyncClient s3AsyncClient, Executor executor) {
+        mS3AsyncClient = s3AsyncClient;
+        mTransferManager = S3TransferManager.builder()
+                .s3Client(s3AsyncClient)
+                .executor(executor)
+                .build();
+        mS3Client = new AsyncBackedS3Client(s3AsyncClient);
+    }
+
+
+    /**
+     * Closes the transfer manager and then the async client, as transfer managers do not close clients they
+     * were given.
+     */
+    void close() {
+        mTransferManager.close();
+        mS3AsyncClient.close();
+    }
+}
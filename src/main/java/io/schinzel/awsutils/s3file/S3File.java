@@ -1,42 +1,82 @@
 package io.schinzel.awsutils.s3file;
 
 
+import com.google.common.io.ByteStreams;
+import io.schinzel.awsutils.httpclient.HttpClientSettings;
+import io.schinzel.awsutils.metrics.Metrics;
+import io.schinzel.awsutils.metrics.Operation;
 import io.schinzel.basicutils.UTF8;
 import io.schinzel.basicutils.file.Bytes;
-import io.schinzel.basicutils.file.FileReader;
 import io.schinzel.basicutils.thrower.Thrower;
 import lombok.Builder;
+import lombok.Getter;
 import lombok.experimental.Accessors;
+import software.amazon.awssdk.core.ResponseInputStream;
 import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
 import software.amazon.awssdk.core.exception.SdkClientException;
 import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.model.*;
 import software.amazon.awssdk.transfer.s3.S3TransferManager;
+import software.amazon.awssdk.transfer.s3.model.CompletedFileDownload;
 import software.amazon.awssdk.transfer.s3.model.DownloadFileRequest;
 import software.amazon.awssdk.transfer.s3.model.FileDownload;
-import software.amazon.awssdk.transfer.s3.model.Upload;
+import software.amazon.awssdk.transfer.s3.model.UploadFileRequest;
 import software.amazon.awssdk.transfer.s3.model.UploadRequest;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * The purpose of this class is to offer operations on S3 files.
+ * <p>
+ * The futures of the async methods are completed on threads shared by all S3 clients. Sync methods, such as
+ * read, write, exists and delete, wait for futures completed on these threads. So sync methods cannot be called
+ * in callbacks of the futures, e.g. in thenApply or whenComplete, and throw an exception if they are. To do sync
+ * work in a callback, pass an own executor, as in thenApplyAsync(function, executor), or use the async methods.
  *
  * @author Schinzel
  */
 @Accessors(prefix = "m")
 public class S3File implements IS3File {
+    /** The largest file that can be read into memory. Larger files have to be read with readToFile. */
+    private static final long MAX_IN_MEMORY_FILE_SIZE = Integer.MAX_VALUE - 8;
+    /** Default size of the parts in ranged reads. 8 MB. */
+    static final int DEFAULT_PART_SIZE = 8 * 1024 * 1024;
+    /** Default max number of concurrent requests for a ranged read */
+    static final int DEFAULT_MAX_CONCURRENCY = 8;
+    /** The cache control header set on written files */
+    static final String CACHE_CONTROL = "public, max-age=2592000";
+    /** HTTP status code returned by S3 if a range cannot be satisfied, e.g. a range in an empty file */
+    private static final int STATUS_CODE_RANGE_NOT_SATISFIABLE = 416;
     /**
      * The name of this file
      */
+    @Getter
     private final String mFileName;
     /**
      * The name of the bucket in which this file resides
      */
+    @Getter
     private final String mBucketName;
+    /**
+     * The put request that the put requests of this file are copied from. Holds the bucket and the cache control.
+     */
+    private final PutObjectRequest mPutObjectRequestTemplate;
+    /**
+     * The bucket of this file. Holds the clients in the client registry, so is kept reachable while this file is.
+     */
+    private final S3Bucket mBucket;
     /**
      * Transfers data to/from S3
      */
@@ -44,45 +84,239 @@ public class S3File implements IS3File {
     /**
      * S3 client for non-transfer operations
      */
-    private final S3Client mS3Client;
+    private final IS3SyncClient mS3Client;
+    /**
+     * Async S3 client. Is the client the transfer manager is built on.
+     */
+    private final S3AsyncClient mS3AsyncClient;
     /**
      * If true, write method does the write operation in the in background.
      */
     private final boolean mBackgroundWrite;
+    /**
+     * If true, background writes to this file are coalesced. Only the latest content is uploaded when the
+     * file is written again while a write to it is in flight.
+     */
+    private final boolean mCoalesceWrites;
+    /**
+     * Is notified when a background write is done. Can be null.
+     */
+    private final IWriteListener mWriteListener;
+    /**
+     * If true, read operations fetch the file as a set of byte ranges concurrently.
+     */
+    private final boolean mRangedRead;
+    /**
+     * The size in bytes of each part in ranged reads and streamed writes
+     */
+    private final int mPartSize;
+    /**
+     * The max number of concurrent requests for a single ranged read or streamed write
+     */
+    private final int mMaxConcurrency;
+    /**
+     * The max age in nanoseconds of cached metadata used by exists. 0 if the metadata cache is not used.
+     */
+    private final long mMetadataCacheTtlInNanos;
+    /**
+     * Caches the content read with read(). Null if content is not cached.
+     */
+    private final ContentCache mContentCache;
+    /**
+     * True if the content of this file is to be gzipped on write
+     */
+    private final boolean mCompress;
+    /**
+     * The content type of this file. Is resolved on the first write, as files that are only read can have
+     * names without a known file type.
+     */
+    private String mContentType;
 
 
+    /**
+     * Validates the arguments, looks up the clients and checks that the bucket exists. For many files in the same
+     * bucket, build an {@link S3Bucket} once and create the files with {@link S3Bucket#getFile(String)}.
+     * <p>
+     * The clients of files built with the builder are kept until shutdown. The clients of a bucket are closed
+     * when the bucket and its files have been unused for an hour.
+     *
+     * @param coalesceWrites If true and backgroundWrite is true, a write to a file that has a write in flight is
+     *                       queued. A queued write is replaced by later writes, so only the latest content is
+     *                       uploaded. For files with last-writer-wins content that are written often.
+     * @param writeListener  Is notified when a background write is done. Optional.
+     * @param rangedRead     If true, read and readToFile fetch the file as byte ranges in parallel. Is faster
+     *                       for large files.
+     * @param partSize       The size in bytes of the ranges in ranged reads and of the parts in streamed writes.
+     *                       Optional, default 8 MB. Streamed writes use at least 5 MB as required by S3.
+     * @param maxConcurrency The max number of concurrent requests in ranged reads and streamed writes.
+     *                       Optional, default 8.
+     * @param metadataCacheTtl If set, exists uses metadata cached by any S3File if the metadata is younger than
+     *                         this. Optional, by default exists always does a request to S3.
+     * @param contentCache     If set, read uses this cache. Optional, by default content is not cached.
+     * @param compression      If GZIP, files of text based types are gzipped on write. Optional, default NONE.
+     * @param crtSettings      If set, transfers use a client based on the AWS Common Runtime with these
+     *                         settings. For large files on fast networks. Optional.
+     * @param httpClientSettings The connection pool settings of the HTTP clients. Optional, by default the
+     *                           SDK defaults are used.
+     */
     @Builder
-    S3File(String awsAccessKey, String awsSecretKey, Region region, String bucketName, String fileName, boolean backgroundWrite) {
-        Thrower.createInstance()
-                .throwIfVarEmpty(awsAccessKey, "awsAccessKey")
-                .throwIfVarEmpty(awsSecretKey, "awsSecretKey")
-                .throwIfVarNull(region, "region")
-                .throwIfVarEmpty(bucketName, "bucketName")
-                .throwIfVarEmpty(fileName, "fileName");
+    S3File(String awsAccessKey, String awsSecretKey, Region region, String bucketName, String fileName,
+           boolean backgroundWrite, boolean coalesceWrites, IWriteListener writeListener, boolean rangedRead, int partSize, int maxConcurrency,
+           Duration metadataCacheTtl, ContentCache contentCache, Compression compression, CrtSettings crtSettings,
+           HttpClientSettings httpClientSettings) {
+        //The bucket does not register as a holder of the clients, so files do not pile up holders
+        this(new S3Bucket(awsAccessKey, awsSecretKey, region, bucketName, 0, backgroundWrite, coalesceWrites,
+                writeListener, rangedRead, partSize, maxConcurrency, metadataCacheTtl, contentCache, compression,
+                crtSettings, httpClientSettings, false), fileName);
+    }
+
+
+    /**
+     * Creates a file with the clients and the settings of the argument bucket. The bucket has validated its
+     * arguments, looked up the clients and checked that it exists, so this only copies references.
+     *
+     * @param bucket   The bucket of the file
+     * @param fileName The name of the file
+     */
+    S3File(S3Bucket bucket, String fileName) {
+        this(bucket, fileName, bucket.getPutObjectRequestTemplate());
+    }
+
+
+    /**
+     * See {@link #S3File(S3Bucket, String)}
+     *
+     * @param putObjectRequestTemplate The put request that the put requests of the file are copied from. Sets
+     *                                 the bucket and the cache control of written content.
+     */
+    S3File(S3Bucket bucket, String fileName, PutObjectRequest putObjectRequestTemplate) {
+        Thrower.throwIfVarEmpty(fileName, "fileName");
+        mPutObjectRequestTemplate = putObjectRequestTemplate;
         mFileName = fileName;
-        mBucketName = bucketName;
-        mBackgroundWrite = backgroundWrite;
-        mTransferManager = TransferManagers.getInstance()
-                .getTransferManager(awsAccessKey, awsSecretKey, region);
-        // Get cached S3Client for non-transfer operations
-        mS3Client = S3ClientCache.getSingleton()
-                .getS3Client(awsAccessKey, awsSecretKey, region);
-        boolean bucketExists = BucketCache.doesBucketExist(mS3Client, bucketName);
-        Thrower.throwIfFalse(bucketExists).message("No bucket named '" + bucketName + "' exists");
+        mBucket = bucket;
+        mBucketName = bucket.getBucketName();
+        mTransferManager = bucket.getTransferManager();
+        mS3AsyncClient = bucket.getS3AsyncClient();
+        mS3Client = bucket.getS3Client();
+        mBackgroundWrite = bucket.isBackgroundWrite();
+        mCoalesceWrites = bucket.isCoalesceWrites();
+        mWriteListener = bucket.getWriteListener();
+        mRangedRead = bucket.isRangedRead();
+        mPartSize = bucket.getPartSize();
+        mMaxConcurrency = bucket.getMaxConcurrency();
+        mMetadataCacheTtlInNanos = bucket.getMetadataCacheTtlInNanos();
+        mContentCache = bucket.getContentCache();
+        //Short-circuits so that the file type is only resolved if compression is used
+        mCompress = (bucket.getCompression() == Compression.GZIP) && HttpFileHeaders.isCompressible(fileName);
     }
 
 
     /**
-     * @return The content of this file as a string. If there was no such file, an empty string is returned.
+     * The content is read straight from the response stream into a buffer sized after the content length of the
+     * file. No temp file is used. For files too large to hold in memory, see {@link #readToFile(Path)}.
+     * <p>
+     * If builder argument rangedRead is true, the file is fetched as a set of byte ranges in parallel.
+     * <p>
+     * If builder argument contentCache is set, the content is read through the cache and rangedRead is not used.
+     * <p>
+     * A file written with Content-Encoding gzip is decompressed.
+     *
+     * @return The content of this file. If there was no such file, an empty bytes object is returned.
      */
     @Override
     public Bytes read() {
+        return this.measureRead(() -> {
+            if (mContentCache != null) {
+                return mContentCache.read(mS3Client, mBucketName, mFileName);
+            }
+            return mRangedRead
+                    ? this.readRanged()
+                    : this.readRange(null);
+        });
+    }
+
+
+    /**
+     * @param offset The position of the first byte to read
+     * @param length The number of bytes to read
+     * @return The bytes in the argument range. If the range extends beyond the end of the file, the bytes up to
+     * the end of the file are returned. If the offset is beyond the end of the file or there was no such file, an
+     * empty bytes object is returned. The bytes of a compressed file are returned as stored, i.e. compressed.
+     */
+    @Override
+    public Bytes read(long offset, long length) {
+        Thrower.createInstance()
+                .throwIfTrue(offset < 0, "offset cannot be negative")
+                .throwIfTrue(length < 1, "length must be larger than 0");
+        //The end is clamped, as offset + length can overflow. A range beyond the end of the file ends at the end.
+        long end = (length - 1 > Long.MAX_VALUE - offset)
+                ? Long.MAX_VALUE
+                : offset + length - 1;
+        return this.measureRead(() -> this.readRange("bytes=" + offset + "-" + end));
+    }
+
+
+    /**
+     * @param length The number of bytes to read
+     * @return The last bytes of this file. If the file is shorter than the argument length, the whole file is
+     * returned. If there was no such file, an empty bytes object is returned. The bytes of a compressed file are
+     * returned as stored, i.e. compressed.
+     */
+    @Override
+    public Bytes readLast(long length) {
+        Thrower.throwIfTrue(length < 1).message("length must be larger than 0");
+        return this.measureRead(() -> this.readRange("bytes=-" + length));
+    }
+
+
+    /**
+     * Reads with the argument reader and records the duration and size of the read.
+     *
+     * @param reader Reads content of this file
+     * @return The content read
+     */
+    private Bytes measureRead(Supplier<byte[]> reader) {
+        long startTime = System.nanoTime();
         try {
-            File tempFile = S3File.getTempFile();
-            this.downloadFileContentIntoTempFile(tempFile);
-            //Read content in temp file and return it
-            return FileReader.read(tempFile);
+            byte[] fileContent = reader.get();
+            Metrics.getInstance().record(Operation.S3_READ, mBucketName, startTime, fileContent.length, false);
+            return Bytes.wrap(fileContent);
+        } catch (RuntimeException e) {
+            Metrics.getInstance().record(Operation.S3_READ, mBucketName, startTime, 0, true);
+            throw e;
+        }
+    }
+
+
+    /**
+     * @param range A HTTP range, e.g. "bytes=0-99". If null, the whole file is read.
+     * @return The content of this file in the argument range
+     */
+    private byte[] readRange(String range) {
+        GetObjectRequest getObjectRequest = GetObjectRequest.builder()
+                .bucket(mBucketName)
+                .key(mFileName)
+                .range(range)
+                .build();
+        try (ResponseInputStream<GetObjectResponse> inputStream = mS3Client.getObject(getObjectRequest)) {
+            GetObjectResponse response = inputStream.response();
+            //Only whole files can be decompressed
+            if (range == null && GzipCodec.isGzip(response.contentEncoding())) {
+                return GzipCodec.decompress(inputStream, response.metadata());
+            }
+            long contentLength = response.contentLength();
+            Thrower.throwIfTrue(contentLength > MAX_IN_MEMORY_FILE_SIZE)
+                    .message("File is " + contentLength + " bytes which is too large to read into memory. Use readToFile.");
+            byte[] fileContent = new byte[(int) contentLength];
+            ByteStreams.readFully(inputStream, fileContent);
+            return fileContent;
+        } catch (NoSuchKeyException e) {
+            //If there was no such file
+            return new byte[0];
         } catch (S3Exception e) {
+            if (e.statusCode() == STATUS_CODE_RANGE_NOT_SATISFIABLE) {
+                return new byte[0];
+            }
             String exceptionMessage = String.format("S3 error when reading file '%s' from bucket '%s': ", mFileName, mBucketName);
             throw new RuntimeException(exceptionMessage + e.getMessage(), e);
         } catch (IOException e) {
@@ -95,71 +329,414 @@ public class S3File implements IS3File {
     }
 
 
-    private static File getTempFile() throws IOException {
-        String downloadFileNamePrefix = "s3_destination_temp_file_";
-        //Creates a file with the suffix .tmp
-        File downloadFile = File.createTempFile(downloadFileNamePrefix, null);
-        //File will be deleted on exit of virtual machine
-        downloadFile.deleteOnExit();
-        return downloadFile;
+    /**
+     * @return The content of this file, fetched as a set of byte ranges in parallel
+     */
+    private byte[] readRanged() {
+        try {
+            RangedDownload rangedDownload = this.getRangedDownload();
+            byte[] fileContent = rangedDownload.toBytes();
+            if (GzipCodec.isGzip(rangedDownload.getContentEncoding())) {
+                fileContent = GzipCodec.decompress(fileContent, rangedDownload.getMetadata());
+            }
+            return fileContent;
+        } catch (NoSuchKeyException e) {
+            //If there was no such file
+            return new byte[0];
+        } catch (S3Exception e) {
+            //An empty file cannot satisfy a range request
+            if (e.statusCode() == STATUS_CODE_RANGE_NOT_SATISFIABLE) {
+                return new byte[0];
+            }
+            String exceptionMessage = String.format("S3 error when reading file '%s' from bucket '%s': ", mFileName, mBucketName);
+            throw new RuntimeException(exceptionMessage + e.getMessage(), e);
+        } catch (Exception e) {
+            String exceptionMessage = String.format("Unexpected error when reading S3 file '%s' from bucket '%s': ", mFileName, mBucketName);
+            throw new RuntimeException(exceptionMessage + e.getMessage(), e);
+        }
     }
 
 
-    private void downloadFileContentIntoTempFile(File tempFile) throws IOException {
+    /**
+     * Downloads this file to the argument destination. Is intended for files too large to hold in memory.
+     * If the destination file exists it is overwritten. If there is no such file on S3, an empty
+     * destination file is created.
+     * <p>
+     * If builder argument rangedRead is true, the file is fetched as a set of byte ranges in parallel.
+     * <p>
+     * If builder argument contentCache is set, the file is read through the cache and rangedRead is not used.
+     * <p>
+     * A file written with Content-Encoding gzip is decompressed after the download.
+     *
+     * @param destination The local file to download to
+     * @return This for chaining
+     */
+    @Override
+    public IS3File readToFile(Path destination) {
+        Thrower.throwIfVarNull(destination, "destination");
+        long startTime = System.nanoTime();
+        try {
+            if (mContentCache != null) {
+                mContentCache.readToFile(mS3Client, mBucketName, mFileName, destination);
+            } else if (mRangedRead) {
+                this.readRangedToFile(destination);
+            } else {
+                this.downloadToFile(destination);
+            }
+        } catch (RuntimeException e) {
+            Metrics.getInstance().record(Operation.S3_READ, mBucketName, startTime, 0, true);
+            throw e;
+        }
+        //Returns 0 if the size cannot be read, which is good enough for a metric
+        long fileSize = destination.toFile().length();
+        Metrics.getInstance().record(Operation.S3_READ, mBucketName, startTime, fileSize, false);
+        return this;
+    }
+
+
+    private IS3File downloadToFile(Path destination) {
         try {
             DownloadFileRequest downloadFileRequest = DownloadFileRequest.builder()
                     .getObjectRequest(GetObjectRequest.builder()
                             .bucket(mBucketName)
                             .key(mFileName)
                             .build())
-                    .destination(tempFile.toPath())
+                    .destination(destination)
                     .build();
+            TransferManagers.throwIfSdkThread();
             FileDownload download = mTransferManager.downloadFile(downloadFileRequest);
-            download.completionFuture().join();
+            CompletedFileDownload completedDownload = download.completionFuture().join();
+            if (GzipCodec.isGzip(completedDownload.response().contentEncoding())) {
+                GzipCodec.decompressFile(destination);
+            }
+            return this;
         } catch (CompletionException e) {
             if (e.getCause() instanceof NoSuchKeyException) {
-                //If there was no such file
-                //Create empty file
-                tempFile.createNewFile();
-            } else {
-                throw e;
+                //If there was no such file, create an empty file
+                return this.writeEmptyFile(destination);
+            }
+            String exceptionMessage = String.format("Error when downloading S3 file '%s' from bucket '%s': ", mFileName, mBucketName);
+            throw new RuntimeException(exceptionMessage + e.getMessage(), e);
+        }
+    }
+
+
+    private IS3File readRangedToFile(Path destination) {
+        try {
+            RangedDownload rangedDownload = this.getRangedDownload();
+            rangedDownload.toFile(destination);
+            if (GzipCodec.isGzip(rangedDownload.getContentEncoding())) {
+                GzipCodec.decompressFile(destination);
             }
+            return this;
+        } catch (NoSuchKeyException e) {
+            //If there was no such file, create an empty file
+            return this.writeEmptyFile(destination);
+        } catch (S3Exception e) {
+            //An empty file cannot satisfy a range request
+            if (e.statusCode() == STATUS_CODE_RANGE_NOT_SATISFIABLE) {
+                return this.writeEmptyFile(destination);
+            }
+            String exceptionMessage = String.format("S3 error when downloading file '%s' from bucket '%s': ", mFileName, mBucketName);
+            throw new RuntimeException(exceptionMessage + e.getMessage(), e);
+        } catch (Exception e) {
+            String exceptionMessage = String.format("Unexpected error when downloading S3 file '%s' from bucket '%s': ", mFileName, mBucketName);
+            throw new RuntimeException(exceptionMessage + e.getMessage(), e);
+        }
+    }
+
+
+    private RangedDownload getRangedDownload() {
+        return RangedDownload.builder()
+                .s3AsyncClient(mS3AsyncClient)
+                .bucketName(mBucketName)
+                .fileName(mFileName)
+                .partSize(mPartSize)
+                .maxConcurrency(mMaxConcurrency)
+                .build();
+    }
+
+
+    private IS3File writeEmptyFile(Path destination) {
+        try {
+            Files.write(destination, new byte[0]);
+            return this;
+        } catch (IOException e) {
+            String exceptionMessage = String.format("IO error when creating empty file '%s': ", destination);
+            throw new RuntimeException(exceptionMessage + e.getMessage(), e);
         }
     }
 
 
     /**
+     * If builder argument metadataCacheTtl is set, cached metadata younger than the time to live is used.
+     *
      * @return True if this file exists, else false.
      */
     @Override
     public boolean exists() {
+        return this.getMetadata().isExists();
+    }
+
+
+    /**
+     * If builder argument metadataCacheTtl is set, cached metadata younger than the time to live is returned.
+     * Else the metadata is fetched from S3.
+     *
+     * @return The metadata of this file. If there is no such file, metadata for which exists is false.
+     */
+    @Override
+    public ObjectMetadata getMetadata() {
+        long startTime = System.nanoTime();
+        try {
+            ObjectMetadata metadata = this.fetchMetadata();
+            Metrics.getInstance().record(Operation.S3_EXISTS, mBucketName, startTime, 0, false);
+            return metadata;
+        } catch (RuntimeException e) {
+            Metrics.getInstance().record(Operation.S3_EXISTS, mBucketName, startTime, 0, true);
+            throw e;
+        }
+    }
+
+
+    /**
+     * @return The metadata of this file, from the cache if allowed, else from S3
+     */
+    private ObjectMetadata fetchMetadata() {
+        if (mMetadataCacheTtlInNanos > 0) {
+            ObjectMetadata cachedMetadata = ObjectMetadataCache.getSingleton()
+                    .get(mBucketName, mFileName, mMetadataCacheTtlInNanos);
+            if (cachedMetadata != null) {
+                return cachedMetadata;
+            }
+        }
+        ObjectMetadata metadata;
         try {
-            mS3Client.headObject(HeadObjectRequest.builder()
+            HeadObjectResponse response = mS3Client.headObject(HeadObjectRequest.builder()
                     .bucket(mBucketName)
                     .key(mFileName)
                     .build());
+            metadata = ObjectMetadata.create(response);
         } catch (NoSuchKeyException e) {
-            return false;
+            metadata = ObjectMetadata.createNonExisting();
+        }
+        if (mMetadataCacheTtlInNanos > 0) {
+            ObjectMetadataCache.getSingleton().put(mBucketName, mFileName, metadata);
         }
-        return true;
+        return metadata;
     }
 
 
     /**
      * Delete this file. If file does not exist on S3, method returns gracefully without throwing errors.
+     * As delete is idempotent on S3, this is done with a single request.
      */
     @Override
     public IS3File delete() {
-        if (this.exists()) {
-            mS3Client.deleteObject(DeleteObjectRequest.builder()
-                    .bucket(mBucketName)
-                    .key(mFileName)
-                    .build());
+        long startTime = System.nanoTime();
+        try {
+            mS3Client.deleteObject(this.getDeleteObjectRequest());
+        } catch (RuntimeException e) {
+            Metrics.getInstance().record(Operation.S3_DELETE, mBucketName, startTime, 0, true);
+            throw e;
         }
+        Metrics.getInstance().record(Operation.S3_DELETE, mBucketName, startTime, 0, false);
+        this.onDeleted();
         return this;
     }
 
 
+    private DeleteObjectRequest getDeleteObjectRequest() {
+        return DeleteObjectRequest.builder()
+                .bucket(mBucketName)
+                .key(mFileName)
+                .build();
+    }
+
+
+    /**
+     * Updates the caches after this file has been deleted.
+     */
+    private void onDeleted() {
+        this.invalidateCaches();
+        if (mMetadataCacheTtlInNanos > 0) {
+            ObjectMetadataCache.getSingleton().put(mBucketName, mFileName, ObjectMetadata.createNonExisting());
+        }
+    }
+
+
+    /**
+     * The asynchronous version of {@link #read()}. The request is done with the async client and does not block
+     * a thread while waiting for S3. Builder arguments rangedRead and contentCache are not used. Sync methods
+     * cannot be called in callbacks of the returned future, see the class doc.
+     *
+     * @return A future for the content of this file. If there was no such file, the future holds an empty bytes
+     * object.
+     */
+    @Override
+    public CompletableFuture<Bytes> readAsync() {
+        long startTime = System.nanoTime();
+        GetObjectRequest getObjectRequest = GetObjectRequest.builder()
+                .bucket(mBucketName)
+                .key(mFileName)
+                .build();
+        return mS3AsyncClient.getObject(getObjectRequest, AsyncResponseTransformer.toBytes())
+                .handle((responseBytes, throwable) -> {
+                    if (throwable == null) {
+                        GetObjectResponse response = responseBytes.response();
+                        byte[] fileContent = responseBytes.asByteArrayUnsafe();
+                        if (GzipCodec.isGzip(response.contentEncoding())) {
+                            fileContent = GzipCodec.decompress(fileContent, response.metadata());
+                        }
+                        return fileContent;
+                    }
+                    Throwable cause = unwrap(throwable);
+                    //If there was no such file
+                    if (cause instanceof NoSuchKeyException) {
+                        return new byte[0];
+                    }
+                    String exceptionMessage = String.format("Error when reading S3 file '%s' from bucket '%s': ", mFileName, mBucketName);
+                    throw new CompletionException(new RuntimeException(exceptionMessage + cause.getMessage(), cause));
+                })
+                .whenComplete((fileContent, throwable) -> Metrics.getInstance().record(Operation.S3_READ, mBucketName,
+                        startTime, (throwable == null) ? fileContent.length : 0, throwable != null))
+                .thenApply(Bytes::wrap);
+    }
+
+
+    /**
+     * The asynchronous version of {@link #exists()}. Sync methods cannot be called in callbacks of the returned
+     * future, see the class doc.
+     *
+     * @return A future that holds true if this file exists, else false
+     */
+    @Override
+    public CompletableFuture<Boolean> existsAsync() {
+        return this.getMetadataAsync()
+                .thenApply(ObjectMetadata::isExists);
+    }
+
+
+    /**
+     * The asynchronous version of {@link #getMetadata()}. Sync methods cannot be called in callbacks of the
+     * returned future, see the class doc.
+     *
+     * @return A future for the metadata of this file
+     */
+    @Override
+    public CompletableFuture<ObjectMetadata> getMetadataAsync() {
+        long startTime = System.nanoTime();
+        if (mMetadataCacheTtlInNanos > 0) {
+            ObjectMetadata cachedMetadata = ObjectMetadataCache.getSingleton()
+                    .get(mBucketName, mFileName, mMetadataCacheTtlInNanos);
+            if (cachedMetadata != null) {
+                Metrics.getInstance().record(Operation.S3_EXISTS, mBucketName, startTime, 0, false);
+                return CompletableFuture.completedFuture(cachedMetadata);
+            }
+        }
+        HeadObjectRequest headObjectRequest = HeadObjectRequest.builder()
+                .bucket(mBucketName)
+                .key(mFileName)
+                .build();
+        return mS3AsyncClient.headObject(headObjectRequest)
+                .handle((response, throwable) -> {
+                    ObjectMetadata metadata;
+                    if (throwable == null) {
+                        metadata = ObjectMetadata.create(response);
+                    } else if (unwrap(throwable) instanceof NoSuchKeyException) {
+                        metadata = ObjectMetadata.createNonExisting();
+                    } else {
+                        Throwable cause = unwrap(throwable);
+                        String exceptionMessage = String.format("Error when reading metadata of S3 file '%s' in bucket '%s': ", mFileName, mBucketName);
+                        throw new CompletionException(new RuntimeException(exceptionMessage + cause.getMessage(), cause));
+                    }
+                    if (mMetadataCacheTtlInNanos > 0) {
+                        ObjectMetadataCache.getSingleton().put(mBucketName, mFileName, metadata);
+                    }
+                    return metadata;
+                })
+                .whenComplete((metadata, throwable) -> Metrics.getInstance()
+                        .record(Operation.S3_EXISTS, mBucketName, startTime, 0, throwable != null));
+    }
+
+
+    /**
+     * The asynchronous version of {@link #delete()}. Sync methods cannot be called in callbacks of the returned
+     * future, see the class doc.
+     *
+     * @return A future that completes when this file has been deleted
+     */
+    @Override
+    public CompletableFuture<IS3File> deleteAsync() {
+        long startTime = System.nanoTime();
+        return mS3AsyncClient.deleteObject(this.getDeleteObjectRequest())
+                .handle((response, throwable) -> {
+                    Metrics.getInstance().record(Operation.S3_DELETE, mBucketName, startTime, 0, throwable != null);
+                    if (throwable != null) {
+                        Throwable cause = unwrap(throwable);
+                        String exceptionMessage = String.format("Error when deleting S3 file '%s' from bucket '%s': ", mFileName, mBucketName);
+                        throw new CompletionException(new RuntimeException(exceptionMessage + cause.getMessage(), cause));
+                    }
+                    this.onDeleted();
+                    return this;
+                });
+    }
+
+
+    /**
+     * The asynchronous version of {@link #write(String)}. Sync methods cannot be called in callbacks of the
+     * returned future, see the class doc.
+     *
+     * @param fileContent The file content to write
+     * @return A future that completes when the content has been written
+     */
+    @Override
+    public CompletableFuture<IS3File> writeAsync(String fileContent) {
+        return this.writeAsync(UTF8.getBytes(fileContent));
+    }
+
+
+    /**
+     * The asynchronous version of {@link #write(byte[])}. The write is not done in the background as per builder
+     * argument backgroundWrite; the returned future is the way to follow the write. Sync methods cannot be called
+     * in callbacks of the returned future, see the class doc.
+     *
+     * @param fileContent The file content to write
+     * @return A future that completes when the content has been written
+     */
+    @Override
+    public CompletableFuture<IS3File> writeAsync(byte[] fileContent) {
+        Thrower.throwIfVarNull(fileContent, "fileContent");
+        CompletableFuture<?> upload;
+        if (mCompress) {
+            ByteBuffer compressed = GzipCodec.compress(ByteBuffer.wrap(fileContent));
+            upload = this.startWithCacheInvalidation(compressed.remaining(), () -> this.startUpload(
+                    AsyncRequestBody.fromByteBufferUnsafe(compressed), compressed.remaining(), (long) fileContent.length));
+        } else {
+            upload = this.startWithCacheInvalidation(fileContent.length, () -> this.startUpload(
+                    AsyncRequestBody.fromBytes(fileContent), fileContent.length, null));
+        }
+        return upload.handle((result, throwable) -> {
+            if (throwable != null) {
+                Throwable cause = unwrap(throwable);
+                String exceptionMessage = String.format("Error when uploading file '%s' to bucket '%s': ", mFileName, mBucketName);
+                throw new CompletionException(new RuntimeException(exceptionMessage + cause.getMessage(), cause));
+            }
+            return this;
+        });
+    }
+
+
+    /**
+     * @return The cause of the argument throwable if it is a CompletionException, else the argument throwable
+     */
+    private static Throwable unwrap(Throwable throwable) {
+        return (throwable instanceof CompletionException && throwable.getCause() != null)
+                ? throwable.getCause()
+                : throwable;
+    }
+
+
     /**
      * See [write(String fileContent)]
      *
@@ -176,27 +753,217 @@ public class S3File implements IS3File {
      * If constructor argument backgroundUploads is set to true, the method returns after a write-operation is
      * commenced but not completed. If backgroundUploads is set to false or not set, this method returns after the
      * write-operation is complete.
+     * <p>
+     * Background writes are tracked by {@link BackgroundWrites}. It caps the bytes and requests in flight, which
+     * can make this method block, and reports failed writes on flush. The builder argument writeListener is
+     * notified when a background write is done. If builder argument coalesceWrites is true, a write that is
+     * replaced by a later write before it started is never uploaded.
      *
      * @param fileContent The file content to write
      */
     @Override
     public IS3File write(byte[] fileContent) {
+        Thrower.throwIfVarNull(fileContent, "fileContent");
+        if (mCompress) {
+            return this.writeCompressed(ByteBuffer.wrap(fileContent));
+        }
+        return this.write(AsyncRequestBody.fromBytes(fileContent), fileContent.length, null);
+    }
+
+
+    /**
+     * Uploads the remaining bytes of the argument buffer to this S3 file. The buffer is not copied, so a direct
+     * buffer is uploaded without a copy on the heap. As the buffer is not copied, it must not be modified until
+     * the write is complete. This matters if constructor argument backgroundWrite is set to true.
+     * <p>
+     * See {@link #write(byte[])} for overwrite and background behavior.
+     *
+     * @param fileContent The file content to write
+     */
+    @Override
+    public IS3File write(ByteBuffer fileContent) {
+        Thrower.throwIfVarNull(fileContent, "fileContent");
+        if (mCompress) {
+            return this.writeCompressed(fileContent);
+        }
+        return this.write(AsyncRequestBody.fromByteBufferUnsafe(fileContent), fileContent.remaining(), null);
+    }
+
+
+    /**
+     * Uploads the content of the argument local file to this S3 file. The content is streamed from disk and is
+     * never read into the heap.
+     * <p>
+     * See {@link #write(byte[])} for overwrite and background behavior.
+     *
+     * If builder argument compression is GZIP and this file is of a text based type, the file is compressed as
+     * it is streamed and builder argument backgroundWrite is not used.
+     *
+     * @param file The local file whose content to write
+     */
+    @Override
+    public IS3File write(Path file) {
+        Thrower.throwIfVarNull(file, "file");
+        if (mCompress) {
+            return this.writeCompressed(file);
+        }
+        return this.upload(this.getFileSize(file), () -> mTransferManager
+                .uploadFile(UploadFileRequest.builder()
+                        .putObjectRequest(this.getPutObjectRequest(null, null))
+                        .source(file)
+                        .build())
+                .completionFuture());
+    }
+
+
+    /**
+     * Gzips the argument content and uploads it. The uncompressed size is stored as user metadata.
+     *
+     * @param fileContent The uncompressed content
+     */
+    private IS3File writeCompressed(ByteBuffer fileContent) {
+        long uncompressedSize = fileContent.remaining();
+        ByteBuffer compressed = GzipCodec.compress(fileContent);
+        return this.write(AsyncRequestBody.fromByteBufferUnsafe(compressed), compressed.remaining(), uncompressedSize);
+    }
+
+
+    /**
+     * Streams the argument file through gzip to this S3 file.
+     *
+     * @param file A local file
+     */
+    private IS3File writeCompressed(Path file) {
+        try (OutputStream outputStream = this.openOutputStream()) {
+            Files.copy(file, outputStream);
+            return this;
+        } catch (IOException e) {
+            String exceptionMessage = String.format("IO error when writing S3 file '%s' to bucket '%s': ", mFileName, mBucketName);
+            throw new RuntimeException(exceptionMessage + e.getMessage(), e);
+        }
+    }
+
+
+    /**
+     * @param requestBody      The content to upload
+     * @param contentLength    The number of bytes in the request body
+     * @param uncompressedSize The size before compression if the content is compressed, else null
+     */
+    private IS3File write(AsyncRequestBody requestBody, long contentLength, Long uncompressedSize) {
+        return this.upload(contentLength, () -> this.startUpload(requestBody, contentLength, uncompressedSize));
+    }
+
+
+    /**
+     * @param requestBody      The content to upload
+     * @param contentLength    The number of bytes in the request body
+     * @param uncompressedSize The size before compression if the content is compressed, else null
+     * @return The completion future of the started upload
+     */
+    private CompletableFuture<?> startUpload(AsyncRequestBody requestBody, long contentLength, Long uncompressedSize) {
+        return mTransferManager
+                .upload(UploadRequest.builder()
+                        .putObjectRequest(this.getPutObjectRequest(contentLength, uncompressedSize))
+                        .requestBody(requestBody)
+                        .build())
+                .completionFuture();
+    }
+
+
+    /**
+     * Starts an upload. Cached metadata and content of this file are invalidated both when the upload starts and
+     * when it is done. The upload is measured from when it starts, so the time a background write waits to
+     * start is not included.
+     *
+     * @param contentLength The number of bytes to upload
+     * @param uploadStarter Starts an upload and returns its completion future
+     * @return The completion future of the upload
+     */
+    private CompletableFuture<?> startWithCacheInvalidation(long contentLength,
+                                                            Supplier<CompletableFuture<?>> uploadStarter) {
+        long startTime = System.nanoTime();
+        this.invalidateCaches();
+        return uploadStarter.get()
+                .whenComplete((result, throwable) -> {
+                    this.invalidateCaches();
+                    Metrics.getInstance().record(Operation.S3_WRITE, mBucketName, startTime,
+                            (throwable == null) ? contentLength : 0, throwable != null);
+                });
+    }
+
+
+    /**
+     * Removes this file from the metadata cache and, if set, from the content cache. Is to be called when
+     * this file has been changed.
+     */
+    private void invalidateCaches() {
+        mBucket.invalidateCaches(mFileName);
+    }
+
+
+    /**
+     * @param file A local file
+     * @return The size of the argument file
+     */
+    private long getFileSize(Path file) {
         try {
-            PutObjectRequest putObjectRequest = PutObjectRequest.builder()
-                    .bucket(mBucketName)
-                    .key(mFileName)
-                    .contentType(HttpFileHeaders.getFileHeader(mFileName))
-                    .cacheControl("public, max-age=2592000")
-                    .contentLength((long) fileContent.length)
-                    .build();
+            return Files.size(file);
+        } catch (IOException e) {
+            String exceptionMessage = String.format("IO error when reading size of local file '%s' to write to S3 file '%s' in bucket '%s': ", file, mFileName, mBucketName);
+            throw new RuntimeException(exceptionMessage + e.getMessage(), e);
+        }
+    }
+
+
+    /**
+     * @return The content type of this file. Throws an exception if the file type is not known.
+     */
+    private String getContentType() {
+        //Not synchronized as concurrent resolves give the same string
+        if (mContentType == null) {
+            mContentType = HttpFileHeaders.getFileHeader(mFileName);
+        }
+        return mContentType;
+    }
+
+
+    /**
+     * @param contentLength    The number of bytes to upload. If null, the length is set by the transfer manager.
+     * @param uncompressedSize The size before compression if the content is compressed, else null
+     * @return A put request for this file with the content type, cache control and encoding headers set
+     */
+    private PutObjectRequest getPutObjectRequest(Long contentLength, Long uncompressedSize) {
+        return mPutObjectRequestTemplate.toBuilder()
+                .key(mFileName)
+                .contentType(this.getContentType())
+                .contentLength(contentLength)
+                .contentEncoding(mCompress ? GzipCodec.CONTENT_ENCODING : null)
+                .metadata((uncompressedSize == null)
+                        ? null
+                        : Collections.singletonMap(GzipCodec.UNCOMPRESSED_SIZE_METADATA_KEY, String.valueOf(uncompressedSize)))
+                .build();
+    }
 
-            Upload upload = mTransferManager.upload(UploadRequest.builder()
-                    .putObjectRequest(putObjectRequest)
-                    .requestBody(AsyncRequestBody.fromBytes(fileContent))
-                    .build());
 
-            if (!mBackgroundWrite) {
-                upload.completionFuture().join();
+    /**
+     * Starts an upload. If constructor argument backgroundWrite is false, waits for the upload to complete.
+     * Else the upload is handed to BackgroundWrites, coalesced if constructor argument coalesceWrites is true.
+     *
+     * @param contentLength     The number of bytes to upload
+     * @param fileUploadStarter Starts an upload and returns its completion future
+     */
+    private IS3File upload(long contentLength, Supplier<CompletableFuture<?>> fileUploadStarter) {
+        Supplier<CompletableFuture<?>> uploadStarter = () -> this.startWithCacheInvalidation(contentLength, fileUploadStarter);
+        try {
+            if (mBackgroundWrite && mCoalesceWrites) {
+                BackgroundWrites.getInstance()
+                        .writeCoalesced(mBucketName, mFileName, contentLength, uploadStarter, mWriteListener);
+            } else if (mBackgroundWrite) {
+                BackgroundWrites.getInstance()
+                        .write(mBucketName, mFileName, contentLength, uploadStarter, mWriteListener);
+            } else {
+                TransferManagers.throwIfSdkThread();
+                uploadStarter.get().join();
             }
             return this;
         } catch (S3Exception e) {
@@ -212,4 +979,45 @@ public class S3File implements IS3File {
     }
 
 
+    /**
+     * Opens a stream that writes to this file. The content is uploaded in parts of builder argument partSize
+     * bytes while the stream is written to, with at most maxConcurrency parts uploading at the same time. This
+     * allows writing files of any size with constant memory usage. The file is not visible on S3 until the
+     * stream is closed. If an upload fails, the upload is aborted and an exception is thrown on the next write
+     * or on close.
+     * <p>
+     * For a WritableByteChannel, wrap the returned stream with java.nio.channels.Channels.newChannel.
+     * <p>
+     * The returned stream ignores builder argument backgroundWrite; close returns when the upload is complete.
+     * <p>
+     * If builder argument compression is GZIP and this file is of a text based type, the written bytes are
+     * gzipped before they are buffered into parts.
+     *
+     * @return A stream to write the content of this file to. Has to be closed.
+     */
+    @Override
+    public OutputStream openOutputStream() {
+        OutputStream outputStream = S3MultipartOutputStream.builder()
+                .s3AsyncClient(mS3AsyncClient)
+                .bucketName(mBucketName)
+                .fileName(mFileName)
+                .contentType(this.getContentType())
+                .cacheControl(mPutObjectRequestTemplate.cacheControl())
+                .contentEncoding(mCompress ? GzipCodec.CONTENT_ENCODING : null)
+                .partSize(Math.max(mPartSize, S3MultipartOutputStream.MIN_PART_SIZE))
+                .maxPartsInFlight(mMaxConcurrency)
+                .closeListener(this::invalidateCaches)
+                .build();
+        if (!mCompress) {
+            return outputStream;
+        }
+        try {
+            return new GZIPOutputStream(outputStream, GzipCodec.STREAM_BUFFER_SIZE);
+        } catch (IOException e) {
+            String exceptionMessage = String.format("IO error when writing S3 file '%s' to bucket '%s': ", mFileName, mBucketName);
+            throw new RuntimeException(exceptionMessage + e.getMessage(), e);
+        }
+    }
+
+
 }
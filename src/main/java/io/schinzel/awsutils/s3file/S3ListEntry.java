@@ -0,0 +1,73 @@
+package io.schinzel.awsutils.s3file;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.experimental.Accessors;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.time.Instant;
+
+/**
+ * The purpose of this class is to hold a file returned by a listing of a bucket.
+ *
+ * @author Schinzel
+ */
+@Getter
+@Accessors(prefix = "m")
+public class S3ListEntry {
+    /** The name of the file */
+    private final String mFileName;
+    /** The size of the file in bytes */
+    private final long mSize;
+    /** The ETag of the file */
+    private final String mETag;
+    /** When the file was last modified */
+    private final Instant mLastModified;
+    /** The bucket the file was listed from */
+    @Getter(AccessLevel.NONE)
+    private final S3Bucket mBucket;
+
+
+    S3ListEntry(S3Bucket bucket, String fileName, long size, String eTag, Instant lastModified) {
+        mBucket = bucket;
+        mFileName = fileName;
+        mSize = size;
+        mETag = eTag;
+        mLastModified = lastModified;
+    }
+
+
+    /**
+     * @param bucket   The bucket the file was listed from
+     * @param s3Object A file in a list response
+     * @return An entry for the argument file
+     */
+    static S3ListEntry create(S3Bucket bucket, S3Object s3Object) {
+        long size = (s3Object.size() == null) ? 0 : s3Object.size();
+        return new S3ListEntry(bucket, s3Object.key(), size, s3Object.eTag(), s3Object.lastModified());
+    }
+
+
+    /**
+     * @return The bucket name
+     */
+    public String getBucketName() {
+        return mBucket.getBucketName();
+    }
+
+
+    /**
+     * The existence of the bucket is not checked again.
+     *
+     * @return The file of this entry
+     */
+    public IS3File toS3File() {
+        return mBucket.getFile(mFileName);
+    }
+
+
+    @Override
+    public String toString() {
+        return mFileName;
+    }
+}
@@ -0,0 +1,318 @@
+package io.schinzel.awsutils.s3file;
+
+import io.schinzel.basicutils.thrower.Thrower;
+import lombok.Builder;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+/**
+ * The purpose of this class is to write an S3 file as a stream with constant memory usage.
+ * <p>
+ * Written bytes are buffered into fixed size parts. Each full part is uploaded as a part of an S3 multipart
+ * upload while the writer continues to fill the next part. The number of parts in flight is bounded, and a writer
+ * that gets ahead of the network blocks until a part is done. Part buffers are reused, so at most
+ * maxPartsInFlight + 1 buffers are ever allocated.
+ * <p>
+ * The multipart upload is created when the first part is full. If the stream is closed before that, the content
+ * is written with a single put request. On close the multipart upload is completed. If any part fails, the
+ * multipart upload is aborted so that no orphaned parts are left in the bucket.
+ * <p>
+ * Instances are not thread safe.
+ *
+ * @author Schinzel
+ */
+class S3MultipartOutputStream extends OutputStream {
+    /** The smallest part size S3 accepts for all parts but the last. 5 MB. */
+    static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+    private final S3AsyncClient mS3AsyncClient;
+    private final String mBucketName;
+    private final String mFileName;
+    private final String mContentType;
+    private final String mCacheControl;
+    /** The Content-Encoding of the file. Can be null. */
+    private final String mContentEncoding;
+    private final int mPartSize;
+    /** Is run when the stream is closed, whether the upload succeeded or not. Can be null. */
+    private final Runnable mCloseListener;
+    /** Limits the number of part buffers. Is held from that a buffer is filled until its upload is done. */
+    private final Semaphore mPartsInFlight;
+    /** Buffers of parts that have been uploaded and can be reused */
+    private final Queue<byte[]> mBufferPool = new ConcurrentLinkedQueue<>();
+    /** The futures of all uploaded parts */
+    private final List<CompletableFuture<CompletedPart>> mParts = new ArrayList<>();
+    /** Holds the first error of a part upload */
+    private final AtomicReference<Throwable> mFailure = new AtomicReference<>();
+    /** The buffer currently being filled */
+    private byte[] mBuffer;
+    /** The number of bytes in the current buffer */
+    private int mBufferPosition;
+    /** The id of the multipart upload. Is null until the first part is uploaded. */
+    private String mUploadId;
+    private boolean mClosed = false;
+    /** Is true when the multipart upload has been aborted, so that it is aborted once */
+    private boolean mAborted = false;
+
+
+    @Builder
+    S3MultipartOutputStream(S3AsyncClient s3AsyncClient, String bucketName, String fileName, String contentType,
+                            String cacheControl, String contentEncoding, int partSize, int maxPartsInFlight,
+                            Runnable closeListener) {
+        Thrower.createInstance()
+                .throwIfVarNull(s3AsyncClient, "s3AsyncClient")
+                .throwIfVarEmpty(bucketName, "bucketName")
+                .throwIfVarEmpty(fileName, "fileName")
+                .throwIfTrue(partSize < MIN_PART_SIZE, "partSize cannot be less than " + MIN_PART_SIZE)
+                .throwIfTrue(maxPartsInFlight < 1, "maxPartsInFlight must be larger than 0");
+        mS3AsyncClient = s3AsyncClient;
+        mBucketName = bucketName;
+        mFileName = fileName;
+        mContentType = contentType;
+        mCacheControl = cacheControl;
+        mContentEncoding = contentEncoding;
+        mPartSize = partSize;
+        mCloseListener = closeListener;
+        //One permit more than parts in flight, for the buffer being filled
+        mPartsInFlight = new Semaphore(maxPartsInFlight + 1);
+    }
+
+
+    @Override
+    public void write(int b) throws IOException {
+        this.throwIfClosedOrFailed();
+        if (mBuffer == null) {
+            mBuffer = this.getBuffer();
+        }
+        mBuffer[mBufferPosition++] = (byte) b;
+        if (mBufferPosition == mPartSize) {
+            this.uploadBuffer();
+        }
+    }
+
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        this.throwIfClosedOrFailed();
+        int position = offset;
+        int remaining = length;
+        while (remaining > 0) {
+            if (mBuffer == null) {
+                mBuffer = this.getBuffer();
+            }
+            int bytesToCopy = Math.min(remaining, mPartSize - mBufferPosition);
+            System.arraycopy(bytes, position, mBuffer, mBufferPosition, bytesToCopy);
+            mBufferPosition += bytesToCopy;
+            position += bytesToCopy;
+            remaining -= bytesToCopy;
+            if (mBufferPosition == mPartSize) {
+                this.uploadBuffer();
+            }
+        }
+    }
+
+
+    /**
+     * Completes the upload. If there is an error, or a part upload has failed, any started multipart upload is
+     * aborted. The close listener is run once, also if the upload failed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        try {
+            Throwable failure = mFailure.get();
+            if (failure != null) {
+                throw new RuntimeException(failure.getMessage(), failure);
+            }
+            //If no part has been uploaded, the whole content fits in one put request
+            if (mUploadId == null) {
+                this.putBuffer();
+            } else {
+                if (mBufferPosition > 0) {
+                    this.uploadBuffer();
+                }
+                this.completeMultipartUpload();
+            }
+        } catch (RuntimeException e) {
+            this.abortMultipartUpload(e);
+            throw new IOException("Error when writing S3 file '" + mFileName + "' to bucket '" + mBucketName + "': "
+                    + e.getMessage(), e);
+        } finally {
+            mBuffer = null;
+            mBufferPool.clear();
+            if (mCloseListener != null) {
+                mCloseListener.run();
+            }
+        }
+    }
+
+
+    /**
+     * Uploads the current buffer as the next part. The upload is done in the background.
+     */
+    private void uploadBuffer() {
+        if (mUploadId == null) {
+            mUploadId = join(mS3AsyncClient.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                    .bucket(mBucketName)
+                    .key(mFileName)
+                    .contentType(mContentType)
+                    .cacheControl(mCacheControl)
+                    .contentEncoding(mContentEncoding)
+                    .build()))
+                    .uploadId();
+        }
+        byte[] part = mBuffer;
+        int partLength = mBufferPosition;
+        int partNumber = mParts.size() + 1;
+        mBuffer = null;
+        mBufferPosition = 0;
+        UploadPartRequest uploadPartRequest = UploadPartRequest.builder()
+                .bucket(mBucketName)
+                .key(mFileName)
+                .uploadId(mUploadId)
+                .partNumber(partNumber)
+                .contentLength((long) partLength)
+                .build();
+        //The buffer is not copied. It is not returned to the pool until the part upload is done.
+        AsyncRequestBody requestBody = AsyncRequestBody.fromByteBufferUnsafe(ByteBuffer.wrap(part, 0, partLength));
+        CompletableFuture<CompletedPart> partFuture = mS3AsyncClient
+                .uploadPart(uploadPartRequest, requestBody)
+                .thenApply(response -> CompletedPart.builder()
+                        .partNumber(partNumber)
+                        .eTag(response.eTag())
+                        .build())
+                .whenComplete((completedPart, throwable) -> {
+                    if (throwable != null) {
+                        mFailure.compareAndSet(null, throwable);
+                    }
+                    mBufferPool.offer(part);
+                    mPartsInFlight.release();
+                });
+        mParts.add(partFuture);
+    }
+
+
+    /**
+     * Writes the content of the current buffer with a single put request.
+     */
+    private void putBuffer() {
+        PutObjectRequest putObjectRequest = PutObjectRequest.builder()
+                .bucket(mBucketName)
+                .key(mFileName)
+                .contentType(mContentType)
+                .cacheControl(mCacheControl)
+                .contentEncoding(mContentEncoding)
+                .contentLength((long) mBufferPosition)
+                .build();
+        byte[] content = (mBuffer == null) ? new byte[0] : mBuffer;
+        AsyncRequestBody requestBody = AsyncRequestBody.fromByteBufferUnsafe(ByteBuffer.wrap(content, 0, mBufferPosition));
+        join(mS3AsyncClient.putObject(putObjectRequest, requestBody));
+    }
+
+
+    private void completeMultipartUpload() {
+        join(CompletableFuture.allOf(mParts.toArray(new CompletableFuture<?>[0])));
+        List<CompletedPart> completedParts = mParts.stream()
+                .map(CompletableFuture::join)
+                .sorted(Comparator.comparing(CompletedPart::partNumber))
+                .collect(Collectors.toList());
+        join(mS3AsyncClient.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                .bucket(mBucketName)
+                .key(mFileName)
+                .uploadId(mUploadId)
+                .multipartUpload(CompletedMultipartUpload.builder()
+                        .parts(completedParts)
+                        .build())
+                .build()));
+    }
+
+
+    /**
+     * @param cause The error that caused the abort. Errors from the abort are added as suppressed.
+     */
+    private void abortMultipartUpload(RuntimeException cause) {
+        if (mUploadId == null || mAborted) {
+            return;
+        }
+        mAborted = true;
+        try {
+            join(mS3AsyncClient.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                    .bucket(mBucketName)
+                    .key(mFileName)
+                    .uploadId(mUploadId)
+                    .build()));
+        } catch (RuntimeException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+
+    /**
+     * @return A buffer for the next part. Blocks until a part slot is free.
+     */
+    private byte[] getBuffer() {
+        mPartsInFlight.acquireUninterruptibly();
+        //A permit is returned to the semaphore after the buffer of a finished part has been returned to the pool
+        byte[] buffer = mBufferPool.poll();
+        if (buffer == null) {
+            buffer = new byte[mPartSize];
+        }
+        return buffer;
+    }
+
+
+    /**
+     * If a part upload has failed, the multipart upload is aborted. The stream is not closed, so that close
+     * still runs the close listener.
+     */
+    private void throwIfClosedOrFailed() throws IOException {
+        if (mClosed) {
+            throw new IOException("Stream is closed");
+        }
+        Throwable failure = mFailure.get();
+        if (failure != null) {
+            RuntimeException cause = new RuntimeException(failure.getMessage(), failure);
+            this.abortMultipartUpload(cause);
+            throw new IOException("Error when writing S3 file '" + mFileName + "' to bucket '" + mBucketName + "': "
+                    + failure.getMessage(), cause);
+        }
+    }
+
+
+    /**
+     * Waits for the argument future. If the future failed, the cause is thrown.
+     */
+    private static <T> T join(CompletableFuture<T> future) {
+        TransferManagers.throwIfSdkThread();
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package io.schinzel.awsutils.s3file;
+
+import io.schinzel.awsutils.httpclient.HttpClientSettings;
+import io.schinzel.basicutils.thrower.Thrower;
+import lombok.Builder;
+import lombok.Singular;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.HeadBucketRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * The purpose of this class is to do the slow one-time work of S3 access at startup, so that the first real
+ * request has the same latency as later requests.
+ * <p>
+ * Without prewarming, the first request in a JVM creates the clients, opens a TLS connection and checks that the
+ * bucket exists. {@link BucketCache} measures this to well over a second. Prewarming creates the clients,
+ * checks all buckets concurrently and opens a number of pooled connections.
+ * <p>
+ * Files and buckets created later with the same credentials, region, CRT settings and HTTP client settings get
+ * the prewarmed clients. For several regions, use one prewarmer per region.
+ * <p>
+ * Sample:
+ * <pre>
+ * S3Prewarmer.builder()
+ *         .awsAccessKey(accessKey)
+ *         .awsSecretKey(secretKey)
+ *         .region(Region.EU_WEST_1)
+ *         .bucketName("my-bucket")
+ *         .connections(16)
+ *         .build()
+ *         .prewarm();
+ * </pre>
+ *
+ * @author Schinzel
+ */
+public class S3Prewarmer {
+    /** The default number of connections to open */
+    private static final int DEFAULT_CONNECTIONS = 4;
+    private final String mAwsAccessKey;
+    private final String mAwsSecretKey;
+    private final Region mRegion;
+    private final List<String> mBucketNames;
+    /** The number of pooled connections to open */
+    private final int mConnections;
+    private final CrtSettings mCrtSettings;
+    private final HttpClientSettings mHttpClientSettings;
+
+
+    /**
+     * @param awsAccessKey       An AWS access key
+     * @param awsSecretKey       An AWS secret key
+     * @param region             The region of the buckets
+     * @param bucketNames        The buckets that will be used. At least one is required.
+     * @param connections        The number of pooled connections to open. Optional, default 4.
+     * @param crtSettings        The CRT settings the buckets and files will use. Optional.
+     * @param httpClientSettings The HTTP client settings the buckets and files will use. Optional.
+     */
+    @Builder
+    S3Prewarmer(String awsAccessKey, String awsSecretKey, Region region, @Singular List<String> bucketNames,
+                int connections, CrtSettings crtSettings, HttpClientSettings httpClientSettings) {
+        Thrower.createInstance()
+                .throwIfVarEmpty(awsAccessKey, "awsAccessKey")
+                .throwIfVarEmpty(awsSecretKey, "awsSecretKey")
+                .throwIfVarNull(region, "region")
+                .throwIfTrue(bucketNames.isEmpty(), "At least one bucket name is required")
+                .throwIfTrue(connections < 0, "connections cannot be negative");
+        mAwsAccessKey = awsAccessKey;
+        mAwsSecretKey = awsSecretKey;
+        mRegion = region;
+        mBucketNames = bucketNames;
+        mConnections = (connections == 0) ? DEFAULT_CONNECTIONS : connections;
+        mCrtSettings = crtSettings;
+        mHttpClientSettings = httpClientSettings;
+    }
+
+
+    /**
+     * Creates the clients, checks that the buckets exist and opens the connections. Returns when all is done.
+     * Throws an exception if a bucket does not exist.
+     * <p>
+     * The clients are not closed while this prewarmer is reachable. After that they are closed when they have
+     * been unused for an hour, as other clients.
+     */
+    public void prewarm() {
+        S3AsyncClient s3AsyncClient = TransferManagers.getInstance()
+                .getS3Clients(mAwsAccessKey, mAwsSecretKey, mRegion, mCrtSettings, mHttpClientSettings, this)
+                .getS3AsyncClient();
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+        List<CompletableFuture<Boolean>> bucketChecks = new ArrayList<>();
+        for (String bucketName : mBucketNames) {
+            CompletableFuture<Boolean> bucketCheck = BucketCache.doesBucketExistAsync(s3AsyncClient, bucketName);
+            bucketChecks.add(bucketCheck);
+            futures.add(bucketCheck);
+        }
+        //Requests that are in flight at the same time each need a connection, which is then returned to the pool.
+        //Errors are ignored as the connection is opened anyway, and missing buckets are reported by the checks.
+        for (int i = 0; i < mConnections; i++) {
+            String bucketName = mBucketNames.get(i % mBucketNames.size());
+            futures.add(s3AsyncClient.headBucket(HeadBucketRequest.builder()
+                            .bucket(bucketName)
+                            .build())
+                    .handle((response, throwable) -> null));
+        }
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            throw new RuntimeException("Error when prewarming S3 in region '" + mRegion.id() + "': "
+                    + e.getCause().getMessage(), e.getCause());
+        }
+        for (int i = 0; i < mBucketNames.size(); i++) {
+            boolean bucketExists = bucketChecks.get(i).join();
+            Thrower.throwIfFalse(bucketExists).message("No bucket named '" + mBucketNames.get(i) + "' exists");
+        }
+    }
+}
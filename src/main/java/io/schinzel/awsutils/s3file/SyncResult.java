@@ -0,0 +1,43 @@
+package io.schinzel.awsutils.s3file;
+
+import lombok.Getter;
+import lombok.experimental.Accessors;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The purpose of this class is to hold the outcome of a directory sync.
+ *
+ * @author Schinzel
+ */
+@Getter
+@Accessors(prefix = "m")
+public class SyncResult {
+    /** The names of the S3 files that were uploaded */
+    private final List<String> mUploadedFiles;
+    /** The number of files that were unchanged and not uploaded */
+    private final long mUnchangedCount;
+    /** The names of the S3 files that were deleted as they did not exist locally */
+    private final List<String> mDeletedFiles;
+    /** The S3 files that could not be uploaded or deleted, and the errors */
+    private final Map<String, Throwable> mFailures;
+
+
+    SyncResult(List<String> uploadedFiles, long unchangedCount, List<String> deletedFiles,
+               Map<String, Throwable> failures) {
+        mUploadedFiles = Collections.unmodifiableList(uploadedFiles);
+        mUnchangedCount = unchangedCount;
+        mDeletedFiles = Collections.unmodifiableList(deletedFiles);
+        mFailures = Collections.unmodifiableMap(failures);
+    }
+
+
+    /**
+     * @return True if all files were synced, else false
+     */
+    public boolean isSuccessful() {
+        return mFailures.isEmpty();
+    }
+}
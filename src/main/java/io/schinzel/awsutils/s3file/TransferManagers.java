@@ -1,29 +1,69 @@
 package io.schinzel.awsutils.s3file;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.schinzel.awsutils.client.ClientRegistry;
+import io.schinzel.awsutils.httpclient.HttpClientImplementation;
+import io.schinzel.awsutils.httpclient.HttpClientSettings;
+import io.schinzel.awsutils.metrics.RetryCountingInterceptor;
+import io.schinzel.basicutils.thrower.Thrower;
+import lombok.experimental.Accessors;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.client.config.ClientAsyncConfiguration;
+import software.amazon.awssdk.core.client.config.SdkAdvancedAsyncClientOption;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.SdkEventLoopGroup;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3AsyncClientBuilder;
 import software.amazon.awssdk.transfer.s3.S3TransferManager;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
-import lombok.experimental.Accessors;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
  * The purpose of this class is to create and cache AWS S3 transfer managers.
- * One transfer manager per access key is created and cached.
+ * One transfer manager per access key is created and cached. The async S3 client that a transfer manager
+ * is built on is cached as well, so that it can be used directly for operations such as ranged reads.
+ * Clients based on the AWS Common Runtime are cached separately for each set of {@link CrtSettings}.
+ * <p>
+ * The clients are held in a {@link ClientRegistry}. Clients are created single-flight, are kept while a
+ * bucket or file uses them and are closed when they have been unused for an hour. Clients returned by the
+ * accessors that take no holder are kept while requested and closed when they have not been requested for an
+ * hour.
+ * <p>
+ * All clients share one Netty event loop and one executor for completing futures, so the number of threads
+ * does not grow with the number of credentials. The number of connections is bounded by the max number of
+ * clients times the max connections per client.
+ * <p>
+ * Sync operations wait for futures that these shared threads complete. So sync operations cannot be done on
+ * these threads, e.g. in a callback of the future of an async S3File method, as the threads could all end up
+ * waiting for futures that only they can complete. Such calls fail fast instead.
  *
  * @author Schinzel
  */
 @Accessors(prefix = "m")
 public class TransferManagers {
-    /** Holds a collection of transfer managers. Key is AWS access key and region. */
-    private final Cache<String, S3TransferManager> mTransferManagers = CacheBuilder.newBuilder()
-            .maximumSize(50)
-            .expireAfterAccess(1, TimeUnit.HOURS)
-            .recordStats()
+    /** Default max time to wait for background writes to complete on shutdown */
+    private static final long DEFAULT_DRAIN_TIMEOUT_IN_SECONDS = 60;
+    /** The number of clients above which unused clients are closed */
+    private static final int MAX_CLIENTS = 50;
+    /** True on the threads of the event loop and the completion executor */
+    private static final ThreadLocal<Boolean> IS_SDK_THREAD = ThreadLocal.withInitial(() -> Boolean.FALSE);
+    /** Holds the clients. Key is AWS access key, region and CRT or HTTP client settings if any. */
+    private final ClientRegistry<S3Clients> mClients = ClientRegistry.<S3Clients>builder()
+            .closer(S3Clients::close)
+            .maxClients(MAX_CLIENTS)
+            .name("S3Clients")
             .build();
+    /** The Netty event loop of all async clients that are not CRT based. Created lazily. */
+    private volatile SdkEventLoopGroup mEventLoopGroup;
+    /** Completes the futures of all async clients and runs the work of all transfer managers */
+    private final ExecutorService mExecutor = createExecutor();
 
 
     private static class Holder {
@@ -42,66 +82,265 @@ public class TransferManagers {
      * @return A newly created or previously cached transfer manager instance
      */
     S3TransferManager getTransferManager(String awsAccessKey, String awsSecretKey, Region region) {
-        String cache_key = awsAccessKey + "_" + region.id();
-        S3TransferManager cached = mTransferManagers.getIfPresent(cache_key);
-        if (cached != null) {
-            return cached;
-        }
-        
-        // Create new transfer manager if not in cache
-        S3TransferManager newTransferManager = createTransferManager(awsAccessKey, awsSecretKey, region);
-        mTransferManagers.put(cache_key, newTransferManager);
-        return newTransferManager;
+        return this.getTransferManager(awsAccessKey, awsSecretKey, region, null, null);
+    }
+
+
+    /**
+     * @param awsAccessKey The AWS access key
+     * @param awsSecretKey The AWS secret key
+     * @param crtSettings        If set, the transfer manager is built on a CRT based client with these settings
+     * @param httpClientSettings If set, the HTTP client of the client. Not used by CRT based clients.
+     * @return A newly created or previously cached transfer manager instance
+     */
+    S3TransferManager getTransferManager(String awsAccessKey, String awsSecretKey, Region region, CrtSettings crtSettings,
+                                         HttpClientSettings httpClientSettings) {
+        return this.getS3Clients(awsAccessKey, awsSecretKey, region, crtSettings, httpClientSettings, null)
+                .getTransferManager();
+    }
+
+
+    /**
+     * @param awsAccessKey The AWS access key
+     * @param awsSecretKey The AWS secret key
+     * @return A newly created or previously cached async S3 client. Is the client transfer managers are built on.
+     */
+    S3AsyncClient getS3AsyncClient(String awsAccessKey, String awsSecretKey, Region region) {
+        return this.getS3AsyncClient(awsAccessKey, awsSecretKey, region, null, null);
+    }
+
+
+    /**
+     * @param awsAccessKey The AWS access key
+     * @param awsSecretKey The AWS secret key
+     * @param crtSettings        If set, the client is based on the AWS Common Runtime with these settings
+     * @param httpClientSettings If set, the HTTP client of the client. Not used by CRT based clients.
+     * @return A newly created or previously cached async S3 client. Is the client transfer managers are built on.
+     */
+    S3AsyncClient getS3AsyncClient(String awsAccessKey, String awsSecretKey, Region region, CrtSettings crtSettings,
+                                   HttpClientSettings httpClientSettings) {
+        return this.getS3Clients(awsAccessKey, awsSecretKey, region, crtSettings, httpClientSettings, null)
+                .getS3AsyncClient();
+    }
+
+
+    /**
+     * @param awsAccessKey       The AWS access key
+     * @param awsSecretKey       The AWS secret key
+     * @param crtSettings        If set, the clients are based on the AWS Common Runtime with these settings
+     * @param httpClientSettings If set, the HTTP client of the clients. Not used by CRT based clients.
+     * @param holder             If set, the clients are not closed while the holder is reachable. If null, the
+     *                           clients are pinned, i.e. are closed only when they have not been requested for
+     *                           the max idle time, as it is not known when they are no longer used.
+     * @return The newly created or previously cached clients for the argument values
+     */
+    S3Clients getS3Clients(String awsAccessKey, String awsSecretKey, Region region, CrtSettings crtSettings,
+                           HttpClientSettings httpClientSettings, Object holder) {
+        String cacheKey = getCacheKey(awsAccessKey, region, crtSettings, httpClientSettings);
+        Supplier<S3Clients> loader = () -> {
+            S3AsyncClient s3AsyncClient = (crtSettings == null)
+                    ? this.createS3AsyncClient(awsAccessKey, awsSecretKey, region, httpClientSettings)
+                    : this.createCrtS3AsyncClient(awsAccessKey, awsSecretKey, region, crtSettings);
+            return new S3Clients(s3AsyncClient, mExecutor);
+        };
+        return (holder == null)
+                ? mClients.getPinned(cacheKey, loader)
+                : mClients.get(cacheKey, loader, holder);
     }
 
 
     /**
-     * Shuts down all transfer managers. Note, this will immediately stop all ongoing file transfers.
+     * Shuts down all transfer managers. Background writes are given up to 60 seconds to complete before the
+     * transfer managers are closed. Transfers still ongoing after that are stopped.
      *
      * @return This for chaining
      */
     public TransferManagers shutdown() {
-        // Close all cached transfer managers
-        mTransferManagers.asMap().values().forEach(S3TransferManager::close);
-        // Invalidate the cache (this will trigger removal listeners)
-        mTransferManagers.invalidateAll();
+        return this.shutdown(DEFAULT_DRAIN_TIMEOUT_IN_SECONDS, TimeUnit.SECONDS);
+    }
+
+
+    /**
+     * Waits for background writes to complete and then shuts down all transfer managers. Transfers still
+     * ongoing when the argument timeout has passed are stopped.
+     *
+     * @param drainTimeout The max time to wait for background writes to complete
+     * @param unit         The unit of the drainTimeout argument
+     * @return This for chaining
+     */
+    public TransferManagers shutdown(long drainTimeout, TimeUnit unit) {
+        BackgroundWrites.getInstance().awaitQuiescence(drainTimeout, unit);
+        this.closeClients();
         return this;
     }
+
+
+    /**
+     * Closes all clients, also clients that are used by buckets and files.
+     */
+    void closeClients() {
+        mClients.closeAll();
+    }
     
     /**
      * Package-private method for testing purposes.
      * @return Current cache size
      */
     long getCacheSize() {
-        return mTransferManagers.size();
+        return mClients.size();
+    }
+
+    /**
+     * Package-private method for testing purposes.
+     * @return Number of requests that got cached clients
+     */
+    long getCacheHits() {
+        return mClients.getHitCount();
     }
     
     /**
      * Package-private method for testing purposes.
-     * Clear the cache for testing
+     * Clear the cache without closing clients
      */
     void clearCache() {
-        mTransferManagers.invalidateAll();
+        mClients.invalidateAll();
+    }
+
+
+    /**
+     * @return The key of the transfer manager and the client for the argument values
+     */
+    static String getCacheKey(String awsAccessKey, Region region, CrtSettings crtSettings,
+                                      HttpClientSettings httpClientSettings) {
+        String cacheKey = awsAccessKey + "_" + region.id();
+        //CRT based clients have their own HTTP client, so the HTTP client settings are not part of their key
+        if (crtSettings != null) {
+            return cacheKey + "_" + crtSettings.getCacheKey();
+        }
+        return (httpClientSettings == null) ? cacheKey : cacheKey + "_" + httpClientSettings.getCacheKey();
     }
 
 
     /**
      * @param awsAccessKey The AWS access key
      * @param awsSecretKey The AWS secret key
-     * @return An newly created AWS S3 transfer manager
+     * @param httpClientSettings The settings of the HTTP client. If null, the SDK defaults are used.
+     * @return An newly created async S3 client
      */
-    private static S3TransferManager createTransferManager(String awsAccessKey, String awsSecretKey, Region region) {
+    private S3AsyncClient createS3AsyncClient(String awsAccessKey, String awsSecretKey, Region region,
+                                              HttpClientSettings httpClientSettings) {
         AwsBasicCredentials awsCredentials = AwsBasicCredentials.create(awsAccessKey, awsSecretKey);
         StaticCredentialsProvider credentialsProvider = StaticCredentialsProvider.create(awsCredentials);
-        S3AsyncClient s3AsyncClient = S3AsyncClient.builder()
+        S3AsyncClientBuilder builder = S3AsyncClient.builder()
                 .credentialsProvider(credentialsProvider)
                 .region(region)
-                .build();
-        return S3TransferManager.builder()
-                .s3Client(s3AsyncClient)
+                .asyncConfiguration(ClientAsyncConfiguration.builder()
+                        .advancedOption(SdkAdvancedAsyncClientOption.FUTURE_COMPLETION_EXECUTOR, mExecutor)
+                        .build())
+                .overrideConfiguration(config -> config
+                        .addExecutionInterceptor(RetryCountingInterceptor.getInstance()));
+        if (httpClientSettings != null && httpClientSettings.getImplementation() == HttpClientImplementation.CRT) {
+            builder.httpClientBuilder(httpClientSettings.getAsyncHttpClientBuilder());
+        } else {
+            NettyNioAsyncHttpClient.Builder httpClientBuilder = (httpClientSettings == null)
+                    ? NettyNioAsyncHttpClient.builder()
+                    : (NettyNioAsyncHttpClient.Builder) httpClientSettings.getAsyncHttpClientBuilder();
+            //An event loop that is set is not closed with the client
+            builder.httpClientBuilder(httpClientBuilder.eventLoopGroup(this.getEventLoopGroup()));
+        }
+        return builder.build();
+    }
+
+
+    /**
+     * @param awsAccessKey The AWS access key
+     * @param awsSecretKey The AWS secret key
+     * @param crtSettings  The settings of the client
+     * @return A newly created async S3 client based on the AWS Common Runtime
+     */
+    private S3AsyncClient createCrtS3AsyncClient(String awsAccessKey, String awsSecretKey, Region region,
+                                                 CrtSettings crtSettings) {
+        AwsBasicCredentials awsCredentials = AwsBasicCredentials.create(awsAccessKey, awsSecretKey);
+        StaticCredentialsProvider credentialsProvider = StaticCredentialsProvider.create(awsCredentials);
+        return S3AsyncClient.crtBuilder()
+                .credentialsProvider(credentialsProvider)
+                .region(region)
+                .targetThroughputInGbps(crtSettings.getTargetThroughputInGbps())
+                .minimumPartSizeInBytes(crtSettings.getMinimumPartSizeInBytes())
+                //Null lets the client derive the concurrency from the target throughput
+                .maxConcurrency((crtSettings.getMaxConcurrency() == 0) ? null : crtSettings.getMaxConcurrency())
+                .futureCompletionExecutor(mExecutor)
                 .build();
     }
 
 
-}
+    /**
+     * @return The event loop shared by the async clients. Is created on first use, so that an application
+     * that only uses CRT based clients does not create it.
+     */
+    private SdkEventLoopGroup getEventLoopGroup() {
+        if (mEventLoopGroup == null) {
+            synchronized (this) {
+                if (mEventLoopGroup == null) {
+                    //Daemon threads, as the event loop is never closed
+                    mEventLoopGroup = SdkEventLoopGroup.builder()
+                            .threadFactory(new ThreadFactoryBuilder()
+                                    .setThreadFactory(getSdkThreadFactory())
+                                    .setNameFormat("aws-utils-s3-event-loop-%d")
+                                    .setDaemon(true)
+                                    .build())
+                            .build();
+                }
+            }
+        }
+        return mEventLoopGroup;
+    }
+
+
+    /**
+     * Is to be called before a sync operation waits for S3.
+     *
+     * @throws RuntimeException If the current thread is a thread of the event loop or the completion executor,
+     *                          on which waiting for S3 can deadlock
+     */
+    static void throwIfSdkThread() {
+        Thrower.throwIfTrue(IS_SDK_THREAD.get())
+                .message("Sync S3 operations cannot be done on the threads that complete S3 futures, as this can "
+                        + "deadlock. E.g. in a callback of an async S3File method, use the async methods or pass an "
+                        + "own executor to the callback, as in thenApplyAsync.");
+    }
+
+
+    /**
+     * @return A thread factory whose threads are marked as SDK threads, on which sync operations fail fast
+     */
+    private static ThreadFactory getSdkThreadFactory() {
+        return runnable -> new Thread(() -> {
+            IS_SDK_THREAD.set(Boolean.TRUE);
+            runnable.run();
+        });
+    }
 
+
+    /**
+     * The queue is unbounded, so that a task is never rejected or run on the thread that submits it. The
+     * submitting thread is often an event loop thread, on which callbacks and blocking waits must not run.
+     *
+     * @return An executor with a bounded number of threads. Idle threads are stopped.
+     */
+    private static ExecutorService createExecutor() {
+        int threadCount = Math.max(8, 2 * Runtime.getRuntime().availableProcessors());
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount,
+                60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder()
+                        .setThreadFactory(getSdkThreadFactory())
+                        .setNameFormat("aws-utils-s3-completion-%d")
+                        .setDaemon(true)
+                        .build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+
+}
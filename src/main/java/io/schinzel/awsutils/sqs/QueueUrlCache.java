@@ -5,9 +5,13 @@ import software.amazon.awssdk.services.sqs.model.*;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import io.schinzel.awsutils.metrics.CacheStats;
+import io.schinzel.awsutils.metrics.CacheStatsRegistry;
 import io.schinzel.basicutils.thrower.Thrower;
 
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -18,6 +22,8 @@ import java.util.concurrent.TimeUnit;
  * 2018-08-07 With this cache it takes 15 ms to send a message with SqsProducer.
  * Without this cache - and all other code the same - the average send takes 25 ms. Message size 250 chars.
  * Running the code on a EC2 instance. Caches had data when performance was measured.
+ * <p>
+ * The statistics of the cache are registered with {@link CacheStatsRegistry} as "QueueUrlCache".
  *
  * @author Schinzel
  */
@@ -39,6 +45,12 @@ class QueueUrlCache {
             .build();
 
 
+    private QueueUrlCache() {
+        CacheStatsRegistry.getInstance()
+                .register("QueueUrlCache", () -> CacheStats.create("QueueUrlCache", mQueueUrlCache));
+    }
+
+
     /**
      * If there does not exist a queue with the argument name, one is created.
      *
@@ -51,13 +63,25 @@ class QueueUrlCache {
                 .throwIfVarEmpty(queueName, "queueName")
                 .throwIfVarNull(sqsClient, "sqsClient")
                 .throwIfFalse(queueName.endsWith(".fifo"), "Queue name must end in '.fifo'. Only fifo queues supported");
-        //Try to get from cache first
-        String cachedUrl = mQueueUrlCache.getIfPresent(queueName);
-        if (cachedUrl != null) {
-            return cachedUrl;
+        try {
+            //Get from cache, or get or create the queue. Concurrent lookups of the same queue wait for one request.
+            return mQueueUrlCache.get(queueName, () -> QueueUrlCache.lookUpQueueUrl(queueName, sqsClient));
+        } catch (UncheckedExecutionException | ExecutionException e) {
+            throw (e.getCause() instanceof RuntimeException)
+                    ? (RuntimeException) e.getCause()
+                    : new RuntimeException("Could not get URL of queue '" + queueName + "': " + e.getMessage(), e);
         }
-        
-        //Not in cache, get or create queue
+    }
+
+
+    /**
+     * If there does not exist a queue with the argument name, one is created.
+     *
+     * @param queueName The name of the SQS queue
+     * @param sqsClient An AWS SQS client
+     * @return The URL for the SQS queue with the argument name.
+     */
+    private static String lookUpQueueUrl(String queueName, SqsClient sqsClient) {
         String queueUrl;
         try {
             //Get the URL from an existing queue
@@ -70,8 +94,6 @@ class QueueUrlCache {
             //Create a queue
             queueUrl = QueueUrlCache.createQueue(queueName, sqsClient);
         }
-        //Add queue url to cache and return it
-        mQueueUrlCache.put(queueName, queueUrl);
         return queueUrl;
     }
 
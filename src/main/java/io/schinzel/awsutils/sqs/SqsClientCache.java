@@ -4,12 +4,13 @@ import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.SqsClientBuilder;
+import io.schinzel.awsutils.client.ClientRegistry;
+import io.schinzel.awsutils.httpclient.HttpClientSettings;
+import io.schinzel.awsutils.metrics.RetryCountingInterceptor;
 import io.schinzel.basicutils.thrower.Thrower;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
+
+import java.util.function.Supplier;
 
 /**
  * The purpose of this class to hold a cache of SQS clients.
@@ -19,6 +20,11 @@ import java.util.concurrent.TimeUnit;
  * 2018-08-07 With this cache it takes 15 ms to send a message with SqsProducer.
  * Without this cache - and all other code the same - the average send takes 48 ms. Message size 250 chars.
  * Running the code on a EC2 instance. Caches had data when performance was measured.
+ * <p>
+ * The clients are held in a {@link ClientRegistry}. Clients are created single-flight, are kept while a
+ * producer or consumer uses them and are closed when they have been unused for an hour. Clients returned by the
+ * accessors that take no holder are kept while requested and closed when they have not been requested for an
+ * hour.
  *
  * @author Schinzel
  */
@@ -33,15 +39,12 @@ class SqsClientCache {
     }
 
 
-    /** Cache of SQS clients */
-    private final Cache<String, SqsClient> mSqsClientCache = CacheBuilder.newBuilder()
-            .maximumSize(100)
-            .expireAfterAccess(1, TimeUnit.HOURS)
-            .recordStats()
+    /** The SQS clients. Key is AWS access key, region and HTTP client settings if any. */
+    private final ClientRegistry<SqsClient> mSqsClients = ClientRegistry.<SqsClient>builder()
+            .closer(SqsClient::close)
+            .maxClients(100)
+            .name("SqsClients")
             .build();
-    
-    /** Set to track all created clients for proper shutdown */
-    private final Set<SqsClient> mCreatedClients = ConcurrentHashMap.newKeySet();
 
 
     /**
@@ -51,41 +54,64 @@ class SqsClientCache {
      * @return An Amazon SQS client.
      */
     SqsClient getSqsClient(String awsAccessKey, String awsSecretKey, Region region) {
+        return this.getSqsClient(awsAccessKey, awsSecretKey, region, null);
+    }
+
+
+    /**
+     * @param awsAccessKey       An AWS access key
+     * @param awsSecretKey       An AWS secret key
+     * @param region             The region in which to operate
+     * @param httpClientSettings The settings of the HTTP client of the client. If null, the SDK defaults are used.
+     * @return An Amazon SQS client. Clients with different HTTP client settings are cached separately.
+     */
+    SqsClient getSqsClient(String awsAccessKey, String awsSecretKey, Region region, HttpClientSettings httpClientSettings) {
+        return this.getSqsClient(awsAccessKey, awsSecretKey, region, httpClientSettings, null);
+    }
+
+
+    /**
+     * @param awsAccessKey       An AWS access key
+     * @param awsSecretKey       An AWS secret key
+     * @param region             The region in which to operate
+     * @param httpClientSettings The settings of the HTTP client of the client. If null, the SDK defaults are used.
+     * @param holder             If set, the client is not closed while the holder is reachable. If null, the
+     *                           client is pinned, i.e. is closed only when it has not been requested for the
+     *                           max idle time, as it is not known when it is no longer used.
+     * @return An Amazon SQS client. Clients with different HTTP client settings are cached separately.
+     */
+    SqsClient getSqsClient(String awsAccessKey, String awsSecretKey, Region region,
+                           HttpClientSettings httpClientSettings, Object holder) {
         Thrower.createInstance()
                 .throwIfVarEmpty(awsAccessKey, "awsAccessKey")
                 .throwIfVarEmpty(awsSecretKey, "awsSecretKey")
                 .throwIfVarNull(region, "region");
         //Construct a cache key
-        String cacheKey = awsAccessKey + region.id();
-        //Try to get from cache first
-        SqsClient cachedClient = mSqsClientCache.getIfPresent(cacheKey);
-        if (cachedClient != null) {
-            return cachedClient;
-        }
-        
-        //Create new client if not in cache
-        AwsBasicCredentials credentials = AwsBasicCredentials.create(awsAccessKey, awsSecretKey);
-        StaticCredentialsProvider credentialsProvider = StaticCredentialsProvider.create(credentials);
-        SqsClient sqsClient = SqsClient.builder()
-                .credentialsProvider(credentialsProvider)
-                .region(region)
-                .build();
-        
-        //Add client to cache and track for shutdown
-        mSqsClientCache.put(cacheKey, sqsClient);
-        mCreatedClients.add(sqsClient);
-        return sqsClient;
+        String cacheKey = (httpClientSettings == null)
+                ? awsAccessKey + region.id()
+                : awsAccessKey + region.id() + "_" + httpClientSettings.getCacheKey();
+        Supplier<SqsClient> loader = () -> createSqsClient(awsAccessKey, awsSecretKey, region, httpClientSettings);
+        return (holder == null)
+                ? mSqsClients.getPinned(cacheKey, loader)
+                : mSqsClients.get(cacheKey, loader, holder);
+    }
+
+
+    /**
+     * Registers a holder of a client, e.g. a copy of a consumer.
+     *
+     * @param sqsClient A client returned by this cache
+     * @param holder    The client is not closed while the holder is reachable
+     */
+    void addHolder(SqsClient sqsClient, Object holder) {
+        mSqsClients.addHolder(sqsClient, holder);
     }
 
     /**
      * Shutdown all cached SQS clients. Call this during application shutdown.
      */
     void shutdown() {
-        // Close all created SQS clients
-        mCreatedClients.forEach(SqsClient::close);
-        mCreatedClients.clear();
-        // Invalidate the cache (this will trigger removal listeners)
-        mSqsClientCache.invalidateAll();
+        mSqsClients.closeAll();
     }
     
     /**
@@ -93,7 +119,7 @@ class SqsClientCache {
      * @return Current cache size
      */
     long getCacheSize() {
-        return mSqsClientCache.size();
+        return mSqsClients.size();
     }
     
     /**
@@ -101,7 +127,7 @@ class SqsClientCache {
      * @return Number of cache hits
      */
     long getCacheHits() {
-        return mSqsClientCache.stats().hitCount();
+        return mSqsClients.getHitCount();
     }
     
     /**
@@ -109,7 +135,7 @@ class SqsClientCache {
      * Clear the cache without closing clients
      */
     void clearCache() {
-        mSqsClientCache.invalidateAll();
+        mSqsClients.invalidateAll();
     }
     
     /**
@@ -120,4 +146,20 @@ class SqsClientCache {
         // Unfortunately Guava doesn't provide a way to reset stats
         // We'll need to work around this in tests
     }
+
+
+    private static SqsClient createSqsClient(String awsAccessKey, String awsSecretKey, Region region,
+                                             HttpClientSettings httpClientSettings) {
+        AwsBasicCredentials credentials = AwsBasicCredentials.create(awsAccessKey, awsSecretKey);
+        StaticCredentialsProvider credentialsProvider = StaticCredentialsProvider.create(credentials);
+        SqsClientBuilder builder = SqsClient.builder()
+                .credentialsProvider(credentialsProvider)
+                .region(region)
+                .overrideConfiguration(config -> config
+                        .addExecutionInterceptor(RetryCountingInterceptor.getInstance()));
+        if (httpClientSettings != null) {
+            builder.httpClientBuilder(httpClientSettings.getSyncHttpClientBuilder());
+        }
+        return builder.build();
+    }
 }
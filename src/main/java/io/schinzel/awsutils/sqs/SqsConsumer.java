@@ -1,5 +1,9 @@
 package io.schinzel.awsutils.sqs;
 
+import com.google.common.base.Utf8;
+import io.schinzel.awsutils.httpclient.HttpClientSettings;
+import io.schinzel.awsutils.metrics.Metrics;
+import io.schinzel.awsutils.metrics.Operation;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.sqs.SqsClient;
 import software.amazon.awssdk.services.sqs.model.Message;
@@ -20,22 +24,35 @@ import java.util.List;
 public class SqsConsumer implements IQueueConsumer {
     private static final int VISIBILITY_TIMEOUT_IN_SECONDS = 60;
     private final SqsClient mSqsClient;
+    private final String mQueueName;
     @Getter
     private final String mQueueUrl;
     private final ReceiveMessageRequest mReceiveMessageRequest;
 
 
+    /**
+     * @param httpClientSettings The connection pool settings of the HTTP client. Optional, by default the SDK
+     *                           defaults are used.
+     */
     @SuppressWarnings("unused")
     @Builder
-    SqsConsumer(String awsAccessKey, String awsSecretKey, Region region, String queueName) {
-        this(awsAccessKey, awsSecretKey, region, queueName, VISIBILITY_TIMEOUT_IN_SECONDS);
+    SqsConsumer(String awsAccessKey, String awsSecretKey, Region region, String queueName,
+                HttpClientSettings httpClientSettings) {
+        this(awsAccessKey, awsSecretKey, region, queueName, VISIBILITY_TIMEOUT_IN_SECONDS, httpClientSettings);
     }
 
     //Exists for testing
     SqsConsumer(String awsAccessKey, String awsSecretKey, Region region, String queueName, int visibilityTimeoutInSeconds) {
+        this(awsAccessKey, awsSecretKey, region, queueName, visibilityTimeoutInSeconds, null);
+    }
+
+    private SqsConsumer(String awsAccessKey, String awsSecretKey, Region region, String queueName,
+                        int visibilityTimeoutInSeconds, HttpClientSettings httpClientSettings) {
+        //This consumer holds the client, so it is not closed while the consumer is in use
         mSqsClient = SqsClientCache
                 .getSingleton()
-                .getSqsClient(awsAccessKey, awsSecretKey, region);
+                .getSqsClient(awsAccessKey, awsSecretKey, region, httpClientSettings, this);
+        mQueueName = queueName;
         //Get the queue url for the argument queue name.
         mQueueUrl = QueueUrlCache
                 .getSingleton()
@@ -55,10 +72,13 @@ public class SqsConsumer implements IQueueConsumer {
                 .build();
     }
 
-    private SqsConsumer(SqsClient sqsClient, String queueUrl, ReceiveMessageRequest receiveMessageRequest) {
+    private SqsConsumer(SqsClient sqsClient, String queueName, String queueUrl, ReceiveMessageRequest receiveMessageRequest) {
         mSqsClient = sqsClient;
+        mQueueName = queueName;
         mQueueUrl = queueUrl;
         mReceiveMessageRequest = receiveMessageRequest;
+        //The clone holds the client as well, as it can outlive the consumer it was cloned from
+        SqsClientCache.getSingleton().addHolder(sqsClient, this);
     }
 
     /**
@@ -66,19 +86,27 @@ public class SqsConsumer implements IQueueConsumer {
      * queue.
      */
     public SqsMessage getMessage() {
+        long startTime = System.nanoTime();
         List<Message> messages;
-        do {
-            //Get messages. Could be 1 or 0. 0 if there was no visible messages in queue.
-            messages = mSqsClient
-                    .receiveMessage(mReceiveMessageRequest)
-                    .messages();
-        }//Loop if there was not message
-        while (messages.isEmpty());
+        try {
+            do {
+                //Get messages. Could be 1 or 0. 0 if there was no visible messages in queue.
+                messages = mSqsClient
+                        .receiveMessage(mReceiveMessageRequest)
+                        .messages();
+            }//Loop if there was not message
+            while (messages.isEmpty());
+        } catch (RuntimeException e) {
+            Metrics.getInstance().record(Operation.SQS_GET_MESSAGE, mQueueName, startTime, 0, true);
+            throw e;
+        }
         //If got here there was 1 message. Get this message
         Message message = messages.get(0);
+        Metrics.getInstance().record(Operation.SQS_GET_MESSAGE, mQueueName, startTime, Utf8.encodedLength(message.body()), false);
         //Create and return message
         return SqsMessage.builder()
                 .sqsClient(mSqsClient)
+                .queueName(mQueueName)
                 .queueUrl(mQueueUrl)
                 .message(message)
                 .build();
@@ -90,7 +118,7 @@ public class SqsConsumer implements IQueueConsumer {
      * @return A clone of this consumer
      */
     public SqsConsumer clone() {
-        return new SqsConsumer(mSqsClient, mQueueUrl, mReceiveMessageRequest);
+        return new SqsConsumer(mSqsClient, mQueueName, mQueueUrl, mReceiveMessageRequest);
     }
 
 
@@ -1,5 +1,7 @@
 package io.schinzel.awsutils.sqs;
 
+import io.schinzel.awsutils.metrics.Metrics;
+import io.schinzel.awsutils.metrics.Operation;
 import software.amazon.awssdk.services.sqs.SqsClient;
 import software.amazon.awssdk.services.sqs.model.Message;
 import software.amazon.awssdk.services.sqs.model.DeleteMessageRequest;
@@ -20,6 +22,8 @@ import java.util.Map;
 @Accessors(prefix = "m")
 public class SqsMessage implements IMessage {
     private final SqsClient mSqsClient;
+    /** The name of the queue. Is used to tag measurements. If null, is taken from the queue URL. */
+    private final String mQueueName;
     private final String mQueueUrl;
     private final Message mMessage;
 
@@ -68,13 +72,16 @@ public class SqsMessage implements IMessage {
      */
     @Override
     public SqsMessage deleteMessageFromQueue() {
+        long startTime = System.nanoTime();
         try {
             DeleteMessageRequest deleteRequest = DeleteMessageRequest.builder()
                     .queueUrl(mQueueUrl)
                     .receiptHandle(mMessage.receiptHandle())
                     .build();
             mSqsClient.deleteMessage(deleteRequest);
+            Metrics.getInstance().record(Operation.SQS_DELETE_MESSAGE, this.getQueueName(), startTime, 0, false);
         } catch (SqsException e) {
+            Metrics.getInstance().record(Operation.SQS_DELETE_MESSAGE, this.getQueueName(), startTime, 0, true);
             //If the error was that the message has become visible in queue again
             if (e.getMessage().contains("The receipt handle has expired")) {
                 //Throw a clear error message
@@ -87,8 +94,22 @@ public class SqsMessage implements IMessage {
                 //rethrow message
                 throw e;
             }
+        } catch (RuntimeException e) {
+            Metrics.getInstance().record(Operation.SQS_DELETE_MESSAGE, this.getQueueName(), startTime, 0, true);
+            throw e;
         }
         return this;
     }
 
+
+    /**
+     * @return The name of the queue of this message
+     */
+    private String getQueueName() {
+        if (mQueueName != null) {
+            return mQueueName;
+        }
+        return (mQueueUrl == null) ? "" : mQueueUrl.substring(mQueueUrl.lastIndexOf('/') + 1);
+    }
+
 }
@@ -0,0 +1,109 @@
+package io.schinzel.awsutils.sqs;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.schinzel.awsutils.httpclient.HttpClientSettings;
+import io.schinzel.basicutils.thrower.Thrower;
+import lombok.Builder;
+import lombok.Singular;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.GetQueueUrlRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The purpose of this class is to do the slow one-time work of SQS access at startup, so that the first
+ * message sent or received has the same latency as later messages.
+ * <p>
+ * Prewarming creates the client, looks up the URLs of all queues concurrently and opens a number of pooled
+ * connections. As with {@link SqsProducer}, queues that do not exist are created.
+ * <p>
+ * Producers and consumers created later with the same credentials, region and HTTP client settings get the
+ * prewarmed client and queue URLs. For several regions, use one prewarmer per region.
+ *
+ * @author Schinzel
+ */
+public class SqsPrewarmer {
+    /** The default number of connections to open */
+    private static final int DEFAULT_CONNECTIONS = 4;
+    private final String mAwsAccessKey;
+    private final String mAwsSecretKey;
+    private final Region mRegion;
+    private final List<String> mQueueNames;
+    /** The number of pooled connections to open */
+    private final int mConnections;
+    private final HttpClientSettings mHttpClientSettings;
+
+
+    /**
+     * @param awsAccessKey       An AWS access key
+     * @param awsSecretKey       An AWS secret key
+     * @param region             The region of the queues
+     * @param queueNames         The queues that will be used. At least one is required.
+     * @param connections        The number of pooled connections to open. Optional, default 4.
+     * @param httpClientSettings The HTTP client settings the producers and consumers will use. Optional.
+     */
+    @Builder
+    SqsPrewarmer(String awsAccessKey, String awsSecretKey, Region region, @Singular List<String> queueNames,
+                 int connections, HttpClientSettings httpClientSettings) {
+        Thrower.createInstance()
+                .throwIfVarEmpty(awsAccessKey, "awsAccessKey")
+                .throwIfVarEmpty(awsSecretKey, "awsSecretKey")
+                .throwIfVarNull(region, "region")
+                .throwIfTrue(queueNames.isEmpty(), "At least one queue name is required")
+                .throwIfTrue(connections < 0, "connections cannot be negative");
+        mAwsAccessKey = awsAccessKey;
+        mAwsSecretKey = awsSecretKey;
+        mRegion = region;
+        mQueueNames = queueNames;
+        mConnections = (connections == 0) ? DEFAULT_CONNECTIONS : connections;
+        mHttpClientSettings = httpClientSettings;
+    }
+
+
+    /**
+     * Creates the client, looks up the queue URLs and opens the connections. Returns when all is done.
+     * <p>
+     * The client is not closed while this prewarmer is reachable. After that it is closed when it has been
+     * unused for an hour, as other clients.
+     */
+    public void prewarm() {
+        SqsClient sqsClient = SqsClientCache.getSingleton()
+                .getSqsClient(mAwsAccessKey, mAwsSecretKey, mRegion, mHttpClientSettings, this);
+        //The client is sync, so one thread per concurrent request
+        int threadCount = Math.max(mQueueNames.size(), mConnections);
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount, new ThreadFactoryBuilder()
+                .setNameFormat("sqs-prewarmer-%d")
+                .setDaemon(true)
+                .build());
+        try {
+            List<CompletableFuture<?>> futures = new ArrayList<>();
+            for (String queueName : mQueueNames) {
+                futures.add(CompletableFuture.runAsync(() ->
+                        QueueUrlCache.getSingleton().getQueueUrl(queueName, sqsClient), executor));
+            }
+            //Requests that are in flight at the same time each need a connection, which is then returned to
+            //the pool. The queue URL lookups above use some of the connections. Errors are ignored, as a queue
+            //can be in the middle of being created and the connection is opened anyway.
+            for (int i = mQueueNames.size(); i < mConnections; i++) {
+                String queueName = mQueueNames.get(i % mQueueNames.size());
+                futures.add(CompletableFuture.runAsync(() ->
+                                sqsClient.getQueueUrl(GetQueueUrlRequest.builder()
+                                        .queueName(queueName)
+                                        .build()), executor)
+                        .exceptionally(throwable -> null));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            throw new RuntimeException("Error when prewarming SQS in region '" + mRegion.id() + "': "
+                    + e.getCause().getMessage(), e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
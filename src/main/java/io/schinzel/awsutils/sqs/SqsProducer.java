@@ -1,5 +1,9 @@
 package io.schinzel.awsutils.sqs;
 
+import com.google.common.base.Utf8;
+import io.schinzel.awsutils.httpclient.HttpClientSettings;
+import io.schinzel.awsutils.metrics.Metrics;
+import io.schinzel.awsutils.metrics.Operation;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.sqs.SqsClient;
 import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
@@ -18,14 +22,22 @@ import lombok.Builder;
  */
 public class SqsProducer implements IQueueProducer {
     private final SqsClient mSqsClient;
+    private final String mQueueName;
     private final String mQueueUrl;
     boolean mGuaranteedOrder;
 
+    /**
+     * @param httpClientSettings The connection pool settings of the HTTP client. Optional, by default the SDK
+     *                           defaults are used.
+     */
     @Builder
-    SqsProducer(String awsAccessKey, String awsSecretKey, Region region, String queueName, Boolean guaranteedOrder) {
+    SqsProducer(String awsAccessKey, String awsSecretKey, Region region, String queueName, Boolean guaranteedOrder,
+                HttpClientSettings httpClientSettings) {
+        //This producer holds the client, so it is not closed while the producer is in use
         mSqsClient = SqsClientCache
                 .getSingleton()
-                .getSqsClient(awsAccessKey, awsSecretKey, region);
+                .getSqsClient(awsAccessKey, awsSecretKey, region, httpClientSettings, this);
+        mQueueName = queueName;
         //Get the queue url for the argument queue name.
         mQueueUrl = QueueUrlCache
                 .getSingleton()
@@ -38,9 +50,29 @@ public class SqsProducer implements IQueueProducer {
     @Override
     public SqsProducer send(String message) {
         Thrower.throwIfVarEmpty(message, "message");
-        String groupId = mGuaranteedOrder ? "my_group_id" : "random_group_id_" + getUniqueId();
-        SendMessageRequest sendMsgRequest = SendMessageRequest.builder()
-                .queueUrl(mQueueUrl)
+        SendMessageRequest sendMsgRequest = createSendMessageRequest(mQueueUrl, message, mGuaranteedOrder);
+        long startTime = System.nanoTime();
+        try {
+            mSqsClient.sendMessage(sendMsgRequest);
+        } catch (RuntimeException e) {
+            Metrics.getInstance().record(Operation.SQS_SEND, mQueueName, startTime, 0, true);
+            throw e;
+        }
+        Metrics.getInstance().record(Operation.SQS_SEND, mQueueName, startTime, Utf8.encodedLength(message), false);
+        return this;
+    }
+
+
+    /**
+     * @param queueUrl        The URL of the queue to send to
+     * @param message         The message to send
+     * @param guaranteedOrder If true, all messages are sent in the same message group
+     * @return A request to send the argument message
+     */
+    static SendMessageRequest createSendMessageRequest(String queueUrl, String message, boolean guaranteedOrder) {
+        String groupId = guaranteedOrder ? "my_group_id" : "random_group_id_" + getUniqueId();
+        return SendMessageRequest.builder()
+                .queueUrl(queueUrl)
                 .messageBody(message)
                 //Add a unique id to the message which is used to prevent that the message is duplicated.
                 //This is a required argument if content-based deduplication has been disabled, which is
@@ -50,8 +82,6 @@ public class SqsProducer implements IQueueProducer {
                 //This argument is required if MessageDeduplicationId is set.
                 .messageGroupId(groupId)
                 .build();
-        mSqsClient.sendMessage(sendMsgRequest);
-        return this;
     }
 
 
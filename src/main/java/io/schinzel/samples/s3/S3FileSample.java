@@ -2,6 +2,7 @@ package io.schinzel.samples.s3;
 
 import software.amazon.awssdk.regions.Region;
 import com.google.common.base.Strings;
+import io.schinzel.awsutils.s3file.BackgroundWrites;
 import io.schinzel.awsutils.s3file.IS3File;
 import io.schinzel.basicutils.RandomUtil;
 import io.schinzel.basicutils.configvar.ConfigVar;
@@ -77,8 +78,9 @@ public class S3FileSample {
                     .write(fileContent + "__" + i);
             Str.create("Upload: ").a(i).writeToSystemOut();
         }
-        //Terminates threads for file uploading. Note that files that have not been completely
-        //uploaded are interrupted.
+        //Wait for the background writes to complete. Throws an exception if any write failed.
+        BackgroundWrites.getInstance().flush();
+        //Terminates threads for file uploading.
         TransferManagers.getInstance().shutdown();
         long execTime = (System.nanoTime() - start) / 1_000_000;
         Str.create()
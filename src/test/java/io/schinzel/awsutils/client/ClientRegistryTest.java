@@ -0,0 +1,253 @@
+package io.schinzel.awsutils.client;
+
+import io.schinzel.awsutils.metrics.CacheStats;
+import io.schinzel.awsutils.metrics.CacheStatsRegistry;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+
+public class ClientRegistryTest {
+
+    private static class TestClient {
+        boolean mClosed;
+    }
+
+
+    private static ClientRegistry<TestClient> createRegistry(int maxClients, Duration maxIdleTime) {
+        return ClientRegistry.<TestClient>builder()
+                .closer(client -> client.mClosed = true)
+                .maxClients(maxClients)
+                .maxIdleTime(maxIdleTime)
+                .build();
+    }
+
+
+    @Test
+    public void get_SameKeyTwice_SameClientLoadedOnce() {
+        ClientRegistry<TestClient> registry = createRegistry(10, null);
+        TestClient client1 = registry.get("key", TestClient::new, null);
+        TestClient client2 = registry.get("key", TestClient::new, null);
+        assertThat(client1).isSameAs(client2);
+        assertThat(registry.getLoadCount()).isEqualTo(1);
+        assertThat(registry.getHitCount()).isEqualTo(1);
+    }
+
+
+    @Test
+    public void get_ConcurrentColdStart_ClientLoadedOnce() throws Exception {
+        ClientRegistry<TestClient> registry = createRegistry(10, null);
+        AtomicInteger loadCount = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<TestClient>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                return registry.get("key", () -> {
+                    loadCount.incrementAndGet();
+                    sleep(200);
+                    return new TestClient();
+                }, null);
+            }));
+        }
+        start.countDown();
+        TestClient first = futures.get(0).get();
+        for (Future<TestClient> future : futures) {
+            assertThat(future.get()).isSameAs(first);
+        }
+        executor.shutdown();
+        assertThat(loadCount.get()).isEqualTo(1);
+    }
+
+
+    @Test
+    public void get_LoaderThrows_NextGetLoadsAgain() {
+        ClientRegistry<TestClient> registry = createRegistry(10, null);
+        assertThatExceptionOfType(RuntimeException.class).isThrownBy(() ->
+                registry.get("key", () -> {
+                    throw new RuntimeException("Could not create client");
+                }, null)
+        );
+        assertThat(registry.size()).isZero();
+        assertThat(registry.get("key", TestClient::new, null)).isNotNull();
+    }
+
+
+    @Test
+    public void get_MoreThanMaxClients_LeastRecentlyUsedClosed() {
+        ClientRegistry<TestClient> registry = createRegistry(2, null);
+        TestClient client1 = registry.get("key1", TestClient::new, null);
+        sleep(5);
+        TestClient client2 = registry.get("key2", TestClient::new, null);
+        sleep(5);
+        TestClient client3 = registry.get("key3", TestClient::new, null);
+        assertThat(registry.size()).isEqualTo(2);
+        assertThat(client1.mClosed).isTrue();
+        assertThat(client2.mClosed).isFalse();
+        assertThat(client3.mClosed).isFalse();
+    }
+
+
+    @Test
+    public void get_MoreThanMaxClientsAllHeld_NoneClosed() {
+        ClientRegistry<TestClient> registry = createRegistry(1, null);
+        Object holder1 = new Object();
+        Object holder2 = new Object();
+        TestClient client1 = registry.get("key1", TestClient::new, holder1);
+        TestClient client2 = registry.get("key2", TestClient::new, holder2);
+        assertThat(registry.size()).isEqualTo(2);
+        assertThat(client1.mClosed).isFalse();
+        assertThat(client2.mClosed).isFalse();
+    }
+
+
+    @Test
+    public void get_ClientIdleLongerThanMaxIdleTime_ClientClosed() {
+        ClientRegistry<TestClient> registry = createRegistry(10, Duration.ofMillis(100));
+        TestClient client = registry.get("key1", TestClient::new, null);
+        //Idle clients are closed at most once per second
+        sleep(1100);
+        registry.get("key2", TestClient::new, null);
+        assertThat(client.mClosed).isTrue();
+        assertThat(registry.get("key1", TestClient::new, null)).isNotSameAs(client);
+    }
+
+
+    @Test
+    public void get_HeldClientIdleLongerThanMaxIdleTime_ClientNotClosed() {
+        ClientRegistry<TestClient> registry = createRegistry(10, Duration.ofMillis(100));
+        Object holder = new Object();
+        TestClient client = registry.get("key1", TestClient::new, holder);
+        sleep(1100);
+        registry.get("key2", TestClient::new, null);
+        assertThat(client.mClosed).isFalse();
+        assertThat(holder).isNotNull();
+    }
+
+
+    @Test
+    public void getPinned_MoreThanMaxClients_PinnedClientNotClosed() {
+        ClientRegistry<TestClient> registry = createRegistry(2, null);
+        TestClient client1 = registry.getPinned("key1", TestClient::new);
+        sleep(5);
+        TestClient client2 = registry.get("key2", TestClient::new, null);
+        sleep(5);
+        TestClient client3 = registry.get("key3", TestClient::new, null);
+        assertThat(client1.mClosed).isFalse();
+        assertThat(client2.mClosed).isTrue();
+        assertThat(client3.mClosed).isFalse();
+    }
+
+
+    @Test
+    public void getPinned_ClientIdleLongerThanMaxIdleTime_ClientClosed() {
+        ClientRegistry<TestClient> registry = createRegistry(10, Duration.ofMillis(100));
+        TestClient client = registry.getPinned("key1", TestClient::new);
+        sleep(1100);
+        registry.get("key2", TestClient::new, null);
+        assertThat(client.mClosed).isTrue();
+        assertThat(registry.getPinned("key1", TestClient::new)).isNotSameAs(client);
+    }
+
+
+    @Test
+    public void getPinned_IdleClientAndMoreThanMaxClients_IdleClientClosed() {
+        ClientRegistry<TestClient> registry = createRegistry(1, Duration.ofMillis(100));
+        TestClient client1 = registry.getPinned("key1", TestClient::new);
+        sleep(200);
+        TestClient client2 = registry.getPinned("key2", TestClient::new);
+        assertThat(client1.mClosed).isTrue();
+        assertThat(client2.mClosed).isFalse();
+    }
+
+
+    @Test
+    public void closeAll_PinnedClient_ClientClosed() {
+        ClientRegistry<TestClient> registry = createRegistry(10, null);
+        TestClient client = registry.getPinned("key", TestClient::new);
+        registry.closeAll();
+        assertThat(client.mClosed).isTrue();
+    }
+
+
+    @Test
+    public void addHolder_ClientNotInRegistry_False() {
+        ClientRegistry<TestClient> registry = createRegistry(10, null);
+        assertThat(registry.addHolder(new TestClient(), new Object())).isFalse();
+    }
+
+
+    @Test
+    public void addHolder_ClientInRegistry_True() {
+        ClientRegistry<TestClient> registry = createRegistry(10, null);
+        TestClient client = registry.get("key", TestClient::new, null);
+        assertThat(registry.addHolder(client, new Object())).isTrue();
+    }
+
+
+    @Test
+    public void closeAll_HeldClients_ClientsClosedAndRemoved() {
+        ClientRegistry<TestClient> registry = createRegistry(10, null);
+        Object holder = new Object();
+        TestClient client1 = registry.get("key1", TestClient::new, holder);
+        TestClient client2 = registry.get("key2", TestClient::new, null);
+        registry.closeAll();
+        assertThat(client1.mClosed).isTrue();
+        assertThat(client2.mClosed).isTrue();
+        assertThat(registry.size()).isZero();
+    }
+
+
+    @Test
+    public void getStats_OneMissOneHitOneEviction_Stats() {
+        ClientRegistry<TestClient> registry = createRegistry(1, null);
+        registry.get("key1", TestClient::new, null);
+        registry.get("key1", TestClient::new, null);
+        registry.get("key2", TestClient::new, null);
+        CacheStats stats = registry.getStats();
+        assertThat(stats.getHitCount()).isEqualTo(1);
+        assertThat(stats.getMissCount()).isEqualTo(2);
+        assertThat(stats.getLoadCount()).isEqualTo(2);
+        assertThat(stats.getEvictionCount()).isEqualTo(1);
+        assertThat(stats.getSize()).isEqualTo(1);
+    }
+
+
+    @Test
+    public void builder_Name_StatsRegistered() {
+        ClientRegistry<TestClient> registry = ClientRegistry.<TestClient>builder()
+                .closer(client -> client.mClosed = true)
+                .name("ClientRegistryTest")
+                .build();
+        registry.get("key", TestClient::new, null);
+        assertThat(CacheStatsRegistry.getInstance().getStats("ClientRegistryTest").getSize()).isEqualTo(1);
+    }
+
+
+    @Test
+    public void constructor_NoCloser_Exception() {
+        assertThatExceptionOfType(RuntimeException.class).isThrownBy(() ->
+                ClientRegistry.<TestClient>builder().maxClients(10).build()
+        );
+    }
+
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
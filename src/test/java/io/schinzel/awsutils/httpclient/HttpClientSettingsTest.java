@@ -0,0 +1,76 @@
+package io.schinzel.awsutils.httpclient;
+
+import org.junit.Test;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+
+public class HttpClientSettingsTest {
+
+    @Test
+    public void constructor_NoImplementation_Default() {
+        HttpClientImplementation implementation = HttpClientSettings.builder().build().getImplementation();
+        assertThat(implementation).isEqualTo(HttpClientImplementation.DEFAULT);
+    }
+
+
+    @Test
+    public void constructor_NegativeMaxConnections_Exception() {
+        assertThatExceptionOfType(RuntimeException.class).isThrownBy(() ->
+                HttpClientSettings.builder().maxConnections(-1).build()
+        );
+    }
+
+
+    @Test
+    public void constructor_NegativeSocketTimeout_Exception() {
+        assertThatExceptionOfType(RuntimeException.class).isThrownBy(() ->
+                HttpClientSettings.builder().socketTimeout(Duration.ofSeconds(-1)).build()
+        );
+    }
+
+
+    @Test
+    public void getCacheKey_SameValues_SameKey() {
+        String cacheKey1 = HttpClientSettings.builder()
+                .maxConnections(200)
+                .connectionTimeToLive(Duration.ofMinutes(1))
+                .build()
+                .getCacheKey();
+        String cacheKey2 = HttpClientSettings.builder()
+                .maxConnections(200)
+                .connectionTimeToLive(Duration.ofMinutes(1))
+                .build()
+                .getCacheKey();
+        assertThat(cacheKey1).isEqualTo(cacheKey2);
+    }
+
+
+    @Test
+    public void getCacheKey_DifferentValues_DifferentKeys() {
+        String cacheKey1 = HttpClientSettings.builder().tcpKeepAlive(true).build().getCacheKey();
+        String cacheKey2 = HttpClientSettings.builder().tcpKeepAlive(false).build().getCacheKey();
+        assertThat(cacheKey1).isNotEqualTo(cacheKey2);
+    }
+
+
+    @Test
+    public void getSyncHttpClientBuilder_DefaultImplementation_Apache() {
+        SdkHttpClient.Builder<?> builder = HttpClientSettings.builder().build().getSyncHttpClientBuilder();
+        assertThat(builder).isInstanceOf(ApacheHttpClient.Builder.class);
+    }
+
+
+    @Test
+    public void getAsyncHttpClientBuilder_DefaultImplementation_Netty() {
+        SdkAsyncHttpClient.Builder<?> builder = HttpClientSettings.builder().build().getAsyncHttpClientBuilder();
+        assertThat(builder).isInstanceOf(NettyNioAsyncHttpClient.Builder.class);
+    }
+}
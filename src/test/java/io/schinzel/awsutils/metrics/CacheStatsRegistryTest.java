@@ -0,0 +1,103 @@
+package io.schinzel.awsutils.metrics;
+
+import org.junit.After;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+
+public class CacheStatsRegistryTest {
+
+    @After
+    public void after() {
+        CacheStatsRegistry.getInstance().unregisterMBeans();
+    }
+
+
+    private static CacheStats createStats(String name) {
+        return CacheStats.builder()
+                .name(name)
+                .hitCount(3)
+                .missCount(1)
+                .loadCount(1)
+                .totalLoadTimeInNanos(2_000)
+                .size(1)
+                .build();
+    }
+
+
+    @Test
+    public void getHitRate_ThreeHitsOneMiss_075() {
+        assertThat(createStats("a").getHitRate()).isEqualTo(0.75);
+    }
+
+
+    @Test
+    public void getHitRate_NoLookups_1() {
+        assertThat(CacheStats.builder().build().getHitRate()).isEqualTo(1);
+    }
+
+
+    @Test
+    public void getAverageLoadTimeInNanos_OneLoad_TotalLoadTime() {
+        assertThat(createStats("a").getAverageLoadTimeInNanos()).isEqualTo(2_000);
+    }
+
+
+    @Test
+    public void getStats_RegisteredCache_Stats() {
+        CacheStatsRegistry.getInstance().register("TestCache1", () -> createStats("TestCache1"));
+        assertThat(CacheStatsRegistry.getInstance().getStats("TestCache1").getHitCount()).isEqualTo(3);
+        assertThat(CacheStatsRegistry.getInstance().getStats())
+                .extracting(CacheStats::getName)
+                .contains("TestCache1");
+    }
+
+
+    @Test
+    public void getStats_UnknownCache_Null() {
+        assertThat(CacheStatsRegistry.getInstance().getStats("NoSuchCache")).isNull();
+    }
+
+
+    @Test
+    public void register_EmptyName_Exception() {
+        assertThatExceptionOfType(RuntimeException.class).isThrownBy(() ->
+                CacheStatsRegistry.getInstance().register("", () -> createStats(""))
+        );
+    }
+
+
+    @Test
+    public void registerMBeans_RegisteredCache_AttributesReadable() throws Exception {
+        CacheStatsRegistry.getInstance().register("TestCache2", () -> createStats("TestCache2"));
+        CacheStatsRegistry.getInstance().registerMBeans();
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = CacheStatsRegistry.getObjectName("TestCache2");
+        assertThat(mBeanServer.getAttribute(objectName, "HitRate")).isEqualTo(0.75);
+        assertThat(mBeanServer.getAttribute(objectName, "Size")).isEqualTo(1L);
+    }
+
+
+    @Test
+    public void registerMBeans_CacheRegisteredAfter_MBeanRegistered() throws Exception {
+        CacheStatsRegistry.getInstance().registerMBeans();
+        CacheStatsRegistry.getInstance().register("TestCache3", () -> createStats("TestCache3"));
+        ObjectName objectName = CacheStatsRegistry.getObjectName("TestCache3");
+        assertThat(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName)).isTrue();
+    }
+
+
+    @Test
+    public void unregisterMBeans_RegisteredMBeans_Unregistered() throws Exception {
+        CacheStatsRegistry.getInstance().register("TestCache4", () -> createStats("TestCache4"));
+        CacheStatsRegistry.getInstance().registerMBeans().unregisterMBeans();
+        ObjectName objectName = CacheStatsRegistry.getObjectName("TestCache4");
+        assertThat(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName)).isFalse();
+    }
+}
@@ -0,0 +1,54 @@
+package io.schinzel.awsutils.metrics;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+public class HistogramRecorderTest {
+
+    @Test
+    public void getStats_NothingRecorded_Null() {
+        assertThat(new HistogramRecorder().getStats(Operation.S3_READ, "my-bucket")).isNull();
+    }
+
+
+    @Test
+    public void record_TwoOperationsOneFailed_CountsAndBytes() {
+        HistogramRecorder recorder = new HistogramRecorder();
+        recorder.record(Operation.S3_READ, "my-bucket", 1_000, 100, false);
+        recorder.record(Operation.S3_READ, "my-bucket", 2_000, 0, true);
+        OperationStats stats = recorder.getStats(Operation.S3_READ, "my-bucket");
+        assertThat(stats.getCount()).isEqualTo(2);
+        assertThat(stats.getErrorCount()).isEqualTo(1);
+        assertThat(stats.getBytes()).isEqualTo(100);
+    }
+
+
+    @Test
+    public void record_TwoTargets_SeparateStats() {
+        HistogramRecorder recorder = new HistogramRecorder();
+        recorder.record(Operation.SQS_SEND, "queue1", 1_000, 10, false);
+        recorder.record(Operation.SQS_SEND, "queue2", 1_000, 10, false);
+        assertThat(recorder.getStats(Operation.SQS_SEND)).containsOnlyKeys("queue1", "queue2");
+        assertThat(recorder.getStats(Operation.SQS_SEND, "queue1").getCount()).isEqualTo(1);
+    }
+
+
+    @Test
+    public void recordRetries_TwoRetries_RetryCountTwo() {
+        HistogramRecorder recorder = new HistogramRecorder();
+        recorder.recordRetries(Operation.S3_WRITE, "my-bucket", 2);
+        assertThat(recorder.getStats(Operation.S3_WRITE, "my-bucket").getRetryCount()).isEqualTo(2);
+    }
+
+
+    @Test
+    public void record_SetAsRecorderOfMetrics_Recorded() {
+        HistogramRecorder recorder = new HistogramRecorder();
+        Metrics.getInstance().setRecorder(recorder);
+        Metrics.getInstance().record(Operation.S3_DELETE, "my-bucket", System.nanoTime(), 0, false);
+        Metrics.getInstance().removeRecorder();
+        assertThat(recorder.getStats(Operation.S3_DELETE, "my-bucket").getCount()).isEqualTo(1);
+    }
+}
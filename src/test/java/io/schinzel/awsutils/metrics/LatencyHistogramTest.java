@@ -0,0 +1,67 @@
+package io.schinzel.awsutils.metrics;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void getValueAtPercentile_NothingRecorded_Zero() {
+        assertThat(new LatencyHistogram().getValueAtPercentile(99)).isZero();
+    }
+
+
+    @Test
+    public void getValueAtPercentile_OneToThousand_WithinPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(i * 1_000_000);
+        }
+        assertThat(histogram.getValueAtPercentile(50)).isBetween(500_000_000L, (long) (500_000_000 * 1.0625));
+        assertThat(histogram.getValueAtPercentile(99)).isBetween(990_000_000L, (long) (990_000_000 * 1.0625));
+        assertThat(histogram.getValueAtPercentile(100)).isEqualTo(1_000_000_000L);
+    }
+
+
+    @Test
+    public void getMeanAndMax_ThreeValues_MeanAndMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10);
+        histogram.record(20);
+        histogram.record(60);
+        assertThat(histogram.getCount()).isEqualTo(3);
+        assertThat(histogram.getMean()).isEqualTo(30);
+        assertThat(histogram.getMax()).isEqualTo(60);
+    }
+
+
+    @Test
+    public void record_NegativeDuration_RecordedAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertThat(histogram.getValueAtPercentile(100)).isZero();
+    }
+
+
+    @Test
+    public void getBucketIndex_AnyValue_ValueWithinBucketBounds() {
+        for (long value = 1; value < Long.MAX_VALUE / 3; value = value * 3 + 1) {
+            int index = LatencyHistogram.getBucketIndex(value);
+            if (value < (1L << 44)) {
+                assertThat(LatencyHistogram.getBucketUpperBound(index)).isGreaterThanOrEqualTo(value);
+                assertThat(LatencyHistogram.getBucketUpperBound(index)).isLessThanOrEqualTo((long) (value * 1.0625));
+            }
+        }
+    }
+
+
+    @Test
+    public void getValueAtPercentile_PercentileAbove100_Exception() {
+        assertThatExceptionOfType(RuntimeException.class).isThrownBy(() ->
+                new LatencyHistogram().getValueAtPercentile(101)
+        );
+    }
+}
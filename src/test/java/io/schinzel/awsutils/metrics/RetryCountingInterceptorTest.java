@@ -0,0 +1,26 @@
+package io.schinzel.awsutils.metrics;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+public class RetryCountingInterceptorTest {
+
+    @Test
+    public void getOperation_UploadPart_S3Write() {
+        assertThat(RetryCountingInterceptor.getOperation("UploadPart")).isEqualTo(Operation.S3_WRITE);
+    }
+
+
+    @Test
+    public void getOperation_ReceiveMessage_SqsGetMessage() {
+        assertThat(RetryCountingInterceptor.getOperation("ReceiveMessage")).isEqualTo(Operation.SQS_GET_MESSAGE);
+    }
+
+
+    @Test
+    public void getOperation_OperationNotMeasured_Null() {
+        assertThat(RetryCountingInterceptor.getOperation("ListObjectsV2")).isNull();
+    }
+}
@@ -0,0 +1,217 @@
+package io.schinzel.awsutils.s3file;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.*;
+
+
+public class BackgroundWritesTest {
+    private final BackgroundWrites mBackgroundWrites = new BackgroundWrites();
+
+
+    @Test
+    public void write_UploadNotComplete_OneRequestInFlight() {
+        mBackgroundWrites.write("bucket", "file.txt", 10, CompletableFuture::new, null);
+        assertThat(mBackgroundWrites.getInFlightRequests()).isEqualTo(1);
+        assertThat(mBackgroundWrites.getInFlightBytes()).isEqualTo(10);
+    }
+
+
+    @Test
+    public void write_UploadComplete_NothingInFlight() {
+        CompletableFuture<Void> upload = new CompletableFuture<>();
+        mBackgroundWrites.write("bucket", "file.txt", 10, () -> upload, null);
+        upload.complete(null);
+        assertThat(mBackgroundWrites.getInFlightRequests()).isZero();
+        assertThat(mBackgroundWrites.getInFlightBytes()).isZero();
+    }
+
+
+    @Test
+    public void write_UploadStarterThrows_NothingInFlight() {
+        assertThatExceptionOfType(RuntimeException.class).isThrownBy(() ->
+                mBackgroundWrites.write("bucket", "file.txt", 10, () -> {
+                    throw new RuntimeException("apa");
+                }, null)
+        );
+        assertThat(mBackgroundWrites.getInFlightRequests()).isZero();
+    }
+
+
+    @Test
+    public void write_UploadFails_ListenerGetsError() {
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        CompletableFuture<Void> upload = new CompletableFuture<>();
+        mBackgroundWrites.write("bucket", "file.txt", 10, () -> upload,
+                (bucketName, fileName, throwable) -> error.set(throwable));
+        upload.completeExceptionally(new RuntimeException("apa"));
+        assertThat(error.get()).hasMessage("apa");
+    }
+
+
+    @Test
+    public void flush_UploadFailed_Exception() {
+        mBackgroundWrites.write("bucket", "file.txt", 10, this::getFailedUpload, null);
+        assertThatExceptionOfType(RuntimeException.class)
+                .isThrownBy(mBackgroundWrites::flush)
+                .withMessageContaining("file.txt");
+    }
+
+
+    @Test
+    public void flush_FailureAlreadyReported_NoException() {
+        mBackgroundWrites.write("bucket", "file.txt", 10, this::getFailedUpload, null);
+        assertThatExceptionOfType(RuntimeException.class).isThrownBy(mBackgroundWrites::flush);
+        assertThatCode(mBackgroundWrites::flush).doesNotThrowAnyException();
+    }
+
+
+    @Test
+    public void flushBucket_UploadToOtherBucketFailed_NoException() {
+        mBackgroundWrites.write("other_bucket", "file.txt", 10, this::getFailedUpload, null);
+        assertThatCode(() -> mBackgroundWrites.flush("bucket")).doesNotThrowAnyException();
+        assertThat(mBackgroundWrites.getFailureCount()).isEqualTo(1);
+    }
+
+
+    @Test
+    public void awaitQuiescence_UploadNotComplete_False() {
+        mBackgroundWrites.write("bucket", "file.txt", 10, CompletableFuture::new, null);
+        boolean quiescent = mBackgroundWrites.awaitQuiescence(10, TimeUnit.MILLISECONDS);
+        assertThat(quiescent).isFalse();
+    }
+
+
+    @Test
+    public void awaitQuiescence_UploadToOtherBucketNotComplete_True() {
+        mBackgroundWrites.write("other_bucket", "file.txt", 10, CompletableFuture::new, null);
+        boolean quiescent = mBackgroundWrites.awaitQuiescence("bucket", 10, TimeUnit.MILLISECONDS);
+        assertThat(quiescent).isTrue();
+    }
+
+
+    @Test
+    public void write_MaxInFlightRequestsReached_BlocksUntilUploadComplete() throws InterruptedException {
+        mBackgroundWrites.maxInFlightRequests(1);
+        CompletableFuture<Void> firstUpload = new CompletableFuture<>();
+        mBackgroundWrites.write("bucket", "file1.txt", 10, () -> firstUpload, null);
+        Thread secondWriter = new Thread(() ->
+                mBackgroundWrites.write("bucket", "file2.txt", 10, () -> CompletableFuture.completedFuture(null), null));
+        secondWriter.start();
+        secondWriter.join(100);
+        assertThat(secondWriter.isAlive()).isTrue();
+        firstUpload.complete(null);
+        secondWriter.join(1000);
+        assertThat(secondWriter.isAlive()).isFalse();
+    }
+
+
+    @Test
+    public void writeCoalesced_ThreeWritesWhileFirstInFlight_FirstAndLastUploaded() {
+        List<String> uploaded = new ArrayList<>();
+        CompletableFuture<Void> firstUpload = new CompletableFuture<>();
+        mBackgroundWrites.writeCoalesced("bucket", "file.txt", 10, () -> {
+            uploaded.add("first");
+            return firstUpload;
+        }, null);
+        for (String content : new String[]{"second", "third", "fourth"}) {
+            mBackgroundWrites.writeCoalesced("bucket", "file.txt", 10, () -> {
+                uploaded.add(content);
+                return CompletableFuture.completedFuture(null);
+            }, null);
+        }
+        firstUpload.complete(null);
+        assertThat(uploaded).containsExactly("first", "fourth");
+        assertThat(mBackgroundWrites.getReplacedWriteCount()).isEqualTo(2);
+        assertThat(mBackgroundWrites.getInFlightRequests()).isZero();
+    }
+
+
+    @Test
+    public void writeCoalesced_WriteReplaced_ListenerOfReplacedWriteNotified() {
+        List<String> notified = new ArrayList<>();
+        CompletableFuture<Void> firstUpload = new CompletableFuture<>();
+        mBackgroundWrites.writeCoalesced("bucket", "file.txt", 10, () -> firstUpload, null);
+        mBackgroundWrites.writeCoalesced("bucket", "file.txt", 10, () -> CompletableFuture.completedFuture(null),
+                (bucketName, fileName, error) -> notified.add("second"));
+        mBackgroundWrites.writeCoalesced("bucket", "file.txt", 10, () -> CompletableFuture.completedFuture(null),
+                (bucketName, fileName, error) -> notified.add("third"));
+        firstUpload.complete(null);
+        assertThat(notified).containsExactly("second", "third");
+    }
+
+
+    @Test
+    public void writeCoalesced_WritesToDifferentFiles_BothInFlight() {
+        mBackgroundWrites.writeCoalesced("bucket", "file1.txt", 10, CompletableFuture::new, null);
+        mBackgroundWrites.writeCoalesced("bucket", "file2.txt", 10, CompletableFuture::new, null);
+        assertThat(mBackgroundWrites.getInFlightRequests()).isEqualTo(2);
+    }
+
+
+    @Test
+    public void awaitQuiescence_CoalescedWriteQueued_FalseUntilQueuedWriteDone() {
+        CompletableFuture<Void> firstUpload = new CompletableFuture<>();
+        CompletableFuture<Void> secondUpload = new CompletableFuture<>();
+        mBackgroundWrites.writeCoalesced("bucket", "file.txt", 10, () -> firstUpload, null);
+        mBackgroundWrites.writeCoalesced("bucket", "file.txt", 10, () -> secondUpload, null);
+        firstUpload.complete(null);
+        assertThat(mBackgroundWrites.awaitQuiescence(10, TimeUnit.MILLISECONDS)).isFalse();
+        secondUpload.complete(null);
+        assertThat(mBackgroundWrites.awaitQuiescence(10, TimeUnit.MILLISECONDS)).isTrue();
+    }
+
+
+    @Test
+    public void writeCoalesced_QueuedWriteExceedsByteCap_StartedWhenBytesReleased() {
+        mBackgroundWrites.maxInFlightBytes(100);
+        CompletableFuture<Void> firstUpload = new CompletableFuture<>();
+        CompletableFuture<Void> otherUpload = new CompletableFuture<>();
+        List<String> uploaded = new ArrayList<>();
+        mBackgroundWrites.writeCoalesced("bucket", "file.txt", 10, () -> firstUpload, null);
+        mBackgroundWrites.write("bucket", "other.txt", 50, () -> otherUpload, null);
+        mBackgroundWrites.writeCoalesced("bucket", "file.txt", 80, () -> {
+            uploaded.add("queued");
+            return new CompletableFuture<>();
+        }, null);
+        firstUpload.complete(null);
+        assertThat(uploaded).isEmpty();
+        assertThat(mBackgroundWrites.getInFlightBytes()).isEqualTo(50);
+        assertThat(mBackgroundWrites.getInFlightRequests()).isEqualTo(2);
+        otherUpload.complete(null);
+        assertThat(uploaded).containsExactly("queued");
+        assertThat(mBackgroundWrites.getInFlightBytes()).isEqualTo(80);
+        assertThat(mBackgroundWrites.getInFlightRequests()).isEqualTo(1);
+    }
+
+
+    @Test
+    public void writeCoalesced_QueuedWriteSmaller_BlockedWriterWoken() throws InterruptedException {
+        mBackgroundWrites.maxInFlightBytes(100);
+        CompletableFuture<Void> firstUpload = new CompletableFuture<>();
+        mBackgroundWrites.writeCoalesced("bucket", "file.txt", 90, () -> firstUpload, null);
+        mBackgroundWrites.writeCoalesced("bucket", "file.txt", 10, CompletableFuture::new, null);
+        Thread blockedWriter = new Thread(() ->
+                mBackgroundWrites.write("bucket", "other.txt", 50, CompletableFuture::new, null));
+        blockedWriter.start();
+        blockedWriter.join(100);
+        assertThat(blockedWriter.isAlive()).isTrue();
+        firstUpload.complete(null);
+        blockedWriter.join(1000);
+        assertThat(blockedWriter.isAlive()).isFalse();
+        assertThat(mBackgroundWrites.getInFlightBytes()).isEqualTo(60);
+    }
+
+
+    private CompletableFuture<Void> getFailedUpload() {
+        CompletableFuture<Void> upload = new CompletableFuture<>();
+        upload.completeExceptionally(new RuntimeException("apa"));
+        return upload;
+    }
+}
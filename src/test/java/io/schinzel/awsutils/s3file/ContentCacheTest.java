@@ -0,0 +1,252 @@
+package io.schinzel.awsutils.s3file;
+
+import com.google.common.base.Strings;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadBucketRequest;
+import software.amazon.awssdk.services.s3.model.HeadBucketResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+public class ContentCacheTest {
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+
+    @Test
+    public void read_ReadTwiceWithinRevalidateAfter_SecondReadIsHit() {
+        ContentCache contentCache = ContentCache.builder()
+                .revalidateAfter(Duration.ofMinutes(1))
+                .build();
+        IS3File s3File = S3FileUtil.getS3FileBuilder()
+                .contentCache(contentCache)
+                .build()
+                .write("some content");
+        s3File.read();
+        String content = s3File.read().asString();
+        s3File.delete();
+        assertThat(content).isEqualTo("some content");
+        assertThat(contentCache.getMissCount()).isEqualTo(1);
+        assertThat(contentCache.getHitCount()).isEqualTo(1);
+    }
+
+
+    @Test
+    public void read_ReadTwiceNoRevalidateAfter_SecondReadIsRevalidated() {
+        ContentCache contentCache = ContentCache.builder().build();
+        IS3File s3File = S3FileUtil.getS3FileBuilder()
+                .contentCache(contentCache)
+                .build()
+                .write("some content");
+        s3File.read();
+        String content = s3File.read().asString();
+        s3File.delete();
+        assertThat(content).isEqualTo("some content");
+        assertThat(contentCache.getRevalidatedHitCount()).isEqualTo(1);
+    }
+
+
+    @Test
+    public void read_FileWrittenAfterRead_NewContent() {
+        ContentCache contentCache = ContentCache.builder()
+                .revalidateAfter(Duration.ofMinutes(1))
+                .build();
+        IS3File s3File = S3FileUtil.getS3FileBuilder()
+                .contentCache(contentCache)
+                .build()
+                .write("first content");
+        s3File.read();
+        String content = s3File.write("second content").read().asString();
+        s3File.delete();
+        assertThat(content).isEqualTo("second content");
+    }
+
+
+    @Test
+    public void read_FileLargerThanMaxHeapEntrySize_CachedOnDisk() {
+        ContentCache contentCache = ContentCache.builder()
+                .maxHeapEntrySize(10)
+                .diskDirectory(mTemporaryFolder.getRoot().toPath())
+                .revalidateAfter(Duration.ofMinutes(1))
+                .build();
+        String fileContent = Strings.repeat("a", 100);
+        IS3File s3File = S3FileUtil.getS3FileBuilder()
+                .contentCache(contentCache)
+                .build()
+                .write(fileContent);
+        s3File.read();
+        String content = s3File.read().asString();
+        long diskBytes = contentCache.getDiskBytes();
+        long heapBytes = contentCache.getHeapBytes();
+        s3File.delete();
+        assertThat(content).isEqualTo(fileContent);
+        assertThat(contentCache.getHitCount()).isEqualTo(1);
+        assertThat(diskBytes).isEqualTo(100);
+        assertThat(heapBytes).isZero();
+    }
+
+
+    @Test
+    public void read_FilesExceedMaxHeapBytes_EvictionCounted() {
+        ContentCache contentCache = ContentCache.builder()
+                .maxHeapBytes(15)
+                .build();
+        IS3File firstFile = S3FileUtil.getS3FileBuilder()
+                .contentCache(contentCache)
+                .build()
+                .write("0123456789");
+        IS3File secondFile = S3FileUtil.getS3FileBuilder()
+                .contentCache(contentCache)
+                .build()
+                .write("0123456789");
+        firstFile.read();
+        secondFile.read();
+        firstFile.delete();
+        secondFile.delete();
+        assertThat(contentCache.getEvictionCount()).isEqualTo(1);
+        assertThat(contentCache.getHeapBytes()).isEqualTo(10);
+    }
+
+
+    @Test
+    public void delete_FileCachedOnDisk_DiskFileDeleted() {
+        ContentCache contentCache = ContentCache.builder()
+                .maxHeapEntrySize(10)
+                .diskDirectory(mTemporaryFolder.getRoot().toPath())
+                .build();
+        IS3File s3File = S3FileUtil.getS3FileBuilder()
+                .contentCache(contentCache)
+                .build()
+                .write(Strings.repeat("a", 100));
+        s3File.read();
+        String[] filesBeforeDelete = mTemporaryFolder.getRoot().list();
+        s3File.delete();
+        assertThat(filesBeforeDelete).hasSize(1);
+        assertThat(mTemporaryFolder.getRoot().list()).isEmpty();
+        assertThat(contentCache.getDiskBytes()).isZero();
+    }
+
+
+    @Test
+    public void constructor_FilesLeftInDiskDirectory_CacheFilesDeleted() throws IOException {
+        Path leftoverFile = mTemporaryFolder.newFile(Strings.repeat("0", 64) + "_1").toPath();
+        Path leftoverTempFile = mTemporaryFolder.newFile(Strings.repeat("0", 64) + "_2.tmp").toPath();
+        Path otherFile = mTemporaryFolder.newFile("other_file.txt").toPath();
+        ContentCache.builder()
+                .diskDirectory(mTemporaryFolder.getRoot().toPath())
+                .build();
+        assertThat(leftoverFile).doesNotExist();
+        assertThat(leftoverTempFile).doesNotExist();
+        assertThat(otherFile).exists();
+    }
+
+
+    @Test
+    public void readToFile_FileCachedOnDisk_CopiedFromCache() throws IOException {
+        ContentCache contentCache = ContentCache.builder()
+                .maxHeapEntrySize(10)
+                .diskDirectory(mTemporaryFolder.newFolder("cache").toPath())
+                .revalidateAfter(Duration.ofMinutes(1))
+                .build();
+        String fileContent = Strings.repeat("a", 100);
+        IS3File s3File = S3FileUtil.getS3FileBuilder()
+                .contentCache(contentCache)
+                .build()
+                .write(fileContent);
+        Path destination = mTemporaryFolder.getRoot().toPath().resolve("destination.txt");
+        s3File.readToFile(destination);
+        s3File.readToFile(destination);
+        String content = new String(Files.readAllBytes(destination), StandardCharsets.UTF_8);
+        long diskBytes = contentCache.getDiskBytes();
+        s3File.delete();
+        assertThat(content).isEqualTo(fileContent);
+        assertThat(contentCache.getMissCount()).isEqualTo(1);
+        assertThat(contentCache.getHitCount()).isEqualTo(1);
+        assertThat(diskBytes).isEqualTo(100);
+    }
+
+
+    @Test
+    public void read_FileInvalidatedDuringDownload_ContentNotCached() {
+        ContentCache contentCache = ContentCache.builder()
+                .revalidateAfter(Duration.ofMinutes(1))
+                .build();
+        IS3SyncClient s3Client = getS3ClientThatInvalidatesDuringDownload(contentCache);
+        contentCache.read(s3Client, "bucket", "file.txt");
+        contentCache.read(s3Client, "bucket", "file.txt");
+        assertThat(contentCache.getHitCount()).isZero();
+        assertThat(contentCache.getMissCount()).isEqualTo(2);
+    }
+
+
+    @Test
+    public void readToFile_FileInvalidatedDuringDownload_ContentNotCached() throws IOException {
+        ContentCache contentCache = ContentCache.builder()
+                .revalidateAfter(Duration.ofMinutes(1))
+                .build();
+        IS3SyncClient s3Client = getS3ClientThatInvalidatesDuringDownload(contentCache);
+        Path destination = mTemporaryFolder.getRoot().toPath().resolve("destination.txt");
+        contentCache.readToFile(s3Client, "bucket", "file.txt", destination);
+        contentCache.readToFile(s3Client, "bucket", "file.txt", destination);
+        String content = new String(Files.readAllBytes(destination), StandardCharsets.UTF_8);
+        assertThat(content).isEqualTo("some content");
+        assertThat(contentCache.getHitCount()).isZero();
+        assertThat(contentCache.getMissCount()).isEqualTo(2);
+    }
+
+
+    /**
+     * @return A client whose downloads return "some content" and invalidate the downloaded file in the argument
+     * cache, as a write done while the file is downloaded would
+     */
+    private static IS3SyncClient getS3ClientThatInvalidatesDuringDownload(ContentCache contentCache) {
+        return new IS3SyncClient() {
+            @Override
+            public HeadObjectResponse headObject(HeadObjectRequest headObjectRequest) {
+                throw new UnsupportedOperationException();
+            }
+
+
+            @Override
+            public HeadBucketResponse headBucket(HeadBucketRequest headBucketRequest) {
+                throw new UnsupportedOperationException();
+            }
+
+
+            @Override
+            public DeleteObjectResponse deleteObject(DeleteObjectRequest deleteObjectRequest) {
+                throw new UnsupportedOperationException();
+            }
+
+
+            @Override
+            public ResponseInputStream<GetObjectResponse> getObject(GetObjectRequest getObjectRequest) {
+                contentCache.invalidate(getObjectRequest.bucket(), getObjectRequest.key());
+                byte[] content = "some content".getBytes(StandardCharsets.UTF_8);
+                GetObjectResponse response = GetObjectResponse.builder()
+                        .eTag("etag")
+                        .contentLength((long) content.length)
+                        .build();
+                return new ResponseInputStream<>(response,
+                        AbortableInputStream.create(new ByteArrayInputStream(content)));
+            }
+        };
+    }
+}
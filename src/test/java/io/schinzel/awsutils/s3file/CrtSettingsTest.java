@@ -0,0 +1,42 @@
+package io.schinzel.awsutils.s3file;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+
+public class CrtSettingsTest {
+
+    @Test
+    public void constructor_NoArguments_Defaults() {
+        CrtSettings crtSettings = CrtSettings.builder().build();
+        assertThat(crtSettings.getTargetThroughputInGbps()).isEqualTo(10);
+        assertThat(crtSettings.getMinimumPartSizeInBytes()).isEqualTo(8 * 1024 * 1024);
+        assertThat(crtSettings.getMaxConcurrency()).isZero();
+    }
+
+
+    @Test
+    public void constructor_NegativeThroughput_Exception() {
+        assertThatExceptionOfType(RuntimeException.class).isThrownBy(() ->
+                CrtSettings.builder().targetThroughputInGbps(-1).build()
+        );
+    }
+
+
+    @Test
+    public void getCacheKey_SameValues_SameKey() {
+        String cacheKey1 = CrtSettings.builder().targetThroughputInGbps(25).build().getCacheKey();
+        String cacheKey2 = CrtSettings.builder().targetThroughputInGbps(25).build().getCacheKey();
+        assertThat(cacheKey1).isEqualTo(cacheKey2);
+    }
+
+
+    @Test
+    public void getCacheKey_DifferentValues_DifferentKeys() {
+        String cacheKey1 = CrtSettings.builder().targetThroughputInGbps(25).build().getCacheKey();
+        String cacheKey2 = CrtSettings.builder().targetThroughputInGbps(100).build().getCacheKey();
+        assertThat(cacheKey1).isNotEqualTo(cacheKey2);
+    }
+}
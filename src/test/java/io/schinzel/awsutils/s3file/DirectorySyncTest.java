@@ -0,0 +1,139 @@
+package io.schinzel.awsutils.s3file;
+
+import io.schinzel.basicutils.RandomUtil;
+import io.schinzel.basicutils.UTF8;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+public class DirectorySyncTest {
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+    private final S3Bucket mBucket = S3FileUtil.getS3Bucket();
+    private final String mPrefix = "sync_test_" + RandomUtil.getRandomString(10) + "/";
+    private Path mLocalDirectory;
+
+
+    @Before
+    public void before() throws IOException {
+        mLocalDirectory = mTemporaryFolder.newFolder("assets").toPath();
+        Files.createDirectories(mLocalDirectory.resolve("css"));
+        Files.write(mLocalDirectory.resolve("index.html"), UTF8.getBytes("<html></html>"));
+        Files.write(mLocalDirectory.resolve("css/style.css"), UTF8.getBytes("body {}"));
+    }
+
+
+    @After
+    public void after() {
+        try (Stream<S3ListEntry> stream = mBucket.list(mPrefix)) {
+            mBucket.delete(stream.map(S3ListEntry::getFileName).collect(Collectors.toList()));
+        }
+    }
+
+
+    @Test
+    public void sync_FirstSync_AllFilesUploaded() {
+        SyncResult result = this.getDirectorySync(false).sync();
+        assertThat(result.isSuccessful()).isTrue();
+        assertThat(result.getUploadedFiles()).containsExactly(mPrefix + "css/style.css", mPrefix + "index.html");
+    }
+
+
+    @Test
+    public void sync_SecondSyncNoChanges_NothingUploaded() {
+        this.getDirectorySync(false).sync();
+        SyncResult result = this.getDirectorySync(false).sync();
+        assertThat(result.getUploadedFiles()).isEmpty();
+        assertThat(result.getUnchangedCount()).isEqualTo(2);
+    }
+
+
+    @Test
+    public void sync_OneFileChanged_ChangedFileUploaded() throws IOException {
+        this.getDirectorySync(false).sync();
+        Files.write(mLocalDirectory.resolve("index.html"), UTF8.getBytes("<html>changed</html>"));
+        SyncResult result = this.getDirectorySync(false).sync();
+        assertThat(result.getUploadedFiles()).containsExactly(mPrefix + "index.html");
+        assertThat(result.getUnchangedCount()).isEqualTo(1);
+    }
+
+
+    @Test
+    public void sync_ChecksumIndexAndNoChanges_NothingUploaded() {
+        Path checksumIndexFile = mTemporaryFolder.getRoot().toPath().resolve("index.properties");
+        DirectorySync directorySync = DirectorySync.builder()
+                .bucket(mBucket)
+                .localDirectory(mLocalDirectory)
+                .prefix(mPrefix)
+                .checksumIndexFile(checksumIndexFile)
+                .build();
+        directorySync.sync();
+        SyncResult result = directorySync.sync();
+        assertThat(checksumIndexFile).exists();
+        assertThat(result.getUploadedFiles()).isEmpty();
+        assertThat(result.getUnchangedCount()).isEqualTo(2);
+    }
+
+
+    @Test
+    public void sync_FileInContentCacheChanged_NewContentRead() throws IOException {
+        S3Bucket bucket = S3FileUtil.getS3BucketBuilder()
+                .contentCache(ContentCache.builder()
+                        .revalidateAfter(Duration.ofMinutes(1))
+                        .build())
+                .build();
+        DirectorySync directorySync = DirectorySync.builder()
+                .bucket(bucket)
+                .localDirectory(mLocalDirectory)
+                .prefix(mPrefix)
+                .build();
+        directorySync.sync();
+        S3File s3File = bucket.getFile(mPrefix + "index.html");
+        s3File.read();
+        Files.write(mLocalDirectory.resolve("index.html"), UTF8.getBytes("<html>changed</html>"));
+        directorySync.sync();
+        assertThat(s3File.read().asString()).isEqualTo("<html>changed</html>");
+    }
+
+
+    @Test
+    public void sync_LocalFileDeletedAndDeleteOrphans_RemoteFileDeleted() throws IOException {
+        this.getDirectorySync(true).sync();
+        Files.delete(mLocalDirectory.resolve("css/style.css"));
+        SyncResult result = this.getDirectorySync(true).sync();
+        assertThat(result.getDeletedFiles()).containsExactly(mPrefix + "css/style.css");
+        assertThat(mBucket.getFile(mPrefix + "css/style.css").exists()).isFalse();
+    }
+
+
+    @Test
+    public void sync_LocalFileDeletedNoDeleteOrphans_RemoteFileKept() throws IOException {
+        this.getDirectorySync(false).sync();
+        Files.delete(mLocalDirectory.resolve("css/style.css"));
+        SyncResult result = this.getDirectorySync(false).sync();
+        assertThat(result.getDeletedFiles()).isEmpty();
+        assertThat(mBucket.getFile(mPrefix + "css/style.css").exists()).isTrue();
+    }
+
+
+    private DirectorySync getDirectorySync(boolean deleteOrphans) {
+        return DirectorySync.builder()
+                .bucket(mBucket)
+                .localDirectory(mLocalDirectory)
+                .prefix(mPrefix)
+                .deleteOrphans(deleteOrphans)
+                .build();
+    }
+}
@@ -48,4 +48,39 @@ public class FileHeadersTest {
         assertThat(fileHeader).isEqualTo("text/html; charset=UTF-8");
     }
 
-}
\ No newline at end of file
+
+    @Test
+    public void hasFileHeader_ExistingExtension_True() {
+        assertThat(HttpFileHeaders.hasFileHeader("fileName.html")).isTrue();
+    }
+
+
+    @Test
+    public void hasFileHeader_NonExistingExtension_False() {
+        assertThat(HttpFileHeaders.hasFileHeader("fileName.apa")).isFalse();
+    }
+
+
+    @Test
+    public void hasFileHeader_FileWithoutExtension_False() {
+        assertThat(HttpFileHeaders.hasFileHeader("FileNameWithoutExtension")).isFalse();
+    }
+
+
+    @Test
+    public void isCompressible_Json_True() {
+        assertThat(HttpFileHeaders.isCompressible("fileName.json")).isTrue();
+    }
+
+
+    @Test
+    public void isCompressible_Png_False() {
+        assertThat(HttpFileHeaders.isCompressible("fileName.png")).isFalse();
+    }
+
+
+    @Test
+    public void isCompressible_NonExistingExtension_False() {
+        assertThat(HttpFileHeaders.isCompressible("fileName.apa")).isFalse();
+    }
+}
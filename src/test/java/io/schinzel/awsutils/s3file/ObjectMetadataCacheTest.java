@@ -0,0 +1,60 @@
+package io.schinzel.awsutils.s3file;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+public class ObjectMetadataCacheTest {
+    private static final long ONE_MINUTE_IN_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private final ObjectMetadataCache mCache = ObjectMetadataCache.getSingleton();
+
+
+    @After
+    public void after() {
+        mCache.clearCache();
+    }
+
+
+    @Test
+    public void get_NothingPut_Null() {
+        ObjectMetadata metadata = mCache.get("bucket", "file.txt", ONE_MINUTE_IN_NANOS);
+        assertThat(metadata).isNull();
+    }
+
+
+    @Test
+    public void get_MetadataPut_SameMetadata() {
+        ObjectMetadata metadata = ObjectMetadata.createNonExisting();
+        mCache.put("bucket", "file.txt", metadata);
+        assertThat(mCache.get("bucket", "file.txt", ONE_MINUTE_IN_NANOS)).isSameAs(metadata);
+    }
+
+
+    @Test
+    public void get_MetadataOlderThanTtl_Null() throws InterruptedException {
+        mCache.put("bucket", "file.txt", ObjectMetadata.createNonExisting());
+        Thread.sleep(5);
+        ObjectMetadata metadata = mCache.get("bucket", "file.txt", TimeUnit.MILLISECONDS.toNanos(1));
+        assertThat(metadata).isNull();
+    }
+
+
+    @Test
+    public void get_MetadataPutForOtherBucket_Null() {
+        mCache.put("other_bucket", "file.txt", ObjectMetadata.createNonExisting());
+        assertThat(mCache.get("bucket", "file.txt", ONE_MINUTE_IN_NANOS)).isNull();
+    }
+
+
+    @Test
+    public void invalidate_MetadataPut_Null() {
+        mCache.put("bucket", "file.txt", ObjectMetadata.createNonExisting());
+        mCache.invalidate("bucket", "file.txt");
+        assertThat(mCache.get("bucket", "file.txt", ONE_MINUTE_IN_NANOS)).isNull();
+        assertThat(mCache.getCacheSize()).isZero();
+    }
+}
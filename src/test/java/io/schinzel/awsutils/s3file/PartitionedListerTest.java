@@ -0,0 +1,119 @@
+package io.schinzel.awsutils.s3file;
+
+import io.schinzel.basicutils.RandomUtil;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+public class PartitionedListerTest {
+    private static final S3Bucket BUCKET = S3FileUtil.getS3Bucket();
+    private static final String PREFIX = "partitioned_list_test_" + RandomUtil.getRandomString(10) + "/";
+    /** File names in listing order */
+    private static final List<String> FILE_NAMES = Arrays.asList(
+            PREFIX + "a.txt",
+            PREFIX + "b/1.txt",
+            PREFIX + "b/2.txt",
+            PREFIX + "c.txt",
+            PREFIX + "d/1.txt",
+            PREFIX + "d/e/1.txt");
+
+
+    @BeforeClass
+    public static void beforeClass() {
+        FILE_NAMES.forEach(fileName -> BUCKET.getFile(fileName).write("some content"));
+    }
+
+
+    @AfterClass
+    public static void afterClass() {
+        BUCKET.delete(FILE_NAMES);
+    }
+
+
+    @Test
+    public void list_OrderedSubPrefixes_AllFilesInOrder() {
+        PartitionedLister lister = PartitionedLister.builder()
+                .bucket(BUCKET)
+                .prefix(PREFIX)
+                .parallelism(2)
+                .ordered(true)
+                .build();
+        assertThat(getFileNames(lister)).containsExactlyElementsOf(FILE_NAMES);
+    }
+
+
+    @Test
+    public void list_UnorderedSubPrefixes_AllFiles() {
+        PartitionedLister lister = PartitionedLister.builder()
+                .bucket(BUCKET)
+                .prefix(PREFIX)
+                .build();
+        assertThat(getFileNames(lister)).containsExactlyInAnyOrderElementsOf(FILE_NAMES);
+    }
+
+
+    @Test
+    public void list_OrderedSplitPoints_AllFilesInOrder() {
+        PartitionedLister lister = PartitionedLister.builder()
+                .bucket(BUCKET)
+                .prefix(PREFIX)
+                .splitPoints(Arrays.asList(PREFIX + "b/2.txt", PREFIX + "c"))
+                .ordered(true)
+                .build();
+        assertThat(getFileNames(lister)).containsExactlyElementsOf(FILE_NAMES);
+    }
+
+
+    @Test
+    public void list_NoFilesWithPrefix_Empty() {
+        PartitionedLister lister = PartitionedLister.builder()
+                .bucket(BUCKET)
+                .prefix(PREFIX + "no_such_prefix/")
+                .build();
+        assertThat(getFileNames(lister)).isEmpty();
+    }
+
+
+    @Test
+    public void list_StreamClosedAfterOneFile_ListerThreadsTerminate() throws InterruptedException {
+        PartitionedLister lister = PartitionedLister.builder()
+                .bucket(BUCKET)
+                .prefix(PREFIX)
+                .parallelism(2)
+                .ordered(true)
+                .build();
+        try (Stream<S3ListEntry> stream = lister.list()) {
+            assertThat(stream.findFirst()).isPresent();
+        }
+        //Wait for the interrupted threads to finish
+        long deadline = System.currentTimeMillis() + 5000;
+        while (getListerThreadCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(getListerThreadCount()).isZero();
+    }
+
+
+    private static long getListerThreadCount() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().startsWith("s3-partitioned-lister-"))
+                .count();
+    }
+
+
+    private static List<String> getFileNames(PartitionedLister lister) {
+        try (Stream<S3ListEntry> stream = lister.list()) {
+            return stream
+                    .map(S3ListEntry::getFileName)
+                    .collect(Collectors.toList());
+        }
+    }
+}
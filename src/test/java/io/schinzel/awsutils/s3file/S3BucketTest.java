@@ -0,0 +1,247 @@
+package io.schinzel.awsutils.s3file;
+
+import io.schinzel.basicutils.RandomUtil;
+import io.schinzel.basicutils.UTF8;
+import org.junit.Test;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Error;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+
+public class S3BucketTest {
+
+
+    @Test
+    public void delete_ExistingFiles_FilesShouldNotExist() {
+        List<S3File> s3Files = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            S3File s3File = S3FileUtil.getS3File();
+            s3File.write("some content");
+            s3Files.add(s3File);
+        }
+        List<String> fileNames = s3Files.stream()
+                .map(S3File::getFileName)
+                .collect(Collectors.toList());
+        DeleteResult result = S3FileUtil.getS3Bucket().delete(fileNames);
+        assertThat(result.isSuccessful()).isTrue();
+        assertThat(result.getDeletedCount()).isEqualTo(3);
+        assertThat(s3Files).noneMatch(S3File::exists);
+    }
+
+
+    @Test
+    public void delete_NonExistingFiles_CountedAsDeleted() {
+        List<String> fileNames = IntStream.range(0, 2500)
+                .mapToObj(i -> "non_existing_file_" + i + ".txt")
+                .collect(Collectors.toList());
+        DeleteResult result = S3FileUtil.getS3Bucket().delete(fileNames.stream());
+        assertThat(result.getFailures()).isEmpty();
+        assertThat(result.getDeletedCount()).isEqualTo(2500);
+    }
+
+
+    @Test
+    public void handleResponse_FailedFileTwiceInChunk_FailedEntriesNotCounted() {
+        DeleteObjectsResponse response = DeleteObjectsResponse.builder()
+                .errors(S3Error.builder()
+                        .key("a.txt")
+                        .code("AccessDenied")
+                        .message("Access Denied")
+                        .build())
+                .build();
+        Queue<DeleteResult.Failure> failures = new ConcurrentLinkedQueue<>();
+        long deletedCount = S3FileUtil.getS3Bucket()
+                .handleResponse(Arrays.asList("a.txt", "a.txt", "b.txt"), response, failures);
+        assertThat(deletedCount).isEqualTo(1);
+        assertThat(failures).hasSize(1);
+    }
+
+
+    @Test
+    public void delete_NoFiles_NothingDeleted() {
+        DeleteResult result = S3FileUtil.getS3Bucket().delete(Collections.<String>emptyList());
+        assertThat(result.isSuccessful()).isTrue();
+        assertThat(result.getDeletedCount()).isZero();
+    }
+
+
+    @Test
+    public void delete_FileInContentCache_NotReadFromCache() {
+        S3Bucket bucket = S3FileUtil.getS3BucketBuilder()
+                .contentCache(ContentCache.builder()
+                        .revalidateAfter(Duration.ofMinutes(1))
+                        .build())
+                .build();
+        String fileName = RandomUtil.getRandomString(20) + ".txt";
+        S3File s3File = bucket.getFile(fileName);
+        s3File.write("some content");
+        s3File.read();
+        bucket.delete(Collections.singletonList(fileName));
+        String content = s3File.read().asString();
+        assertThat(content).isEmpty();
+    }
+
+
+    @Test
+    public void list_FilesWithPrefix_AllFilesListed() {
+        S3Bucket bucket = S3FileUtil.getS3Bucket();
+        String prefix = "list_test_" + RandomUtil.getRandomString(10) + "/";
+        List<String> fileNames = IntStream.range(0, 3)
+                .mapToObj(i -> prefix + "file" + i + ".txt")
+                .collect(Collectors.toList());
+        fileNames.forEach(fileName -> bucket.getFile(fileName).write("some content"));
+        List<S3ListEntry> entries;
+        try (Stream<S3ListEntry> stream = bucket.list(prefix)) {
+            entries = stream.collect(Collectors.toList());
+        }
+        bucket.delete(fileNames);
+        assertThat(entries).extracting(S3ListEntry::getFileName).containsExactlyElementsOf(fileNames);
+        assertThat(entries).allMatch(entry -> entry.getSize() == 12);
+    }
+
+
+    @Test
+    public void list_NoFilesWithPrefix_EmptyStream() {
+        String prefix = "list_test_" + RandomUtil.getRandomString(10) + "/";
+        try (Stream<S3ListEntry> stream = S3FileUtil.getS3Bucket().list(prefix)) {
+            assertThat(stream.count()).isZero();
+        }
+    }
+
+
+    @Test
+    public void toS3File_ListedFile_CanBeRead() {
+        S3Bucket bucket = S3FileUtil.getS3Bucket();
+        String prefix = "list_test_" + RandomUtil.getRandomString(10) + "/";
+        IS3File s3File = bucket.getFile(prefix + "file.txt").write("some content");
+        String content;
+        try (Stream<S3ListEntry> stream = bucket.list(prefix)) {
+            content = stream.findFirst()
+                    .map(S3ListEntry::toS3File)
+                    .map(file -> file.read().asString())
+                    .orElse(null);
+        }
+        s3File.delete();
+        assertThat(content).isEqualTo("some content");
+    }
+
+
+    @Test
+    public void getFile_WriteAndRead_SameContent() {
+        S3File s3File = S3FileUtil.getS3Bucket().getFile(RandomUtil.getRandomString(20) + ".txt");
+        String content = s3File.write("some content").read().asString();
+        s3File.delete();
+        assertThat(content).isEqualTo("some content");
+    }
+
+
+    @Test
+    public void getFile_FileNameWithoutFileType_CanCheckExistence() {
+        boolean exists = S3FileUtil.getS3Bucket()
+                .getFile(RandomUtil.getRandomString(20))
+                .exists();
+        assertThat(exists).isFalse();
+    }
+
+
+    @Test
+    public void getFile_EmptyFileName_Exception() {
+        S3Bucket bucket = S3FileUtil.getS3Bucket();
+        assertThatExceptionOfType(RuntimeException.class).isThrownBy(() ->
+                bucket.getFile("")
+        );
+    }
+
+
+    @Test
+    public void getFile_BucketWithMetadataCacheTtl_FileUsesCachedMetadata() {
+        S3Bucket bucket = S3FileUtil.getS3BucketBuilder()
+                .metadataCacheTtl(Duration.ofMinutes(1))
+                .build();
+        String fileName = RandomUtil.getRandomString(20) + ".txt";
+        //Cache metadata of a file that does not exist on S3, so only a cached lookup says it exists
+        ObjectMetadata metadata = ObjectMetadata.create(HeadObjectResponse.builder().contentLength(1L).build());
+        ObjectMetadataCache.getSingleton().put(bucket.getBucketName(), fileName, metadata);
+        boolean existsWithCache = bucket.getFile(fileName).exists();
+        boolean existsWithoutCache = S3FileUtil.getS3Bucket().getFile(fileName).exists();
+        ObjectMetadataCache.getSingleton().invalidate(bucket.getBucketName(), fileName);
+        assertThat(existsWithCache).isTrue();
+        assertThat(existsWithoutCache).isFalse();
+    }
+
+
+    @Test
+    public void getContentHashedFileName_FileWithExtension_HashBeforeExtension() {
+        String fileName = S3Bucket.getContentHashedFileName("css/site.css", UTF8.getBytes("some content"));
+        assertThat(fileName).matches("css/site\\.[0-9a-f]{32}\\.css");
+    }
+
+
+    @Test
+    public void getContentHashedFileName_FileWithoutExtension_HashAppended() {
+        String fileName = S3Bucket.getContentHashedFileName("dir.v1/README", UTF8.getBytes("some content"));
+        assertThat(fileName).matches("dir\\.v1/README\\.[0-9a-f]{32}");
+    }
+
+
+    @Test
+    public void getContentHashedFileName_DifferentContent_DifferentNames() {
+        String fileName1 = S3Bucket.getContentHashedFileName("site.css", UTF8.getBytes("content 1"));
+        String fileName2 = S3Bucket.getContentHashedFileName("site.css", UTF8.getBytes("content 2"));
+        assertThat(fileName1).isNotEqualTo(fileName2);
+    }
+
+
+    @Test
+    public void publish_SameContentTwice_SameFileNameAndImmutableCacheControl() {
+        S3Bucket bucket = S3FileUtil.getS3Bucket();
+        String content = "some content " + RandomUtil.getRandomString(20);
+        String fileName = "publish_test/" + RandomUtil.getRandomString(10) + ".txt";
+        String publishedFileName1 = bucket.publish(fileName, content);
+        String publishedFileName2 = bucket.publish(fileName, content);
+        String cacheControl = bucket.getS3Client()
+                .headObject(HeadObjectRequest.builder()
+                        .bucket(bucket.getBucketName())
+                        .key(publishedFileName1)
+                        .build())
+                .cacheControl();
+        String readContent = bucket.getFile(publishedFileName1).read().asString();
+        bucket.getFile(publishedFileName1).delete();
+        assertThat(publishedFileName2).isEqualTo(publishedFileName1);
+        assertThat(cacheControl).isEqualTo(S3Bucket.IMMUTABLE_CACHE_CONTROL);
+        assertThat(readContent).isEqualTo(content);
+    }
+
+
+    @Test
+    public void publish_FileWithoutExtension_Exception() {
+        S3Bucket bucket = S3FileUtil.getS3Bucket();
+        assertThatExceptionOfType(RuntimeException.class).isThrownBy(() ->
+                bucket.publish("publish_test/README", "some content")
+        );
+    }
+
+
+    @Test
+    public void publish_Dotfile_Exception() {
+        S3Bucket bucket = S3FileUtil.getS3Bucket();
+        assertThatExceptionOfType(RuntimeException.class).isThrownBy(() ->
+                bucket.publish("publish_test/.css", "some content")
+        );
+    }
+}
@@ -1,7 +1,7 @@
 package io.schinzel.awsutils.s3file;
 
+import io.schinzel.awsutils.httpclient.HttpClientSettings;
 import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.s3.S3Client;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -54,9 +54,9 @@ public class S3ClientCacheTest {
 
     @Test
     public void getS3Client_SameClientRequestedTwice_SameObject() {
-        S3Client s3Client1 = S3ClientCache.getSingleton()
+        IS3SyncClient s3Client1 = S3ClientCache.getSingleton()
                 .getS3Client("test-access-key", "test-secret-key", Region.EU_WEST_1);
-        S3Client s3Client2 = S3ClientCache.getSingleton()
+        IS3SyncClient s3Client2 = S3ClientCache.getSingleton()
                 .getS3Client("test-access-key", "test-secret-key", Region.EU_WEST_1);
         assertThat(s3Client1).isEqualTo(s3Client2);
     }
@@ -158,18 +158,50 @@ public class S3ClientCacheTest {
     @Test
     public void getS3Client_AfterShutdown_CreatesNewClient() {
         // Create client
-        S3Client client1 = S3ClientCache.getSingleton()
+        IS3SyncClient client1 = S3ClientCache.getSingleton()
                 .getS3Client("test-access-key", "test-secret-key", Region.EU_WEST_1);
         
         // Shutdown
         S3ClientCache.getSingleton().shutdown();
         
         // Create client again - should be a new instance
-        S3Client client2 = S3ClientCache.getSingleton()
+        IS3SyncClient client2 = S3ClientCache.getSingleton()
                 .getS3Client("test-access-key", "test-secret-key", Region.EU_WEST_1);
         
         // Should be different instances (old one was closed)
         assertThat(client1).isNotSameAs(client2);
         assertThat(S3ClientCache.getSingleton().getCacheSize()).isEqualTo(1);
     }
-}
\ No newline at end of file
+
+
+    @Test
+    public void getS3Client_DifferentHttpClientSettings_CacheSizeTwo() {
+        HttpClientSettings settings1 = HttpClientSettings.builder().maxConnections(200).build();
+        HttpClientSettings settings2 = HttpClientSettings.builder().maxConnections(500).build();
+        S3ClientCache.getSingleton()
+                .getS3Client("test-access-key", "test-secret-key", Region.EU_WEST_1, null, settings1);
+        S3ClientCache.getSingleton()
+                .getS3Client("test-access-key", "test-secret-key", Region.EU_WEST_1, null, settings2);
+        assertThat(S3ClientCache.getSingleton().getCacheSize()).isEqualTo(2);
+    }
+
+
+    @Test
+    public void getS3Client_EqualHttpClientSettings_SameObject() {
+        IS3SyncClient s3Client1 = S3ClientCache.getSingleton()
+                .getS3Client("test-access-key", "test-secret-key", Region.EU_WEST_1, null,
+                        HttpClientSettings.builder().maxConnections(200).tcpKeepAlive(true).build());
+        IS3SyncClient s3Client2 = S3ClientCache.getSingleton()
+                .getS3Client("test-access-key", "test-secret-key", Region.EU_WEST_1, null,
+                        HttpClientSettings.builder().maxConnections(200).tcpKeepAlive(true).build());
+        assertThat(s3Client1).isSameAs(s3Client2);
+    }
+
+
+    @Test
+    public void getS3Client_Any_LayeredOnAsyncClient() {
+        IS3SyncClient s3Client = S3ClientCache.getSingleton()
+                .getS3Client("test-access-key", "test-secret-key", Region.EU_WEST_1);
+        assertThat(s3Client).isInstanceOf(AsyncBackedS3Client.class);
+    }
+}
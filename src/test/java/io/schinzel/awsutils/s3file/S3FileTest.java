@@ -1,13 +1,30 @@
 package io.schinzel.awsutils.s3file;
 
+import com.google.common.base.Strings;
+import io.schinzel.awsutils.metrics.HistogramRecorder;
+import io.schinzel.awsutils.metrics.Metrics;
+import io.schinzel.awsutils.metrics.Operation;
+import io.schinzel.awsutils.metrics.OperationStats;
 import io.schinzel.basicutils.FunnyChars;
+import io.schinzel.basicutils.UTF8;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Arrays;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
 
 
 public class S3FileTest {
@@ -51,6 +68,50 @@ public class S3FileTest {
     }
 
 
+    @Test
+    public void exists_MetadataCacheTtlSetAndFileDeleted_False() {
+        IS3File s3file = S3FileUtil.getS3FileBuilder()
+                .metadataCacheTtl(Duration.ofMinutes(1))
+                .build()
+                .write("some content");
+        boolean existsBeforeDelete = s3file.exists();
+        boolean existsAfterDelete = s3file.delete().exists();
+        assertThat(existsBeforeDelete).isTrue();
+        assertThat(existsAfterDelete).isFalse();
+    }
+
+
+    @Test
+    public void exists_MetadataCacheTtlSetAndFileWrittenAfterCheck_True() {
+        IS3File s3file = S3FileUtil.getS3FileBuilder()
+                .metadataCacheTtl(Duration.ofMinutes(1))
+                .build();
+        boolean existsBeforeWrite = s3file.exists();
+        boolean existsAfterWrite = s3file.write("some content").exists();
+        s3file.delete();
+        assertThat(existsBeforeWrite).isFalse();
+        assertThat(existsAfterWrite).isTrue();
+    }
+
+
+    @Test
+    public void getMetadata_ExistingFile_SizeOfContent() {
+        IS3File s3file = S3FileUtil.getS3File()
+                .write("some content");
+        ObjectMetadata metadata = s3file.getMetadata();
+        s3file.delete();
+        assertThat(metadata.getSize()).isEqualTo(12);
+        assertThat(metadata.getETag()).isNotEmpty();
+    }
+
+
+    @Test
+    public void getMetadata_NonExistingFile_ExistsFalse() {
+        ObjectMetadata metadata = S3FileUtil.getS3File().getMetadata();
+        assertThat(metadata.isExists()).isFalse();
+    }
+
+
     @Test
     public void read_FunnyCharsUploaded_DownloadedCharsShouldBeSameAsUploaded() {
         String fileContentToUpload = Arrays
@@ -77,4 +138,413 @@ public class S3FileTest {
         assertThat(downloadedFileContent).isEqualTo("");
     }
 
-}
\ No newline at end of file
+
+
+    @Test
+    public void read_EmptyFileUploaded_EmptyString() {
+        IS3File s3file = S3FileUtil
+                .getS3File()
+                .write("");
+        String downloadedFileContent = s3file
+                .read()
+                .asString();
+        s3file.delete();
+        assertThat(downloadedFileContent).isEmpty();
+    }
+
+
+    @Test
+    public void readToFile_FileUploaded_DownloadedFileContentSameAsUploaded() throws IOException {
+        Path destination = Files.createTempFile("s3file_test_", ".txt");
+        IS3File s3file = S3FileUtil
+                .getS3File()
+                .write("some content")
+                .readToFile(destination);
+        String downloadedFileContent = new String(Files.readAllBytes(destination), StandardCharsets.UTF_8);
+        s3file.delete();
+        Files.delete(destination);
+        assertThat(downloadedFileContent).isEqualTo("some content");
+    }
+
+
+    @Test
+    public void readToFile_NonExistingFile_EmptyFile() throws IOException {
+        Path destination = Files.createTempFile("s3file_test_", ".txt");
+        S3FileUtil
+                .getS3File()
+                .readToFile(destination);
+        long size = Files.size(destination);
+        Files.delete(destination);
+        assertThat(size).isZero();
+    }
+
+
+
+    @Test
+    public void readOffsetLength_RangeInFile_BytesInRange() {
+        IS3File s3file = S3FileUtil
+                .getS3File()
+                .write("0123456789");
+        String downloadedFileContent = s3file
+                .read(2, 3)
+                .asString();
+        s3file.delete();
+        assertThat(downloadedFileContent).isEqualTo("234");
+    }
+
+
+    @Test
+    public void readOffsetLength_MaxLength_BytesToEndOfFile() {
+        IS3File s3file = S3FileUtil
+                .getS3File()
+                .write("0123456789");
+        String downloadedFileContent = s3file
+                .read(2, Long.MAX_VALUE)
+                .asString();
+        s3file.delete();
+        assertThat(downloadedFileContent).isEqualTo("23456789");
+    }
+
+
+    @Test
+    public void readOffsetLength_OffsetBeyondEndOfFile_EmptyString() {
+        IS3File s3file = S3FileUtil
+                .getS3File()
+                .write("0123456789");
+        String downloadedFileContent = s3file
+                .read(100, 3)
+                .asString();
+        s3file.delete();
+        assertThat(downloadedFileContent).isEmpty();
+    }
+
+
+    @Test
+    public void readLast_ThreeBytes_LastThreeBytes() {
+        IS3File s3file = S3FileUtil
+                .getS3File()
+                .write("0123456789");
+        String downloadedFileContent = s3file
+                .readLast(3)
+                .asString();
+        s3file.delete();
+        assertThat(downloadedFileContent).isEqualTo("789");
+    }
+
+
+    @Test
+    public void read_RangedReadSeveralParts_DownloadedSameAsUploaded() {
+        String fileContentToUpload = Strings.repeat("0123456789", 1000);
+        IS3File s3file = S3FileUtil
+                .getS3FileBuilder()
+                .rangedRead(true)
+                .partSize(333)
+                .maxConcurrency(4)
+                .build()
+                .write(fileContentToUpload);
+        String downloadedFileContent = s3file
+                .read()
+                .asString();
+        s3file.delete();
+        assertThat(downloadedFileContent).isEqualTo(fileContentToUpload);
+    }
+
+
+    @Test
+    public void readToFile_RangedReadSeveralParts_DownloadedSameAsUploaded() throws IOException {
+        String fileContentToUpload = Strings.repeat("0123456789", 1000);
+        Path destination = Files.createTempFile("s3file_test_", ".txt");
+        IS3File s3file = S3FileUtil
+                .getS3FileBuilder()
+                .rangedRead(true)
+                .partSize(333)
+                .build()
+                .write(fileContentToUpload)
+                .readToFile(destination);
+        String downloadedFileContent = new String(Files.readAllBytes(destination), StandardCharsets.UTF_8);
+        s3file.delete();
+        Files.delete(destination);
+        assertThat(downloadedFileContent).isEqualTo(fileContentToUpload);
+    }
+
+
+    @Test
+    public void read_RangedReadNonExistingFile_EmptyString() {
+        String downloadedFileContent = S3FileUtil
+                .getS3FileBuilder()
+                .rangedRead(true)
+                .build()
+                .read()
+                .asString();
+        assertThat(downloadedFileContent).isEmpty();
+    }
+
+
+    @Test
+    public void openOutputStream_SmallContent_DownloadedSameAsUploaded() throws IOException {
+        S3File s3file = S3FileUtil.getS3File();
+        try (OutputStream outputStream = s3file.openOutputStream()) {
+            outputStream.write(UTF8.getBytes("some content"));
+        }
+        String downloadedFileContent = s3file
+                .read()
+                .asString();
+        s3file.delete();
+        assertThat(downloadedFileContent).isEqualTo("some content");
+    }
+
+
+    @Test
+    public void openOutputStream_ContentLargerThanOnePart_DownloadedSameAsUploaded() throws IOException {
+        //Content that requires two parts of the smallest allowed part size
+        String fileContentToUpload = Strings.repeat("0123456789", 600_000);
+        S3File s3file = S3FileUtil.getS3File();
+        try (OutputStream outputStream = s3file.openOutputStream()) {
+            outputStream.write(UTF8.getBytes(fileContentToUpload));
+        }
+        String downloadedFileContent = s3file
+                .read()
+                .asString();
+        s3file.delete();
+        assertThat(downloadedFileContent).isEqualTo(fileContentToUpload);
+    }
+
+
+    @Test
+    public void openOutputStream_NothingWritten_FileExists() throws IOException {
+        S3File s3file = S3FileUtil.getS3File();
+        s3file.openOutputStream().close();
+        boolean exists = s3file.exists();
+        s3file.delete();
+        assertThat(exists).isTrue();
+    }
+
+
+    @Test
+    public void writePath_LocalFile_DownloadedSameAsLocalFile() throws IOException {
+        Path localFile = Files.createTempFile("s3file_test_", ".txt");
+        Files.write(localFile, UTF8.getBytes("some content"));
+        IS3File s3file = S3FileUtil
+                .getS3File()
+                .write(localFile);
+        String downloadedFileContent = s3file
+                .read()
+                .asString();
+        s3file.delete();
+        Files.delete(localFile);
+        assertThat(downloadedFileContent).isEqualTo("some content");
+    }
+
+
+    @Test
+    public void writePath_NoSuchLocalFile_Exception() throws IOException {
+        Path localFile = Files.createTempFile("s3file_test_", ".txt");
+        Files.delete(localFile);
+        S3File s3File = S3FileUtil.getS3File();
+        assertThatExceptionOfType(RuntimeException.class)
+                .isThrownBy(() -> s3File.write(localFile))
+                .withMessageContaining("IO error when reading size of local file");
+        assertThat(s3File.exists()).isFalse();
+    }
+
+
+    @Test
+    public void writeByteBuffer_DirectBuffer_DownloadedSameAsUploaded() {
+        byte[] content = UTF8.getBytes("some content");
+        ByteBuffer buffer = ByteBuffer.allocateDirect(content.length);
+        buffer.put(content);
+        buffer.flip();
+        IS3File s3file = S3FileUtil
+                .getS3File()
+                .write(buffer);
+        String downloadedFileContent = s3file
+                .read()
+                .asString();
+        s3file.delete();
+        assertThat(downloadedFileContent).isEqualTo("some content");
+    }
+
+
+    @Test
+    public void read_GzipCompression_SameContentAsWritten() {
+        String fileContent = Strings.repeat("some content ", 1000);
+        IS3File s3file = S3FileUtil.getS3FileBuilder()
+                .compression(Compression.GZIP)
+                .build()
+                .write(fileContent);
+        String content = s3file.read().asString();
+        long storedSize = s3file.getMetadata().getSize();
+        s3file.delete();
+        assertThat(content).isEqualTo(fileContent);
+        assertThat(storedSize).isLessThan(fileContent.length() / 5);
+    }
+
+
+    @Test
+    public void read_GzipCompressionReadWithoutCompressionSet_SameContentAsWritten() {
+        String fileContent = Strings.repeat("some content ", 1000);
+        S3File s3file = S3FileUtil.getS3FileBuilder()
+                .compression(Compression.GZIP)
+                .build();
+        s3file.write(fileContent);
+        String content = S3FileUtil.getS3FileBuilder()
+                .fileName(s3file.getFileName())
+                .rangedRead(true)
+                .build()
+                .read()
+                .asString();
+        s3file.delete();
+        assertThat(content).isEqualTo(fileContent);
+    }
+
+
+    @Test
+    public void readToFile_GzipCompressionOutputStream_SameContentAsWritten() throws IOException {
+        String fileContent = Strings.repeat("some content ", 1000);
+        IS3File s3file = S3FileUtil.getS3FileBuilder()
+                .compression(Compression.GZIP)
+                .build();
+        try (OutputStream outputStream = s3file.openOutputStream()) {
+            outputStream.write(UTF8.getBytes(fileContent));
+        }
+        Path destination = Files.createTempFile("s3file", ".txt");
+        s3file.readToFile(destination);
+        String content = new String(Files.readAllBytes(destination), StandardCharsets.UTF_8);
+        s3file.delete();
+        Files.delete(destination);
+        assertThat(content).isEqualTo(fileContent);
+    }
+
+
+    @Test
+    public void readAsync_WrittenWithWriteAsync_SameContent() {
+        IS3File s3file = S3FileUtil.getS3File();
+        String content = s3file.writeAsync("some content")
+                .thenCompose(IS3File::readAsync)
+                .join()
+                .asString();
+        s3file.delete();
+        assertThat(content).isEqualTo("some content");
+    }
+
+
+    @Test
+    public void readAsync_NonExistingFile_Empty() {
+        String content = S3FileUtil.getS3File().readAsync().join().asString();
+        assertThat(content).isEmpty();
+    }
+
+
+    @Test
+    public void existsAsync_ExistingFile_True() {
+        IS3File s3file = S3FileUtil.getS3File().write("some content");
+        boolean exists = s3file.existsAsync().join();
+        s3file.delete();
+        assertThat(exists).isTrue();
+    }
+
+
+    @Test
+    public void existsAsync_NonExistingFile_False() {
+        boolean exists = S3FileUtil.getS3File().existsAsync().join();
+        assertThat(exists).isFalse();
+    }
+
+
+    @Test
+    public void deleteAsync_ExistingFile_FileShouldNotExist() {
+        boolean exists = S3FileUtil.getS3File()
+                .write("some content")
+                .deleteAsync()
+                .thenCompose(IS3File::existsAsync)
+                .join();
+        assertThat(exists).isFalse();
+    }
+
+
+    @Test
+    public void existsAsync_SyncMethodInCallback_ExceptionInsteadOfDeadlock() {
+        S3File s3File = S3FileUtil.getS3File();
+        assertThatExceptionOfType(CompletionException.class)
+                .isThrownBy(() -> s3File.existsAsync()
+                        .thenApply(exists -> s3File.exists())
+                        .join())
+                .withMessageContaining("Sync S3 operations cannot be done");
+    }
+
+
+    @Test
+    public void existsAsync_SyncMethodInCallbackWithOwnExecutor_NoException() {
+        S3File s3File = S3FileUtil.getS3File();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        boolean exists = s3File.existsAsync()
+                .thenApplyAsync(existsAsync -> s3File.exists(), executor)
+                .join();
+        executor.shutdown();
+        assertThat(exists).isFalse();
+    }
+
+
+    @Test
+    public void write_CrtClient_SameContentRead() {
+        IS3File s3file = S3FileUtil.getS3FileBuilder()
+                .crtSettings(CrtSettings.builder().build())
+                .build()
+                .write("some content");
+        String content = s3file.read().asString();
+        s3file.delete();
+        assertThat(content).isEqualTo("some content");
+    }
+
+
+    @Test
+    public void read_HistogramRecorderSet_ReadRecordedWithBytes() {
+        HistogramRecorder recorder = new HistogramRecorder();
+        Metrics.getInstance().setRecorder(recorder);
+        S3File s3file = S3FileUtil.getS3File();
+        s3file.write("some content");
+        s3file.read();
+        s3file.delete();
+        Metrics.getInstance().removeRecorder();
+        OperationStats readStats = recorder.getStats(Operation.S3_READ, s3file.getBucketName());
+        assertThat(readStats.getCount()).isEqualTo(1);
+        assertThat(readStats.getBytes()).isEqualTo("some content".length());
+        assertThat(recorder.getStats(Operation.S3_WRITE, s3file.getBucketName()).getCount()).isEqualTo(1);
+        assertThat(recorder.getStats(Operation.S3_DELETE, s3file.getBucketName()).getCount()).isEqualTo(1);
+    }
+
+
+    @Test
+    public void readAsync_HistogramRecorderSet_AsyncOperationsRecorded() {
+        HistogramRecorder recorder = new HistogramRecorder();
+        Metrics.getInstance().setRecorder(recorder);
+        S3File s3file = S3FileUtil.getS3File();
+        s3file.write("some content");
+        s3file.readAsync().join();
+        s3file.existsAsync().join();
+        s3file.deleteAsync().join();
+        Metrics.getInstance().removeRecorder();
+        OperationStats readStats = recorder.getStats(Operation.S3_READ, s3file.getBucketName());
+        assertThat(readStats.getCount()).isEqualTo(1);
+        assertThat(readStats.getBytes()).isEqualTo("some content".length());
+        assertThat(recorder.getStats(Operation.S3_EXISTS, s3file.getBucketName()).getCount()).isEqualTo(1);
+        assertThat(recorder.getStats(Operation.S3_DELETE, s3file.getBucketName()).getCount()).isEqualTo(1);
+    }
+
+
+    @Test
+    public void readToFile_HistogramRecorderSet_ReadRecordedWithBytes() throws IOException {
+        HistogramRecorder recorder = new HistogramRecorder();
+        Metrics.getInstance().setRecorder(recorder);
+        S3File s3file = S3FileUtil.getS3File();
+        s3file.write("some content");
+        Path destination = Files.createTempFile("s3file_test", ".txt");
+        s3file.readToFile(destination);
+        s3file.delete();
+        Files.delete(destination);
+        Metrics.getInstance().removeRecorder();
+        OperationStats readStats = recorder.getStats(Operation.S3_READ, s3file.getBucketName());
+        assertThat(readStats.getCount()).isEqualTo(1);
+        assertThat(readStats.getBytes()).isEqualTo("some content".length());
+    }
+}
@@ -5,7 +5,7 @@ import io.schinzel.basicutils.RandomUtil;
 import io.schinzel.basicutils.configvar.ConfigVar;
 
 /**
- * Util class to create S3File instances.
+ * Util class to create S3File and S3Bucket instances.
  * <p>
  * Created by Schinzel on 2018-06-24
  */
@@ -15,14 +15,41 @@ class S3FileUtil {
     private static final String BUCKET_NAME = "schinzel.io";
 
     static S3File getS3File() {
+        return getS3FileBuilder().build();
+    }
+
+
+    /**
+     * @return A builder with credentials, bucket and a random file name set
+     */
+    static S3File.S3FileBuilder getS3FileBuilder() {
         String fileName = RandomUtil.getRandomString(20) + ".txt";
         return S3File.builder()
                 .awsAccessKey(AWS_S3_ACCESS_KEY)
                 .awsSecretKey(AWS_S3_SECRET_KEY)
                 .region(Region.EU_WEST_1)
                 .bucketName(BUCKET_NAME)
-                .fileName(fileName)
-                .build();
+                .fileName(fileName);
+    }
+
+
+    /**
+     * @return A handle to the bucket that the files of this class are written to
+     */
+    static S3Bucket getS3Bucket() {
+        return getS3BucketBuilder().build();
+    }
+
+
+    /**
+     * @return A builder with credentials and the bucket that the files of this class are written to set
+     */
+    static S3Bucket.S3BucketBuilder getS3BucketBuilder() {
+        return S3Bucket.builder()
+                .awsAccessKey(AWS_S3_ACCESS_KEY)
+                .awsSecretKey(AWS_S3_SECRET_KEY)
+                .region(Region.EU_WEST_1)
+                .bucketName(BUCKET_NAME);
     }
 
 }
@@ -0,0 +1,103 @@
+package io.schinzel.awsutils.s3file;
+
+import org.junit.Test;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+
+public class S3MultipartOutputStreamTest {
+
+    /**
+     * A client on which part uploads fail.
+     */
+    private static class FailingPartsClient implements S3AsyncClient {
+        final AtomicInteger mAbortCount = new AtomicInteger();
+
+
+        @Override
+        public CompletableFuture<CreateMultipartUploadResponse> createMultipartUpload(CreateMultipartUploadRequest request) {
+            return CompletableFuture.completedFuture(CreateMultipartUploadResponse.builder().uploadId("upload_id").build());
+        }
+
+
+        @Override
+        public CompletableFuture<UploadPartResponse> uploadPart(UploadPartRequest request, AsyncRequestBody requestBody) {
+            CompletableFuture<UploadPartResponse> future = new CompletableFuture<>();
+            future.completeExceptionally(new RuntimeException("Part upload failed"));
+            return future;
+        }
+
+
+        @Override
+        public CompletableFuture<AbortMultipartUploadResponse> abortMultipartUpload(AbortMultipartUploadRequest request) {
+            mAbortCount.incrementAndGet();
+            return CompletableFuture.completedFuture(AbortMultipartUploadResponse.builder().build());
+        }
+
+
+        @Override
+        public String serviceName() {
+            return "s3";
+        }
+
+
+        @Override
+        public void close() {
+        }
+    }
+
+
+    @Test
+    public void close_PartUploadFailed_CloseListenerRunAndUploadAbortedOnce() {
+        FailingPartsClient client = new FailingPartsClient();
+        AtomicInteger closeListenerCount = new AtomicInteger();
+        S3MultipartOutputStream outputStream = S3MultipartOutputStream.builder()
+                .s3AsyncClient(client)
+                .bucketName("bucket")
+                .fileName("file.txt")
+                .partSize(S3MultipartOutputStream.MIN_PART_SIZE)
+                .maxPartsInFlight(2)
+                .closeListener(closeListenerCount::incrementAndGet)
+                .build();
+        byte[] part = new byte[S3MultipartOutputStream.MIN_PART_SIZE];
+        assertThatExceptionOfType(IOException.class).isThrownBy(() -> {
+            outputStream.write(part);
+            outputStream.write(part);
+        });
+        assertThatExceptionOfType(IOException.class).isThrownBy(outputStream::close);
+        assertThat(closeListenerCount.get()).isEqualTo(1);
+        assertThat(client.mAbortCount.get()).isEqualTo(1);
+    }
+
+
+    @Test
+    public void close_CalledTwice_CloseListenerRunOnce() throws IOException {
+        FailingPartsClient client = new FailingPartsClient();
+        AtomicInteger closeListenerCount = new AtomicInteger();
+        S3MultipartOutputStream outputStream = S3MultipartOutputStream.builder()
+                .s3AsyncClient(client)
+                .bucketName("bucket")
+                .fileName("file.txt")
+                .partSize(S3MultipartOutputStream.MIN_PART_SIZE)
+                .maxPartsInFlight(2)
+                .closeListener(closeListenerCount::incrementAndGet)
+                .build();
+        outputStream.write(new byte[S3MultipartOutputStream.MIN_PART_SIZE]);
+        assertThatExceptionOfType(IOException.class).isThrownBy(outputStream::close);
+        outputStream.close();
+        assertThat(closeListenerCount.get()).isEqualTo(1);
+    }
+}
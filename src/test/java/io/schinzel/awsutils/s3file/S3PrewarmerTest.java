@@ -0,0 +1,54 @@
+package io.schinzel.awsutils.s3file;
+
+import io.schinzel.basicutils.RandomUtil;
+import io.schinzel.basicutils.configvar.ConfigVar;
+import org.junit.Test;
+import software.amazon.awssdk.regions.Region;
+
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+
+public class S3PrewarmerTest {
+    private static final String AWS_S3_ACCESS_KEY = ConfigVar.create(".env").getValue("AWS_S3_ACCESS_KEY");
+    private static final String AWS_S3_SECRET_KEY = ConfigVar.create(".env").getValue("AWS_S3_SECRET_KEY");
+
+
+    @Test
+    public void prewarm_ExistingBucket_NoException() {
+        S3Prewarmer s3Prewarmer = S3Prewarmer.builder()
+                .awsAccessKey(AWS_S3_ACCESS_KEY)
+                .awsSecretKey(AWS_S3_SECRET_KEY)
+                .region(Region.EU_WEST_1)
+                .bucketName("schinzel.io")
+                .connections(8)
+                .build();
+        assertThatCode(s3Prewarmer::prewarm).doesNotThrowAnyException();
+    }
+
+
+    @Test
+    public void prewarm_NonExistingBucket_Exception() {
+        S3Prewarmer s3Prewarmer = S3Prewarmer.builder()
+                .awsAccessKey(AWS_S3_ACCESS_KEY)
+                .awsSecretKey(AWS_S3_SECRET_KEY)
+                .region(Region.EU_WEST_1)
+                .bucketName("non-existing-bucket-" + RandomUtil.getRandomString(10).toLowerCase())
+                .build();
+        assertThatExceptionOfType(RuntimeException.class)
+                .isThrownBy(s3Prewarmer::prewarm)
+                .withMessageContaining("No bucket named");
+    }
+
+
+    @Test
+    public void constructor_NoBucketNames_Exception() {
+        assertThatExceptionOfType(RuntimeException.class).isThrownBy(() ->
+                S3Prewarmer.builder()
+                        .awsAccessKey(AWS_S3_ACCESS_KEY)
+                        .awsSecretKey(AWS_S3_SECRET_KEY)
+                        .region(Region.EU_WEST_1)
+                        .build()
+        );
+    }
+}
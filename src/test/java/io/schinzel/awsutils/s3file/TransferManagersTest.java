@@ -1,6 +1,12 @@
 package io.schinzel.awsutils.s3file;
 
 import org.junit.Test;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -17,4 +23,32 @@ public class TransferManagersTest {
                 .getCacheSize();
         assertThat(cacheSize).isZero();
     }
-}
\ No newline at end of file
+
+
+    @Test
+    public void getS3AsyncClient_ConcurrentColdStart_SameClient() {
+        TransferManagers.getInstance().closeClients();
+        List<CompletableFuture<S3AsyncClient>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(CompletableFuture.supplyAsync(() -> TransferManagers.getInstance()
+                    .getS3AsyncClient("test-access-key", "test-secret-key", Region.EU_WEST_1)));
+        }
+        S3AsyncClient first = futures.get(0).join();
+        for (CompletableFuture<S3AsyncClient> future : futures) {
+            assertThat(future.join()).isSameAs(first);
+        }
+        assertThat(TransferManagers.getInstance().getCacheSize()).isEqualTo(1);
+        TransferManagers.getInstance().closeClients();
+    }
+
+
+    @Test
+    public void getS3Clients_SameKey_TransferManagerOnSameAsyncClient() {
+        S3Clients s3Clients = TransferManagers.getInstance()
+                .getS3Clients("test-access-key", "test-secret-key", Region.EU_WEST_1, null, null, this);
+        assertThat(TransferManagers.getInstance().getTransferManager("test-access-key", "test-secret-key", Region.EU_WEST_1))
+                .isSameAs(s3Clients.getTransferManager());
+        assertThat(TransferManagers.getInstance().getS3AsyncClient("test-access-key", "test-secret-key", Region.EU_WEST_1))
+                .isSameAs(s3Clients.getS3AsyncClient());
+    }
+}
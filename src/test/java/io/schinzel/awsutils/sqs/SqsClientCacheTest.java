@@ -1,5 +1,6 @@
 package io.schinzel.awsutils.sqs;
 
+import io.schinzel.awsutils.httpclient.HttpClientSettings;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.sqs.SqsClient;
 import org.junit.After;
@@ -182,4 +183,16 @@ public class SqsClientCacheTest {
         assertThat(SqsClientCache.getSingleton().getCacheSize()).isEqualTo(1);
     }
 
-}
\ No newline at end of file
+
+    @Test
+    public void getSqsClient_DifferentHttpClientSettings_CacheSizeTwo() {
+        HttpClientSettings settings1 = HttpClientSettings.builder().maxConnections(200).build();
+        HttpClientSettings settings2 = HttpClientSettings.builder().maxConnections(500).build();
+        SqsClientCache.getSingleton()
+                .getSqsClient(PropertiesUtil.AWS_SQS_ACCESS_KEY, PropertiesUtil.AWS_SQS_SECRET_KEY, Region.EU_WEST_1, settings1);
+        SqsClientCache.getSingleton()
+                .getSqsClient(PropertiesUtil.AWS_SQS_ACCESS_KEY, PropertiesUtil.AWS_SQS_SECRET_KEY, Region.EU_WEST_1, settings2);
+        assertThat(SqsClientCache.getSingleton().getCacheSize()).isEqualTo(2);
+    }
+
+}
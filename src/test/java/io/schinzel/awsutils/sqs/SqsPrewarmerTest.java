@@ -0,0 +1,47 @@
+package io.schinzel.awsutils.sqs;
+
+import org.junit.After;
+import org.junit.Test;
+import software.amazon.awssdk.regions.Region;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+
+public class SqsPrewarmerTest {
+    private final QueueUtil mQueue = new QueueUtil(SqsPrewarmerTest.class);
+
+
+    @After
+    public void after() {
+        mQueue.deleteQueue();
+        QueueUrlCache.getSingleton().clearCache();
+    }
+
+
+    @Test
+    public void prewarm_ExistingQueue_QueueUrlCached() {
+        SqsPrewarmer.builder()
+                .awsAccessKey(PropertiesUtil.AWS_SQS_ACCESS_KEY)
+                .awsSecretKey(PropertiesUtil.AWS_SQS_SECRET_KEY)
+                .region(Region.EU_WEST_1)
+                .queueName(mQueue.getQueueName())
+                .connections(8)
+                .build()
+                .prewarm();
+        assertThat(QueueUrlCache.getSingleton().getCacheSize()).isEqualTo(1);
+        assertThat(SqsClientCache.getSingleton().getCacheSize()).isEqualTo(1);
+    }
+
+
+    @Test
+    public void constructor_NoQueueNames_Exception() {
+        assertThatExceptionOfType(RuntimeException.class).isThrownBy(() ->
+                SqsPrewarmer.builder()
+                        .awsAccessKey(PropertiesUtil.AWS_SQS_ACCESS_KEY)
+                        .awsSecretKey(PropertiesUtil.AWS_SQS_SECRET_KEY)
+                        .region(Region.EU_WEST_1)
+                        .build()
+        );
+    }
+}
@@ -1,6 +1,7 @@
 package io.schinzel.awsutils.sqs;
 
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
 import org.junit.After;
 import org.junit.Test;
 
@@ -53,6 +54,23 @@ public class SqsProducerTest {
         }
     }
 
+
+    @Test
+    public void createSendMessageRequest_GuaranteedOrder_SameGroupId() {
+        SendMessageRequest request1 = SqsProducer.createSendMessageRequest("url", "hi", true);
+        SendMessageRequest request2 = SqsProducer.createSendMessageRequest("url", "hi", true);
+        assertThat(request1.messageGroupId()).isEqualTo(request2.messageGroupId());
+        assertThat(request1.messageDeduplicationId()).isNotEqualTo(request2.messageDeduplicationId());
+    }
+
+
+    @Test
+    public void createSendMessageRequest_NotGuaranteedOrder_DifferentGroupIds() {
+        SendMessageRequest request1 = SqsProducer.createSendMessageRequest("url", "hi", false);
+        SendMessageRequest request2 = SqsProducer.createSendMessageRequest("url", "hi", false);
+        assertThat(request1.messageGroupId()).isNotEqualTo(request2.messageGroupId());
+    }
+
     /**
      * PropertiesUtil.AWS_SQS_ACCESS_KEY, PropertiesUtil.AWS_SQS_SECRET_KEY
      */